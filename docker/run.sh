@@ -22,7 +22,7 @@ if [ ! -z "$@" ]; then
 fi
 
 FLYWAY_OPTS="$FLYWAY_OPTS -locations=filesystem:/flyway/sql,classpath:eu/humanbrainproject/mip/migrations -jarDirs=/flyway/jars"
-FLYWAY_OPTS="$FLYWAY_OPTS -callbacks=eu.humanbrainproject.mip.migrations.GenerateTablesCallback"
+FLYWAY_OPTS="$FLYWAY_OPTS -callbacks=eu.humanbrainproject.mip.migrations.GenerateTablesCallback,eu.humanbrainproject.mip.migrations.PostLoadCallback"
 
 [ -f /env.sh ] && source /env.sh
 
@@ -0,0 +1,122 @@
+package eu.humanbrainproject.mip.migrations;
+
+import eu.humanbrainproject.mip.migrations.datapackage.Field;
+
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.LocalTime;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Generates the shapes of data used by the benchmarks: the fields of a table and the rows of its CSV file.
+ *
+ * The first column is always the integer primary key "id". With the "numeric" mix, 3 columns out of 4 are numbers
+ * and the others are strings, the "string" mix is the opposite. The "temporal" mix cycles through date, datetime, time
+ * and number columns. One value out of 10 is empty in optional columns.
+ */
+public final class BenchmarkData {
+
+    public static final String PRIMARY_KEY = "id";
+
+    private final List<Field> fields = new ArrayList<>();
+    private final String[] header;
+    private final Random random = new Random(42);
+
+    public BenchmarkData(int columns, String mix) {
+        if (!"numeric".equals(mix) && !"string".equals(mix) && !"temporal".equals(mix)) {
+            throw new IllegalArgumentException("Unknown mix of types " + mix);
+        }
+        header = new String[columns];
+        for (int i = 0; i < columns; i++) {
+            final Field field = new Field();
+            if (i == 0) {
+                field.setName(PRIMARY_KEY);
+                field.setType("integer");
+                field.getConstraints().setRequired(true);
+            } else if ("temporal".equals(mix)) {
+                final String[] types = {"number", "date", "datetime", "time"};
+                field.setName(types[i % 4] + "_" + i);
+                field.setType(types[i % 4]);
+            } else {
+                final boolean numeric = (i % 4 != 0) == "numeric".equals(mix);
+                field.setName((numeric ? "num_" : "str_") + i);
+                field.setType(i % 8 == 1 ? "integer" : numeric ? "number" : "string");
+                if (i % 8 == 5) {
+                    field.setType("varchar");
+                    field.setSqlType("varchar(64)");
+                }
+            }
+            fields.add(field);
+            header[i] = field.getName();
+        }
+    }
+
+    public List<Field> getFields() {
+        return fields;
+    }
+
+    public String[] getHeader() {
+        return header;
+    }
+
+    /**
+     * @return the CSV values of a row, with an empty string for null values
+     */
+    public String[] row(int id) {
+        final String[] values = new String[fields.size()];
+        values[0] = Integer.toString(id);
+        for (int i = 1; i < values.length; i++) {
+            if (!fields.get(i).getConstraints().isRequired() && random.nextInt(10) == 0) {
+                values[i] = "";
+                continue;
+            }
+            switch (fields.get(i).getSqlTypeShort()) {
+                case "int":
+                    values[i] = Integer.toString(random.nextInt(100000));
+                    break;
+                case "numeric":
+                    values[i] = Double.toString(random.nextDouble() * 1000);
+                    break;
+                case "date":
+                    values[i] = LocalDate.ofEpochDay(random.nextInt(30000)).toString();
+                    break;
+                case "timestamp":
+                    values[i] = LocalDateTime.ofEpochSecond(random.nextInt(1000000000), random.nextInt(1000000) * 1000,
+                            ZoneOffset.UTC).toString();
+                    break;
+                case "time":
+                    values[i] = LocalTime.ofSecondOfDay(random.nextInt(86400)).toString();
+                    break;
+                default:
+                    values[i] = "value \"" + random.nextInt(1000) + "\", with quotes";
+            }
+        }
+        return values;
+    }
+
+    /**
+     * @return a CSV file with a header and some rows
+     */
+    public String csv(int rows) {
+        final StringBuilder csv = new StringBuilder(String.join(",", header)).append('\n');
+        for (int r = 0; r < rows; r++) {
+            final String[] values = row(r);
+            for (int i = 0; i < values.length; i++) {
+                if (i > 0) {
+                    csv.append(',');
+                }
+                final String v = values[i];
+                if (v.indexOf('"') >= 0 || v.indexOf(',') >= 0) {
+                    csv.append('"').append(v.replace("\"", "\"\"")).append('"');
+                } else {
+                    csv.append(v);
+                }
+            }
+            csv.append('\n');
+        }
+        return csv.toString();
+    }
+}
@@ -0,0 +1,82 @@
+package eu.humanbrainproject.mip.migrations;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32;
+
+/**
+ * Time taken to compute the checksum of a data file, as done by the repeatable migrations: memory-mapped reads,
+ * buffered stream reads, and a lookup in the checksum cache.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ChecksumBenchmark {
+
+    @Param({"1", "64"})
+    private int megabytes;
+
+    private File file;
+
+    @Setup
+    public void setup() throws IOException {
+        file = File.createTempFile("checksum-benchmark", ".csv");
+        final byte[] block = new byte[1024 * 1024];
+        new Random(42).nextBytes(block);
+        try (OutputStream out = new FileOutputStream(file)) {
+            for (int i = 0; i < megabytes; i++) {
+                out.write(block);
+            }
+        }
+    }
+
+    @TearDown
+    public void tearDown() {
+        if (!file.delete()) {
+            file.deleteOnExit();
+        }
+    }
+
+    @Benchmark
+    public long mappedFile() throws IOException {
+        final CRC32 crc32 = new CRC32();
+        ChecksumCache.update(crc32, file);
+        return crc32.getValue();
+    }
+
+    @Benchmark
+    public long stream() throws IOException {
+        final CRC32 crc32 = new CRC32();
+        try (InputStream in = new FileInputStream(file)) {
+            ChecksumCache.update(crc32, in);
+        }
+        return crc32.getValue();
+    }
+
+    @Benchmark
+    public int cached() throws IOException {
+        return ChecksumCache.getInstance().checksum("benchmark", file);
+    }
+}
@@ -0,0 +1,325 @@
+package eu.humanbrainproject.mip.migrations;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.SplittableRandom;
+
+/**
+ * Generates a synthetic data package: a datapackage.json descriptor and the matching CSV files, of any size.
+ *
+ * Usage: java -cp target/benchmarks.jar eu.humanbrainproject.mip.migrations.DataPackageGenerator [options]
+ *
+ * <pre>
+ *   --output DIR          directory receiving datapackage.json and the CSV files (default: current directory)
+ *   --name NAME           name of the resource and of the table (default: synthetic)
+ *   --rows N              number of rows, shared by the resources (default: 100000)
+ *   --resources N         number of resources, each loaded into its own table NAME_1, NAME_2... (default: 1)
+ *   --columns N           number of columns, including the primary key (default: 50)
+ *   --types SPEC          weights of the types of the columns (default: integer:20,number:50,string:30)
+ *   --null-ratio R        ratio of empty values in the columns other than the primary key (default: 0.1)
+ *   --keys DISTRIBUTION   sequential, shuffled or string primary keys (default: sequential)
+ *   --seed N              seed of the random values (default: 42)
+ * </pre>
+ *
+ * The CSV files are written as a stream, so that files of any size can be generated with little memory. The same
+ * options and seed always generate the same files.
+ */
+public final class DataPackageGenerator {
+
+    private static final String PRIMARY_KEY = "id";
+    private static final char[] LETTERS = "abcdefghijklmnopqrstuvwxyz".toCharArray();
+    private static final int BUFFER_SIZE = 1024 * 1024;
+
+    private File output = new File(".");
+    private String name = "synthetic";
+    private long rows = 100000;
+    private int resources = 1;
+    private int columns = 50;
+    private String types = "integer:20,number:50,string:30";
+    private double nullRatio = 0.1;
+    private String keys = "sequential";
+    private long seed = 42;
+
+    public static void main(String[] args) throws IOException {
+        final DataPackageGenerator generator = new DataPackageGenerator();
+        for (int i = 0; i < args.length; i++) {
+            final String option = args[i];
+            if (i + 1 >= args.length) {
+                throw new IllegalArgumentException("Missing value for option " + option);
+            }
+            final String value = args[++i];
+            switch (option) {
+                case "--output":
+                    generator.output = new File(value);
+                    break;
+                case "--name":
+                    generator.name = value;
+                    break;
+                case "--rows":
+                    generator.rows = Long.parseLong(value);
+                    break;
+                case "--resources":
+                    generator.resources = Integer.parseInt(value);
+                    break;
+                case "--columns":
+                    generator.columns = Integer.parseInt(value);
+                    break;
+                case "--types":
+                    generator.types = value;
+                    break;
+                case "--null-ratio":
+                    generator.nullRatio = Double.parseDouble(value);
+                    break;
+                case "--keys":
+                    generator.keys = value;
+                    break;
+                case "--seed":
+                    generator.seed = Long.parseLong(value);
+                    break;
+                default:
+                    throw new IllegalArgumentException("Unknown option " + option);
+            }
+        }
+        generator.generate();
+    }
+
+    private void generate() throws IOException {
+        if (columns < 1) {
+            throw new IllegalArgumentException("At least one column is required");
+        }
+        if (resources < 1) {
+            throw new IllegalArgumentException("At least one resource is required");
+        }
+        if (!"sequential".equals(keys) && !"shuffled".equals(keys) && !"string".equals(keys)) {
+            throw new IllegalArgumentException("Unknown distribution of keys " + keys);
+        }
+        if (!output.isDirectory() && !output.mkdirs()) {
+            throw new IOException("Cannot create directory " + output);
+        }
+        final SplittableRandom random = new SplittableRandom(seed);
+        final List<String> columnTypes = getColumnTypes(random);
+        final List<Map<String, Object>> descriptors = new ArrayList<>(resources);
+
+        for (int r = 0; r < resources; r++) {
+            final String resourceName = resources == 1 ? name : name + "_" + (r + 1);
+            final long resourceRows = rows / resources + (r < rows % resources ? 1 : 0);
+            final File csvFile = new File(output, resourceName + ".csv");
+
+            final long start = System.nanoTime();
+            descriptors.add(resource(resourceName, csvFile, columnTypes));
+            writeCsv(csvFile, resourceRows, columnTypes, random);
+            System.out.printf("Generated %d rows of %d columns in %s in %.1fs (%d MB)%n", resourceRows, columns, csvFile,
+                    (System.nanoTime() - start) / 1e9, csvFile.length() / (1024 * 1024));
+        }
+        writeDescriptor(descriptors);
+    }
+
+    /**
+     * @return the type of each column, the primary key first
+     */
+    private List<String> getColumnTypes(SplittableRandom random) {
+        final Map<String, Integer> weights = new LinkedHashMap<>();
+        int totalWeight = 0;
+        for (String spec : types.split(",")) {
+            final String[] typeAndWeight = spec.trim().split(":");
+            final String type = typeAndWeight[0].trim();
+            if (!"integer".equals(type) && !"number".equals(type) && !"string".equals(type)) {
+                throw new IllegalArgumentException("Unsupported type " + type + ", use integer, number or string");
+            }
+            final int weight = typeAndWeight.length > 1 ? Integer.parseInt(typeAndWeight[1].trim()) : 1;
+            weights.put(type, weight);
+            totalWeight += weight;
+        }
+        if (totalWeight <= 0) {
+            throw new IllegalArgumentException("Invalid weights of types " + types);
+        }
+
+        // Distribute the columns according to the weights, then shuffle their order
+        final List<String> otherTypes = new ArrayList<>(columns);
+        int assignedWeight = 0;
+        for (Map.Entry<String, Integer> entry : weights.entrySet()) {
+            final int from = (int) Math.round((double) assignedWeight * (columns - 1) / totalWeight);
+            assignedWeight += entry.getValue();
+            final int to = (int) Math.round((double) assignedWeight * (columns - 1) / totalWeight);
+            for (int i = from; i < to; i++) {
+                otherTypes.add(entry.getKey());
+            }
+        }
+        for (int i = otherTypes.size() - 1; i > 0; i--) {
+            Collections.swap(otherTypes, i, random.nextInt(i + 1));
+        }
+
+        final List<String> columnTypes = new ArrayList<>(columns);
+        columnTypes.add("string".equals(keys) ? "string" : "integer");
+        columnTypes.addAll(otherTypes);
+        return columnTypes;
+    }
+
+    private static String columnName(int column, String type) {
+        return column == 0 ? PRIMARY_KEY : type.substring(0, 3) + "_" + column;
+    }
+
+    private Map<String, Object> resource(String resourceName, File csvFile, List<String> columnTypes) throws IOException {
+        final List<Map<String, Object>> fields = new ArrayList<>(columns);
+        for (int c = 0; c < columns; c++) {
+            final Map<String, Object> field = new LinkedHashMap<>();
+            field.put("name", columnName(c, columnTypes.get(c)));
+            field.put("type", columnTypes.get(c));
+            field.put("format", "default");
+            if (c == 0) {
+                final Map<String, Object> constraints = new LinkedHashMap<>();
+                constraints.put("required", true);
+                constraints.put("unique", true);
+                field.put("constraints", constraints);
+            }
+            fields.add(field);
+        }
+
+        final Map<String, Object> schema = new LinkedHashMap<>();
+        schema.put("tableName", resourceName);
+        schema.put("primaryKey", PRIMARY_KEY);
+        schema.put("fields", fields);
+
+        // Relative paths are resolved from /data, use an absolute path anywhere else
+        final boolean inDataFolder = "/data".equals(output.getCanonicalPath());
+        final Map<String, Object> resource = new LinkedHashMap<>();
+        resource.put("name", resourceName);
+        resource.put("path", inDataFolder ? csvFile.getName() : csvFile.getCanonicalPath());
+        resource.put("profile", "tabular-data-resource");
+        resource.put("format", "csv");
+        resource.put("mediatype", "text/csv");
+        resource.put("encoding", "utf-8");
+        resource.put("schema", schema);
+        return resource;
+    }
+
+    private void writeDescriptor(List<Map<String, Object>> resources) throws IOException {
+        final Map<String, Object> descriptor = new LinkedHashMap<>();
+        descriptor.put("name", name);
+        descriptor.put("profile", "tabular-data-package");
+        descriptor.put("resources", resources);
+
+        new ObjectMapper().enable(SerializationFeature.INDENT_OUTPUT)
+                .writeValue(new File(output, "datapackage.json"), descriptor);
+    }
+
+    private void writeCsv(File csvFile, long rows, List<String> columnTypes, SplittableRandom random) throws IOException {
+        final long shuffleStep = coprimeStep(rows);
+        final StringBuilder line = new StringBuilder(columns * 12);
+        try (Writer out = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(csvFile), StandardCharsets.UTF_8), BUFFER_SIZE)) {
+            for (int c = 0; c < columns; c++) {
+                if (c > 0) {
+                    line.append(',');
+                }
+                line.append(columnName(c, columnTypes.get(c)));
+            }
+            out.append(line).append('\n');
+
+            for (long row = 0; row < rows; row++) {
+                line.setLength(0);
+                appendKey(line, row, rows, shuffleStep);
+                for (int c = 1; c < columns; c++) {
+                    line.append(',');
+                    if (random.nextDouble() < nullRatio) {
+                        continue;
+                    }
+                    switch (columnTypes.get(c)) {
+                        case "integer":
+                            line.append(random.nextInt(1000000));
+                            break;
+                        case "number":
+                            appendNumber(line, random.nextInt(100000000));
+                            break;
+                        default:
+                            appendString(line, random);
+                    }
+                }
+                out.append(line).append('\n');
+            }
+        }
+    }
+
+    private void appendKey(StringBuilder line, long row, long rows, long shuffleStep) {
+        switch (keys) {
+            case "shuffled":
+                // Multiplying by a step coprime with the number of rows is a permutation of the rows
+                line.append(Math.floorMod(row * shuffleStep, rows) + 1);
+                break;
+            case "string":
+                line.append('k').append(Long.toHexString(mix(row)));
+                break;
+            default:
+                line.append(row + 1);
+        }
+    }
+
+    /**
+     * @return a step coprime with the number of rows, close to the golden ratio of the number of rows
+     */
+    private static long coprimeStep(long rows) {
+        long step = Math.max(1, (long) (rows * 0.6180339887));
+        while (gcd(step, rows) != 1) {
+            step++;
+        }
+        return step;
+    }
+
+    private static long gcd(long a, long b) {
+        return b == 0 ? a : gcd(b, a % b);
+    }
+
+    /**
+     * Bijective mix of a 64-bit value (finalizer of SplitMix64), so that string keys are unique.
+     */
+    private static long mix(long value) {
+        long z = value + 0x9e3779b97f4a7c15L;
+        z = (z ^ (z >>> 30)) * 0xbf58476d1ce4e5b9L;
+        z = (z ^ (z >>> 27)) * 0x94d049bb133111ebL;
+        return z ^ (z >>> 31);
+    }
+
+    /**
+     * Appends a number with 3 decimals.
+     */
+    private static void appendNumber(StringBuilder line, int thousandths) {
+        line.append(thousandths / 1000).append('.');
+        final int decimals = thousandths % 1000;
+        if (decimals < 100) {
+            line.append('0');
+        }
+        if (decimals < 10) {
+            line.append('0');
+        }
+        line.append(decimals);
+    }
+
+    /**
+     * Appends a random word, quoted with a comma in 1% of the values to exercise the CSV quoting.
+     */
+    private static void appendString(StringBuilder line, SplittableRandom random) {
+        final int length = 4 + random.nextInt(16);
+        final boolean quoted = random.nextInt(100) == 0;
+        if (quoted) {
+            line.append('"');
+        }
+        for (int i = 0; i < length; i++) {
+            line.append(LETTERS[random.nextInt(LETTERS.length)]);
+        }
+        if (quoted) {
+            line.append(", \"\"quoted\"\"\"");
+        }
+    }
+}
@@ -0,0 +1,213 @@
+package eu.humanbrainproject.mip.migrations;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import org.flywaydb.core.Flyway;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.time.Instant;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Runs the real migrations against a PostgreSQL database and reports the load time, the peak heap usage and the
+ * size of the database.
+ *
+ * The migrations are configured as in the Docker image, with the environment variables of this process: DATAPACKAGE
+ * must point to the data package to load, and all other variables (LOAD_MODE, LOAD_THREADS, PARSE_THREADS...)
+ * apply. Usage: java -cp target/benchmarks.jar eu.humanbrainproject.mip.migrations.LoadBenchmarkRunner [options]
+ *
+ * <pre>
+ *   --url URL          JDBC URL of the database (default: jdbc:postgresql://localhost:5432/data)
+ *   --user USER        database user (default: data)
+ *   --password PWD     database password (default: data)
+ *   --report FILE      JSON file receiving the results (default: print the results only)
+ *   --clean            drop all objects of the database before the load, requires --url
+ * </pre>
+ *
+ * Cleaning the database measures a load from scratch, but drops everything it contains: it is only done with --clean,
+ * on a database given explicitly with --url, use a dedicated database.
+ */
+public final class LoadBenchmarkRunner {
+
+    private static final long HEAP_SAMPLING_MILLIS = 20;
+    private static final double NANOS_PER_SECOND = 1e9;
+    private static final double MB = 1024 * 1024;
+
+    private String url = "jdbc:postgresql://localhost:5432/data";
+    private String user = "data";
+    private String password = "data";
+    private File report;
+    private boolean urlDefined = false;
+    private boolean clean = false;
+
+    public static void main(String[] args) throws Exception {
+        final LoadBenchmarkRunner runner = new LoadBenchmarkRunner();
+        for (int i = 0; i < args.length; i++) {
+            final String option = args[i];
+            if ("--clean".equals(option)) {
+                runner.clean = true;
+                continue;
+            }
+            if (i + 1 >= args.length) {
+                throw new IllegalArgumentException("Missing value for option " + option);
+            }
+            final String value = args[++i];
+            switch (option) {
+                case "--url":
+                    runner.url = value;
+                    runner.urlDefined = true;
+                    break;
+                case "--user":
+                    runner.user = value;
+                    break;
+                case "--password":
+                    runner.password = value;
+                    break;
+                case "--report":
+                    runner.report = new File(value);
+                    break;
+                default:
+                    throw new IllegalArgumentException("Unknown option " + option);
+            }
+        }
+        if (runner.clean && !runner.urlDefined) {
+            throw new IllegalArgumentException("Option --clean drops all objects of the database, give its --url explicitly");
+        }
+        runner.run();
+    }
+
+    private void run() throws SQLException, IOException, InterruptedException {
+        if (System.getenv("DATAPACKAGE") == null || "".equals(System.getenv("DATAPACKAGE").trim())) {
+            throw new IllegalStateException("Set the DATAPACKAGE environment variable to the data package to load");
+        }
+        final String[] datasets = new MigrationConfiguration(LoadBenchmarkRunner.class).getDatasets();
+
+        final Flyway flyway = Flyway.configure()
+                .dataSource(url, user, password)
+                .locations("classpath:eu/humanbrainproject/mip/migrations")
+                .callbacks(new GenerateTablesCallback(), new PostLoadCallback())
+                .load();
+        if (clean) {
+            flyway.clean();
+        }
+
+        final HeapSampler heapSampler = new HeapSampler();
+        final Instant startTime = Instant.now();
+        final long start = System.nanoTime();
+        heapSampler.start();
+        try {
+            flyway.migrate();
+        } finally {
+            heapSampler.interrupt();
+            heapSampler.join();
+        }
+        final double seconds = (System.nanoTime() - start) / NANOS_PER_SECOND;
+
+        final Map<String, Object> results = new LinkedHashMap<>();
+        results.put("startTime", startTime.toString());
+        results.put("datapackage", System.getenv("DATAPACKAGE"));
+        results.put("loadSeconds", seconds);
+        results.put("peakHeapBytes", heapSampler.getPeak());
+        results.put("maxHeapBytes", Runtime.getRuntime().maxMemory());
+
+        long rows = 0;
+        final Map<String, Object> datasetResults = new LinkedHashMap<>();
+        try (Connection connection = DriverManager.getConnection(url, user, password)) {
+            results.put("databaseBytes", databaseSize(connection));
+            for (String dataset : datasets) {
+                final LoadMetrics.Scope metrics = LoadMetrics.getInstance().dataset(dataset);
+                rows += metrics.getRows();
+                final Map<String, Object> datasetResult = new LinkedHashMap<>();
+                datasetResult.put("rows", metrics.getRows());
+                datasetResult.put("fileBytes", metrics.getBytes());
+                datasetResult.put("loadSeconds", metrics.getSeconds(LoadMetrics.Phase.TOTAL));
+                datasetResult.put("rowsPerSecond", metrics.getRowsPerSecond());
+                datasetResult.put("summary", metrics.summary());
+                datasetResults.put(dataset, datasetResult);
+            }
+            results.put("tableBytes", tableSizes(connection));
+        }
+        results.put("rows", rows);
+        results.put("rowsPerSecond", seconds > 0 ? rows / seconds : 0);
+        results.put("datasets", datasetResults);
+
+        System.out.printf(Locale.ROOT, "Loaded %d rows in %.1fs (%.0f rows/s), peak heap %.0f MB, database %.0f MB%n",
+                rows, seconds, seconds > 0 ? rows / seconds : 0, heapSampler.getPeak() / MB,
+                ((Long) results.get("databaseBytes")) / MB);
+        if (report != null) {
+            new ObjectMapper().enable(SerializationFeature.INDENT_OUTPUT).writeValue(report, results);
+            System.out.println("Results written to " + report);
+        }
+    }
+
+    private static long databaseSize(Connection connection) throws SQLException {
+        try (Statement statement = connection.createStatement();
+             ResultSet rs = statement.executeQuery("SELECT pg_database_size(current_database())")) {
+            rs.next();
+            return rs.getLong(1);
+        }
+    }
+
+    /**
+     * @return the size of each table of the current schema, including indexes and TOAST data
+     */
+    private static Map<String, Long> tableSizes(Connection connection) throws SQLException {
+        final Map<String, Long> sizes = new LinkedHashMap<>();
+        try (PreparedStatement statement = connection.prepareStatement("SELECT c.relname, pg_total_relation_size(c.oid) " +
+                "FROM pg_class c JOIN pg_namespace n ON n.oid = c.relnamespace " +
+                "WHERE c.relkind = 'r' AND n.nspname = current_schema() ORDER BY 2 DESC");
+             ResultSet rs = statement.executeQuery()) {
+            while (rs.next()) {
+                sizes.put(rs.getString(1), rs.getLong(2));
+            }
+        }
+        return sizes;
+    }
+
+    /**
+     * Samples the used heap, as the peak usages of the memory pools are not reached at the same time.
+     */
+    private static final class HeapSampler extends Thread {
+
+        private final MemoryMXBean memory = ManagementFactory.getMemoryMXBean();
+        private final AtomicLong peak = new AtomicLong();
+
+        HeapSampler() {
+            super("heap-sampler");
+            setDaemon(true);
+        }
+
+        @Override
+        public void run() {
+            try {
+                while (!isInterrupted()) {
+                    sample();
+                    Thread.sleep(HEAP_SAMPLING_MILLIS);
+                }
+            } catch (InterruptedException e) {
+                // Load complete
+            }
+            sample();
+        }
+
+        private void sample() {
+            peak.accumulateAndGet(memory.getHeapMemoryUsage().getUsed(), Math::max);
+        }
+
+        long getPeak() {
+            return peak.get();
+        }
+    }
+}
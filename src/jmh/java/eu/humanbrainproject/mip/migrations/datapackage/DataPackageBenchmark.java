@@ -0,0 +1,101 @@
+package eu.humanbrainproject.mip.migrations.datapackage;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import eu.humanbrainproject.mip.migrations.BenchmarkData;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Time taken to load a large data package descriptor with several resources, and to look up all its resources by name.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class DataPackageBenchmark {
+
+    @Param({"10", "100"})
+    private int resources;
+
+    @Param({"10", "1000"})
+    private int columns;
+
+    private File file;
+    private DataPackage dataPackage;
+
+    @Setup
+    public void setup() throws IOException {
+        final List<Map<String, Object>> resourceList = new ArrayList<>();
+        for (int r = 0; r < resources; r++) {
+            final List<Map<String, Object>> fields = new ArrayList<>();
+            for (Field field : new BenchmarkData(columns, r % 2 == 0 ? "numeric" : "string").getFields()) {
+                final Map<String, Object> json = new LinkedHashMap<>();
+                json.put("name", field.getName());
+                json.put("type", field.getType());
+                json.put("format", "default");
+                json.put("description", "Description of " + field.getName());
+                json.put("constraints", field.getConstraints());
+                fields.add(json);
+            }
+            final Map<String, Object> schema = new LinkedHashMap<>();
+            schema.put("tableName", "table_" + r);
+            schema.put("primaryKey", BenchmarkData.PRIMARY_KEY);
+            schema.put("fields", fields);
+
+            final Map<String, Object> resource = new LinkedHashMap<>();
+            resource.put("name", "dataset_" + r);
+            resource.put("path", "dataset_" + r + ".csv");
+            resource.put("profile", "tabular-data-resource");
+            resource.put("schema", schema);
+            resourceList.add(resource);
+        }
+        final Map<String, Object> descriptor = new LinkedHashMap<>();
+        descriptor.put("name", "benchmark");
+        descriptor.put("profile", "tabular-data-package");
+        descriptor.put("resources", resourceList);
+
+        file = File.createTempFile("datapackage-benchmark", ".json");
+        new ObjectMapper().writeValue(file, descriptor);
+        dataPackage = DataPackage.load(file.getPath());
+    }
+
+    @TearDown
+    public void tearDown() {
+        if (!file.delete()) {
+            file.deleteOnExit();
+        }
+    }
+
+    @Benchmark
+    public DataPackage load() {
+        return DataPackage.load(file.getPath());
+    }
+
+    @Benchmark
+    public void getResource(Blackhole blackhole) {
+        for (int r = 0; r < resources; r++) {
+            blackhole.consume(dataPackage.getResource("dataset_" + r));
+        }
+    }
+}
@@ -0,0 +1,52 @@
+package eu.humanbrainproject.mip.migrations.datapackage;
+
+import eu.humanbrainproject.mip.migrations.BenchmarkData;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Time taken to resolve the JDBC type code of a field.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class FieldBenchmark {
+
+    private static final int FIELDS = 1000;
+
+    @Param({"numeric", "string"})
+    private String mix;
+
+    private List<Field> fields;
+
+    @Setup
+    public void setup() {
+        fields = new BenchmarkData(FIELDS, mix).getFields();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(FIELDS)
+    public int getSqlTypeCode() {
+        int sum = 0;
+        for (Field field : fields) {
+            sum += field.getSqlTypeCode();
+        }
+        return sum;
+    }
+}
@@ -0,0 +1,135 @@
+package eu.humanbrainproject.mip.migrations.values;
+
+import eu.humanbrainproject.mip.migrations.BenchmarkData;
+import eu.humanbrainproject.mip.migrations.LoadMetrics;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.postgresql.copy.CopyIn;
+import org.supercsv.cellprocessor.ift.CellProcessor;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.lang.reflect.Proxy;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Types;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Throughput of the per-row binding loop of the load plans, and of the encoding of the rows for binary COPY, in rows
+ * per second, from rows of boxed values and from a {@link ColumnBatch}.
+ *
+ * Values are bound to a statement which ignores them, and encoded rows are sent to a COPY which ignores them, so
+ * that only the cost of the binders and encoders is measured.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class BindBenchmark {
+
+    private static final int ROWS = 100;
+
+    @Param({"10", "1000"})
+    private int columns;
+
+    @Param({"numeric", "string"})
+    private String mix;
+
+    private LoadPlan plan;
+    private PreparedStatement statement;
+    private BinaryCopyBuffer copyBuffer;
+    private BinaryCopyWriter.ColumnEncoder[] encoders;
+    private final List<List<Object>> rows = new ArrayList<>(ROWS);
+    private ColumnBatch batch;
+
+    @Setup
+    public void setup() throws IOException, SQLException {
+        final BenchmarkData data = new BenchmarkData(columns, mix);
+        plan = LoadPlan.compile("benchmark", data.getHeader(), data.getFields(), LoadMetrics.getInstance().dataset("benchmark"));
+        statement = (PreparedStatement) Proxy.newProxyInstance(getClass().getClassLoader(),
+                new Class<?>[] {PreparedStatement.class}, (proxy, method, args) -> null);
+        final CopyIn copyIn = (CopyIn) Proxy.newProxyInstance(getClass().getClassLoader(),
+                new Class<?>[] {CopyIn.class}, (proxy, method, args) -> null);
+        copyBuffer = new BinaryCopyBuffer(copyIn, 65536);
+        encoders = new BinaryCopyWriter.ColumnEncoder[plan.getColumnCount()];
+        for (int i = 0; i < encoders.length; i++) {
+            final int sqlTypeCode = plan.getBinder(i).getSqlTypeCode();
+            final String columnType = sqlTypeCode == Types.INTEGER ? "int4" : sqlTypeCode == Types.NUMERIC ? "numeric" : "text";
+            encoders[i] = BinaryCopyWriter.createEncoder(plan.getHeader()[i], columnType, sqlTypeCode);
+        }
+
+        try (DatasetReader reader = new CsvDatasetReader(new StringReader(data.csv(ROWS)), LoadMetrics.getInstance().dataset("benchmark"))) {
+            final CellProcessor[] processors = new R__SetupValues().getProcessors(data.getFields(), BenchmarkData.PRIMARY_KEY, reader.getHeader());
+            List<Object> values;
+            while ((values = reader.read(processors)) != null) {
+                rows.add(values);
+            }
+        }
+        batch = new ColumnBatch(plan, ROWS);
+        for (List<Object> row : rows) {
+            batch.addRow(row);
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(ROWS)
+    public void bind() throws SQLException {
+        for (List<Object> row : rows) {
+            plan.bind(statement, 1, row);
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(ROWS)
+    public void bindBatch() throws SQLException {
+        for (int row = 0; row < batch.size(); row++) {
+            plan.bind(statement, 1, batch, row);
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(ROWS)
+    public void encodeBinary() throws SQLException {
+        for (List<Object> row : rows) {
+            copyBuffer.startRow(encoders.length);
+            for (int i = 0; i < encoders.length; i++) {
+                final Object value = row.get(i);
+                if (value == null) {
+                    copyBuffer.writeNull();
+                } else {
+                    encoders[i].encode(copyBuffer, value);
+                }
+            }
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(ROWS)
+    public void encodeBinaryBatch() throws SQLException {
+        for (int row = 0; row < batch.size(); row++) {
+            copyBuffer.startRow(encoders.length);
+            for (int i = 0; i < encoders.length; i++) {
+                if (batch.isNull(i, row)) {
+                    copyBuffer.writeNull();
+                } else {
+                    encoders[i].encode(copyBuffer, batch, row, i);
+                }
+            }
+        }
+    }
+}
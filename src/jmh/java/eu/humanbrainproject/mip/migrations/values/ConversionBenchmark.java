@@ -0,0 +1,110 @@
+package eu.humanbrainproject.mip.migrations.values;
+
+import eu.humanbrainproject.mip.migrations.BenchmarkData;
+import eu.humanbrainproject.mip.migrations.LoadMetrics;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.supercsv.cellprocessor.ift.CellProcessor;
+import org.supercsv.util.Util;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Throughput of the conversion of CSV rows into values by the cell processors.
+ *
+ * Each operation converts a whole dataset of 100000 values, 10000 rows of 10 columns or 100 rows of 1000 columns,
+ * with new cell processors as the primary key is checked for uniqueness. The "temporal" mix measures the parsing of
+ * ISO 8601 dates, date times and times.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ConversionBenchmark {
+
+    private static final int VALUES_PER_OPERATION = 100000;
+
+    @Param({"10", "1000"})
+    private int columns;
+
+    @Param({"numeric", "string", "temporal"})
+    private String mix;
+
+    private final R__SetupValues migration = new R__SetupValues();
+    private final LoadMetrics.Scope metrics = LoadMetrics.getInstance().dataset("benchmark");
+    private BenchmarkData data;
+    private String csv;
+    private List<List<String>> rows;
+
+    @Setup
+    public void setup() {
+        data = new BenchmarkData(columns, mix);
+        final int rowCount = VALUES_PER_OPERATION / columns;
+        csv = data.csv(rowCount);
+        rows = new ArrayList<>(rowCount);
+        for (int i = 0; i < rowCount; i++) {
+            final String[] row = data.row(i);
+            for (int c = 0; c < row.length; c++) {
+                if ("".equals(row[c])) {
+                    row[c] = null;
+                }
+            }
+            rows.add(Arrays.asList(row));
+        }
+    }
+
+    @Benchmark
+    public CellProcessor[] getProcessors() {
+        return migration.getProcessors(data.getFields(), BenchmarkData.PRIMARY_KEY, data.getHeader());
+    }
+
+    @Benchmark
+    public void convert(Blackhole blackhole) {
+        final CellProcessor[] processors = migration.getProcessors(data.getFields(), BenchmarkData.PRIMARY_KEY, data.getHeader());
+        final List<Object> values = new ArrayList<>(columns);
+        for (int i = 0; i < rows.size(); i++) {
+            Util.executeCellProcessors(values, rows.get(i), processors, i + 2, i + 2);
+            blackhole.consume(values);
+        }
+    }
+
+    @Benchmark
+    public void parseAndConvert(Blackhole blackhole) throws IOException {
+        try (DatasetReader reader = new CsvDatasetReader(new StringReader(csv), metrics)) {
+            final CellProcessor[] processors = migration.getProcessors(data.getFields(), BenchmarkData.PRIMARY_KEY, reader.getHeader());
+            List<Object> values;
+            while ((values = reader.read(processors)) != null) {
+                blackhole.consume(values);
+            }
+        }
+    }
+
+    @Benchmark
+    public void parseAndConvertBatch(Blackhole blackhole) throws IOException {
+        try (DatasetReader reader = new CsvDatasetReader(new StringReader(csv), metrics)) {
+            final CellProcessor[] processors = migration.getProcessors(data.getFields(), BenchmarkData.PRIMARY_KEY, reader.getHeader());
+            final ColumnBatch batch = ColumnBatch.forPlan(LoadPlan.compile("benchmark", reader.getHeader(), data.getFields(), metrics));
+            while (reader.read(batch, processors) > 0) {
+                blackhole.consume(batch);
+                batch.clear();
+            }
+        }
+    }
+}
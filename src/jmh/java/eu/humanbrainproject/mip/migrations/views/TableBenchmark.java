@@ -0,0 +1,56 @@
+package eu.humanbrainproject.mip.migrations.views;
+
+import eu.humanbrainproject.mip.migrations.BenchmarkData;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Time taken to generate the lists of columns inserted in the SQL templates of the views.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class TableBenchmark {
+
+    @Param({"10", "1000"})
+    private int columns;
+
+    private R__CreateViews.Table table;
+
+    @Setup
+    public void setup() {
+        final String[] header = new BenchmarkData(columns, "numeric").getHeader();
+        table = new R__CreateViews.Table("benchmark", Arrays.asList(header), Collections.singletonList(BenchmarkData.PRIMARY_KEY));
+    }
+
+    @Benchmark
+    public String getColumns() {
+        return table.getColumns();
+    }
+
+    @Benchmark
+    public String getColumnsNoId() {
+        return table.getColumnsNoId();
+    }
+
+    @Benchmark
+    public String getQualifiedColumns() {
+        return table.getQualifiedColumns();
+    }
+}
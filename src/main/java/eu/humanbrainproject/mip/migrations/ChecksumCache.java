@@ -0,0 +1,143 @@
+package eu.humanbrainproject.mip.migrations;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.zip.CRC32;
+
+/**
+ * Computes the CRC32 checksums of data files used by the repeatable migrations, and memoizes them.
+ *
+ * Checksums are kept in memory for the duration of the process, and also in the file defined by the CHECKSUM_CACHE
+ * environment variable if it is set, which the Docker image sets by default. A checksum is reused as long as the path,
+ * size and modification time of the file are unchanged. New checksums are written to the file by {@link #save()},
+ * once all the checksums of a migration are computed. Setting CHECKSUM_STRICT to true disables the cache.
+ */
+public final class ChecksumCache {
+
+    private static final Logger LOG = LoggerFactory.getLogger("Checksum");
+
+    private static final int MAP_WINDOW = 64 * 1024 * 1024;
+    private static final int BUFFER_SIZE = 65536;
+
+    private static final ChecksumCache INSTANCE = new ChecksumCache(System.getenv("CHECKSUM_CACHE"),
+            "true".equals(System.getenv("CHECKSUM_STRICT")) || "yes".equals(System.getenv("CHECKSUM_STRICT")));
+
+    private final File cacheFile;
+    private final boolean strict;
+    private final Map<String, String> entries = new ConcurrentHashMap<>();
+    private volatile boolean modified = false;
+
+    private ChecksumCache(String cacheFile, boolean strict) {
+        this.cacheFile = (cacheFile == null || "".equals(cacheFile.trim())) ? null : new File(cacheFile.trim());
+        this.strict = strict;
+        if (!strict && this.cacheFile != null && this.cacheFile.canRead()) {
+            final Properties properties = new Properties();
+            try (InputStream in = new FileInputStream(this.cacheFile)) {
+                properties.load(in);
+                for (String key : properties.stringPropertyNames()) {
+                    entries.put(key, properties.getProperty(key));
+                }
+            } catch (IOException e) {
+                LOG.warn("Cannot read checksum cache " + this.cacheFile + ", checksums will be recomputed", e);
+            }
+        }
+    }
+
+    public static ChecksumCache getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * Computes the CRC32 checksum of a name followed by the content of a file.
+     *
+     * @param name name of the dataset or of the resource, part of the checksum
+     * @param file the file
+     * @return the checksum
+     */
+    public int checksum(String name, File file) throws IOException {
+        final String key = name + "|" + file.getAbsolutePath();
+        final String stamp = file.length() + "," + file.lastModified() + ",";
+
+        if (!strict) {
+            final String entry = entries.get(key);
+            if (entry != null && entry.startsWith(stamp)) {
+                return Integer.parseInt(entry.substring(stamp.length()));
+            }
+        }
+
+        final CRC32 crc32 = new CRC32();
+        final byte[] bytes = name.getBytes();
+        crc32.update(bytes, 0, bytes.length);
+        update(crc32, file);
+        final int checksum = (int) crc32.getValue();
+
+        if (!strict) {
+            entries.put(key, stamp + checksum);
+            modified = true;
+        }
+        return checksum;
+    }
+
+    /**
+     * Updates a checksum with the content of a file, read using memory-mapped buffers.
+     */
+    public static void update(CRC32 crc32, File file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            final long size = channel.size();
+            long position = 0;
+            while (position < size) {
+                final long length = Math.min(MAP_WINDOW, size - position);
+                final MappedByteBuffer window = channel.map(FileChannel.MapMode.READ_ONLY, position, length);
+                crc32.update(window);
+                position += length;
+            }
+        }
+    }
+
+    /**
+     * Updates a checksum with the content of a stream.
+     */
+    public static void update(CRC32 crc32, InputStream in) throws IOException {
+        final byte[] data = new byte[BUFFER_SIZE];
+        int read;
+        while ((read = in.read(data)) > 0) {
+            crc32.update(data, 0, read);
+        }
+    }
+
+    /**
+     * Writes the checksums to the cache file, if new checksums have been computed since the last write.
+     */
+    public synchronized void save() {
+        if (cacheFile == null || !modified) {
+            return;
+        }
+        final Properties properties = new Properties();
+        properties.putAll(entries);
+        try {
+            final File tmpFile = new File(cacheFile.getAbsolutePath() + ".tmp");
+            try (OutputStream out = new FileOutputStream(tmpFile)) {
+                properties.store(out, "Checksums of data files: size,last modified,checksum");
+            }
+            Files.move(tmpFile.toPath(), cacheFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            modified = false;
+        } catch (IOException e) {
+            LOG.warn("Cannot write checksum cache " + cacheFile, e);
+        }
+    }
+}
@@ -17,7 +17,7 @@ public class GenerateTablesCallback implements Callback {
 
     private static final Logger LOG = LoggerFactory.getLogger("Auto-generate tables");
 
-    protected final MigrationConfiguration config = new MigrationConfiguration();
+    protected final MigrationConfiguration config = MigrationConfiguration.getInstance();
 
     @Override
     public boolean canHandleInTransaction(Event event, Context context) {
@@ -39,7 +39,11 @@ public class GenerateTablesCallback implements Callback {
             LOG.warn("Starting the automatic generation of tables from their definition");
             LOG.warn("Automatic generation is experimental and should only be used during development phase.");
             LOG.warn("");
-            generateTables(context.getConnection());
+            try {
+                generateTables(context.getConnection());
+            } finally {
+                LoadMetrics.getInstance().writeReports();
+            }
         }
     }
 
@@ -81,12 +85,14 @@ public class GenerateTablesCallback implements Callback {
         LOG.warn(createDDL);
 
 
+        final long start = System.nanoTime();
         try {
             connection.createStatement().execute(createDDL);
         } catch (SQLException e) {
             LOG.error("Cannot create table " + schema.getTableName());
             throw new RuntimeException(e);
         }
+        LoadMetrics.getInstance().table(schema.getTableName()).addTime(LoadMetrics.Phase.DDL, System.nanoTime() - start);
 
     }
 }
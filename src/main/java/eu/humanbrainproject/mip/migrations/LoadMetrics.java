@@ -0,0 +1,298 @@
+package eu.humanbrainproject.mip.migrations;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.time.Instant;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Collects the timers and counters of the migrations and callbacks: rows and bytes loaded for each dataset, time
+ * spent in each phase of the loads, time spent creating views and tables.
+ *
+ * Metrics are cumulated over the whole process. They are written as a JSON report to the file defined by the
+ * METRICS_REPORT environment variable and as a Prometheus textfile to the file defined by METRICS_PROMETHEUS,
+ * every time a migration or a callback completes, so that the files describe the whole run once Flyway exits.
+ */
+public final class LoadMetrics {
+
+    private static final Logger LOG = LoggerFactory.getLogger("Metrics");
+
+    private static final double NANOS_PER_SECOND = 1e9;
+    private static final String PREFIX = "data_db_setup_";
+
+    /**
+     * Phases timed during the migrations. Times measured in threads working in parallel, as the threads parsing
+     * a CSV file, are summed.
+     */
+    public enum Phase {
+        /** Reading the CSV file and splitting it into values */
+        PARSE,
+        /** Converting and validating the values with the cell processors */
+        CONVERT,
+        /** Binding the values to the statements, or encoding them for COPY */
+        BIND,
+        /** Executing the statements, or completing COPY */
+        EXECUTE,
+        /** Deleting the previous rows of a dataset */
+        DELETE,
+        /** Preparing, completing and swapping the replacement table of a table */
+        PUBLISH,
+        /** Executing DDL statements */
+        DDL,
+        /** Dropping and rebuilding the indexes and constraints deferred during the loads */
+        INDEX,
+        /** Analyzing, freezing and clustering the loaded tables */
+        MAINTENANCE,
+        /** Total time, from the start of the load of a dataset */
+        TOTAL;
+
+        String label() {
+            return name().toLowerCase(Locale.ROOT);
+        }
+    }
+
+    private static final LoadMetrics INSTANCE = new LoadMetrics(System.getenv("METRICS_REPORT"),
+            System.getenv("METRICS_PROMETHEUS"));
+
+    private final File reportFile;
+    private final File prometheusFile;
+    private final Instant startTime = Instant.now();
+    private final long startNanos = System.nanoTime();
+    private final Map<String, Scope> datasets = new ConcurrentHashMap<>();
+    private final Map<String, Scope> views = new ConcurrentHashMap<>();
+    private final Map<String, Scope> tables = new ConcurrentHashMap<>();
+
+    private LoadMetrics(String reportFile, String prometheusFile) {
+        this.reportFile = (reportFile == null || "".equals(reportFile.trim())) ? null : new File(reportFile.trim());
+        this.prometheusFile = (prometheusFile == null || "".equals(prometheusFile.trim())) ? null : new File(prometheusFile.trim());
+    }
+
+    public static LoadMetrics getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * @return the metrics of the load of a dataset
+     */
+    public Scope dataset(String name) {
+        return datasets.computeIfAbsent(name, n -> new Scope());
+    }
+
+    /**
+     * @return the metrics of the creation of a view
+     */
+    public Scope view(String name) {
+        return views.computeIfAbsent(name, n -> new Scope());
+    }
+
+    /**
+     * @return the metrics of the generation of a table
+     */
+    public Scope table(String name) {
+        return tables.computeIfAbsent(name, n -> new Scope());
+    }
+
+    /**
+     * Writes the JSON report and the Prometheus textfile, if they are requested. Failures are only logged, as
+     * metrics should never fail a migration.
+     */
+    public synchronized void writeReports() {
+        if (reportFile != null) {
+            try {
+                writeAtomically(reportFile, toJson());
+            } catch (IOException e) {
+                LOG.warn("Cannot write metrics report " + reportFile, e);
+            }
+        }
+        if (prometheusFile != null) {
+            try {
+                writeAtomically(prometheusFile, toPrometheus());
+            } catch (IOException e) {
+                LOG.warn("Cannot write Prometheus metrics " + prometheusFile, e);
+            }
+        }
+    }
+
+    private String toJson() throws IOException {
+        final Map<String, Object> report = new LinkedHashMap<>();
+        report.put("image", System.getenv("IMAGE"));
+        report.put("startTime", startTime.toString());
+        report.put("durationSeconds", (System.nanoTime() - startNanos) / NANOS_PER_SECOND);
+        report.put("datasets", toJson(datasets));
+        report.put("views", toJson(views));
+        report.put("tables", toJson(tables));
+        return new ObjectMapper().enable(SerializationFeature.INDENT_OUTPUT).writeValueAsString(report);
+    }
+
+    private static Map<String, Object> toJson(Map<String, Scope> scopes) {
+        final Map<String, Object> json = new TreeMap<>();
+        for (Map.Entry<String, Scope> entry : scopes.entrySet()) {
+            final Scope scope = entry.getValue();
+            final Map<String, Object> values = new LinkedHashMap<>();
+            if (scope.getRows() > 0 || scope.getBytes() > 0) {
+                values.put("rows", scope.getRows());
+                values.put("bytes", scope.getBytes());
+                values.put("rowsPerSecond", scope.getRowsPerSecond());
+                values.put("bytesPerSecond", scope.getBytesPerSecond());
+            }
+            final Map<String, Object> seconds = new LinkedHashMap<>();
+            for (Phase phase : Phase.values()) {
+                if (scope.getNanos(phase) > 0) {
+                    seconds.put(phase.label(), scope.getSeconds(phase));
+                }
+            }
+            values.put("seconds", seconds);
+            json.put(entry.getKey(), values);
+        }
+        return json;
+    }
+
+    private String toPrometheus() {
+        final StringBuilder out = new StringBuilder();
+        final String image = System.getenv("IMAGE");
+
+        metric(out, "info", "gauge", "Information about the image running the migrations.");
+        out.append(PREFIX).append("info{image=\"").append(escape(image == null ? "" : image)).append("\"} 1\n");
+        metric(out, "start_time_seconds", "gauge", "Start time of the run, in seconds since the epoch.");
+        out.append(PREFIX).append("start_time_seconds ").append(startTime.toEpochMilli() / 1000.0).append('\n');
+        metric(out, "duration_seconds", "gauge", "Duration of the run.");
+        out.append(PREFIX).append("duration_seconds ").append((System.nanoTime() - startNanos) / NANOS_PER_SECOND).append('\n');
+
+        final Map<String, Scope> sortedDatasets = new TreeMap<>(datasets);
+        metric(out, "rows_total", "counter", "Number of rows loaded for each dataset.");
+        sortedDatasets.forEach((name, scope) -> sample(out, "rows_total", "dataset", name, scope.getRows()));
+        metric(out, "bytes_total", "counter", "Number of bytes of the data file loaded for each dataset.");
+        sortedDatasets.forEach((name, scope) -> sample(out, "bytes_total", "dataset", name, scope.getBytes()));
+        metric(out, "rows_per_second", "gauge", "Rows loaded per second for each dataset.");
+        sortedDatasets.forEach((name, scope) -> sample(out, "rows_per_second", "dataset", name, scope.getRowsPerSecond()));
+        metric(out, "bytes_per_second", "gauge", "Bytes of the data file loaded per second for each dataset.");
+        sortedDatasets.forEach((name, scope) -> sample(out, "bytes_per_second", "dataset", name, scope.getBytesPerSecond()));
+
+        metric(out, "phase_seconds", "gauge", "Time spent in each phase of the migrations.");
+        phases(out, "dataset", datasets);
+        phases(out, "view", views);
+        phases(out, "table", tables);
+        return out.toString();
+    }
+
+    private static void metric(StringBuilder out, String name, String type, String help) {
+        out.append("# HELP ").append(PREFIX).append(name).append(' ').append(help).append('\n');
+        out.append("# TYPE ").append(PREFIX).append(name).append(' ').append(type).append('\n');
+    }
+
+    private static void sample(StringBuilder out, String name, String label, String labelValue, Number value) {
+        out.append(PREFIX).append(name).append('{').append(label).append("=\"").append(escape(labelValue))
+                .append("\"} ").append(value).append('\n');
+    }
+
+    private static void phases(StringBuilder out, String kind, Map<String, Scope> scopes) {
+        new TreeMap<>(scopes).forEach((name, scope) -> {
+            for (Phase phase : Phase.values()) {
+                if (scope.getNanos(phase) > 0) {
+                    out.append(PREFIX).append("phase_seconds{kind=\"").append(kind).append("\",name=\"")
+                            .append(escape(name)).append("\",phase=\"").append(phase.label()).append("\"} ")
+                            .append(scope.getSeconds(phase)).append('\n');
+                }
+            }
+        });
+    }
+
+    private static String escape(String labelValue) {
+        return labelValue.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n");
+    }
+
+    private static void writeAtomically(File file, String content) throws IOException {
+        final File parent = file.getAbsoluteFile().getParentFile();
+        if (parent != null && !parent.exists() && !parent.mkdirs()) {
+            throw new IOException("Cannot create directory " + parent);
+        }
+        final File tmpFile = new File(file.getAbsolutePath() + ".tmp");
+        try (Writer out = new OutputStreamWriter(Files.newOutputStream(tmpFile.toPath()), StandardCharsets.UTF_8)) {
+            out.write(content);
+        }
+        Files.move(tmpFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Counters and timers of one dataset, view or table. Safe for use by several threads.
+     */
+    public static final class Scope {
+
+        private final LongAdder rows = new LongAdder();
+        private final LongAdder bytes = new LongAdder();
+        private final LongAdder[] nanos = new LongAdder[Phase.values().length];
+
+        private Scope() {
+            for (int i = 0; i < nanos.length; i++) {
+                nanos[i] = new LongAdder();
+            }
+        }
+
+        public void addRows(long count) {
+            rows.add(count);
+        }
+
+        public void addBytes(long count) {
+            bytes.add(count);
+        }
+
+        public void addTime(Phase phase, long elapsedNanos) {
+            nanos[phase.ordinal()].add(elapsedNanos);
+        }
+
+        public long getRows() {
+            return rows.sum();
+        }
+
+        public long getBytes() {
+            return bytes.sum();
+        }
+
+        public long getNanos(Phase phase) {
+            return nanos[phase.ordinal()].sum();
+        }
+
+        public double getSeconds(Phase phase) {
+            return getNanos(phase) / NANOS_PER_SECOND;
+        }
+
+        public double getRowsPerSecond() {
+            final double seconds = getSeconds(Phase.TOTAL);
+            return seconds > 0 ? getRows() / seconds : 0;
+        }
+
+        public double getBytesPerSecond() {
+            final double seconds = getSeconds(Phase.TOTAL);
+            return seconds > 0 ? getBytes() / seconds : 0;
+        }
+
+        /**
+         * @return a one line summary of the metrics, for the logs
+         */
+        public String summary() {
+            final StringBuilder sb = new StringBuilder(String.format(Locale.ROOT, "%d rows in %.3fs (%.0f rows/s, %.2f MB/s)",
+                    getRows(), getSeconds(Phase.TOTAL), getRowsPerSecond(), getBytesPerSecond() / (1024 * 1024)));
+            for (Phase phase : Phase.values()) {
+                if (phase != Phase.TOTAL && getNanos(phase) > 0) {
+                    sb.append(String.format(Locale.ROOT, ", %s %.3fs", phase.label(), getSeconds(phase)));
+                }
+            }
+            return sb.toString();
+        }
+    }
+}
@@ -0,0 +1,39 @@
+package eu.humanbrainproject.mip.migrations;
+
+import java.util.Collection;
+import java.util.Set;
+import java.util.TreeSet;
+
+/**
+ * Registry of the tables whose content was replaced by a committed migration, so that the callbacks running
+ * after the migrations only process these tables.
+ */
+public final class LoadedTables {
+
+    private static final LoadedTables INSTANCE = new LoadedTables();
+
+    private final Set<String> tables = new TreeSet<>();
+
+    private LoadedTables() {
+    }
+
+    public static LoadedTables getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * Records tables loaded by a migration, once the migration is committed.
+     */
+    public synchronized void addAll(Collection<String> loadedTables) {
+        tables.addAll(loadedTables);
+    }
+
+    /**
+     * @return the tables loaded since the last call, in alphabetical order
+     */
+    public synchronized Set<String> drain() {
+        final Set<String> drained = new TreeSet<>(tables);
+        tables.clear();
+        return drained;
+    }
+}
@@ -1,7 +1,9 @@
 package eu.humanbrainproject.mip.migrations;
 
 import eu.humanbrainproject.mip.migrations.datapackage.DataPackage;
+import eu.humanbrainproject.mip.migrations.datapackage.Dialect;
 import eu.humanbrainproject.mip.migrations.datapackage.Field;
+import eu.humanbrainproject.mip.migrations.datapackage.LoadSettings;
 import eu.humanbrainproject.mip.migrations.datapackage.Resource;
 import eu.humanbrainproject.mip.migrations.datapackage.Schema;
 import org.apache.commons.lang3.StringUtils;
@@ -10,38 +12,93 @@ import org.slf4j.LoggerFactory;
 
 import java.io.*;
 import java.util.*;
-
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Configuration of the datasets loaded by the migrations, read from the data package descriptor named by DATAPACKAGE
+ * or from the properties files of the datasets named by DATASETS.
+ *
+ * The migrations and callbacks share the instances returned by {@link #getInstance(Class)}: the data package is
+ * parsed once per process, and the configurations of all datasets are resolved and validated when the instance is
+ * created, failing fast on an invalid configuration, then looked up by dataset name or by table name.
+ */
 public class MigrationConfiguration {
 
     private static final Logger LOG = LoggerFactory.getLogger("Configuration");
 
     private static final String TABLE_REGEX = "\\$\\{table}";
 
-    private DataPackage datapackage;
-    private Class<?> resourceBaseClass = this.getClass();
+    private static final Map<String, DataPackage> DATA_PACKAGES = new ConcurrentHashMap<>();
+    private static final Map<Class<?>, MigrationConfiguration> INSTANCES = new ConcurrentHashMap<>();
+
+    private final Class<?> resourceBaseClass;
+    private final DataPackage datapackage;
+    private final Map<String, DatasetConfiguration> datasetConfigurations;
+    private final Map<String, DatasetConfiguration> tableConfigurations;
 
     public MigrationConfiguration() {
+        this(null);
     }
 
+    /**
+     * @param resourceBaseClass the class used to find the configuration resources in the classpath, or null to use
+     *                          the class of this configuration
+     * @throws IllegalStateException if the data package or the configuration of a dataset cannot be read
+     */
     public MigrationConfiguration(Class<?> resourceBaseClass) {
-        this.resourceBaseClass = resourceBaseClass;
+        this.resourceBaseClass = resourceBaseClass == null ? this.getClass() : resourceBaseClass;
+        this.datapackage = loadDataPackage();
+
+        final Map<String, DatasetConfiguration> datasets = new LinkedHashMap<>();
+        final Map<String, DatasetConfiguration> tables = new HashMap<>();
+        final String[] datasetNames = findDatasets();
+        for (String dataset: datasetNames) {
+            final DatasetConfiguration datasetConfiguration;
+            try {
+                datasetConfiguration = datapackage != null ?
+                        new DatasetConfigurationFromDataPackage(datapackage.getResource(dataset)) :
+                        new DatasetConfigurationFromProperties(dataset, datasetNames.length == 1);
+                tables.putIfAbsent(datasetConfiguration.getDatasetTableName(), datasetConfiguration);
+            } catch (IOException | RuntimeException e) {
+                throw new IllegalStateException("Cannot read the configuration of dataset " + dataset + ": " + e.getMessage(), e);
+            }
+            datasets.put(dataset, datasetConfiguration);
+        }
+        LOG.debug("Loaded the configuration of " + datasets.size() + " datasets into " + tables.size() + " tables");
+        this.tableConfigurations = Collections.unmodifiableMap(tables);
+        this.datasetConfigurations = Collections.unmodifiableMap(datasets);
     }
 
-    DataPackage getDataPackage() {
-        String datapackageStr = System.getenv("DATAPACKAGE");
-        if (datapackage == null && datapackageStr != null && !datapackageStr.isEmpty()) {
-            if (!existsDataResource(datapackageStr)) {
-                throw new IllegalStateException("Cannot load data package descriptor from " + getDataResourcePath(datapackageStr) +
-                        ". Check DATAPACKAGE environment variable and contents of the Docker image");
-            }
-            datapackage = DataPackage.load(getDataResourcePath(datapackageStr));
+    /**
+     * @return the configuration shared by the migrations and callbacks reading their resources relative to this class
+     */
+    public static MigrationConfiguration getInstance() {
+        return getInstance(MigrationConfiguration.class);
+    }
+
+    /**
+     * @param resourceBaseClass the class used to find the configuration resources in the classpath
+     * @return the configuration shared by the migrations and callbacks reading their resources relative to a class
+     */
+    public static MigrationConfiguration getInstance(Class<?> resourceBaseClass) {
+        return INSTANCES.computeIfAbsent(resourceBaseClass, MigrationConfiguration::new);
+    }
+
+    private DataPackage loadDataPackage() {
+        final String datapackageStr = System.getenv("DATAPACKAGE");
+        if (datapackageStr == null || datapackageStr.isEmpty()) {
+            return null;
         }
-        return datapackage;
+        if (!existsDataResource(datapackageStr)) {
+            throw new IllegalStateException("Cannot load data package descriptor from " + getDataResourcePath(datapackageStr) +
+                    ". Check DATAPACKAGE environment variable and contents of the Docker image");
+        }
+        return DATA_PACKAGES.computeIfAbsent(getDataResourcePath(datapackageStr), DataPackage::load);
     }
 
-    public String[] getDatasets() {
-        if (getDataPackage() != null) {
-            return getDataPackage().getResources().stream().map(Resource::getName).toArray(String[]::new);
+    private String[] findDatasets() {
+        if (datapackage != null) {
+            return datapackage.getResources().stream().map(Resource::getName).toArray(String[]::new);
         }
 
         String datasetsStr = System.getenv("DATASETS");
@@ -51,26 +108,61 @@ public class MigrationConfiguration {
         return datasetsStr.trim().split(",");
     }
 
+    DataPackage getDataPackage() {
+        return datapackage;
+    }
+
+    public String[] getDatasets() {
+        return datasetConfigurations.keySet().toArray(new String[0]);
+    }
+
+    /**
+     * @return the settings of the sessions loading the datasets defined in the data package, or null
+     */
+    public LoadSettings getLoadSettings() {
+        return datapackage == null ? null : datapackage.getLoadSettings();
+    }
+
     public DatasetConfiguration getDatasetConfiguration(String datasetName) {
-        if (getDataPackage() != null) {
-            return new DatasetConfigurationFromDataPackage(datasetName);
-        } else {
-            return new DatasetConfigurationFromProperties(datasetName);
+        final DatasetConfiguration datasetConfiguration = datasetConfigurations.get(datasetName);
+        if (datasetConfiguration == null) {
+            throw new IllegalArgumentException("Invalid dataset " + datasetName);
         }
+        return datasetConfiguration;
     }
 
+    /**
+     * @return the configuration of the first dataset loaded into a table
+     */
     public DatasetConfiguration getTableConfiguration(String tableName) {
-        try {
-            for (String dataset: getDatasets()) {
-                DatasetConfiguration datasetConfiguration = getDatasetConfiguration(dataset);
-                    if (datasetConfiguration.getDatasetTableName().equals(tableName)) {
-                        return datasetConfiguration;
-                    }
+        final DatasetConfiguration datasetConfiguration = tableConfigurations.get(tableName);
+        if (datasetConfiguration == null) {
+            throw new RuntimeException("Cannot find configuration for table " + tableName);
+        }
+        return datasetConfiguration;
+    }
+
+    /**
+     * @return the file containing the resource of a dataset, or null if the resource is not a file, for example
+     * when it is loaded from the classpath
+     */
+    public File getDatasetResourceFile(String datasetName) {
+        final String path;
+        if (getDataPackage() != null) {
+            path = getDataPackage().getResource(datasetName).getPath();
+            if (resourceBaseClass.getResource(path) != null) {
+                return null;
             }
-        } catch (IOException e) {
-            LOG.error("Configuration problem: " + e.getMessage(), e);
+            final File dataFile = new File(getDataResourcePath(path));
+            return dataFile.canRead() ? dataFile : null;
+        }
+
+        path = (datasetName == null) ? "dataset.properties" : datasetName + "_dataset.properties";
+        if (resourceBaseClass.getResource(path) != null) {
+            return null;
         }
-        throw new RuntimeException("Cannot find configuration for table " + tableName);
+        final File configFile = new File(getConfigResourcePath(path));
+        return configFile.canRead() ? configFile : null;
     }
 
     public InputStream getDatasetResource(String datasetName) {
@@ -163,114 +255,187 @@ public class MigrationConfiguration {
 
         List<Field> getFields() throws IOException;
 
+        /**
+         * @return the name of the load mode for this dataset, or null to use the default mode
+         */
+        String getLoadMode() throws IOException;
+
+        /**
+         * @return the number of records per batch or 'adaptive', or null to use the default batch size
+         */
+        String getBatchSize() throws IOException;
+
+        /**
+         * @return the maximum estimated size in bytes of a batch, or null for no limit
+         */
+        Long getBatchBytes() throws IOException;
+
+        /**
+         * @return the maximum number of rows rejected before the load is aborted, or null to use the default
+         */
+        Long getMaxRejects() throws IOException;
+
+        /**
+         * @return the name of the strategy used to replace the previous rows of the dataset, or null for the default
+         */
+        String getLoadStrategy() throws IOException;
+
+        /**
+         * @return the CSV dialect of the dataset file, or null for the default dialect
+         */
+        Dialect getDialect() throws IOException;
+
+        /**
+         * @return the SQL condition selecting the rows of the table that do not belong to this dataset, or null if
+         * the dataset owns all rows of the table
+         */
+        String getRetainedRowsCondition() throws IOException;
+
     }
 
+    /**
+     * Configuration of a dataset read from its properties file and from the columns properties file of its table,
+     * both read when the configuration is created.
+     */
     class DatasetConfigurationFromProperties implements DatasetConfiguration {
 
-        private final Map<String, Properties> datasetProperties = new HashMap<>();
-        private final Map<String, Properties> tableColumns = new HashMap<>();
+        private final String datasetName;
+        private final Properties datasetProperties;
+        private final String tableName;
+        private final String primaryKey;
+        private final List<Field> fields;
+        private final Long batchBytes;
+        private final Long maxRejects;
+
+        /**
+         * @param singleDataset true if this is the only dataset, which may then use the file columns.properties
+         * @throws IllegalStateException if a properties file is missing or the columns of the table are not defined
+         */
+        DatasetConfigurationFromProperties(String datasetName, boolean singleDataset) throws IOException {
+            this.datasetName = datasetName;
+            this.datasetProperties = loadProperties(getDatasetResource(datasetName));
+            this.tableName = datasetProperties.getProperty("__TABLE", "");
+
+            final Properties columns = loadProperties(getColumnsResource(tableName, singleDataset));
+            final String columnsStr = columns.getProperty("__COLUMNS");
+            if (columnsStr == null) {
+                throw new IllegalStateException("__COLUMNS property is not defined for table " + tableName);
+            }
+            String primaryKey = null;
+            final List<Field> fields = new ArrayList<>();
+            for (String column: StringUtils.split(columnsStr, ",")) {
 
-        private String datasetName;
+                if (primaryKey == null && columns.getProperty(column + ".constraints", "").equals("is_index")) {
+                    primaryKey = column;
+                }
 
-        DatasetConfigurationFromProperties(String datasetName) {
-            this.datasetName = datasetName;
+                String sqlType = columns.getProperty(column + ".type", "VARCHAR");
+                if (columns.getProperty(column + ".type") == null) {
+                    LOG.warn("Column type for " + column + " is not defined in columns.properties");
+                }
+
+                Field field = new Field();
+                field.setName(column);
+                field.setSqlType(sqlType);
+
+                fields.add(field);
+            }
+            this.primaryKey = primaryKey;
+            this.fields = Collections.unmodifiableList(fields);
+            this.batchBytes = parseLong("__BATCH_BYTES");
+            this.maxRejects = parseLong("__MAX_REJECTS");
         }
 
         @Override
-        public String getDatasetCsvFilePath() throws IOException {
-            final Properties dataset = getDatasetProperties();
-
-            final String csvFileName = dataset.getProperty("__CSV_FILE", "/data/values.csv");
+        public String getDatasetCsvFilePath() {
+            final String csvFileName = datasetProperties.getProperty("__CSV_FILE", "/data/values.csv");
             return getDataResourcePath(csvFileName);
         }
 
         @Override
-        public String getDatasetTableName() throws IOException {
-            final Properties dataset = getDatasetProperties();
-
-            final String tableName = dataset.getProperty("__TABLE", "");
-
-            if (tableName == null) {
-                throw new IllegalArgumentException("__TABLE properties is not defined for dataset " + datasetName);
-            }
-
+        public String getDatasetTableName() {
             return tableName;
         }
 
         @Override
-        public String getDatasetDeleteQuery() throws IOException {
-            final Properties dataset = getDatasetProperties();
-            final String tableName = getDatasetTableName();
-
-            return dataset.getProperty("__DELETE_SQL", "DELETE FROM \"" + tableName + "\"")
+        public String getDatasetDeleteQuery() {
+            return datasetProperties.getProperty("__DELETE_SQL", "DELETE FROM \"" + tableName + "\"")
                     .replaceFirst(TABLE_REGEX, tableName);
         }
 
         @Override
-        public String getDatasetPrimaryKey() throws IOException {
-            final String tableName = getDatasetTableName();
-            final Properties columns = getColumnsProperties(tableName);
-            String columnsStr = columns.getProperty("__COLUMNS");
+        public String getDatasetPrimaryKey() {
+            return primaryKey;
+        }
 
-            for (String column: StringUtils.split(columnsStr, ",")) {
+        @Override
+        public List<Field> getFields() {
+            return fields;
+        }
 
-                if (columns.getProperty(column + ".constraints", "").equals("is_index")) {
-                    return column;
-                }
-            }
-            return null;
+        @Override
+        public String getLoadMode() {
+            return datasetProperties.getProperty("__LOAD_MODE");
         }
 
         @Override
-        public List<Field> getFields() throws IOException {
-            final String tableName = getDatasetTableName();
-            final Properties columns = getColumnsProperties(tableName);
+        public String getBatchSize() {
+            return datasetProperties.getProperty("__BATCH_SIZE");
+        }
 
-            String columnsStr = columns.getProperty("__COLUMNS");
-            List<Field> fields = new ArrayList<>();
+        @Override
+        public Long getBatchBytes() {
+            return batchBytes;
+        }
 
-            for (String column: StringUtils.split(columnsStr, ",")) {
+        @Override
+        public Long getMaxRejects() {
+            return maxRejects;
+        }
 
-                String sqlType = columns.getProperty(column + ".type", "VARCHAR");
-                if (columns.getProperty(column + ".type") == null) {
-                    LOG.warn("Column type for " + column + " is not defined in columns.properties");
-                }
+        @Override
+        public String getLoadStrategy() {
+            return datasetProperties.getProperty("__LOAD_STRATEGY");
+        }
 
-                Field field = new Field();
-                field.setName(column);
-                field.setSqlType(sqlType);
+        @Override
+        public Dialect getDialect() {
+            return null;
+        }
 
-                fields.add(field);
+        @Override
+        public String getRetainedRowsCondition() {
+            if (datasetProperties.getProperty("__DELETE_SQL") != null) {
+                throw new IllegalArgumentException("Cannot find the rows of dataset " + datasetName +
+                        " from the custom __DELETE_SQL query, remove it or use the delete load strategy");
             }
-            return fields;
+            return null;
         }
 
-        private Properties getDatasetProperties() throws IOException {
-            Properties datasetProperties = this.datasetProperties.get(datasetName);
-            if (datasetProperties == null) {
-                datasetProperties = new Properties();
-                InputStream datasetResource = getDatasetResource(datasetName);
-                datasetProperties.load(datasetResource);
-                this.datasetProperties.put(datasetName, datasetProperties);
+        private Long parseLong(String property) {
+            final String value = datasetProperties.getProperty(property);
+            if (value == null) {
+                return null;
+            }
+            try {
+                return Long.valueOf(value.trim());
+            } catch (NumberFormatException e) {
+                throw new IllegalStateException("Invalid value '" + value + "' of property " + property + " for dataset " + datasetName);
             }
-            return datasetProperties;
         }
 
-        private Properties getColumnsProperties(String tableName) throws IOException {
-            Properties columnsProperties = tableColumns.get(tableName);
-            if (columnsProperties == null) {
-                columnsProperties = new Properties();
-                InputStream datasetResource = getColumnsResource(tableName);
-                columnsProperties.load(datasetResource);
-                tableColumns.put(tableName, columnsProperties);
+        private Properties loadProperties(InputStream resource) throws IOException {
+            final Properties properties = new Properties();
+            try (InputStream in = resource) {
+                properties.load(in);
             }
-            return columnsProperties;
+            return properties;
         }
 
-        private InputStream getColumnsResource(String tableName) {
+        private InputStream getColumnsResource(String tableName, boolean singleDataset) {
             String propertiesFile = (tableName == null) ? "columns.properties" : tableName.toLowerCase() + "_columns.properties";
 
-            if (!existsConfigResource(propertiesFile) && getDatasets().length == 1) {
+            if (!existsConfigResource(propertiesFile) && singleDataset) {
                 if (existsConfigResource("columns.properties")) {
                     propertiesFile = "columns.properties";
                 }
@@ -285,53 +450,110 @@ public class MigrationConfiguration {
 
     }
 
+    /**
+     * Configuration of a dataset described by a resource of the data package, whose table and queries are resolved
+     * when the configuration is created.
+     */
     class DatasetConfigurationFromDataPackage implements DatasetConfiguration {
 
-        private String datasetName;
+        private final Resource resource;
+        private final String tableName;
+        private final String deleteQuery;
+
+        /**
+         * @throws IllegalArgumentException if the path or the schema of the resource, or the table of its schema, is not
+         * defined
+         */
+        DatasetConfigurationFromDataPackage(Resource resource) {
+            this.resource = resource;
+            if (resource.getPath() == null) {
+                throw new IllegalArgumentException("path property is not defined for dataset " + resource.getName());
+            }
+            if (resource.getSchema() == null) {
+                throw new IllegalArgumentException("schema property is not defined for dataset " + resource.getName());
+            }
+            this.tableName = resource.getSchema().getTableName();
+            if (tableName == null) {
+                throw new IllegalArgumentException("tableName property is not defined in the schema for dataset " + resource.getName());
+            }
 
-        DatasetConfigurationFromDataPackage(String datasetName) {
-            this.datasetName = datasetName;
+            final String query = resource.getDeleteQuery();
+            final String datasetKey = resource.getSchema().getDatasetKey();
+            if (query != null) {
+                this.deleteQuery = query;
+            } else if (datasetKey == null) {
+                this.deleteQuery = "DELETE FROM \"" + tableName + "\"";
+            } else {
+                this.deleteQuery = "DELETE FROM \"" + tableName + "\" WHERE \"" + datasetKey + "\" = '" + resource.computeDataset() + "'";
+            }
         }
 
         @Override
         public String getDatasetCsvFilePath() {
-            return getDataPackage().getResource(datasetName).getPath();
+            return resource.getPath();
         }
 
         @Override
         public String getDatasetTableName() {
-            final String tableName = getDataPackage().getResource(datasetName).getSchema().getTableName();
-
-            if (tableName == null) {
-                throw new IllegalArgumentException("tableName property is not defined in the schema for dataset " + datasetName);
-            }
-
             return tableName;
         }
 
         @Override
         public String getDatasetDeleteQuery() {
-            final Resource resource = getDataPackage().getResource(datasetName);
-            String query = resource.getDeleteQuery();
-            if (query == null) {
-                final Schema schema = resource.getSchema();
-                if (schema.getDatasetKey() == null) {
-                    return "DELETE FROM \"" + schema.getTableName() + "\"";
-                } else {
-                    return "DELETE FROM \"" + schema.getTableName() + "\" WHERE \"" + schema.getDatasetKey() + "\" = '" + resource.computeDataset() + "'";
-                }
-            }
-            return query;
+            return deleteQuery;
         }
 
         @Override
         public String getDatasetPrimaryKey() {
-            return getDataPackage().getResource(datasetName).getSchema().getPrimaryKey();
+            return resource.getSchema().getPrimaryKey();
         }
 
         @Override
         public List<Field> getFields() {
-            return getDataPackage().getResource(datasetName).getSchema().getFields();
+            return resource.getSchema().getFields();
+        }
+
+        @Override
+        public String getLoadMode() {
+            return resource.getLoadMode();
+        }
+
+        @Override
+        public String getBatchSize() {
+            return resource.getBatchSize();
+        }
+
+        @Override
+        public Long getBatchBytes() {
+            return resource.getBatchBytes();
+        }
+
+        @Override
+        public Long getMaxRejects() {
+            return resource.getMaxRejects();
+        }
+
+        @Override
+        public String getLoadStrategy() {
+            return resource.getLoadStrategy();
+        }
+
+        @Override
+        public Dialect getDialect() {
+            return resource.getDialect();
+        }
+
+        @Override
+        public String getRetainedRowsCondition() {
+            if (resource.getDeleteQuery() != null) {
+                throw new IllegalArgumentException("Cannot find the rows of dataset " + resource.getName() +
+                        " from the custom deleteQuery, remove it or use the delete load strategy");
+            }
+            final Schema schema = resource.getSchema();
+            if (schema.getDatasetKey() == null) {
+                return null;
+            }
+            return "\"" + schema.getDatasetKey() + "\" IS DISTINCT FROM '" + resource.computeDataset() + "'";
         }
 
     }
@@ -0,0 +1,221 @@
+package eu.humanbrainproject.mip.migrations;
+
+import eu.humanbrainproject.mip.migrations.datapackage.Resource;
+import eu.humanbrainproject.mip.migrations.datapackage.Schema;
+import org.flywaydb.core.api.callback.Callback;
+import org.flywaydb.core.api.callback.Context;
+import org.flywaydb.core.api.callback.Event;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Prepares the tables loaded by the migrations for the queries: updates the statistics of the planner with ANALYZE,
+ * and optionally freezes the rows with VACUUM (FREEZE) and orders the rows with CLUSTER, so that the first queries
+ * after a load get good plans and autovacuum does not rewrite every page later.
+ *
+ * Only the tables loaded by a committed migration are processed, in parallel on several connections. VACUUM cannot
+ * run in a transaction, the tables are processed in autocommit mode.
+ */
+@SuppressWarnings("unused")
+public class PostLoadCallback implements Callback {
+
+    private static final Logger LOG = LoggerFactory.getLogger("Post-load");
+
+    private static final String LEADING_COLUMN_INDEX_SQL = "SELECT c.relname " +
+            "FROM pg_index i JOIN pg_class c ON c.oid = i.indexrelid " +
+            "JOIN pg_attribute a ON a.attrelid = i.indrelid AND a.attnum = i.indkey[0] " +
+            "WHERE i.indrelid = CAST(? AS regclass) AND a.attname = ? AND i.indpred IS NULL AND i.indisvalid " +
+            "ORDER BY i.indisprimary DESC, i.indnatts, c.relname LIMIT 1";
+    private static final String PRIMARY_KEY_INDEX_SQL = "SELECT c.relname " +
+            "FROM pg_index i JOIN pg_class c ON c.oid = i.indexrelid " +
+            "WHERE i.indrelid = CAST(? AS regclass) AND i.indisprimary";
+
+    /**
+     * Operations applied to the loaded tables.
+     */
+    enum Operation {
+        /** Update the statistics of the planner */
+        ANALYZE,
+        /** Freeze all rows, so that they are never rewritten by autovacuum */
+        FREEZE,
+        /** Order the rows on the dataset key of the table, or on its primary key */
+        CLUSTER
+    }
+
+    protected final MigrationConfiguration config = MigrationConfiguration.getInstance();
+
+    @Override
+    public boolean canHandleInTransaction(Event event, Context context) {
+        return false;
+    }
+
+    @Override
+    public boolean supports(Event event, Context context) {
+        return event == Event.AFTER_MIGRATE;
+    }
+
+    @Override
+    public void handle(Event event, Context context) {
+        if (event != Event.AFTER_MIGRATE) {
+            return;
+        }
+        final Set<String> tables = LoadedTables.getInstance().drain();
+        final Set<Operation> operations = getOperations();
+        if (tables.isEmpty() || operations.isEmpty()) {
+            return;
+        }
+
+        final int threads = Math.min(getThreads(), tables.size());
+        LOG.info("Running " + operations + " on " + tables.size() + " loaded tables using " + threads + " connections");
+        try {
+            process(context.getConfiguration().getDataSource(), new ConcurrentLinkedQueue<>(tables), operations, threads);
+        } catch (SQLException e) {
+            LOG.error("Cannot prepare the loaded tables", e);
+            throw new RuntimeException(e);
+        } finally {
+            LoadMetrics.getInstance().writeReports();
+        }
+    }
+
+    private Set<Operation> getOperations() {
+        final String postLoad = System.getenv("POST_LOAD");
+        if (postLoad == null || "".equals(postLoad.trim())) {
+            return EnumSet.of(Operation.ANALYZE);
+        }
+        final Set<Operation> operations = EnumSet.noneOf(Operation.class);
+        for (String operation : postLoad.trim().split(",")) {
+            if (!"none".equalsIgnoreCase(operation.trim())) {
+                operations.add(Operation.valueOf(operation.trim().toUpperCase(Locale.ROOT)));
+            }
+        }
+        return operations;
+    }
+
+    private int getThreads() {
+        final String postLoadThreads = System.getenv("POST_LOAD_THREADS");
+        if (postLoadThreads == null || "".equals(postLoadThreads.trim()) || "auto".equalsIgnoreCase(postLoadThreads.trim())) {
+            return Runtime.getRuntime().availableProcessors();
+        }
+        return Math.max(1, Integer.parseInt(postLoadThreads.trim()));
+    }
+
+    private void process(DataSource dataSource, Queue<String> tables, Set<Operation> operations, int threads)
+            throws SQLException {
+        final ExecutorService executor = Executors.newFixedThreadPool(threads, runnable -> {
+            final Thread thread = new Thread(runnable, "post-load");
+            thread.setDaemon(true);
+            return thread;
+        });
+        try {
+            final List<Future<Void>> futures = new ArrayList<>();
+            for (int i = 0; i < threads; i++) {
+                futures.add(executor.submit(() -> {
+                    try (Connection connection = dataSource.getConnection()) {
+                        connection.setAutoCommit(true);
+                        String table;
+                        while ((table = tables.poll()) != null) {
+                            processTable(connection, table, operations);
+                        }
+                    }
+                    return null;
+                }));
+            }
+            for (Future<Void> future : futures) {
+                try {
+                    future.get();
+                } catch (ExecutionException e) {
+                    if (e.getCause() instanceof SQLException) {
+                        throw (SQLException) e.getCause();
+                    }
+                    throw new RuntimeException(e.getCause());
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException(e);
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private void processTable(Connection connection, String table, Set<Operation> operations) throws SQLException {
+        final long start = System.nanoTime();
+        try (Statement statement = connection.createStatement()) {
+            if (operations.contains(Operation.CLUSTER)) {
+                final String index = getClusterIndex(connection, table);
+                if (index == null) {
+                    LOG.warn("Table " + table + " has no index on its dataset key or primary key, it cannot be clustered");
+                } else {
+                    LOG.info("Clustering table " + table + " using index " + index);
+                    statement.execute("CLUSTER \"" + table + "\" USING \"" + index + "\"");
+                }
+            }
+            if (operations.contains(Operation.FREEZE)) {
+                LOG.info("Freezing table " + table);
+                statement.execute("VACUUM (FREEZE" + (operations.contains(Operation.ANALYZE) ? ", ANALYZE" : "") +
+                        ") \"" + table + "\"");
+            } else if (operations.contains(Operation.ANALYZE)) {
+                LOG.info("Analyzing table " + table);
+                statement.execute("ANALYZE \"" + table + "\"");
+            }
+        }
+        LoadMetrics.getInstance().table(table).addTime(LoadMetrics.Phase.MAINTENANCE, System.nanoTime() - start);
+    }
+
+    /**
+     * @return the index starting with the dataset key of the table if there is one, otherwise the index of the
+     * primary key, or null if the table has none of them
+     */
+    private String getClusterIndex(Connection connection, String table) throws SQLException {
+        final String datasetKey = getDatasetKey(table);
+        if (datasetKey != null) {
+            try (PreparedStatement statement = connection.prepareStatement(LEADING_COLUMN_INDEX_SQL)) {
+                statement.setString(1, "\"" + table + "\"");
+                statement.setString(2, datasetKey);
+                try (ResultSet rs = statement.executeQuery()) {
+                    if (rs.next()) {
+                        return rs.getString(1);
+                    }
+                }
+            }
+            LOG.info("Table " + table + " has no index on its dataset key " + datasetKey + ", using its primary key");
+        }
+        try (PreparedStatement statement = connection.prepareStatement(PRIMARY_KEY_INDEX_SQL)) {
+            statement.setString(1, "\"" + table + "\"");
+            try (ResultSet rs = statement.executeQuery()) {
+                return rs.next() ? rs.getString(1) : null;
+            }
+        }
+    }
+
+    private String getDatasetKey(String table) {
+        if (config.getDataPackage() == null) {
+            return null;
+        }
+        for (Resource resource : config.getDataPackage().getResources()) {
+            final Schema schema = resource.getSchema();
+            if (table.equals(schema.getTableName()) && schema.getDatasetKey() != null) {
+                return schema.getDatasetKey();
+            }
+        }
+        return null;
+    }
+}
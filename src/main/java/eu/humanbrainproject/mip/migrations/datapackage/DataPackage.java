@@ -1,5 +1,6 @@
 package eu.humanbrainproject.mip.migrations.datapackage;
 
+import com.fasterxml.jackson.annotation.JsonIgnore;
 import com.fasterxml.jackson.annotation.JsonProperty;
 import com.fasterxml.jackson.databind.DeserializationFeature;
 import com.fasterxml.jackson.databind.JsonNode;
@@ -8,8 +9,11 @@ import com.fasterxml.jackson.databind.node.ObjectNode;
 
 import java.io.File;
 import java.io.IOException;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
 
 @SuppressWarnings("unused")
 public class DataPackage {
@@ -18,10 +22,14 @@ public class DataPackage {
     private String description;
     private String title;
     private String schema;
+    private LoadSettings loadSettings;
 
     @JsonProperty("resources")
     private List<Resource> resources;
 
+    @JsonIgnore
+    private Map<String, Resource> resourcesByName = Collections.emptyMap();
+
     public String getName() {
         return name;
     }
@@ -54,21 +62,41 @@ public class DataPackage {
         this.schema = schema;
     }
 
+    /**
+     * @return the settings of the sessions loading the data package, or null to use the default settings
+     */
+    public LoadSettings getLoadSettings() {
+        return loadSettings;
+    }
+
+    public void setLoadSettings(LoadSettings loadSettings) {
+        this.loadSettings = loadSettings;
+    }
+
     public List<Resource> getResources() {
         return resources;
     }
 
+    /**
+     * Sets the resources and indexes them by name, rejecting resources sharing the same name.
+     */
     public void setResources(List<Resource> resources) {
+        final Map<String, Resource> resourcesByName = new HashMap<>();
+        for (Resource r: resources) {
+            if (resourcesByName.put(r.getName(), r) != null) {
+                throw new IllegalArgumentException("Duplicate resource " + r.getName());
+            }
+        }
         this.resources = resources;
+        this.resourcesByName = resourcesByName;
     }
 
     public Resource getResource(String datasetName) {
-        for (Resource r: resources) {
-            if (r.getName().equals(datasetName)) {
-                return r;
-            }
+        final Resource resource = resourcesByName.get(datasetName);
+        if (resource == null) {
+            throw new IllegalArgumentException("Invalid resource " + datasetName);
         }
-        throw new IllegalArgumentException("Invalid resource " + datasetName);
+        return resource;
     }
 
     public static DataPackage load(String path) {
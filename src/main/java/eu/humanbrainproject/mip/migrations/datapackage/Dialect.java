@@ -0,0 +1,56 @@
+package eu.humanbrainproject.mip.migrations.datapackage;
+
+/**
+ * CSV dialect of a tabular data resource, as defined by the CSV Dialect specification of Frictionless Data.
+ *
+ * Only the properties affecting the parsing of the records are supported, the first record is always the header.
+ */
+@SuppressWarnings("unused")
+public class Dialect {
+
+    private String delimiter = ",";
+    private String quoteChar = "\"";
+    private boolean doubleQuote = true;
+    private String escapeChar;
+    private boolean skipInitialSpace = false;
+
+    public String getDelimiter() {
+        return delimiter;
+    }
+
+    public void setDelimiter(String delimiter) {
+        this.delimiter = delimiter;
+    }
+
+    public String getQuoteChar() {
+        return quoteChar;
+    }
+
+    public void setQuoteChar(String quoteChar) {
+        this.quoteChar = quoteChar;
+    }
+
+    public boolean isDoubleQuote() {
+        return doubleQuote;
+    }
+
+    public void setDoubleQuote(boolean doubleQuote) {
+        this.doubleQuote = doubleQuote;
+    }
+
+    public String getEscapeChar() {
+        return escapeChar;
+    }
+
+    public void setEscapeChar(String escapeChar) {
+        this.escapeChar = escapeChar;
+    }
+
+    public boolean isSkipInitialSpace() {
+        return skipInitialSpace;
+    }
+
+    public void setSkipInitialSpace(boolean skipInitialSpace) {
+        this.skipInitialSpace = skipInitialSpace;
+    }
+}
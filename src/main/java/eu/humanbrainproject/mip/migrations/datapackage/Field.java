@@ -78,6 +78,12 @@ public class Field {
             case "int":
             case "integer":
                 return "int";
+            case "date":
+                return "date";
+            case "datetime":
+                return "timestamp";
+            case "time":
+                return "time";
             default:
                 throw new IllegalArgumentException("Cannot infer SQL type from type " + type);
         }
@@ -105,6 +111,8 @@ public class Field {
                 return Types.DATE;
             case "timestamp":
                 return Types.TIMESTAMP;
+            case "time":
+                return Types.TIME;
             default:
                 throw new IllegalArgumentException("Unknown SQL type: " + sqlType);
         }
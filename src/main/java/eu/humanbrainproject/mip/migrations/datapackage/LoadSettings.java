@@ -0,0 +1,45 @@
+package eu.humanbrainproject.mip.migrations.datapackage;
+
+/**
+ * Settings of the database sessions loading the resources of a data package.
+ */
+@SuppressWarnings("unused")
+public class LoadSettings {
+
+    private String synchronousCommit;
+    private String workMem;
+    private String maintenanceWorkMem;
+    private Boolean unloggedTables;
+
+    public String getSynchronousCommit() {
+        return synchronousCommit;
+    }
+
+    public void setSynchronousCommit(String synchronousCommit) {
+        this.synchronousCommit = synchronousCommit;
+    }
+
+    public String getWorkMem() {
+        return workMem;
+    }
+
+    public void setWorkMem(String workMem) {
+        this.workMem = workMem;
+    }
+
+    public String getMaintenanceWorkMem() {
+        return maintenanceWorkMem;
+    }
+
+    public void setMaintenanceWorkMem(String maintenanceWorkMem) {
+        this.maintenanceWorkMem = maintenanceWorkMem;
+    }
+
+    public Boolean getUnloggedTables() {
+        return unloggedTables;
+    }
+
+    public void setUnloggedTables(Boolean unloggedTables) {
+        this.unloggedTables = unloggedTables;
+    }
+}
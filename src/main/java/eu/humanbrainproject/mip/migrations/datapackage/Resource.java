@@ -15,6 +15,12 @@ public class Resource {
     private String encoding;
     private String deleteQuery;
     private String dataset;
+    private String loadMode;
+    private String batchSize;
+    private Long batchBytes;
+    private Long maxRejects;
+    private String loadStrategy;
+    private Dialect dialect;
 
     @JsonProperty("schema")
     private Schema schema;
@@ -91,6 +97,54 @@ public class Resource {
         this.deleteQuery = deleteQuery;
     }
 
+    public String getLoadMode() {
+        return loadMode;
+    }
+
+    public void setLoadMode(String loadMode) {
+        this.loadMode = loadMode;
+    }
+
+    public String getBatchSize() {
+        return batchSize;
+    }
+
+    public void setBatchSize(String batchSize) {
+        this.batchSize = batchSize;
+    }
+
+    public Long getBatchBytes() {
+        return batchBytes;
+    }
+
+    public void setBatchBytes(Long batchBytes) {
+        this.batchBytes = batchBytes;
+    }
+
+    public Long getMaxRejects() {
+        return maxRejects;
+    }
+
+    public void setMaxRejects(Long maxRejects) {
+        this.maxRejects = maxRejects;
+    }
+
+    public String getLoadStrategy() {
+        return loadStrategy;
+    }
+
+    public void setLoadStrategy(String loadStrategy) {
+        this.loadStrategy = loadStrategy;
+    }
+
+    public Dialect getDialect() {
+        return dialect;
+    }
+
+    public void setDialect(Dialect dialect) {
+        this.dialect = dialect;
+    }
+
     public Schema getSchema() {
         return schema;
     }
@@ -0,0 +1,173 @@
+package eu.humanbrainproject.mip.migrations.keys;
+
+import java.util.Arrays;
+import java.util.function.IntConsumer;
+
+/**
+ * Set of int keys stored as a compressed bitmap, in the manner of Roaring bitmaps.
+ *
+ * Keys are partitioned by their 16 high bits. Each partition holds its 16 low bits either in a sorted array while
+ * it has at most 4096 keys, or in a bitmap of 65536 bits once it is denser. Sequential keys, the common case for
+ * primary keys, cost about 1 bit each, and sparse keys about 2 bytes each.
+ */
+final class IntKeySet {
+
+    private static final int ARRAY_LIMIT = 4096;
+    private static final int BITMAP_WORDS = 1024;
+
+    private int[] highs = new int[4];
+    private Container[] containers = new Container[4];
+    private int containerCount = 0;
+    private long size = 0;
+    private Container lastContainer;
+    private int lastHigh = -1;
+
+    /**
+     * @return false if the key was already in the set
+     */
+    boolean add(int key) {
+        final int high = key >>> 16;
+        Container container = high == lastHigh ? lastContainer : null;
+        if (container == null) {
+            int index = Arrays.binarySearch(highs, 0, containerCount, high);
+            if (index < 0) {
+                index = -index - 1;
+                insertContainer(index, high);
+            }
+            container = containers[index];
+            lastHigh = high;
+            lastContainer = container;
+        }
+        if (container.add((char) key)) {
+            size++;
+            return true;
+        }
+        return false;
+    }
+
+    boolean contains(int key) {
+        final int high = key >>> 16;
+        if (high == lastHigh) {
+            return lastContainer.contains((char) key);
+        }
+        final int index = Arrays.binarySearch(highs, 0, containerCount, high);
+        return index >= 0 && containers[index].contains((char) key);
+    }
+
+    long size() {
+        return size;
+    }
+
+    /**
+     * @return the approximate number of bytes used by the set
+     */
+    long memoryBytes() {
+        long bytes = 8L * highs.length;
+        for (int i = 0; i < containerCount; i++) {
+            bytes += containers[i].memoryBytes();
+        }
+        return bytes;
+    }
+
+    /**
+     * Calls a consumer with each key of the set, in unsigned order.
+     */
+    void forEach(IntConsumer consumer) {
+        for (int i = 0; i < containerCount; i++) {
+            containers[i].forEach(highs[i] << 16, consumer);
+        }
+    }
+
+    private void insertContainer(int index, int high) {
+        if (containerCount == highs.length) {
+            highs = Arrays.copyOf(highs, containerCount * 2);
+            containers = Arrays.copyOf(containers, containerCount * 2);
+        }
+        System.arraycopy(highs, index, highs, index + 1, containerCount - index);
+        System.arraycopy(containers, index, containers, index + 1, containerCount - index);
+        highs[index] = high;
+        containers[index] = new Container();
+        containerCount++;
+    }
+
+    /**
+     * Low 16 bits of the keys sharing the same high bits, in a sorted array or in a bitmap.
+     */
+    private static final class Container {
+
+        private char[] values = new char[4];
+        private long[] bitmap;
+        private int cardinality = 0;
+
+        boolean add(char low) {
+            if (bitmap != null) {
+                final long mask = 1L << low;
+                final int word = low >>> 6;
+                if ((bitmap[word] & mask) != 0) {
+                    return false;
+                }
+                bitmap[word] |= mask;
+                cardinality++;
+                return true;
+            }
+
+            int index;
+            if (cardinality == 0 || values[cardinality - 1] < low) {
+                // Keys are often added in ascending order
+                index = cardinality;
+            } else {
+                index = Arrays.binarySearch(values, 0, cardinality, low);
+                if (index >= 0) {
+                    return false;
+                }
+                index = -index - 1;
+            }
+            if (cardinality == ARRAY_LIMIT) {
+                toBitmap();
+                return add(low);
+            }
+            if (cardinality == values.length) {
+                values = Arrays.copyOf(values, Math.min(ARRAY_LIMIT, cardinality * 2));
+            }
+            System.arraycopy(values, index, values, index + 1, cardinality - index);
+            values[index] = low;
+            cardinality++;
+            return true;
+        }
+
+        boolean contains(char low) {
+            if (bitmap != null) {
+                return (bitmap[low >>> 6] & (1L << low)) != 0;
+            }
+            return Arrays.binarySearch(values, 0, cardinality, low) >= 0;
+        }
+
+        long memoryBytes() {
+            return bitmap != null ? 8L * bitmap.length : 2L * values.length;
+        }
+
+        void forEach(int high, IntConsumer consumer) {
+            if (bitmap != null) {
+                for (int word = 0; word < BITMAP_WORDS; word++) {
+                    long bits = bitmap[word];
+                    while (bits != 0) {
+                        consumer.accept(high | (word << 6) | Long.numberOfTrailingZeros(bits));
+                        bits &= bits - 1;
+                    }
+                }
+            } else {
+                for (int i = 0; i < cardinality; i++) {
+                    consumer.accept(high | values[i]);
+                }
+            }
+        }
+
+        private void toBitmap() {
+            bitmap = new long[BITMAP_WORDS];
+            for (int i = 0; i < cardinality; i++) {
+                bitmap[values[i] >>> 6] |= 1L << values[i];
+            }
+            values = null;
+        }
+    }
+}
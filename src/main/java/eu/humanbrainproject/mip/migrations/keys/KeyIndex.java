@@ -0,0 +1,142 @@
+package eu.humanbrainproject.mip.migrations.keys;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+
+/**
+ * Index of the distinct values of a key column, used to enforce primary key and unique constraints while the rows
+ * are read, and to measure how the keys of a table are covered by the keys of another table.
+ *
+ * Keys with an integer value in the range of int are stored in a compressed bitmap, all other keys as strings in
+ * an open addressing hash set, so that the memory used stays proportional to the number of keys without a boxed
+ * object per key. Null values are never indexed, as a unique constraint accepts several null values.
+ *
+ * The index can be shared by the threads converting the chunks of a file in parallel.
+ */
+public final class KeyIndex {
+
+    private static final BigDecimal MIN_INT = BigDecimal.valueOf(Integer.MIN_VALUE);
+    private static final BigDecimal MAX_INT = BigDecimal.valueOf(Integer.MAX_VALUE);
+
+    private final String column;
+    private final IntKeySet ints = new IntKeySet();
+    private final StringKeySet strings = new StringKeySet();
+
+    /**
+     * @param column the name of the key column, used in the messages
+     */
+    public KeyIndex(String column) {
+        this.column = column;
+    }
+
+    public String getColumn() {
+        return column;
+    }
+
+    /**
+     * @return false if the key was already in the index
+     */
+    public synchronized boolean add(int key) {
+        return ints.add(key);
+    }
+
+    /**
+     * @return false if the key was already in the index, a key out of the range of int being indexed as a string
+     */
+    public synchronized boolean add(long key) {
+        if (key == (int) key) {
+            return ints.add((int) key);
+        }
+        return strings.add(Long.toString(key));
+    }
+
+    /**
+     * @return false if the key, given as characters, was already in the index
+     */
+    public synchronized boolean add(char[] chars, int offset, int length) {
+        return strings.add(chars, offset, length);
+    }
+
+    /**
+     * @param key a value converted by the cell processors or read from the database, not null
+     * @return false if the key was already in the index
+     */
+    public synchronized boolean add(Object key) {
+        if (isInt(key)) {
+            return ints.add(((Number) key).intValue());
+        }
+        return strings.add(toKeyString(key));
+    }
+
+    public synchronized boolean contains(Object key) {
+        if (isInt(key)) {
+            return ints.contains(((Number) key).intValue());
+        }
+        return strings.contains(toKeyString(key));
+    }
+
+    /**
+     * @return the number of distinct keys
+     */
+    public synchronized long size() {
+        return ints.size() + strings.size();
+    }
+
+    /**
+     * @return the approximate number of bytes used by the index
+     */
+    public synchronized long memoryBytes() {
+        return ints.memoryBytes() + strings.memoryBytes();
+    }
+
+    /**
+     * @return the number of keys of this index also found in another index
+     */
+    public long countFoundIn(KeyIndex other) {
+        synchronized (this) {
+            synchronized (other) {
+                final long[] found = {strings.countFoundIn(other.strings)};
+                ints.forEach(key -> {
+                    if (other.ints.contains(key)) {
+                        found[0]++;
+                    }
+                });
+                return found[0];
+            }
+        }
+    }
+
+    /**
+     * @return true if the key is a number with an integer value in the range of int, so that the same number read
+     * from columns of different types gives the same key
+     */
+    private static boolean isInt(Object key) {
+        if (key instanceof Integer || key instanceof Short || key instanceof Byte) {
+            return true;
+        } else if (key instanceof Long) {
+            final long value = (Long) key;
+            return value == (int) value;
+        } else if (key instanceof Double || key instanceof Float) {
+            final double value = ((Number) key).doubleValue();
+            return value == (int) value;
+        } else if (key instanceof BigInteger) {
+            return ((BigInteger) key).bitLength() < 32;
+        } else if (key instanceof BigDecimal) {
+            final BigDecimal value = (BigDecimal) key;
+            return value.signum() == 0 || (value.stripTrailingZeros().scale() <= 0 && value.compareTo(MIN_INT) >= 0
+                    && value.compareTo(MAX_INT) <= 0);
+        }
+        return false;
+    }
+
+    private static CharSequence toKeyString(Object key) {
+        if (key instanceof CharSequence) {
+            return (CharSequence) key;
+        } else if (key instanceof BigDecimal) {
+            return ((BigDecimal) key).stripTrailingZeros().toPlainString();
+        } else if ((key instanceof Double || key instanceof Float) && Double.isFinite(((Number) key).doubleValue())) {
+            return BigDecimal.valueOf(((Number) key).doubleValue()).stripTrailingZeros().toPlainString();
+        }
+        return key.toString();
+    }
+}
@@ -0,0 +1,205 @@
+package eu.humanbrainproject.mip.migrations.keys;
+
+import java.util.Arrays;
+
+/**
+ * Set of string keys in an open addressing hash table.
+ *
+ * Keys are stored exactly, encoded in UTF-8 one after the other in a single byte slab, so that two keys with the
+ * same hash code are never mistaken for duplicates. The table only holds the index of each key, and the hash of each
+ * key is kept to skip most byte comparisons. Besides the bytes of the keys, each key costs about 16 bytes.
+ */
+final class StringKeySet {
+
+    private byte[] slab = new byte[4096];
+    private int[] offsets = new int[257];
+    private int[] hashes = new int[256];
+    private int[] slots = new int[512];
+    private int size = 0;
+
+    /**
+     * @return false if the key was already in the set
+     */
+    boolean add(CharSequence key) {
+        final int start = offsets[size];
+        final int end = encode(key, 0, key.length(), start);
+        return addEncoded(start, end);
+    }
+
+    /**
+     * @return false if the key, given as characters, was already in the set
+     */
+    boolean add(char[] chars, int offset, int length) {
+        final int start = offsets[size];
+        final int end = encode(chars, offset, length, start);
+        return addEncoded(start, end);
+    }
+
+    boolean contains(CharSequence key) {
+        // The key is encoded after the last key, without being added
+        final int start = offsets[size];
+        final int end = encode(key, 0, key.length(), start);
+        return find(slab, start, end - start, hash(slab, start, end)) >= 0;
+    }
+
+    long size() {
+        return size;
+    }
+
+    /**
+     * @return the approximate number of bytes used by the set
+     */
+    long memoryBytes() {
+        return slab.length + 4L * (offsets.length + hashes.length + slots.length);
+    }
+
+    /**
+     * @return the number of keys of this set also found in another set
+     */
+    long countFoundIn(StringKeySet other) {
+        long found = 0;
+        for (int i = 0; i < size; i++) {
+            if (other.find(slab, offsets[i], offsets[i + 1] - offsets[i], hashes[i]) >= 0) {
+                found++;
+            }
+        }
+        return found;
+    }
+
+    private boolean addEncoded(int start, int end) {
+        final int hash = hash(slab, start, end);
+        int slot = hash & (slots.length - 1);
+        int key;
+        while ((key = slots[slot]) != 0) {
+            if (hashes[key - 1] == hash && equals(key - 1, slab, start, end - start)) {
+                return false;
+            }
+            slot = (slot + 1) & (slots.length - 1);
+        }
+        slots[slot] = size + 1;
+        hashes[size] = hash;
+        size++;
+        if (size == hashes.length) {
+            hashes = Arrays.copyOf(hashes, size * 2);
+            offsets = Arrays.copyOf(offsets, size * 2 + 1);
+        }
+        offsets[size] = end;
+        if (size * 2 > slots.length) {
+            rehash();
+        }
+        return true;
+    }
+
+    /**
+     * @return the index of a key given as UTF-8 bytes, or -1 if it is not in the set
+     */
+    private int find(byte[] bytes, int offset, int length, int hash) {
+        int slot = hash & (slots.length - 1);
+        int key;
+        while ((key = slots[slot]) != 0) {
+            if (hashes[key - 1] == hash && equals(key - 1, bytes, offset, length)) {
+                return key - 1;
+            }
+            slot = (slot + 1) & (slots.length - 1);
+        }
+        return -1;
+    }
+
+    private boolean equals(int key, byte[] bytes, int offset, int length) {
+        final int start = offsets[key];
+        if (offsets[key + 1] - start != length) {
+            return false;
+        }
+        for (int i = 0; i < length; i++) {
+            if (slab[start + i] != bytes[offset + i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void rehash() {
+        slots = new int[slots.length * 2];
+        for (int key = 0; key < size; key++) {
+            int slot = hashes[key] & (slots.length - 1);
+            while (slots[slot] != 0) {
+                slot = (slot + 1) & (slots.length - 1);
+            }
+            slots[slot] = key + 1;
+        }
+    }
+
+    private static int hash(byte[] bytes, int start, int end) {
+        int hash = 0;
+        for (int i = start; i < end; i++) {
+            hash = 31 * hash + bytes[i];
+        }
+        // Spread the bits, as the low bits select the slot
+        hash *= 0x9E3779B9;
+        return hash ^ (hash >>> 16);
+    }
+
+    private int encode(CharSequence chars, int offset, int length, int position) {
+        ensureSlab(position + 3 * length);
+        final byte[] slab = this.slab;
+        for (int i = offset; i < offset + length; i++) {
+            final char c = chars.charAt(i);
+            if (c < 0x80) {
+                slab[position++] = (byte) c;
+            } else {
+                position = encode(c, i + 1 < offset + length ? chars.charAt(i + 1) : 0, position);
+                if (Character.isHighSurrogate(c) && i + 1 < offset + length && Character.isLowSurrogate(chars.charAt(i + 1))) {
+                    i++;
+                }
+            }
+        }
+        return position;
+    }
+
+    private int encode(char[] chars, int offset, int length, int position) {
+        ensureSlab(position + 3 * length);
+        final byte[] slab = this.slab;
+        for (int i = offset; i < offset + length; i++) {
+            final char c = chars[i];
+            if (c < 0x80) {
+                slab[position++] = (byte) c;
+            } else {
+                position = encode(c, i + 1 < offset + length ? chars[i + 1] : 0, position);
+                if (Character.isHighSurrogate(c) && i + 1 < offset + length && Character.isLowSurrogate(chars[i + 1])) {
+                    i++;
+                }
+            }
+        }
+        return position;
+    }
+
+    /**
+     * Encodes a non ASCII character, or a surrogate pair with the next character.
+     */
+    private int encode(char c, char next, int position) {
+        final byte[] slab = this.slab;
+        if (c < 0x800) {
+            slab[position++] = (byte) (0xC0 | (c >> 6));
+            slab[position++] = (byte) (0x80 | (c & 0x3F));
+        } else if (Character.isHighSurrogate(c) && Character.isLowSurrogate(next)) {
+            final int codePoint = Character.toCodePoint(c, next);
+            slab[position++] = (byte) (0xF0 | (codePoint >> 18));
+            slab[position++] = (byte) (0x80 | ((codePoint >> 12) & 0x3F));
+            slab[position++] = (byte) (0x80 | ((codePoint >> 6) & 0x3F));
+            slab[position++] = (byte) (0x80 | (codePoint & 0x3F));
+        } else if (Character.isSurrogate(c)) {
+            slab[position++] = '?';
+        } else {
+            slab[position++] = (byte) (0xE0 | (c >> 12));
+            slab[position++] = (byte) (0x80 | ((c >> 6) & 0x3F));
+            slab[position++] = (byte) (0x80 | (c & 0x3F));
+        }
+        return position;
+    }
+
+    private void ensureSlab(int length) {
+        if (length > slab.length) {
+            slab = Arrays.copyOf(slab, Math.max(length, slab.length * 2));
+        }
+    }
+}
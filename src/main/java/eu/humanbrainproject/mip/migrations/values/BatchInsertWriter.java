@@ -0,0 +1,155 @@
+package eu.humanbrainproject.mip.migrations.values;
+
+import eu.humanbrainproject.mip.migrations.LoadMetrics;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.List;
+
+/**
+ * Inserts the rows using a prepared INSERT statement executed in JDBC batches.
+ *
+ * With a reject file, the rows of the batch are kept in a {@link ColumnBatch} and bound when the batch is executed,
+ * so that a failed batch can be bisected to reject the failing rows and insert the others.
+ */
+class BatchInsertWriter implements DatasetWriter {
+
+    private static final Logger LOG = LoggerFactory.getLogger("Setup data-package");
+
+    private final Connection connection;
+    private final LoadPlan plan;
+    private final BatchPolicy batchPolicy;
+    private final PreparedStatement statement;
+    private final RejectFile rejects;
+    private final ColumnBatch pending;
+    private long records = 0;
+    private long rejected = 0;
+    private int batchRecords = 0;
+    private long batchBytes = 0;
+    private long bindNanos = 0;
+    private long executeNanos = 0;
+
+    BatchInsertWriter(Connection connection, LoadPlan plan, BatchPolicy batchPolicy) throws SQLException {
+        this(connection, plan, batchPolicy, plan.getInsertSql(1), null);
+    }
+
+    /**
+     * @param rejects the file receiving the rows rejected by the database, or null to fail on the first error
+     */
+    BatchInsertWriter(Connection connection, LoadPlan plan, BatchPolicy batchPolicy, RejectFile rejects) throws SQLException {
+        this(connection, plan, batchPolicy, plan.getInsertSql(1), rejects);
+    }
+
+    /**
+     * @param sql the statement executed for each row, with one parameter per column of the load plan
+     * @param rejects the file receiving the rows rejected by the database, or null to fail on the first error
+     */
+    BatchInsertWriter(Connection connection, LoadPlan plan, BatchPolicy batchPolicy, String sql, RejectFile rejects)
+            throws SQLException {
+        this.connection = connection;
+        this.plan = plan;
+        this.batchPolicy = batchPolicy;
+        this.statement = connection.prepareStatement(sql);
+        this.rejects = rejects;
+        this.pending = rejects == null ? null : ColumnBatch.forPlan(plan);
+    }
+
+    @Override
+    public void write(List<Object> values) throws SQLException, IOException {
+        if (pending != null) {
+            pending.addRow(values);
+        } else {
+            final long start = System.nanoTime();
+            plan.bind(statement, 1, values);
+            statement.addBatch();
+            bindNanos += System.nanoTime() - start;
+        }
+        if (batchPolicy.isByteBudgetDefined()) {
+            batchBytes += BatchPolicy.estimateSize(values);
+        }
+        added();
+    }
+
+    @Override
+    public void write(ColumnBatch batch) throws SQLException, IOException {
+        for (int row = 0; row < batch.size(); row++) {
+            if (pending != null) {
+                pending.addRow(batch, row);
+            } else {
+                final long start = System.nanoTime();
+                plan.bind(statement, 1, batch, row);
+                statement.addBatch();
+                bindNanos += System.nanoTime() - start;
+            }
+            if (batchPolicy.isByteBudgetDefined()) {
+                batchBytes += batch.estimateSize(row);
+            }
+            added();
+        }
+    }
+
+    private void added() throws SQLException, IOException {
+        records++;
+        batchRecords++;
+        if (batchPolicy.isFull(batchRecords, batchBytes)) {
+            executeBatch();
+            LOG.info("Saving batch records #" + records);
+        }
+    }
+
+    private void executeBatch() throws SQLException, IOException {
+        final long start = System.nanoTime();
+        if (pending != null) {
+            rejected += Bisection.insert(connection, pending, this::insertPending, rejects);
+            pending.clear();
+        } else {
+            statement.executeBatch();
+        }
+        final long elapsed = System.nanoTime() - start;
+        executeNanos += elapsed;
+        batchPolicy.executed(batchRecords, elapsed);
+        batchRecords = 0;
+        batchBytes = 0;
+    }
+
+    /**
+     * Binds and executes a range of the pending rows.
+     */
+    private void insertPending(int from, int to) throws SQLException {
+        try {
+            final long start = System.nanoTime();
+            for (int row = from; row < to; row++) {
+                plan.bind(statement, 1, pending, row);
+                statement.addBatch();
+            }
+            // The rows are bound while the batch is executed, their bind time is not counted as execution time
+            final long bindTime = System.nanoTime() - start;
+            bindNanos += bindTime;
+            executeNanos -= bindTime;
+            statement.executeBatch();
+        } finally {
+            statement.clearBatch();
+        }
+    }
+
+    @Override
+    public long finish() throws SQLException, IOException {
+        if (batchRecords > 0) {
+            executeBatch(); // insert remaining records
+        }
+        plan.getMetrics().addTime(LoadMetrics.Phase.BIND, bindNanos);
+        plan.getMetrics().addTime(LoadMetrics.Phase.EXECUTE, executeNanos);
+        bindNanos = 0;
+        executeNanos = 0;
+        return records - rejected;
+    }
+
+    @Override
+    public void close() throws SQLException {
+        statement.close();
+    }
+}
@@ -0,0 +1,164 @@
+package eu.humanbrainproject.mip.migrations.values;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.List;
+
+/**
+ * Decides when a batch of records should be sent to the database.
+ *
+ * A batch is full when it contains the configured number of records or, if a byte budget is defined, when the
+ * estimated size of its values exceeds the budget. In adaptive mode, the number of records per batch is tuned
+ * from the throughput measured on the previous batches: the size is doubled or halved as long as throughput
+ * improves, then it stays on the best size found.
+ */
+final class BatchPolicy {
+
+    private static final Logger LOG = LoggerFactory.getLogger("Setup data-package");
+
+    static final int DEFAULT_BATCH_SIZE = 100;
+    static final String ADAPTIVE = "adaptive";
+
+    private static final int MIN_ADAPTIVE_SIZE = 10;
+    private static final int MAX_ADAPTIVE_SIZE = 20000;
+    private static final int BATCHES_PER_MEASURE = 5;
+    private static final double MIN_IMPROVEMENT = 1.05;
+    private static final int NUMBER_SIZE = 8;
+
+    private final boolean adaptive;
+    private final long byteBudget;
+    private int batchSize;
+    private int maxBatchSize = Integer.MAX_VALUE;
+
+    // State of the adaptive tuning
+    private long measuredRecords = 0;
+    private long measuredNanos = 0;
+    private int measuredBatches = 0;
+    private double previousThroughput = 0;
+    private int previousBatchSize = 0;
+    private boolean growing = true;
+    private boolean settled = false;
+
+    private BatchPolicy(int batchSize, long byteBudget, boolean adaptive) {
+        this.batchSize = batchSize;
+        this.byteBudget = byteBudget;
+        this.adaptive = adaptive;
+    }
+
+    /**
+     * @param batchSize number of records per batch, 'adaptive' to tune it automatically, or null for the default size
+     * @param byteBudget maximum estimated size in bytes of a batch, or null for no limit
+     * @return the batch policy
+     */
+    static BatchPolicy create(String batchSize, Long byteBudget) {
+        final long budget = byteBudget == null ? 0 : byteBudget;
+        if (batchSize == null || "".equals(batchSize.trim())) {
+            return new BatchPolicy(DEFAULT_BATCH_SIZE, budget, false);
+        }
+        if (ADAPTIVE.equalsIgnoreCase(batchSize.trim())) {
+            return new BatchPolicy(DEFAULT_BATCH_SIZE, budget, true);
+        }
+        try {
+            final int size = Integer.parseInt(batchSize.trim());
+            if (size < 1) {
+                throw new IllegalArgumentException("Batch size should be a positive number, found " + batchSize);
+            }
+            return new BatchPolicy(size, budget, false);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Invalid batch size " + batchSize + ", expected a number or 'adaptive'");
+        }
+    }
+
+    /**
+     * Limits the number of records per batch, used when a batch is sent as one statement with a bounded number
+     * of parameters.
+     */
+    void limitBatchSize(int maxBatchSize) {
+        this.maxBatchSize = Math.max(1, maxBatchSize);
+    }
+
+    int getBatchSize() {
+        return Math.min(batchSize, maxBatchSize);
+    }
+
+    boolean isByteBudgetDefined() {
+        return byteBudget > 0;
+    }
+
+    boolean isFull(int records, long bytes) {
+        return records >= getBatchSize() || (byteBudget > 0 && bytes >= byteBudget);
+    }
+
+    /**
+     * @return the estimated size in bytes of the values of a row
+     */
+    static long estimateSize(List<Object> values) {
+        long size = 0;
+        for (Object v : values) {
+            if (v instanceof String) {
+                size += ((String) v).length();
+            } else if (v != null) {
+                size += NUMBER_SIZE;
+            }
+        }
+        return size;
+    }
+
+    /**
+     * Records the execution of a batch, used to tune the size of the next batches in adaptive mode.
+     *
+     * @param records number of records in the batch
+     * @param nanos time spent to send the batch and wait for the database
+     */
+    void executed(int records, long nanos) {
+        if (!adaptive || settled) {
+            return;
+        }
+        // Only full batches tell something about the current batch size
+        if (records < getBatchSize()) {
+            return;
+        }
+        measuredRecords += records;
+        measuredNanos += Math.max(1, nanos);
+        if (++measuredBatches < BATCHES_PER_MEASURE) {
+            return;
+        }
+
+        final double throughput = measuredRecords * 1e9 / measuredNanos;
+        measuredRecords = 0;
+        measuredNanos = 0;
+        measuredBatches = 0;
+
+        if (previousBatchSize != 0 && throughput < previousThroughput * MIN_IMPROVEMENT) {
+            if (throughput < previousThroughput) {
+                batchSize = previousBatchSize;
+            }
+            if (growing) {
+                // Try the other direction once, from the best size found so far
+                growing = false;
+                previousThroughput = Math.max(throughput, previousThroughput);
+                previousBatchSize = batchSize;
+                batchSize = Math.max(MIN_ADAPTIVE_SIZE, batchSize / 2);
+                if (batchSize == previousBatchSize) {
+                    settle();
+                }
+            } else {
+                settle();
+            }
+            return;
+        }
+
+        previousThroughput = throughput;
+        previousBatchSize = batchSize;
+        batchSize = growing ? Math.min(MAX_ADAPTIVE_SIZE, batchSize * 2) : Math.max(MIN_ADAPTIVE_SIZE, batchSize / 2);
+        if (batchSize == previousBatchSize || getBatchSize() == Math.min(previousBatchSize, maxBatchSize)) {
+            settle();
+        }
+    }
+
+    private void settle() {
+        settled = true;
+        LOG.info("Adaptive batch size settled on " + getBatchSize() + " records per batch");
+    }
+}
@@ -0,0 +1,314 @@
+package eu.humanbrainproject.mip.migrations.values;
+
+import org.postgresql.copy.CopyIn;
+
+import java.nio.ByteBuffer;
+import java.sql.SQLException;
+
+/**
+ * Encodes rows in the binary format of PostgreSQL COPY into a reusable buffer, and sends the buffer to the server
+ * each time it is full.
+ *
+ * Values are written from primitives: integers and floating point numbers are written as their binary
+ * representation, numbers and strings are encoded digit by digit and char by char into the buffer, without
+ * intermediate objects. The buffer wraps a byte array as the driver only accepts arrays, it is only reallocated
+ * when a single value does not fit.
+ */
+final class BinaryCopyBuffer {
+
+    private static final byte[] SIGNATURE = {'P', 'G', 'C', 'O', 'P', 'Y', '\n', (byte) 0xff, '\r', '\n', 0};
+
+    private static final short NUMERIC_POSITIVE = 0x0000;
+    private static final short NUMERIC_NEGATIVE = 0x4000;
+    private static final short NUMERIC_NAN = (short) 0xC000;
+
+    /** Largest magnitude of an integral double that Double.toString prints as digits followed by ".0" */
+    private static final double PLAIN_DOUBLE_LIMIT = 1e7;
+
+    private final CopyIn copyIn;
+    private ByteBuffer buffer;
+    private byte[] digits = new byte[32];
+
+    BinaryCopyBuffer(CopyIn copyIn, int capacity) throws SQLException {
+        this.copyIn = copyIn;
+        this.buffer = ByteBuffer.wrap(new byte[capacity]);
+        buffer.put(SIGNATURE);
+        buffer.putInt(0);
+        buffer.putInt(0);
+    }
+
+    void startRow(int columns) throws SQLException {
+        ensure(2);
+        buffer.putShort((short) columns);
+    }
+
+    void writeNull() throws SQLException {
+        ensure(4);
+        buffer.putInt(-1);
+    }
+
+    void writeInt2(short value) throws SQLException {
+        ensure(6);
+        buffer.putInt(2).putShort(value);
+    }
+
+    void writeInt4(int value) throws SQLException {
+        ensure(8);
+        buffer.putInt(4).putInt(value);
+    }
+
+    void writeInt8(long value) throws SQLException {
+        ensure(12);
+        buffer.putInt(8).putLong(value);
+    }
+
+    void writeFloat4(float value) throws SQLException {
+        ensure(8);
+        buffer.putInt(4).putFloat(value);
+    }
+
+    void writeFloat8(double value) throws SQLException {
+        ensure(12);
+        buffer.putInt(8).putDouble(value);
+    }
+
+    /**
+     * @param days number of days since 2000-01-01
+     */
+    void writeDate(int days) throws SQLException {
+        writeInt4(days);
+    }
+
+    /**
+     * @param micros number of microseconds since 2000-01-01 00:00:00
+     */
+    void writeTimestamp(long micros) throws SQLException {
+        writeInt8(micros);
+    }
+
+    /**
+     * @param micros number of microseconds since midnight
+     */
+    void writeTime(long micros) throws SQLException {
+        writeInt8(micros);
+    }
+
+    /**
+     * Writes a string encoded in UTF-8.
+     */
+    void writeText(CharSequence value) throws SQLException {
+        final int length = value.length();
+        ensure(4 + 3 * length);
+        final int lengthPosition = buffer.position();
+        buffer.position(lengthPosition + 4);
+        final byte[] array = buffer.array();
+        int position = buffer.position();
+        for (int i = 0; i < length; i++) {
+            final char c = value.charAt(i);
+            if (c < 0x80) {
+                array[position++] = (byte) c;
+            } else if (c < 0x800) {
+                array[position++] = (byte) (0xC0 | (c >> 6));
+                array[position++] = (byte) (0x80 | (c & 0x3F));
+            } else if (Character.isHighSurrogate(c) && i + 1 < length && Character.isLowSurrogate(value.charAt(i + 1))) {
+                final int codePoint = Character.toCodePoint(c, value.charAt(++i));
+                array[position++] = (byte) (0xF0 | (codePoint >> 18));
+                array[position++] = (byte) (0x80 | ((codePoint >> 12) & 0x3F));
+                array[position++] = (byte) (0x80 | ((codePoint >> 6) & 0x3F));
+                array[position++] = (byte) (0x80 | (codePoint & 0x3F));
+            } else if (Character.isSurrogate(c)) {
+                array[position++] = '?';
+            } else {
+                array[position++] = (byte) (0xE0 | (c >> 12));
+                array[position++] = (byte) (0x80 | ((c >> 6) & 0x3F));
+                array[position++] = (byte) (0x80 | (c & 0x3F));
+            }
+        }
+        buffer.putInt(lengthPosition, position - lengthPosition - 4);
+        buffer.position(position);
+    }
+
+    /**
+     * Writes a string already encoded in UTF-8.
+     */
+    void writeText(byte[] bytes, int offset, int length) throws SQLException {
+        ensure(4 + length);
+        buffer.putInt(length);
+        buffer.put(bytes, offset, length);
+    }
+
+    /**
+     * Writes a double into a numeric column, with the same value and scale as the text written by
+     * {@link Double#toString(double)}, which is what a text COPY would send.
+     */
+    void writeNumeric(double value) throws SQLException {
+        if (Double.isNaN(value)) {
+            ensure(12);
+            buffer.putInt(8).putShort((short) 0).putShort((short) 0).putShort(NUMERIC_NAN).putShort((short) 0);
+        } else if (Double.isInfinite(value)) {
+            throw new IllegalArgumentException("Cannot store infinite value in a numeric column");
+        } else if (value == Math.rint(value) && Math.abs(value) < PLAIN_DOUBLE_LIMIT) {
+            // Printed as the integer followed by ".0"
+            writeNumeric((long) value * 10, 1);
+        } else {
+            writeNumeric(Double.toString(value));
+        }
+    }
+
+    /**
+     * Writes the decimal number unscaledValue * 10^-scale into a numeric column, with a display scale of scale.
+     */
+    void writeNumeric(long unscaledValue, int scale) throws SQLException {
+        final boolean negative = unscaledValue < 0;
+        int count = 0;
+        long remaining = unscaledValue;
+        do {
+            ensureDigits(count + 1);
+            digits[count++] = (byte) Math.abs(remaining % 10);
+            remaining /= 10;
+        } while (remaining != 0);
+        reverse(digits, count);
+        writeNumericDigits(negative, count, count - scale, Math.max(0, scale));
+    }
+
+    /**
+     * Writes a decimal number in the text format accepted by PostgreSQL, including exponents, into a numeric
+     * column.
+     */
+    void writeNumeric(CharSequence value) throws SQLException {
+        final int length = value.length();
+        int i = 0;
+        boolean negative = false;
+        if (i < length && (value.charAt(i) == '-' || value.charAt(i) == '+')) {
+            negative = value.charAt(i) == '-';
+            i++;
+        }
+        if (length - i == 3 && "nan".equalsIgnoreCase(value.subSequence(i, length).toString())) {
+            writeNumeric(Double.NaN);
+            return;
+        }
+        int count = 0;
+        int integerDigits = 0;
+        int fractionDigits = 0;
+        boolean point = false;
+        for (; i < length; i++) {
+            final char c = value.charAt(i);
+            if (c >= '0' && c <= '9') {
+                ensureDigits(count + 1);
+                digits[count++] = (byte) (c - '0');
+                if (point) {
+                    fractionDigits++;
+                } else {
+                    integerDigits++;
+                }
+            } else if (c == '.' && !point) {
+                point = true;
+            } else {
+                break;
+            }
+        }
+        int exponent = 0;
+        if (i < length && (value.charAt(i) == 'e' || value.charAt(i) == 'E')) {
+            exponent = Integer.parseInt(value.subSequence(i + 1, length).toString());
+            i = length;
+        }
+        if (i != length || count == 0) {
+            throw new NumberFormatException("Invalid numeric value " + value);
+        }
+        writeNumericDigits(negative, count, integerDigits + exponent, Math.max(0, fractionDigits - exponent));
+    }
+
+    /**
+     * Writes the decimal digits held in the digits buffer.
+     *
+     * @param negative true for a negative number
+     * @param count number of decimal digits
+     * @param pointPosition position of the decimal point in the digits, can be negative or beyond the digits
+     * @param displayScale number of digits displayed after the decimal point
+     */
+    private void writeNumericDigits(boolean negative, int count, int pointPosition, int displayScale) throws SQLException {
+        int first = 0;
+        while (first < count && digits[first] == 0) {
+            first++;
+            pointPosition--;
+        }
+        int last = count;
+        while (last > first && digits[last - 1] == 0) {
+            last--;
+        }
+        if (first == last) {
+            ensure(12);
+            buffer.putInt(8).putShort((short) 0).putShort((short) 0).putShort(NUMERIC_POSITIVE).putShort((short) displayScale);
+            return;
+        }
+
+        // Group the decimal digits by 4 into base 10000 digits, the group of the first digit gives the weight
+        final int firstDigitExponent = pointPosition - 1;
+        final int weight = Math.floorDiv(firstDigitExponent, 4);
+        final int leadingPadding = 3 - Math.floorMod(firstDigitExponent, 4);
+        final int groups = (leadingPadding + last - first + 3) / 4;
+
+        ensure(12 + 2 * groups);
+        buffer.putInt(8 + 2 * groups).putShort((short) groups).putShort((short) weight)
+                .putShort(negative ? NUMERIC_NEGATIVE : NUMERIC_POSITIVE).putShort((short) displayScale);
+        int position = first - leadingPadding;
+        for (int g = 0; g < groups; g++) {
+            int group = 0;
+            for (int d = 0; d < 4; d++, position++) {
+                group = group * 10 + (position >= first && position < last ? digits[position] : 0);
+            }
+            buffer.putShort((short) group);
+        }
+    }
+
+    private void ensureDigits(int count) {
+        if (count > digits.length) {
+            final byte[] larger = new byte[digits.length * 2];
+            System.arraycopy(digits, 0, larger, 0, digits.length);
+            digits = larger;
+        }
+    }
+
+    private static void reverse(byte[] array, int count) {
+        for (int i = 0, j = count - 1; i < j; i++, j--) {
+            final byte tmp = array[i];
+            array[i] = array[j];
+            array[j] = tmp;
+        }
+    }
+
+    /**
+     * Makes room in the buffer for a number of bytes, sending the buffer to the server if needed.
+     */
+    private void ensure(int bytes) throws SQLException {
+        if (buffer.remaining() >= bytes) {
+            return;
+        }
+        flush();
+        if (buffer.capacity() < bytes) {
+            buffer = ByteBuffer.wrap(new byte[Math.max(bytes, buffer.capacity() * 2)]);
+        }
+    }
+
+    /**
+     * Sends the content of the buffer to the server.
+     */
+    void flush() throws SQLException {
+        if (buffer.position() > 0) {
+            copyIn.writeToCopy(buffer.array(), 0, buffer.position());
+            buffer.clear();
+        }
+    }
+
+    /**
+     * Writes the trailer of the COPY data and completes the COPY.
+     *
+     * @return the number of rows copied, as reported by the server
+     */
+    long finish() throws SQLException {
+        ensure(2);
+        buffer.putShort((short) -1);
+        flush();
+        return copyIn.endCopy();
+    }
+}
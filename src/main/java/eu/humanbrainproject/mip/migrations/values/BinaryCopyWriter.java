@@ -0,0 +1,410 @@
+package eu.humanbrainproject.mip.migrations.values;
+
+import eu.humanbrainproject.mip.migrations.LoadMetrics;
+import org.apache.commons.lang3.StringUtils;
+import org.postgresql.PGConnection;
+import org.postgresql.copy.CopyIn;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Timestamp;
+import java.sql.Types;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.LocalTime;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Streams the rows to PostgreSQL using COPY FROM STDIN in binary format.
+ *
+ * The encoding of each column is chosen from the type of the column in the catalog of the database, which must
+ * match the type of the field: binary COPY does not convert values on the server side. Integers and doubles are
+ * sent as their binary representation, without being formatted as text and parsed again by the server.
+ *
+ * The time spent encoding the rows, which includes sending the full buffers to the server, is measured as the bind
+ * phase, and the time spent completing the COPY as the execute phase.
+ */
+class BinaryCopyWriter implements DatasetWriter {
+
+    private static final Logger LOG = LoggerFactory.getLogger("Setup data-package");
+
+    private static final int BUFFER_SIZE = 65536;
+    private static final int LOG_INTERVAL = 100000;
+
+    private static final String COLUMN_TYPES_SQL = "SELECT a.attname, t.typname FROM pg_attribute a " +
+            "JOIN pg_type t ON t.oid = a.atttypid " +
+            "WHERE a.attrelid = CAST(? AS regclass) AND a.attnum > 0 AND NOT a.attisdropped";
+
+    /** Days between 1970-01-01 and 2000-01-01, the epoch of PostgreSQL */
+    private static final int POSTGRES_EPOCH_DAYS = 10957;
+    private static final long POSTGRES_EPOCH_MICROS = POSTGRES_EPOCH_DAYS * 86400L * 1000000L;
+
+    /**
+     * Writes the non null values of a column into the COPY buffer.
+     */
+    @FunctionalInterface
+    interface ColumnEncoder {
+        void encode(BinaryCopyBuffer buffer, Object value) throws SQLException;
+
+        /**
+         * Writes the non null value of a cell of a batch, by default from its boxed value.
+         */
+        default void encode(BinaryCopyBuffer buffer, ColumnBatch batch, int row, int column) throws SQLException {
+            encode(buffer, batch.getValue(column, row));
+        }
+    }
+
+    @FunctionalInterface
+    private interface IntEncoder {
+        void encode(BinaryCopyBuffer buffer, int value) throws SQLException;
+    }
+
+    @FunctionalInterface
+    private interface DoubleEncoder {
+        void encode(BinaryCopyBuffer buffer, double value) throws SQLException;
+    }
+
+    @FunctionalInterface
+    private interface LongEncoder {
+        void encode(BinaryCopyBuffer buffer, long value) throws SQLException;
+    }
+
+    private final LoadPlan plan;
+    private final CopyIn copyIn;
+    private final BinaryCopyBuffer buffer;
+    private final ColumnEncoder[] encoders;
+    private final boolean[] required;
+    private long records = 0;
+    private long bindNanos = 0;
+
+    BinaryCopyWriter(Connection connection, LoadPlan plan) throws SQLException {
+        this.plan = plan;
+        this.encoders = createEncoders(connection, plan);
+        this.required = new boolean[plan.getColumnCount()];
+        for (int i = 0; i < required.length; i++) {
+            required[i] = plan.getBinder(i).isRequired();
+        }
+
+        String copySql = "COPY \"" + plan.getTableName() + "\"(\"" + StringUtils.join(plan.getHeader(), "\",\"") + "\") " +
+                "FROM STDIN WITH (FORMAT binary)";
+        LOG.debug("Streaming records using " + copySql);
+
+        this.copyIn = connection.unwrap(PGConnection.class).getCopyAPI().copyIn(copySql);
+        this.buffer = new BinaryCopyBuffer(copyIn, BUFFER_SIZE);
+    }
+
+    /**
+     * Checks the types of the columns in the catalog and selects the encoder of each column.
+     */
+    private static ColumnEncoder[] createEncoders(Connection connection, LoadPlan plan) throws SQLException {
+        final Map<String, String> columnTypes = new HashMap<>();
+        try (PreparedStatement statement = connection.prepareStatement(COLUMN_TYPES_SQL)) {
+            statement.setString(1, "\"" + plan.getTableName() + "\"");
+            try (ResultSet rs = statement.executeQuery()) {
+                while (rs.next()) {
+                    columnTypes.put(rs.getString(1), rs.getString(2));
+                }
+            }
+        }
+        boolean integerDatetimes;
+        try (Statement statement = connection.createStatement();
+             ResultSet rs = statement.executeQuery("SHOW integer_datetimes")) {
+            integerDatetimes = rs.next() && "on".equals(rs.getString(1));
+        }
+
+        final ColumnEncoder[] encoders = new ColumnEncoder[plan.getColumnCount()];
+        for (int i = 0; i < encoders.length; i++) {
+            final String column = plan.getHeader()[i];
+            final String columnType = columnTypes.get(column);
+            if (columnType == null) {
+                throw new IllegalStateException("Column " + column + " does not exist in table " + plan.getTableName());
+            }
+            if (!integerDatetimes && (columnType.equals("timestamp") || columnType.equals("timestamptz") || columnType.equals("time"))) {
+                throw new IllegalStateException("Binary COPY of timestamps and times requires a server with integer_datetimes on," +
+                        " use the copy load mode");
+            }
+            encoders[i] = createEncoder(column, columnType, plan.getBinder(i).getSqlTypeCode());
+            if (encoders[i] == null) {
+                throw new IllegalStateException("Column " + column + " of table " + plan.getTableName() + " has type " +
+                        columnType + ", which cannot receive values of SQL type " + plan.getBinder(i).getSqlTypeCode() +
+                        " in binary COPY. Use the copy load mode or change the type of the field");
+            }
+        }
+        return encoders;
+    }
+
+    /**
+     * @return the encoder writing the values of a field into a column of the given type, or null if binary COPY
+     * cannot convert the values of the field to the type of the column
+     */
+    static ColumnEncoder createEncoder(String column, String columnType, int sqlTypeCode) {
+        switch (sqlTypeCode) {
+            case Types.INTEGER:
+                switch (columnType) {
+                    case "int2":
+                        return intEncoder(column, (buffer, v) -> {
+                            if (v < Short.MIN_VALUE || v > Short.MAX_VALUE) {
+                                throw new IllegalArgumentException("On column " + column + ", value " + v + " out of range for smallint");
+                            }
+                            buffer.writeInt2((short) v);
+                        });
+                    case "int4":
+                        return intEncoder(column, BinaryCopyBuffer::writeInt4);
+                    case "int8":
+                        return intEncoder(column, BinaryCopyBuffer::writeInt8);
+                    case "numeric":
+                        return intEncoder(column, (buffer, v) -> buffer.writeNumeric(v, 0));
+                    case "float8":
+                        return intEncoder(column, BinaryCopyBuffer::writeFloat8);
+                    default:
+                        return null;
+                }
+            case Types.NUMERIC:
+                switch (columnType) {
+                    case "numeric":
+                        return doubleEncoder(column, BinaryCopyBuffer::writeNumeric);
+                    case "float8":
+                        return doubleEncoder(column, BinaryCopyBuffer::writeFloat8);
+                    case "float4":
+                        return doubleEncoder(column, (buffer, v) -> buffer.writeFloat4((float) v));
+                    default:
+                        return null;
+                }
+            case Types.CHAR:
+            case Types.VARCHAR:
+            case Types.CLOB:
+                switch (columnType) {
+                    case "text":
+                    case "varchar":
+                    case "bpchar":
+                        return textEncoder(column);
+                    default:
+                        return null;
+                }
+            case Types.DATE:
+                if ("date".equals(columnType)) {
+                    return temporalEncoder((buffer, value) -> buffer.writeDate((int) (toLocalDate(column, value).toEpochDay() - POSTGRES_EPOCH_DAYS)),
+                            (buffer, days) -> buffer.writeDate((int) (days - POSTGRES_EPOCH_DAYS)));
+                }
+                return null;
+            case Types.TIMESTAMP:
+                // Date times with an offset are already converted to UTC, which is also how timestamptz are stored
+                if ("timestamp".equals(columnType) || "timestamptz".equals(columnType)) {
+                    return temporalEncoder((buffer, value) -> {
+                        final LocalDateTime dateTime = toLocalDateTime(column, value);
+                        buffer.writeTimestamp(toMicros(dateTime.toEpochSecond(ZoneOffset.UTC), dateTime.getNano()));
+                    }, (buffer, micros) -> buffer.writeTimestamp(micros - POSTGRES_EPOCH_MICROS));
+                }
+                return null;
+            case Types.TIME:
+                if ("time".equals(columnType)) {
+                    return temporalEncoder((buffer, value) -> buffer.writeTime(toLocalTime(column, value).toNanoOfDay() / 1000),
+                            BinaryCopyBuffer::writeTime);
+                }
+                return null;
+            default:
+                return null;
+        }
+    }
+
+    /**
+     * @return an encoder of dates, timestamps or times, reading the primitive values of the cells of a batch
+     */
+    private static ColumnEncoder temporalEncoder(ColumnEncoder encoder, LongEncoder batchEncoder) {
+        return new ColumnEncoder() {
+            @Override
+            public void encode(BinaryCopyBuffer buffer, Object value) throws SQLException {
+                encoder.encode(buffer, value);
+            }
+
+            @Override
+            public void encode(BinaryCopyBuffer buffer, ColumnBatch batch, int row, int c) throws SQLException {
+                batchEncoder.encode(buffer, batch.getTemporal(c, row));
+            }
+        };
+    }
+
+    /**
+     * @return an encoder of integer values, reading the cells of a batch without boxing them
+     */
+    private static ColumnEncoder intEncoder(String column, IntEncoder encoder) {
+        return new ColumnEncoder() {
+            @Override
+            public void encode(BinaryCopyBuffer buffer, Object value) throws SQLException {
+                encoder.encode(buffer, toInt(column, value));
+            }
+
+            @Override
+            public void encode(BinaryCopyBuffer buffer, ColumnBatch batch, int row, int c) throws SQLException {
+                encoder.encode(buffer, batch.getInt(c, row));
+            }
+        };
+    }
+
+    /**
+     * @return an encoder of double values, reading the cells of a batch without boxing them
+     */
+    private static ColumnEncoder doubleEncoder(String column, DoubleEncoder encoder) {
+        return new ColumnEncoder() {
+            @Override
+            public void encode(BinaryCopyBuffer buffer, Object value) throws SQLException {
+                encoder.encode(buffer, toDouble(column, value));
+            }
+
+            @Override
+            public void encode(BinaryCopyBuffer buffer, ColumnBatch batch, int row, int c) throws SQLException {
+                encoder.encode(buffer, batch.getDouble(c, row));
+            }
+        };
+    }
+
+    /**
+     * @return an encoder of strings, copying the UTF-8 bytes of the cells of a batch
+     */
+    private static ColumnEncoder textEncoder(String column) {
+        return new ColumnEncoder() {
+            @Override
+            public void encode(BinaryCopyBuffer buffer, Object value) throws SQLException {
+                if (!(value instanceof CharSequence)) {
+                    throw unexpectedType(column, "String", value);
+                }
+                buffer.writeText((CharSequence) value);
+            }
+
+            @Override
+            public void encode(BinaryCopyBuffer buffer, ColumnBatch batch, int row, int c) throws SQLException {
+                buffer.writeText(batch.getStringBytes(c), batch.getStringOffset(c, row), batch.getStringLength(c, row));
+            }
+        };
+    }
+
+    private static long toMicros(long epochSeconds, int nanos) {
+        return epochSeconds * 1000000L + nanos / 1000 - POSTGRES_EPOCH_MICROS;
+    }
+
+    private static int toInt(String column, Object value) {
+        if (!(value instanceof Integer)) {
+            throw unexpectedType(column, "Integer", value);
+        }
+        return (Integer) value;
+    }
+
+    private static double toDouble(String column, Object value) {
+        if (!(value instanceof Double)) {
+            throw unexpectedType(column, "Double", value);
+        }
+        return (Double) value;
+    }
+
+    private static LocalDate toLocalDate(String column, Object value) {
+        if (value instanceof LocalDate) {
+            return (LocalDate) value;
+        } else if (value instanceof java.sql.Date) {
+            return ((java.sql.Date) value).toLocalDate();
+        } else if (value instanceof java.util.Date) {
+            return ((java.util.Date) value).toInstant().atZone(ZoneId.systemDefault()).toLocalDate();
+        }
+        throw unexpectedType(column, "Date", value);
+    }
+
+    private static LocalDateTime toLocalDateTime(String column, Object value) {
+        if (value instanceof LocalDateTime) {
+            return (LocalDateTime) value;
+        } else if (value instanceof Timestamp) {
+            return ((Timestamp) value).toLocalDateTime();
+        } else if (value instanceof java.util.Date) {
+            return ((java.util.Date) value).toInstant().atZone(ZoneId.systemDefault()).toLocalDateTime();
+        }
+        throw unexpectedType(column, "Timestamp", value);
+    }
+
+    private static LocalTime toLocalTime(String column, Object value) {
+        if (value instanceof LocalTime) {
+            return (LocalTime) value;
+        } else if (value instanceof java.sql.Time) {
+            return ((java.sql.Time) value).toLocalTime();
+        }
+        throw unexpectedType(column, "Time", value);
+    }
+
+    private static IllegalArgumentException unexpectedType(String column, String expected, Object value) {
+        return new IllegalArgumentException("On column " + column + ", " + expected + " value expected, found " + value.getClass());
+    }
+
+    @Override
+    public void write(List<Object> values) throws SQLException {
+        final long start = System.nanoTime();
+        final ColumnEncoder[] encoders = this.encoders;
+        buffer.startRow(encoders.length);
+        for (int i = 0; i < encoders.length; i++) {
+            final Object v = values.get(i);
+            if (v == null) {
+                if (required[i]) {
+                    throw new IllegalArgumentException("On column " + plan.getHeader()[i] + ", a value is required");
+                }
+                buffer.writeNull();
+            } else {
+                encoders[i].encode(buffer, v);
+            }
+        }
+        bindNanos += System.nanoTime() - start;
+        records++;
+        if (records % LOG_INTERVAL == 0) {
+            LOG.info("Streamed records #" + records);
+        }
+    }
+
+    @Override
+    public void write(ColumnBatch batch) throws SQLException {
+        final long start = System.nanoTime();
+        final ColumnEncoder[] encoders = this.encoders;
+        final int rows = batch.size();
+        for (int row = 0; row < rows; row++) {
+            buffer.startRow(encoders.length);
+            for (int i = 0; i < encoders.length; i++) {
+                if (batch.isNull(i, row)) {
+                    if (required[i]) {
+                        throw new IllegalArgumentException("On column " + plan.getHeader()[i] + ", a value is required");
+                    }
+                    buffer.writeNull();
+                } else {
+                    encoders[i].encode(buffer, batch, row, i);
+                }
+            }
+            records++;
+            if (records % LOG_INTERVAL == 0) {
+                LOG.info("Streamed records #" + records);
+            }
+        }
+        bindNanos += System.nanoTime() - start;
+    }
+
+    @Override
+    public long finish() throws SQLException {
+        final long start = System.nanoTime();
+        final long copied = buffer.finish();
+        plan.getMetrics().addTime(LoadMetrics.Phase.BIND, bindNanos);
+        plan.getMetrics().addTime(LoadMetrics.Phase.EXECUTE, System.nanoTime() - start);
+        bindNanos = 0;
+        if (copied != records) {
+            LOG.warn("COPY reported " + copied + " records but " + records + " records were sent");
+        }
+        return records;
+    }
+
+    @Override
+    public void close() throws SQLException {
+        if (copyIn.isActive()) {
+            copyIn.cancelCopy();
+        }
+    }
+}
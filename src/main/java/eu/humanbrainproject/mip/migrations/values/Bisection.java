@@ -0,0 +1,62 @@
+package eu.humanbrainproject.mip.migrations.values;
+
+import java.io.IOException;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Savepoint;
+
+/**
+ * Inserts a batch of rows under a savepoint and, when the database rejects the batch, rolls back to the savepoint
+ * and inserts each half of the batch in the same way, until the failing rows are isolated and rejected.
+ *
+ * A batch without errors costs one savepoint, and each failing row about two statements per halving of the batch,
+ * so that a few bad rows in a large batch do not need to be inserted one by one.
+ */
+final class Bisection {
+
+    /**
+     * Inserts a range of the rows of a batch.
+     */
+    interface RowsInsert {
+
+        /**
+         * @param from index of the first row to insert
+         * @param to index after the last row to insert
+         */
+        void insert(int from, int to) throws SQLException;
+    }
+
+    private Bisection() {
+    }
+
+    /**
+     * @param connection the connection of the insert, in a transaction
+     * @param rows the rows to insert
+     * @param insert inserts a range of the rows
+     * @param rejects the file receiving the rejected rows
+     * @return the number of rejected rows
+     */
+    static int insert(Connection connection, ColumnBatch rows, RowsInsert insert, RejectFile rejects)
+            throws SQLException, IOException {
+        return insert(connection, rows, 0, rows.size(), insert, rejects);
+    }
+
+    private static int insert(Connection connection, ColumnBatch rows, int from, int to, RowsInsert insert,
+                              RejectFile rejects) throws SQLException, IOException {
+        final Savepoint savepoint = connection.setSavepoint();
+        try {
+            insert.insert(from, to);
+            connection.releaseSavepoint(savepoint);
+            return 0;
+        } catch (SQLException e) {
+            connection.rollback(savepoint);
+            connection.releaseSavepoint(savepoint);
+            if (to - from == 1) {
+                rejects.rejectInsert(rows.getLine(from), rows.getRow(from), e);
+                return 1;
+            }
+            final int middle = (from + to) >>> 1;
+            return insert(connection, rows, from, middle, insert, rejects) + insert(connection, rows, middle, to, insert, rejects);
+        }
+    }
+}
@@ -0,0 +1,96 @@
+package eu.humanbrainproject.mip.migrations.values;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+
+/**
+ * Stores the progress of the checkpointed loads of datasets.
+ *
+ * A checkpoint records the checksum of the dataset file, the offset of the next record to load in the file and the
+ * number of records already loaded. Checkpoints are committed with the rows they describe, and they are removed
+ * once the migration loading the datasets completes.
+ */
+final class CheckpointStore {
+
+    static final String TABLE = "__load_checkpoints";
+
+    private final Connection connection;
+    private final int checkpointRecords;
+
+    /**
+     * @param connection the connection of the migration
+     * @param checkpointRecords the minimum number of records loaded between two checkpoints
+     */
+    CheckpointStore(Connection connection, int checkpointRecords) throws SQLException {
+        this.connection = connection;
+        this.checkpointRecords = checkpointRecords;
+        try (Statement statement = connection.createStatement()) {
+            statement.execute("CREATE TABLE IF NOT EXISTS \"" + TABLE + "\" (" +
+                    "dataset text NOT NULL PRIMARY KEY, checksum integer NOT NULL, byte_offset bigint NOT NULL, " +
+                    "records bigint NOT NULL, completed boolean NOT NULL, updated_at timestamp NOT NULL DEFAULT now())");
+        }
+    }
+
+    int getCheckpointRecords() {
+        return checkpointRecords;
+    }
+
+    /**
+     * Starts the checkpointed load of a dataset, resuming from the last checkpoint if it was taken on the same
+     * dataset file.
+     *
+     * @param dataset name of the dataset
+     * @param checksum checksum of the dataset file
+     */
+    CheckpointedLoad start(String dataset, int checksum) throws SQLException {
+        try (PreparedStatement statement = connection.prepareStatement("SELECT checksum, byte_offset, records, completed FROM \"" +
+                TABLE + "\" WHERE dataset = ?")) {
+            statement.setString(1, dataset);
+            try (ResultSet rs = statement.executeQuery()) {
+                if (rs.next() && rs.getInt(1) == checksum) {
+                    return new CheckpointedLoad(connection, this, dataset, checksum, rs.getLong(2), rs.getLong(3), rs.getBoolean(4));
+                }
+            }
+        }
+        return new CheckpointedLoad(connection, this, dataset, checksum, DatasetReader.UNKNOWN_OFFSET, 0, false);
+    }
+
+    void save(String dataset, int checksum, long offset, long records, boolean completed) throws SQLException {
+        try (PreparedStatement update = connection.prepareStatement("UPDATE \"" + TABLE +
+                "\" SET checksum = ?, byte_offset = ?, records = ?, completed = ?, updated_at = now() WHERE dataset = ?")) {
+            update.setInt(1, checksum);
+            update.setLong(2, offset);
+            update.setLong(3, records);
+            update.setBoolean(4, completed);
+            update.setString(5, dataset);
+            if (update.executeUpdate() > 0) {
+                return;
+            }
+        }
+        try (PreparedStatement insert = connection.prepareStatement("INSERT INTO \"" + TABLE +
+                "\" (dataset, checksum, byte_offset, records, completed) VALUES (?, ?, ?, ?, ?)")) {
+            insert.setString(1, dataset);
+            insert.setInt(2, checksum);
+            insert.setLong(3, offset);
+            insert.setLong(4, records);
+            insert.setBoolean(5, completed);
+            insert.executeUpdate();
+        }
+    }
+
+    /**
+     * Removes the checkpoints of datasets, once their migration is complete.
+     */
+    void delete(String[] datasets) throws SQLException {
+        try (PreparedStatement statement = connection.prepareStatement("DELETE FROM \"" + TABLE + "\" WHERE dataset = ?")) {
+            for (String dataset : datasets) {
+                statement.setString(1, dataset);
+                statement.addBatch();
+            }
+            statement.executeBatch();
+        }
+    }
+}
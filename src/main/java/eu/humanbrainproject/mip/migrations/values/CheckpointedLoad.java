@@ -0,0 +1,148 @@
+package eu.humanbrainproject.mip.migrations.values;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.List;
+
+/**
+ * Loads a dataset with periodic commits, so that a failed load can resume from the last checkpoint.
+ *
+ * Every time enough records of the file have been read, the writer is flushed, the position reached in the file is
+ * saved with the number of records read and the transaction is committed. The records read include the rows rejected
+ * by the reader or by the database, so that they match the position in the file. When the reader tells the offset of
+ * the records in the file, checkpoints are only taken on known offsets and a resumed load seeks directly to the last
+ * offset. Otherwise, as for compressed files, a resumed load skips the records already read.
+ */
+final class CheckpointedLoad {
+
+    private static final Logger LOG = LoggerFactory.getLogger("Setup data-package");
+
+    /**
+     * Creates the writers sending the rows to the database, a new writer is used after each checkpoint.
+     */
+    @FunctionalInterface
+    interface WriterFactory {
+        DatasetWriter create() throws SQLException;
+    }
+
+    private final Connection connection;
+    private final CheckpointStore store;
+    private final String dataset;
+    private final int checksum;
+    private final long resumeOffset;
+    private final long resumeRecords;
+    private final boolean completed;
+
+    CheckpointedLoad(Connection connection, CheckpointStore store, String dataset, int checksum,
+                     long resumeOffset, long resumeRecords, boolean completed) {
+        this.connection = connection;
+        this.store = store;
+        this.dataset = dataset;
+        this.checksum = checksum;
+        this.resumeOffset = resumeOffset;
+        this.resumeRecords = resumeRecords;
+        this.completed = completed;
+    }
+
+    /**
+     * @return true if a previous attempt has already loaded all records of the dataset
+     */
+    boolean isCompleted() {
+        return completed;
+    }
+
+    /**
+     * @return true if a previous attempt has committed some records of the dataset
+     */
+    boolean isResumed() {
+        return resumeRecords > 0;
+    }
+
+    /**
+     * @return the offset in the file of the first record to load, or {@link DatasetReader#UNKNOWN_OFFSET}
+     */
+    long getResumeOffset() {
+        return resumeOffset;
+    }
+
+    /**
+     * @return the number of records of the file already read
+     */
+    long getResumeRecords() {
+        return resumeRecords;
+    }
+
+    /**
+     * @param reader the reader of the dataset, positioned on the first record to load, counting the records it reads
+     * @param writerFactory creates the writers sending the rows to the database
+     * @return the writer taking checkpoints
+     */
+    DatasetWriter createWriter(DatasetReader reader, WriterFactory writerFactory) throws SQLException {
+        if (reader.getRecordsRead() < 0) {
+            throw new IllegalArgumentException("The reader of dataset " + dataset + " does not count the records it reads");
+        }
+        if (isResumed()) {
+            LOG.info("Resuming load of dataset " + dataset + " after " + resumeRecords + " records");
+        }
+        return new CheckpointWriter(reader, writerFactory);
+    }
+
+    private final class CheckpointWriter implements DatasetWriter {
+
+        private final DatasetReader reader;
+        private final WriterFactory writerFactory;
+        private DatasetWriter writer;
+        private long written = 0;
+        private long checkpointedRecords = 0;
+
+        CheckpointWriter(DatasetReader reader, WriterFactory writerFactory) throws SQLException {
+            this.reader = reader;
+            this.writerFactory = writerFactory;
+            this.writer = writerFactory.create();
+        }
+
+        @Override
+        public void write(List<Object> values) throws SQLException, IOException {
+            writer.write(values);
+            if (reader.getRecordsRead() - checkpointedRecords >= store.getCheckpointRecords()) {
+                final long offset = reader.getNextRecordOffset();
+                if (offset != DatasetReader.UNKNOWN_OFFSET || !reader.isSeekable()) {
+                    checkpoint(offset);
+                }
+            }
+        }
+
+        private void checkpoint(long offset) throws SQLException, IOException {
+            written += writer.finish();
+            writer.close();
+            writer = null;
+
+            final long records = reader.getRecordsRead();
+            store.save(dataset, checksum, offset, resumeRecords + records, false);
+            connection.commit();
+            checkpointedRecords = records;
+            LOG.info("Checkpoint of dataset " + dataset + " committed after " + (resumeRecords + records) + " records");
+
+            writer = writerFactory.create();
+        }
+
+        @Override
+        public long finish() throws SQLException, IOException {
+            written += writer.finish();
+            store.save(dataset, checksum, DatasetReader.UNKNOWN_OFFSET, resumeRecords + reader.getRecordsRead(), true);
+            // Without the rows rejected by the database
+            return written;
+        }
+
+        @Override
+        public void close() throws SQLException {
+            if (writer != null) {
+                writer.close();
+            }
+        }
+    }
+}
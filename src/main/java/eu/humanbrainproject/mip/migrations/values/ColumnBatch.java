@@ -0,0 +1,491 @@
+package eu.humanbrainproject.mip.migrations.values;
+
+import java.nio.charset.StandardCharsets;
+import java.sql.Types;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.LocalTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Batch of rows stored column by column, in buffers reused from one batch to the next.
+ *
+ * Integer and number columns are stored in int and double arrays with a bitmap of the null values, string columns
+ * as UTF-8 bytes in a growing slab with the offset of each value, date, timestamp and time columns as the primitive
+ * values of {@link TemporalFormat} in int and long arrays, and columns of other types as objects. The kind of each
+ * column is taken from the SQL type of its field in the load plan.
+ *
+ * A row is filled by setting every column of the row at index {@link #size()}, then added with {@link #addRow()}.
+ * A row left incomplete after an error is simply overwritten by the next row. Each row also keeps the number of
+ * its line in the dataset file, when it is known, to report the rows rejected by the database.
+ */
+final class ColumnBatch {
+
+    private static final int KIND_INT = 0;
+    private static final int KIND_DOUBLE = 1;
+    private static final int KIND_STRING = 2;
+    private static final int KIND_OBJECT = 3;
+    private static final int KIND_DATE = 4;
+    private static final int KIND_TIMESTAMP = 5;
+    private static final int KIND_TIME = 6;
+
+    private static final int NUMBER_SIZE = 8;
+    private static final int TARGET_CELLS = 1 << 20;
+    private static final int MAX_ROWS = 1024;
+
+    private final LoadPlan plan;
+    private final int[] kinds;
+    private final int[][] ints;
+    private final double[][] doubles;
+    private final long[][] longs;
+    private final byte[][] slabs;
+    private final int[][] offsets;
+    private final Object[][] objects;
+    private final long[][] nulls;
+    private long[] lines;
+    private int capacity;
+    private int size = 0;
+
+    /**
+     * @param plan the load plan, defining the columns
+     * @param capacity the initial number of rows, the batch grows when more rows are added
+     */
+    ColumnBatch(LoadPlan plan, int capacity) {
+        this.plan = plan;
+        this.capacity = Math.max(1, capacity);
+        final int columns = plan.getColumnCount();
+        kinds = new int[columns];
+        ints = new int[columns][];
+        doubles = new double[columns][];
+        longs = new long[columns][];
+        slabs = new byte[columns][];
+        offsets = new int[columns][];
+        objects = new Object[columns][];
+        nulls = new long[columns][];
+        for (int i = 0; i < columns; i++) {
+            switch (plan.getBinder(i).getSqlTypeCode()) {
+                case Types.INTEGER:
+                    kinds[i] = KIND_INT;
+                    ints[i] = new int[this.capacity];
+                    break;
+                case Types.NUMERIC:
+                    kinds[i] = KIND_DOUBLE;
+                    doubles[i] = new double[this.capacity];
+                    break;
+                case Types.CHAR:
+                case Types.VARCHAR:
+                case Types.CLOB:
+                    kinds[i] = KIND_STRING;
+                    slabs[i] = new byte[this.capacity * 16];
+                    offsets[i] = new int[this.capacity + 1];
+                    break;
+                case Types.DATE:
+                    kinds[i] = KIND_DATE;
+                    ints[i] = new int[this.capacity];
+                    break;
+                case Types.TIMESTAMP:
+                    kinds[i] = KIND_TIMESTAMP;
+                    longs[i] = new long[this.capacity];
+                    break;
+                case Types.TIME:
+                    kinds[i] = KIND_TIME;
+                    longs[i] = new long[this.capacity];
+                    break;
+                default:
+                    kinds[i] = KIND_OBJECT;
+                    objects[i] = new Object[this.capacity];
+            }
+            nulls[i] = new long[(this.capacity + 63) >>> 6];
+        }
+        lines = new long[this.capacity];
+    }
+
+    /**
+     * @return a batch sized for the number of columns of a plan, so that wide tables keep a bounded number of cells
+     */
+    static ColumnBatch forPlan(LoadPlan plan) {
+        return new ColumnBatch(plan, Math.max(16, Math.min(MAX_ROWS, TARGET_CELLS / Math.max(1, plan.getColumnCount()))));
+    }
+
+    LoadPlan getPlan() {
+        return plan;
+    }
+
+    /**
+     * @return the number of complete rows in the batch
+     */
+    int size() {
+        return size;
+    }
+
+    boolean isFull() {
+        return size == capacity;
+    }
+
+    /**
+     * Removes all rows, keeping the buffers.
+     */
+    void clear() {
+        size = 0;
+        for (int i = 0; i < kinds.length; i++) {
+            if (kinds[i] == KIND_STRING) {
+                offsets[i][0] = 0;
+            } else if (kinds[i] == KIND_OBJECT) {
+                Arrays.fill(objects[i], null);
+            }
+        }
+    }
+
+    /**
+     * Completes the row at index {@link #size()}, whose columns have all been set.
+     */
+    void addRow() {
+        size++;
+    }
+
+    /**
+     * Adds a row of values converted by the cell processors.
+     */
+    void addRow(List<Object> values) {
+        ensureCapacity(size + 1);
+        lines[size] = 0;
+        for (int i = 0; i < kinds.length; i++) {
+            setValue(i, values.get(i));
+        }
+        addRow();
+    }
+
+    /**
+     * Copies a row of another batch of the same plan into this batch.
+     */
+    void addRow(ColumnBatch batch, int row) {
+        ensureCapacity(size + 1);
+        lines[size] = batch.lines[row];
+        for (int i = 0; i < kinds.length; i++) {
+            if (batch.isNull(i, row)) {
+                setNull(i);
+                continue;
+            }
+            switch (kinds[i]) {
+                case KIND_INT:
+                    setInt(i, batch.ints[i][row]);
+                    break;
+                case KIND_DOUBLE:
+                    setDouble(i, batch.doubles[i][row]);
+                    break;
+                case KIND_STRING:
+                    setStringBytes(i, batch.slabs[i], batch.offsets[i][row], batch.getStringLength(i, row));
+                    break;
+                case KIND_DATE:
+                case KIND_TIMESTAMP:
+                case KIND_TIME:
+                    setTemporal(i, batch.getTemporal(i, row));
+                    break;
+                default:
+                    setValue(i, batch.objects[i][row]);
+            }
+        }
+        addRow();
+    }
+
+    /**
+     * Grows the buffers so that the batch can hold a number of rows.
+     */
+    void ensureCapacity(int rows) {
+        if (rows <= capacity) {
+            return;
+        }
+        final int newCapacity = Math.max(rows, capacity * 2);
+        for (int i = 0; i < kinds.length; i++) {
+            switch (kinds[i]) {
+                case KIND_INT:
+                case KIND_DATE:
+                    ints[i] = Arrays.copyOf(ints[i], newCapacity);
+                    break;
+                case KIND_DOUBLE:
+                    doubles[i] = Arrays.copyOf(doubles[i], newCapacity);
+                    break;
+                case KIND_STRING:
+                    offsets[i] = Arrays.copyOf(offsets[i], newCapacity + 1);
+                    break;
+                case KIND_TIMESTAMP:
+                case KIND_TIME:
+                    longs[i] = Arrays.copyOf(longs[i], newCapacity);
+                    break;
+                default:
+                    objects[i] = Arrays.copyOf(objects[i], newCapacity);
+            }
+            nulls[i] = Arrays.copyOf(nulls[i], (newCapacity + 63) >>> 6);
+        }
+        lines = Arrays.copyOf(lines, newCapacity);
+        capacity = newCapacity;
+    }
+
+    // Setters of the columns of the row at index size()
+
+    /**
+     * @param line the line of the row in the dataset file, or 0 if it is not known
+     */
+    void setLine(long line) {
+        lines[size] = line;
+    }
+
+    void setNull(int column) {
+        nulls[column][size >>> 6] |= 1L << size;
+        if (kinds[column] == KIND_STRING) {
+            offsets[column][size + 1] = offsets[column][size];
+        } else if (kinds[column] == KIND_OBJECT) {
+            objects[column][size] = null;
+        }
+    }
+
+    void setInt(int column, int value) {
+        if (kinds[column] != KIND_INT) {
+            setValue(column, value);
+            return;
+        }
+        nulls[column][size >>> 6] &= ~(1L << size);
+        ints[column][size] = value;
+    }
+
+    void setDouble(int column, double value) {
+        if (kinds[column] != KIND_DOUBLE) {
+            setValue(column, value);
+            return;
+        }
+        nulls[column][size >>> 6] &= ~(1L << size);
+        doubles[column][size] = value;
+    }
+
+    /**
+     * Sets a date, timestamp or time given as its primitive value in {@link TemporalFormat}.
+     */
+    void setTemporal(int column, long value) {
+        if (kinds[column] == KIND_DATE) {
+            ints[column][size] = (int) value;
+        } else if (kinds[column] == KIND_TIMESTAMP || kinds[column] == KIND_TIME) {
+            longs[column][size] = value;
+        } else {
+            throw new IllegalArgumentException("Column " + plan.getHeader()[column] + " is not a date, timestamp or time");
+        }
+        nulls[column][size >>> 6] &= ~(1L << size);
+    }
+
+    /**
+     * Sets a string given as characters, encoded in UTF-8 into the slab of the column.
+     */
+    void setString(int column, char[] chars, int offset, int length) {
+        if (kinds[column] != KIND_STRING) {
+            setValue(column, new String(chars, offset, length));
+            return;
+        }
+        nulls[column][size >>> 6] &= ~(1L << size);
+        final int start = offsets[column][size];
+        ensureSlab(column, start + 3 * length);
+        final byte[] slab = slabs[column];
+        int position = start;
+        for (int i = offset; i < offset + length; i++) {
+            final char c = chars[i];
+            if (c < 0x80) {
+                slab[position++] = (byte) c;
+            } else if (c < 0x800) {
+                slab[position++] = (byte) (0xC0 | (c >> 6));
+                slab[position++] = (byte) (0x80 | (c & 0x3F));
+            } else if (Character.isHighSurrogate(c) && i + 1 < offset + length && Character.isLowSurrogate(chars[i + 1])) {
+                final int codePoint = Character.toCodePoint(c, chars[++i]);
+                slab[position++] = (byte) (0xF0 | (codePoint >> 18));
+                slab[position++] = (byte) (0x80 | ((codePoint >> 12) & 0x3F));
+                slab[position++] = (byte) (0x80 | ((codePoint >> 6) & 0x3F));
+                slab[position++] = (byte) (0x80 | (codePoint & 0x3F));
+            } else if (Character.isSurrogate(c)) {
+                slab[position++] = '?';
+            } else {
+                slab[position++] = (byte) (0xE0 | (c >> 12));
+                slab[position++] = (byte) (0x80 | ((c >> 6) & 0x3F));
+                slab[position++] = (byte) (0x80 | (c & 0x3F));
+            }
+        }
+        offsets[column][size + 1] = position;
+    }
+
+    private void setStringBytes(int column, byte[] bytes, int offset, int length) {
+        nulls[column][size >>> 6] &= ~(1L << size);
+        final int start = offsets[column][size];
+        ensureSlab(column, start + length);
+        System.arraycopy(bytes, offset, slabs[column], start, length);
+        offsets[column][size + 1] = start + length;
+    }
+
+    private void ensureSlab(int column, int length) {
+        if (length > slabs[column].length) {
+            slabs[column] = Arrays.copyOf(slabs[column], Math.max(length, slabs[column].length * 2));
+        }
+    }
+
+    /**
+     * Sets a value converted by a cell processor, which must match the kind of the column.
+     */
+    void setValue(int column, Object value) {
+        if (value == null) {
+            setNull(column);
+            return;
+        }
+        switch (kinds[column]) {
+            case KIND_INT:
+                if (!(value instanceof Integer)) {
+                    throw plan.getBinder(column).unexpectedType("Integer", value);
+                }
+                setInt(column, (Integer) value);
+                break;
+            case KIND_DOUBLE:
+                if (!(value instanceof Double)) {
+                    throw plan.getBinder(column).unexpectedType("Double", value);
+                }
+                setDouble(column, (Double) value);
+                break;
+            case KIND_STRING:
+                if (!(value instanceof String)) {
+                    throw plan.getBinder(column).unexpectedType("String", value);
+                }
+                final String s = (String) value;
+                final byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+                setStringBytes(column, bytes, 0, bytes.length);
+                break;
+            case KIND_DATE:
+                if (!(value instanceof LocalDate)) {
+                    throw plan.getBinder(column).unexpectedType("LocalDate", value);
+                }
+                setTemporal(column, TemporalFormat.toLong(Types.DATE, value));
+                break;
+            case KIND_TIMESTAMP:
+                if (!(value instanceof LocalDateTime)) {
+                    throw plan.getBinder(column).unexpectedType("LocalDateTime", value);
+                }
+                setTemporal(column, TemporalFormat.toLong(Types.TIMESTAMP, value));
+                break;
+            case KIND_TIME:
+                if (!(value instanceof LocalTime)) {
+                    throw plan.getBinder(column).unexpectedType("LocalTime", value);
+                }
+                setTemporal(column, TemporalFormat.toLong(Types.TIME, value));
+                break;
+            default:
+                nulls[column][size >>> 6] &= ~(1L << size);
+                objects[column][size] = value;
+        }
+    }
+
+    // Getters of the rows of the batch
+
+    /**
+     * @return the line of a row in the dataset file, or 0 if it is not known
+     */
+    long getLine(int row) {
+        return lines[row];
+    }
+
+    boolean isNull(int column, int row) {
+        return (nulls[column][row >>> 6] & (1L << row)) != 0;
+    }
+
+    boolean isIntColumn(int column) {
+        return kinds[column] == KIND_INT;
+    }
+
+    boolean isDoubleColumn(int column) {
+        return kinds[column] == KIND_DOUBLE;
+    }
+
+    boolean isStringColumn(int column) {
+        return kinds[column] == KIND_STRING;
+    }
+
+    boolean isTemporalColumn(int column) {
+        return kinds[column] == KIND_DATE || kinds[column] == KIND_TIMESTAMP || kinds[column] == KIND_TIME;
+    }
+
+    int getInt(int column, int row) {
+        return ints[column][row];
+    }
+
+    double getDouble(int column, int row) {
+        return doubles[column][row];
+    }
+
+    /**
+     * @return the primitive value in {@link TemporalFormat} of a date, timestamp or time
+     */
+    long getTemporal(int column, int row) {
+        return kinds[column] == KIND_DATE ? ints[column][row] : longs[column][row];
+    }
+
+    /**
+     * @return the slab holding the UTF-8 bytes of the strings of a column
+     */
+    byte[] getStringBytes(int column) {
+        return slabs[column];
+    }
+
+    int getStringOffset(int column, int row) {
+        return offsets[column][row];
+    }
+
+    int getStringLength(int column, int row) {
+        return offsets[column][row + 1] - offsets[column][row];
+    }
+
+    String getString(int column, int row) {
+        return new String(slabs[column], offsets[column][row], getStringLength(column, row), StandardCharsets.UTF_8);
+    }
+
+    /**
+     * @return the value of a cell as returned by the cell processors, or null
+     */
+    Object getValue(int column, int row) {
+        if (isNull(column, row)) {
+            return null;
+        }
+        switch (kinds[column]) {
+            case KIND_INT:
+                return ints[column][row];
+            case KIND_DOUBLE:
+                return doubles[column][row];
+            case KIND_STRING:
+                return getString(column, row);
+            case KIND_DATE:
+            case KIND_TIMESTAMP:
+            case KIND_TIME:
+                return TemporalFormat.toObject(plan.getBinder(column).getSqlTypeCode(), getTemporal(column, row));
+            default:
+                return objects[column][row];
+        }
+    }
+
+    /**
+     * @return the values of a row, as returned by the cell processors
+     */
+    List<Object> getRow(int row) {
+        final List<Object> values = new ArrayList<>(kinds.length);
+        for (int i = 0; i < kinds.length; i++) {
+            values.add(getValue(i, row));
+        }
+        return values;
+    }
+
+    /**
+     * @return the estimated size in bytes of the values of a row, as {@link BatchPolicy#estimateSize(List)} but
+     * counting the UTF-8 bytes of the strings rather than their characters
+     */
+    long estimateSize(int row) {
+        long bytes = 0;
+        for (int i = 0; i < kinds.length; i++) {
+            if (isNull(i, row)) {
+                continue;
+            }
+            bytes += kinds[i] == KIND_STRING ? getStringLength(i, row) : NUMBER_SIZE;
+        }
+        return bytes;
+    }
+}
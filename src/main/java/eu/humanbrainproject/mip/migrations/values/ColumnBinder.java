@@ -0,0 +1,208 @@
+package eu.humanbrainproject.mip.migrations.values;
+
+import eu.humanbrainproject.mip.migrations.datapackage.Field;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Types;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.LocalTime;
+
+/**
+ * Binds the values of one column of the CSV file to a statement parameter.
+ *
+ * The SQL type of the column is resolved when the binder is created, binding a value is a direct call to the
+ * matching JDBC setter.
+ */
+abstract class ColumnBinder {
+
+    private static final Logger LOG = LoggerFactory.getLogger("Setup data-package");
+
+    private final String column;
+    private final int sqlTypeCode;
+    private final boolean required;
+
+    private ColumnBinder(Field field, int sqlTypeCode) {
+        this.column = field.getName();
+        this.sqlTypeCode = sqlTypeCode;
+        this.required = field.getConstraints().isRequired();
+    }
+
+    static ColumnBinder forField(Field field) {
+        final int sqlTypeCode = field.getSqlTypeCode();
+        switch (sqlTypeCode) {
+            case Types.CHAR:
+            case Types.VARCHAR:
+            case Types.CLOB:
+                return new StringBinder(field, sqlTypeCode);
+            case Types.INTEGER:
+                return new IntegerBinder(field, sqlTypeCode);
+            case Types.NUMERIC:
+                return new DoubleBinder(field, sqlTypeCode);
+            case Types.DATE:
+            case Types.TIMESTAMP:
+            case Types.TIME:
+                return new TemporalBinder(field, sqlTypeCode);
+            default:
+                return new UnsupportedTypeBinder(field, sqlTypeCode);
+        }
+    }
+
+    String getColumn() {
+        return column;
+    }
+
+    int getSqlTypeCode() {
+        return sqlTypeCode;
+    }
+
+    boolean isRequired() {
+        return required;
+    }
+
+    final void bind(PreparedStatement statement, int index, Object value) throws SQLException {
+        if (value == null) {
+            bindNull(statement, index);
+        } else {
+            bindValue(statement, index, value);
+        }
+    }
+
+    /**
+     * Binds the value of this column in a row of a batch, the kind of the column in the batch matching the SQL type
+     * of the binder.
+     */
+    final void bind(PreparedStatement statement, int index, ColumnBatch batch, int row, int column) throws SQLException {
+        if (batch.isNull(column, row)) {
+            bindNull(statement, index);
+        } else {
+            bindValue(statement, index, batch, row, column);
+        }
+    }
+
+    private void bindNull(PreparedStatement statement, int index) throws SQLException {
+        if (required) {
+            throw new IllegalArgumentException("On column " + column + ", a value is required");
+        }
+        statement.setNull(index, sqlTypeCode);
+    }
+
+    abstract void bindValue(PreparedStatement statement, int index, Object value) throws SQLException;
+
+    void bindValue(PreparedStatement statement, int index, ColumnBatch batch, int row, int column) throws SQLException {
+        bindValue(statement, index, batch.getValue(column, row));
+    }
+
+    IllegalArgumentException unexpectedType(String expected, Object value) {
+        LOG.error("On column " + column + ", " + expected + " value expected, found " + value.getClass());
+        return new IllegalArgumentException("On column " + column + ", " + expected + " value expected, found " + value.getClass());
+    }
+
+    private static final class StringBinder extends ColumnBinder {
+
+        StringBinder(Field field, int sqlTypeCode) {
+            super(field, sqlTypeCode);
+        }
+
+        @Override
+        void bindValue(PreparedStatement statement, int index, Object value) throws SQLException {
+            if (!(value instanceof String)) {
+                throw unexpectedType("String", value);
+            }
+            statement.setString(index, (String) value);
+        }
+    }
+
+    private static final class IntegerBinder extends ColumnBinder {
+
+        IntegerBinder(Field field, int sqlTypeCode) {
+            super(field, sqlTypeCode);
+        }
+
+        @Override
+        void bindValue(PreparedStatement statement, int index, Object value) throws SQLException {
+            if (!(value instanceof Integer)) {
+                throw unexpectedType("Integer", value);
+            }
+            statement.setInt(index, (Integer) value);
+        }
+
+        @Override
+        void bindValue(PreparedStatement statement, int index, ColumnBatch batch, int row, int column) throws SQLException {
+            statement.setInt(index, batch.getInt(column, row));
+        }
+    }
+
+    private static final class DoubleBinder extends ColumnBinder {
+
+        DoubleBinder(Field field, int sqlTypeCode) {
+            super(field, sqlTypeCode);
+        }
+
+        @Override
+        void bindValue(PreparedStatement statement, int index, Object value) throws SQLException {
+            if (!(value instanceof Double)) {
+                throw unexpectedType("Double", value);
+            }
+            statement.setDouble(index, (Double) value);
+        }
+
+        @Override
+        void bindValue(PreparedStatement statement, int index, ColumnBatch batch, int row, int column) throws SQLException {
+            statement.setDouble(index, batch.getDouble(column, row));
+        }
+    }
+
+    /**
+     * Binds dates, timestamps and times as {@link LocalDate}, {@link LocalDateTime} and {@link LocalTime}, which the
+     * driver sends without converting them to the time zone of the JVM. Times are sent as text, as the driver sends
+     * midnight as '-infinity', which is not a valid time.
+     */
+    private static final class TemporalBinder extends ColumnBinder {
+
+        private final Class<?> valueClass;
+
+        TemporalBinder(Field field, int sqlTypeCode) {
+            super(field, sqlTypeCode);
+            this.valueClass = sqlTypeCode == Types.DATE ? LocalDate.class
+                    : sqlTypeCode == Types.TIMESTAMP ? LocalDateTime.class : LocalTime.class;
+        }
+
+        @Override
+        void bindValue(PreparedStatement statement, int index, Object value) throws SQLException {
+            if (!valueClass.isInstance(value)) {
+                throw unexpectedType(valueClass.getSimpleName(), value);
+            }
+            setObject(statement, index, value);
+        }
+
+        @Override
+        void bindValue(PreparedStatement statement, int index, ColumnBatch batch, int row, int column) throws SQLException {
+            setObject(statement, index, TemporalFormat.toObject(getSqlTypeCode(), batch.getTemporal(column, row)));
+        }
+
+        private void setObject(PreparedStatement statement, int index, Object value) throws SQLException {
+            if (value instanceof LocalTime) {
+                // Formatted as HH:mm[:ss[.SSSSSS]], converted to a time by the server
+                statement.setObject(index, value.toString(), Types.OTHER);
+            } else {
+                statement.setObject(index, value);
+            }
+        }
+    }
+
+    private static final class UnsupportedTypeBinder extends ColumnBinder {
+
+        UnsupportedTypeBinder(Field field, int sqlTypeCode) {
+            super(field, sqlTypeCode);
+        }
+
+        @Override
+        void bindValue(PreparedStatement statement, int index, Object value) {
+            throw new IllegalArgumentException("Unknown SQL type code " + getSqlTypeCode() + " on column " + getColumn());
+        }
+    }
+}
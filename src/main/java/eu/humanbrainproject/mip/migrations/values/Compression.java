@@ -0,0 +1,72 @@
+package eu.humanbrainproject.mip.migrations.values;
+
+import io.airlift.compress.zstd.ZstdInputStream;
+import net.jpountz.lz4.LZ4FrameInputStream;
+
+import java.io.BufferedInputStream;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Compression formats supported for the CSV files of datasets, detected from the extension of the file.
+ */
+public enum Compression {
+
+    NONE(""),
+    GZIP(".gz"),
+    ZSTD(".zst"),
+    LZ4(".lz4");
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private final String extension;
+
+    Compression(String extension) {
+        this.extension = extension;
+    }
+
+    public static Compression forFile(String fileName) {
+        final String lowerCaseName = fileName.toLowerCase();
+        for (Compression compression: values()) {
+            if (compression != NONE && lowerCaseName.endsWith(compression.extension)) {
+                return compression;
+            }
+        }
+        return NONE;
+    }
+
+    /**
+     * Opens a file and decompresses its content.
+     *
+     * Compressed files are decompressed in a background thread, so that decompression and CSV parsing run on
+     * separate cores.
+     *
+     * @param fileName the file to open
+     * @return a stream over the decompressed content of the file
+     */
+    public InputStream open(String fileName) throws IOException {
+        final InputStream file = new BufferedInputStream(new FileInputStream(fileName), BUFFER_SIZE);
+        final InputStream decompressed;
+        try {
+            switch (this) {
+                case GZIP:
+                    decompressed = new GZIPInputStream(file, BUFFER_SIZE);
+                    break;
+                case ZSTD:
+                    decompressed = new ZstdInputStream(file);
+                    break;
+                case LZ4:
+                    decompressed = new LZ4FrameInputStream(file);
+                    break;
+                default:
+                    return file;
+            }
+        } catch (IOException | RuntimeException e) {
+            file.close();
+            throw e;
+        }
+        return new ReadAheadInputStream(decompressed, "decompress-" + name().toLowerCase());
+    }
+}
@@ -0,0 +1,207 @@
+package eu.humanbrainproject.mip.migrations.values;
+
+import eu.humanbrainproject.mip.migrations.LoadMetrics;
+import org.apache.commons.lang3.StringUtils;
+import org.postgresql.PGConnection;
+import org.postgresql.copy.PGCopyOutputStream;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.time.temporal.Temporal;
+import java.util.List;
+
+/**
+ * Streams the rows to PostgreSQL using COPY FROM STDIN in CSV format.
+ *
+ * Values have already been validated and converted by the cell processors, they are written back as CSV text
+ * with every string quoted, so that an empty string stays distinct from a NULL value. The rows of a
+ * {@link ColumnBatch} are written as bytes, copying the UTF-8 strings of the batch without decoding them.
+ *
+ * The time spent encoding the rows, which includes sending the full buffers to the server, is measured as the bind
+ * phase, and the time spent completing the COPY as the execute phase.
+ */
+class CopyWriter implements DatasetWriter {
+
+    private static final Logger LOG = LoggerFactory.getLogger("Setup data-package");
+
+    private static final int BUFFER_SIZE = 65536;
+    private static final int LOG_INTERVAL = 100000;
+
+    private final LoadPlan plan;
+    private final PGCopyOutputStream copyStream;
+    private final Writer out;
+    private final byte[] digits = new byte[11];
+    private final byte[] temporal = new byte[32];
+    private boolean pendingChars = false;
+    private long records = 0;
+    private long bindNanos = 0;
+
+    CopyWriter(Connection connection, LoadPlan plan) throws SQLException {
+        this.plan = plan;
+
+        String copySql = "COPY \"" + plan.getTableName() + "\"(\"" + StringUtils.join(plan.getHeader(), "\",\"") + "\") " +
+                "FROM STDIN WITH (FORMAT csv, ENCODING 'UTF8')";
+        LOG.debug("Streaming records using " + copySql);
+
+        this.copyStream = new PGCopyOutputStream(connection.unwrap(PGConnection.class), copySql, BUFFER_SIZE);
+        this.out = new BufferedWriter(new OutputStreamWriter(copyStream, StandardCharsets.UTF_8), BUFFER_SIZE);
+    }
+
+    /**
+     * @return true if COPY can be used on this connection
+     */
+    static boolean isSupported(Connection connection) throws SQLException {
+        return connection.isWrapperFor(PGConnection.class);
+    }
+
+    @Override
+    public void write(List<Object> values) throws IOException {
+        final long start = System.nanoTime();
+        final int columns = plan.getColumnCount();
+        for (int i = 0; i < columns; i++) {
+            if (i > 0) {
+                out.write(',');
+            }
+            final Object v = values.get(i);
+            if (v == null) {
+                if (plan.getBinder(i).isRequired()) {
+                    throw new IllegalArgumentException("On column " + plan.getHeader()[i] + ", a value is required");
+                }
+            } else if (v instanceof String) {
+                writeQuoted((String) v);
+            } else if (v instanceof Number) {
+                out.write(v.toString());
+            } else if (v instanceof Temporal) {
+                final int sqlType = plan.getBinder(i).getSqlTypeCode();
+                final int length = TemporalFormat.format(sqlType, TemporalFormat.toLong(sqlType, v), temporal);
+                out.write(new String(temporal, 0, length, StandardCharsets.US_ASCII));
+            } else {
+                throw new IllegalArgumentException("On column " + plan.getHeader()[i] + ", cannot copy value of type " + v.getClass());
+            }
+        }
+        out.write('\n');
+        pendingChars = true;
+        bindNanos += System.nanoTime() - start;
+        records++;
+        if (records % LOG_INTERVAL == 0) {
+            LOG.info("Streamed records #" + records);
+        }
+    }
+
+    @Override
+    public void write(ColumnBatch batch) throws IOException {
+        final long start = System.nanoTime();
+        if (pendingChars) {
+            out.flush();
+            pendingChars = false;
+        }
+        final int columns = plan.getColumnCount();
+        final int rows = batch.size();
+        for (int row = 0; row < rows; row++) {
+            for (int i = 0; i < columns; i++) {
+                if (i > 0) {
+                    copyStream.write(',');
+                }
+                if (batch.isNull(i, row)) {
+                    if (plan.getBinder(i).isRequired()) {
+                        throw new IllegalArgumentException("On column " + plan.getHeader()[i] + ", a value is required");
+                    }
+                } else if (batch.isIntColumn(i)) {
+                    writeInt(batch.getInt(i, row));
+                } else if (batch.isDoubleColumn(i)) {
+                    copyStream.write(Double.toString(batch.getDouble(i, row)).getBytes(StandardCharsets.US_ASCII));
+                } else if (batch.isStringColumn(i)) {
+                    writeQuoted(batch.getStringBytes(i), batch.getStringOffset(i, row), batch.getStringLength(i, row));
+                } else if (batch.isTemporalColumn(i)) {
+                    final int length = TemporalFormat.format(plan.getBinder(i).getSqlTypeCode(), batch.getTemporal(i, row), temporal);
+                    copyStream.write(temporal, 0, length);
+                } else {
+                    final Object v = batch.getValue(i, row);
+                    throw new IllegalArgumentException("On column " + plan.getHeader()[i] + ", cannot copy value of type " + v.getClass());
+                }
+            }
+            copyStream.write('\n');
+            records++;
+            if (records % LOG_INTERVAL == 0) {
+                LOG.info("Streamed records #" + records);
+            }
+        }
+        bindNanos += System.nanoTime() - start;
+    }
+
+    private void writeInt(int value) throws IOException {
+        long v = value;
+        boolean negative = v < 0;
+        if (negative) {
+            v = -v;
+        }
+        int position = digits.length;
+        do {
+            digits[--position] = (byte) ('0' + v % 10);
+            v /= 10;
+        } while (v > 0);
+        if (negative) {
+            digits[--position] = '-';
+        }
+        copyStream.write(digits, position, digits.length - position);
+    }
+
+    /**
+     * Writes a quoted string given as UTF-8 bytes, in which a quote is always a single byte.
+     */
+    private void writeQuoted(byte[] bytes, int offset, int length) throws IOException {
+        copyStream.write('"');
+        int start = offset;
+        final int end = offset + length;
+        for (int i = offset; i < end; i++) {
+            if (bytes[i] == '"') {
+                copyStream.write(bytes, start, i + 1 - start);
+                copyStream.write('"');
+                start = i + 1;
+            }
+        }
+        copyStream.write(bytes, start, end - start);
+        copyStream.write('"');
+    }
+
+    private void writeQuoted(String value) throws IOException {
+        out.write('"');
+        int start = 0;
+        int quote;
+        while ((quote = value.indexOf('"', start)) >= 0) {
+            out.write(value, start, quote + 1 - start);
+            out.write('"');
+            start = quote + 1;
+        }
+        out.write(value, start, value.length() - start);
+        out.write('"');
+    }
+
+    @Override
+    public long finish() throws IOException, SQLException {
+        final long start = System.nanoTime();
+        out.flush();
+        long copied = copyStream.endCopy();
+        plan.getMetrics().addTime(LoadMetrics.Phase.BIND, bindNanos);
+        plan.getMetrics().addTime(LoadMetrics.Phase.EXECUTE, System.nanoTime() - start);
+        bindNanos = 0;
+        if (copied != records) {
+            LOG.warn("COPY reported " + copied + " records but " + records + " records were sent");
+        }
+        return records;
+    }
+
+    @Override
+    public void close() throws SQLException {
+        if (copyStream.isActive()) {
+            copyStream.cancelCopy();
+        }
+    }
+}
@@ -0,0 +1,213 @@
+package eu.humanbrainproject.mip.migrations.values;
+
+import eu.humanbrainproject.mip.migrations.datapackage.Dialect;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+
+/**
+ * Splits a CSV file into chunks of whole records, using memory-mapped reads.
+ *
+ * Record boundaries are found by running on the bytes of the file the same state machine as {@link CsvTokenizer}:
+ * quotes only open a quoted value at the start of a cell, a quote in a quoted value is doubled only if the dialect
+ * says so, and the character following the escape character is ignored. Line feeds ending a record are the only
+ * boundaries, so that values containing new lines are never split and every chunk starts on a record. This requires
+ * the delimiter, quote and escape characters to be single bytes, see {@link #supports(Dialect)}.
+ */
+final class CsvChunker {
+
+    private static final int SCAN_WINDOW = 16 * 1024 * 1024;
+
+    // States of the scan, as the position of the tokenizer in a record
+    private static final int RECORD_START = 0;
+    private static final int CELL_START = 1;
+    private static final int UNQUOTED = 2;
+    private static final int QUOTED = 3;
+    private static final int QUOTE_IN_QUOTED = 4;
+    private static final int ESCAPED = 5;
+
+    private final FileChannel channel;
+    private final long size;
+    private final int chunkSize;
+    private final int delimiter;
+    private final int quote;
+    private final int escape;
+    private final boolean doubleQuote;
+    private final boolean skipInitialSpace;
+    private long position;
+
+    /**
+     * @param channel the file
+     * @param start offset of the first record to read
+     * @param chunkSize minimum size in bytes of the chunks, the last chunk excepted
+     * @param dialect the CSV dialect of the file, or null for the default dialect
+     * @throws IllegalArgumentException if the dialect is not supported
+     */
+    CsvChunker(FileChannel channel, long start, int chunkSize, Dialect dialect) throws IOException {
+        if (!supports(dialect)) {
+            throw new IllegalArgumentException("CSV files cannot be split in chunks when the delimiter, quote or escape" +
+                    " characters are not encoded as single bytes");
+        }
+        if (dialect == null) {
+            dialect = new Dialect();
+        }
+        this.channel = channel;
+        this.size = channel.size();
+        this.chunkSize = chunkSize;
+        this.delimiter = (byte) CsvTokenizer.delimiterChar(dialect);
+        this.quote = (byte) CsvTokenizer.quoteChar(dialect);
+        final int escape = CsvTokenizer.escapeChar(dialect);
+        this.escape = escape < 0 ? Integer.MIN_VALUE : (byte) escape;
+        this.doubleQuote = dialect.isDoubleQuote();
+        this.skipInitialSpace = dialect.isSkipInitialSpace();
+        this.position = start;
+    }
+
+    /**
+     * @param dialect the CSV dialect of the file, or null for the default dialect
+     * @return true if the records of a file in this dialect, decoded with the default charset, can be found by
+     * scanning its bytes. Otherwise the file must be read sequentially
+     */
+    static boolean supports(Dialect dialect) {
+        final Dialect d = dialect == null ? new Dialect() : dialect;
+        final int escape = CsvTokenizer.escapeChar(d);
+        return isSingleByte(CsvTokenizer.delimiterChar(d)) && isSingleByte(CsvTokenizer.quoteChar(d))
+                && (escape < 0 || isSingleByte((char) escape));
+    }
+
+    private static boolean isSingleByte(char c) {
+        final byte[] bytes = String.valueOf(c).getBytes(Charset.defaultCharset());
+        // Bytes of multi-byte characters are never ASCII in the charsets encoding ASCII characters as single bytes
+        return c < 0x80 && bytes.length == 1 && bytes[0] == c;
+    }
+
+    long getPosition() {
+        return position;
+    }
+
+    /**
+     * @return the next chunk, or null when the end of the file has been reached
+     */
+    Chunk next() throws IOException {
+        if (position >= size) {
+            return null;
+        }
+        final long start = position;
+        final long end = findRecordBoundary(start, Math.min(size, start + chunkSize));
+        if (end - start > Integer.MAX_VALUE) {
+            throw new IOException("Cannot split CSV file at offset " + start + ", a record is larger than 2GB");
+        }
+        position = end;
+        return new Chunk(start, channel.map(FileChannel.MapMode.READ_ONLY, start, end - start));
+    }
+
+    /**
+     * @return the offset following the first record boundary found after minEnd, or the size of the file
+     */
+    private long findRecordBoundary(long start, long minEnd) throws IOException {
+        int state = RECORD_START;
+        int escapedState = UNQUOTED;
+        long offset = start;
+        while (offset < size) {
+            final int length = (int) Math.min(SCAN_WINDOW, size - offset);
+            final MappedByteBuffer window = channel.map(FileChannel.MapMode.READ_ONLY, offset, length);
+            for (int i = 0; i < length; i++) {
+                final byte b = window.get(i);
+                switch (state) {
+                    case ESCAPED:
+                        state = escapedState;
+                        continue;
+                    case QUOTED:
+                        if (b == quote) {
+                            state = doubleQuote ? QUOTE_IN_QUOTED : UNQUOTED;
+                        } else if (b == escape) {
+                            escapedState = QUOTED;
+                            state = ESCAPED;
+                        }
+                        continue;
+                    case QUOTE_IN_QUOTED:
+                        if (b == quote) {
+                            // Doubled quote
+                            state = QUOTED;
+                            continue;
+                        }
+                        // Closing quote, the rest of the cell is read as unquoted content
+                        break;
+                    case RECORD_START:
+                        // Empty lines are skipped
+                        if (b == '\n' && offset + i + 1 >= minEnd) {
+                            return offset + i + 1;
+                        } else if (b == '\n' || b == '\r') {
+                            continue;
+                        }
+                        // The first byte of the first cell
+                        state = cellStartState(b);
+                        if (state != UNQUOTED) {
+                            continue;
+                        }
+                        break;
+                    case CELL_START:
+                        state = cellStartState(b);
+                        if (state != UNQUOTED) {
+                            continue;
+                        }
+                        break;
+                    default:
+                        break;
+                }
+
+                // Unquoted content, where quotes are kept as is
+                state = UNQUOTED;
+                if (b == delimiter) {
+                    state = CELL_START;
+                } else if (b == '\n') {
+                    if (offset + i + 1 >= minEnd) {
+                        return offset + i + 1;
+                    }
+                    state = RECORD_START;
+                } else if (b == '\r') {
+                    state = RECORD_START;
+                } else if (b == escape) {
+                    escapedState = UNQUOTED;
+                    state = ESCAPED;
+                }
+            }
+            offset += length;
+        }
+        return size;
+    }
+
+    /**
+     * @return the state following the first byte of a cell: still at the start of the cell for an initial space that
+     * is skipped, quoted for an opening quote, or unquoted for the content of the cell
+     */
+    private int cellStartState(byte b) {
+        if (skipInitialSpace && b == ' ') {
+            return CELL_START;
+        } else if (b == quote) {
+            return QUOTED;
+        }
+        return UNQUOTED;
+    }
+
+    static final class Chunk {
+        private final long offset;
+        private final ByteBuffer bytes;
+
+        Chunk(long offset, ByteBuffer bytes) {
+            this.offset = offset;
+            this.bytes = bytes;
+        }
+
+        long getOffset() {
+            return offset;
+        }
+
+        ByteBuffer getBytes() {
+            return bytes;
+        }
+    }
+}
@@ -0,0 +1,91 @@
+package eu.humanbrainproject.mip.migrations.values;
+
+import eu.humanbrainproject.mip.migrations.LoadMetrics;
+import eu.humanbrainproject.mip.migrations.datapackage.Dialect;
+import org.supercsv.cellprocessor.ift.CellProcessor;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.util.List;
+
+/**
+ * Reads the rows of a CSV file sequentially.
+ */
+class CsvDatasetReader implements DatasetReader {
+
+    private final CsvRowReader csvReader;
+    private final String[] header;
+    private long skipped = 0;
+
+    CsvDatasetReader(Reader reader, LoadMetrics.Scope metrics) throws IOException {
+        this(reader, null, metrics);
+    }
+
+    /**
+     * @param reader the CSV content
+     * @param dialect the CSV dialect of the file, or null for the default dialect
+     * @param metrics the metrics of the dataset
+     */
+    CsvDatasetReader(Reader reader, Dialect dialect, LoadMetrics.Scope metrics) throws IOException {
+        this.csvReader = new CsvRowReader(reader, dialect, metrics);
+        try {
+            this.header = csvReader.readHeader();
+        } catch (IOException | RuntimeException e) {
+            csvReader.close();
+            throw e;
+        }
+        if (header == null) {
+            csvReader.close();
+            throw new IOException("CSV file is empty, a header is expected");
+        }
+    }
+
+    @Override
+    public String[] getHeader() {
+        return header;
+    }
+
+    @Override
+    public List<Object> read(CellProcessor... processors) throws IOException {
+        return csvReader.read(processors);
+    }
+
+    @Override
+    public int read(ColumnBatch batch, CellProcessor... processors) throws IOException {
+        int rows = 0;
+        while (!batch.isFull() && csvReader.read(batch, processors)) {
+            rows++;
+        }
+        return rows;
+    }
+
+    @Override
+    public void setRejectFile(RejectFile rejects) {
+        csvReader.setRejectFile(rejects, true);
+    }
+
+    /**
+     * Skips some records without converting their values.
+     *
+     * @param records the number of records to skip
+     */
+    void skip(long records) throws IOException {
+        for (long i = 0; i < records; i++) {
+            if (!csvReader.skip()) {
+                throw new IOException("Cannot skip " + records + " records, the CSV file contains only " + i + " records");
+            }
+        }
+        skipped += records;
+    }
+
+    @Override
+    public long getRecordsRead() {
+        // Without the header
+        return csvReader.getRecords() - 1 - skipped;
+    }
+
+    @Override
+    public void close() throws IOException {
+        csvReader.close();
+    }
+}
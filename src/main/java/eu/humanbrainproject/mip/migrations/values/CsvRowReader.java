@@ -0,0 +1,202 @@
+package eu.humanbrainproject.mip.migrations.values;
+
+import eu.humanbrainproject.mip.migrations.LoadMetrics;
+import eu.humanbrainproject.mip.migrations.datapackage.Dialect;
+import org.supercsv.cellprocessor.ift.CellProcessor;
+import org.supercsv.exception.SuperCsvException;
+import org.supercsv.util.CsvContext;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * CSV reader timing separately the parsing of the rows and the conversion of their values by the cell processors.
+ *
+ * Rows are tokenized by a {@link CsvTokenizer}. The cells of the columns converted by a {@link TypedCellProcessor}
+ * are converted directly from the tokenizer, the other cells are converted from strings as in SuperCSV. Rows are
+ * returned as lists of values, or stored in a {@link ColumnBatch}. When a reject file is set, rows whose values
+ * cannot be converted are written to the file and skipped.
+ *
+ * Times are accumulated locally and added to the metrics when the reader is closed.
+ */
+class CsvRowReader implements Closeable {
+
+    private final CsvTokenizer tokenizer;
+    private final LoadMetrics.Scope metrics;
+    private final CsvContext context = new CsvContext(0, 0, 0);
+    private long parseNanos = 0;
+    private long convertNanos = 0;
+    private RejectFile rejects;
+    private boolean lineNumbers = true;
+
+    CsvRowReader(Reader reader, Dialect dialect, LoadMetrics.Scope metrics) {
+        this.tokenizer = new CsvTokenizer(reader, dialect);
+        this.metrics = metrics;
+    }
+
+    /**
+     * Reads the header, which must be the first record.
+     *
+     * @return the columns of the header, or null if the file is empty
+     */
+    String[] readHeader() throws IOException {
+        if (tokenizer.getRowNumber() != 0) {
+            throw new SuperCsvException("The header must be read before any other record");
+        }
+        return tokenizer.next() ? tokenizer.getStrings() : null;
+    }
+
+    /**
+     * Sets the file receiving the rows whose values cannot be converted, which are then skipped instead of failing
+     * the load.
+     *
+     * @param rejects the reject file, or null to fail on the first row that cannot be converted
+     * @param lineNumbers true if the lines counted by this reader are the lines of the dataset file
+     */
+    void setRejectFile(RejectFile rejects, boolean lineNumbers) {
+        this.rejects = rejects;
+        this.lineNumbers = lineNumbers;
+    }
+
+    /**
+     * Reads the next row and converts its values.
+     *
+     * @param processors the cell processors, one for each column
+     * @return the converted values, or null when all rows have been read
+     */
+    List<Object> read(CellProcessor... processors) throws IOException {
+        while (true) {
+            final long start = System.nanoTime();
+            if (!tokenizer.next()) {
+                parseNanos += System.nanoTime() - start;
+                return null;
+            }
+            final long parsed = System.nanoTime();
+            parseNanos += parsed - start;
+            try {
+                return convert(processors);
+            } catch (SuperCsvException e) {
+                reject(e);
+            } finally {
+                convertNanos += System.nanoTime() - parsed;
+            }
+        }
+    }
+
+    /**
+     * Reads the next row and stores its converted values in the current row of a batch.
+     *
+     * @param batch the batch receiving the values
+     * @param processors the cell processors, one for each column
+     * @return false when all rows have been read
+     */
+    boolean read(ColumnBatch batch, CellProcessor... processors) throws IOException {
+        while (true) {
+            final long start = System.nanoTime();
+            if (!tokenizer.next()) {
+                parseNanos += System.nanoTime() - start;
+                return false;
+            }
+            final long parsed = System.nanoTime();
+            parseNanos += parsed - start;
+            try {
+                convert(batch, processors);
+                return true;
+            } catch (SuperCsvException e) {
+                reject(e);
+            } finally {
+                convertNanos += System.nanoTime() - parsed;
+            }
+        }
+    }
+
+    /**
+     * @return the number of records read so far, including the header and the rejected rows
+     */
+    long getRecords() {
+        return tokenizer.getRowNumber();
+    }
+
+    /**
+     * Skips the next row without converting its values.
+     *
+     * @return false when all rows have been read
+     */
+    boolean skip() throws IOException {
+        final long start = System.nanoTime();
+        final boolean skipped = tokenizer.next();
+        parseNanos += System.nanoTime() - start;
+        return skipped;
+    }
+
+    private void checkCellCount(CellProcessor[] processors) {
+        final int cells = tokenizer.getCellCount();
+        context.setLineNumber((int) tokenizer.getLineNumber());
+        context.setRowNumber((int) tokenizer.getRowNumber());
+        context.setColumnNumber(1);
+        if (cells != processors.length) {
+            throw new SuperCsvException(String.format("The number of columns to be processed (%d) must match the number" +
+                    " of CellProcessors (%d): check that the number of CellProcessors you have defined matches the" +
+                    " expected number of columns being read/written", cells, processors.length), context);
+        }
+    }
+
+    private void convert(ColumnBatch batch, CellProcessor[] processors) {
+        checkCellCount(processors);
+        batch.ensureCapacity(batch.size() + 1);
+        batch.setLine(lineNumbers ? tokenizer.getLineNumber() : 0);
+        for (int i = 0; i < processors.length; i++) {
+            context.setColumnNumber(i + 1);
+            final CellProcessor processor = processors[i];
+            if (processor instanceof TypedCellProcessor) {
+                ((TypedCellProcessor) processor).execute(tokenizer, i, batch, i, context);
+            } else if (processor == null) {
+                batch.setValue(i, tokenizer.getString(i));
+            } else {
+                batch.setValue(i, processor.execute(tokenizer.getString(i), context));
+            }
+        }
+        batch.addRow();
+    }
+
+    /**
+     * Writes the current row to the reject file, or rethrows the error if rows are not rejected.
+     */
+    private void reject(SuperCsvException e) throws IOException {
+        if (rejects == null) {
+            throw e;
+        }
+        rejects.reject(lineNumbers ? tokenizer.getLineNumber() : 0, Arrays.asList(tokenizer.getStrings()), e);
+    }
+
+    private List<Object> convert(CellProcessor[] processors) {
+        checkCellCount(processors);
+        final int cells = processors.length;
+        final List<Object> values = new ArrayList<>(cells);
+        for (int i = 0; i < cells; i++) {
+            context.setColumnNumber(i + 1);
+            final CellProcessor processor = processors[i];
+            if (processor instanceof TypedCellProcessor) {
+                values.add(((TypedCellProcessor) processor).execute(tokenizer, i, context));
+            } else if (processor == null) {
+                values.add(tokenizer.getString(i));
+            } else {
+                values.add(processor.execute(tokenizer.getString(i), context));
+            }
+        }
+        return values;
+    }
+
+    @Override
+    public void close() throws IOException {
+        metrics.addTime(LoadMetrics.Phase.PARSE, parseNanos);
+        metrics.addTime(LoadMetrics.Phase.CONVERT, convertNanos);
+        parseNanos = 0;
+        convertNanos = 0;
+        tokenizer.close();
+    }
+}
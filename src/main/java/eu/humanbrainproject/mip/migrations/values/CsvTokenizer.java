@@ -0,0 +1,532 @@
+package eu.humanbrainproject.mip.migrations.values;
+
+import eu.humanbrainproject.mip.migrations.datapackage.Dialect;
+import eu.humanbrainproject.mip.migrations.keys.KeyIndex;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.Reader;
+
+/**
+ * Streaming CSV tokenizer following RFC 4180 and the CSV dialect of the data package.
+ *
+ * Characters are read into a reusable buffer and the cells of the current record are copied, unquoted, into a
+ * reusable record buffer where they are exposed as slices. Integers and doubles are parsed directly from the
+ * slices, strings are only created on demand, so that tokenizing a record does not allocate once the buffers have
+ * grown to the size of the largest record.
+ *
+ * As SuperCSV, empty lines are skipped and empty cells, quoted or not, are read as null values. Quotes in the
+ * middle of an unquoted cell and characters following the closing quote of a cell are kept as is, as are the line
+ * terminators of quoted values.
+ */
+final class CsvTokenizer implements Closeable {
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+    private static final int NO_ESCAPE = -1;
+
+    private final Reader reader;
+    private final char delimiter;
+    private final char quote;
+    private final boolean doubleQuote;
+    private final int escape;
+    private final boolean skipInitialSpace;
+
+    private final char[] buffer = new char[BUFFER_SIZE];
+    private int position = 0;
+    private int limit = 0;
+    private boolean eof = false;
+
+    private char[] record = new char[1024];
+    private int recordLength;
+    private int[] starts = new int[64];
+    private int[] ends = new int[64];
+    private int cellCount;
+
+    private long lineNumber = 0;
+    private long recordLineNumber = 0;
+    private long rowNumber = 0;
+    private final CellChars cellChars = new CellChars();
+
+    /**
+     * @param reader the CSV content
+     * @param dialect the CSV dialect, or null for the default dialect
+     */
+    CsvTokenizer(Reader reader, Dialect dialect) {
+        this.reader = reader;
+        if (dialect == null) {
+            dialect = new Dialect();
+        }
+        this.delimiter = singleChar(dialect.getDelimiter(), "delimiter");
+        this.quote = singleChar(dialect.getQuoteChar(), "quoteChar");
+        this.doubleQuote = dialect.isDoubleQuote();
+        this.escape = dialect.getEscapeChar() == null ? NO_ESCAPE : singleChar(dialect.getEscapeChar(), "escapeChar");
+        this.skipInitialSpace = dialect.isSkipInitialSpace();
+        if (delimiter == quote || delimiter == '\n' || delimiter == '\r' || quote == '\n' || quote == '\r') {
+            throw new IllegalArgumentException("Invalid CSV dialect: the delimiter and the quote character must be" +
+                    " different and cannot be line terminators");
+        }
+    }
+
+    /**
+     * @return the delimiter of a dialect
+     */
+    static char delimiterChar(Dialect dialect) {
+        return dialect == null ? ',' : singleChar(dialect.getDelimiter(), "delimiter");
+    }
+
+    /**
+     * @return the quote character of a dialect
+     */
+    static char quoteChar(Dialect dialect) {
+        return dialect == null ? '"' : singleChar(dialect.getQuoteChar(), "quoteChar");
+    }
+
+    /**
+     * @return the escape character of a dialect, or -1 if quotes are only escaped by doubling them
+     */
+    static int escapeChar(Dialect dialect) {
+        return dialect == null || dialect.getEscapeChar() == null ? NO_ESCAPE : singleChar(dialect.getEscapeChar(), "escapeChar");
+    }
+
+    private static char singleChar(String value, String property) {
+        if (value == null || value.length() != 1) {
+            throw new IllegalArgumentException("Invalid CSV dialect: " + property + " must be a single character, found '" + value + "'");
+        }
+        return value.charAt(0);
+    }
+
+    /**
+     * Reads the next record.
+     *
+     * @return false when all records have been read
+     */
+    boolean next() throws IOException {
+        cellCount = 0;
+        recordLength = 0;
+
+        // Skip empty lines
+        int c;
+        while (true) {
+            if (position == limit && !fill()) {
+                return false;
+            }
+            c = buffer[position];
+            if (c == '\n') {
+                lineNumber++;
+                position++;
+            } else if (c == '\r') {
+                position++;
+                skipLineFeed();
+                lineNumber++;
+            } else {
+                break;
+            }
+        }
+
+        recordLineNumber = lineNumber + 1;
+        rowNumber++;
+        boolean endOfRecord = false;
+        while (!endOfRecord) {
+            endOfRecord = readCell();
+        }
+        lineNumber++;
+        return true;
+    }
+
+    /**
+     * Reads a cell of the current record.
+     *
+     * @return true if the cell is the last cell of the record
+     */
+    private boolean readCell() throws IOException {
+        if (cellCount == starts.length) {
+            growCells();
+        }
+        final int cell = cellCount++;
+        starts[cell] = recordLength;
+
+        if (skipInitialSpace) {
+            while ((position < limit || fill()) && buffer[position] == ' ') {
+                position++;
+            }
+        }
+        if ((position < limit || fill()) && buffer[position] == quote) {
+            position++;
+            readQuoted();
+        }
+
+        // Unquoted content, or content following the closing quote
+        while (true) {
+            if (position == limit && !fill()) {
+                ends[cell] = recordLength;
+                return true;
+            }
+            final char[] buffer = this.buffer;
+            final int limit = this.limit;
+            int i = position;
+            char c = 0;
+            while (i < limit) {
+                c = buffer[i];
+                if (c == delimiter || c == '\n' || c == '\r' || c == escape) {
+                    break;
+                }
+                i++;
+            }
+            append(buffer, position, i - position);
+            position = i;
+            if (i == limit) {
+                continue;
+            }
+            position++;
+            if (c == delimiter) {
+                ends[cell] = recordLength;
+                return false;
+            } else if (c == '\n') {
+                ends[cell] = recordLength;
+                return true;
+            } else if (c == '\r') {
+                skipLineFeed();
+                ends[cell] = recordLength;
+                return true;
+            } else {
+                appendEscaped();
+            }
+        }
+    }
+
+    /**
+     * Reads the content of a quoted cell, up to and including the closing quote.
+     */
+    private void readQuoted() throws IOException {
+        while (true) {
+            if (position == limit && !fill()) {
+                throw new IOException("Unexpected end of file on line " + (lineNumber + 1) + ": unterminated quoted value" +
+                        " starting on line " + recordLineNumber);
+            }
+            final char[] buffer = this.buffer;
+            final int limit = this.limit;
+            int i = position;
+            char c = 0;
+            while (i < limit) {
+                c = buffer[i];
+                if (c == quote || c == escape || c == '\n') {
+                    break;
+                }
+                i++;
+            }
+            append(buffer, position, i - position);
+            position = i;
+            if (i == limit) {
+                continue;
+            }
+            position++;
+            if (c == '\n') {
+                lineNumber++;
+                append('\n');
+            } else if (c == quote) {
+                if (doubleQuote && (position < limit || fill()) && this.buffer[position] == quote) {
+                    position++;
+                    append(quote);
+                } else {
+                    return;
+                }
+            } else {
+                appendEscaped();
+            }
+        }
+    }
+
+    private void appendEscaped() throws IOException {
+        if (position == limit && !fill()) {
+            throw new IOException("Unexpected end of file on line " + (lineNumber + 1) + " after the escape character");
+        }
+        final char c = buffer[position++];
+        if (c == '\n') {
+            lineNumber++;
+        }
+        append(c);
+    }
+
+    private void skipLineFeed() throws IOException {
+        if ((position < limit || fill()) && buffer[position] == '\n') {
+            position++;
+        }
+    }
+
+    private boolean fill() throws IOException {
+        if (eof) {
+            return false;
+        }
+        int read;
+        do {
+            read = reader.read(buffer, 0, buffer.length);
+        } while (read == 0);
+        if (read < 0) {
+            eof = true;
+            position = limit = 0;
+            return false;
+        }
+        position = 0;
+        limit = read;
+        return true;
+    }
+
+    private void append(char[] chars, int offset, int length) {
+        if (recordLength + length > record.length) {
+            growRecord(recordLength + length);
+        }
+        System.arraycopy(chars, offset, record, recordLength, length);
+        recordLength += length;
+    }
+
+    private void append(char c) {
+        if (recordLength == record.length) {
+            growRecord(recordLength + 1);
+        }
+        record[recordLength++] = c;
+    }
+
+    private void growRecord(int minLength) {
+        final char[] larger = new char[Math.max(minLength, record.length * 2)];
+        System.arraycopy(record, 0, larger, 0, recordLength);
+        record = larger;
+    }
+
+    private void growCells() {
+        final int length = starts.length * 2;
+        final int[] largerStarts = new int[length];
+        final int[] largerEnds = new int[length];
+        System.arraycopy(starts, 0, largerStarts, 0, cellCount);
+        System.arraycopy(ends, 0, largerEnds, 0, cellCount);
+        starts = largerStarts;
+        ends = largerEnds;
+    }
+
+    /**
+     * @return the number of cells of the current record
+     */
+    int getCellCount() {
+        return cellCount;
+    }
+
+    /**
+     * @return the line of the file where the current record starts, starting from 1
+     */
+    long getLineNumber() {
+        return recordLineNumber;
+    }
+
+    /**
+     * @return the number of the current record in the file, starting from 1 for the header
+     */
+    long getRowNumber() {
+        return rowNumber;
+    }
+
+    /**
+     * @return true if the cell is empty
+     */
+    boolean isNull(int cell) {
+        return starts[cell] == ends[cell];
+    }
+
+    /**
+     * @return the value of the cell, or null if the cell is empty
+     */
+    String getString(int cell) {
+        return isNull(cell) ? null : new String(record, starts[cell], ends[cell] - starts[cell]);
+    }
+
+    /**
+     * @return the characters of a non null cell, as a view reused for every cell and only valid until the next call
+     */
+    CharSequence getChars(int cell) {
+        cellChars.start = starts[cell];
+        cellChars.length = ends[cell] - starts[cell];
+        return cellChars;
+    }
+
+    /**
+     * Copies the value of a non null cell into the current row of a batch.
+     */
+    void copyTo(int cell, ColumnBatch batch, int column) {
+        batch.setString(column, record, starts[cell], ends[cell] - starts[cell]);
+    }
+
+    /**
+     * Adds the value of a non null cell to a key index.
+     *
+     * @return false if the value was already in the index
+     */
+    boolean addTo(int cell, KeyIndex keys) {
+        return keys.add(record, starts[cell], ends[cell] - starts[cell]);
+    }
+
+    /**
+     * @return the values of the cells of the current record
+     */
+    String[] getStrings() {
+        final String[] values = new String[cellCount];
+        for (int i = 0; i < cellCount; i++) {
+            values[i] = getString(i);
+        }
+        return values;
+    }
+
+    /**
+     * Parses the value of a cell as an integer, with the same syntax as {@link Integer#parseInt(String)}.
+     */
+    int getInt(int cell) {
+        final char[] record = this.record;
+        final int end = ends[cell];
+        int i = starts[cell];
+        if (i == end) {
+            throw invalidNumber(cell);
+        }
+        boolean negative = false;
+        final char first = record[i];
+        if (first == '-' || first == '+') {
+            negative = first == '-';
+            if (++i == end) {
+                throw invalidNumber(cell);
+            }
+        }
+        // Accumulate negatively to reach Integer.MIN_VALUE
+        final int limit = negative ? Integer.MIN_VALUE : -Integer.MAX_VALUE;
+        final int multiplyLimit = limit / 10;
+        int result = 0;
+        for (; i < end; i++) {
+            final int digit = record[i] - '0';
+            if (digit < 0 || digit > 9 || result < multiplyLimit) {
+                throw invalidNumber(cell);
+            }
+            result *= 10;
+            if (result < limit + digit) {
+                throw invalidNumber(cell);
+            }
+            result -= digit;
+        }
+        return negative ? result : -result;
+    }
+
+    /**
+     * Parses the value of a cell as a double, with the same syntax and result as {@link Double#parseDouble(String)}.
+     *
+     * Decimal numbers with up to 18 significant digits are converted by {@link DecimalToDouble}, the other numbers
+     * and the numbers it cannot convert are parsed by the JDK.
+     */
+    double getDouble(int cell) {
+        final char[] record = this.record;
+        final int start = starts[cell];
+        final int end = ends[cell];
+        int i = start;
+        if (i == end) {
+            throw invalidNumber(cell);
+        }
+        boolean negative = false;
+        if (record[i] == '-' || record[i] == '+') {
+            negative = record[i] == '-';
+            i++;
+        }
+        long mantissa = 0;
+        int significantDigits = 0;
+        int digits = 0;
+        int exponent = 0;
+        boolean point = false;
+        for (; i < end; i++) {
+            final char c = record[i];
+            if (c >= '0' && c <= '9') {
+                digits++;
+                if (mantissa != 0 || c != '0') {
+                    if (++significantDigits > DecimalToDouble.MAX_DIGITS) {
+                        return parseDouble(cell);
+                    }
+                    mantissa = mantissa * 10 + (c - '0');
+                }
+                if (point) {
+                    exponent--;
+                }
+            } else if (c == '.' && !point) {
+                point = true;
+            } else {
+                break;
+            }
+        }
+        if (digits == 0) {
+            return parseDouble(cell);
+        }
+        if (i < end && (record[i] == 'e' || record[i] == 'E')) {
+            i++;
+            boolean negativeExponent = false;
+            if (i < end && (record[i] == '-' || record[i] == '+')) {
+                negativeExponent = record[i] == '-';
+                i++;
+            }
+            int explicitExponent = 0;
+            final int exponentStart = i;
+            for (; i < end && i - exponentStart < 4; i++) {
+                final int digit = record[i] - '0';
+                if (digit < 0 || digit > 9) {
+                    break;
+                }
+                explicitExponent = explicitExponent * 10 + digit;
+            }
+            if (i == exponentStart) {
+                return parseDouble(cell);
+            }
+            exponent += negativeExponent ? -explicitExponent : explicitExponent;
+        }
+        if (i != end) {
+            // Surrounding spaces, NaN, Infinity, hexadecimal or type suffix
+            return parseDouble(cell);
+        }
+        final double value = DecimalToDouble.toDouble(mantissa, exponent, negative);
+        return Double.isNaN(value) ? parseDouble(cell) : value;
+    }
+
+    private double parseDouble(int cell) {
+        final String value = new String(record, starts[cell], ends[cell] - starts[cell]);
+        return Double.parseDouble(value);
+    }
+
+    private NumberFormatException invalidNumber(int cell) {
+        return new NumberFormatException("For input string: \"" + new String(record, starts[cell], ends[cell] - starts[cell]) + "\"");
+    }
+
+    @Override
+    public void close() throws IOException {
+        reader.close();
+    }
+
+    /**
+     * Characters of a cell of the current record, read in place.
+     */
+    private final class CellChars implements CharSequence {
+
+        private int start;
+        private int length;
+
+        @Override
+        public int length() {
+            return length;
+        }
+
+        @Override
+        public char charAt(int index) {
+            if (index < 0 || index >= length) {
+                throw new IndexOutOfBoundsException("Index " + index + " out of cell of length " + length);
+            }
+            return record[start + index];
+        }
+
+        @Override
+        public CharSequence subSequence(int begin, int end) {
+            return toString().substring(begin, end);
+        }
+
+        @Override
+        public String toString() {
+            return new String(record, start, length);
+        }
+    }
+}
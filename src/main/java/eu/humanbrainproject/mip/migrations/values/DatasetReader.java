@@ -0,0 +1,83 @@
+package eu.humanbrainproject.mip.migrations.values;
+
+import org.supercsv.cellprocessor.ift.CellProcessor;
+
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * Reads the rows of a dataset file.
+ */
+interface DatasetReader extends AutoCloseable {
+
+    /**
+     * Offset returned when the position of the next record in the file is not known.
+     */
+    long UNKNOWN_OFFSET = -1;
+
+    /**
+     * @return the columns defined in the header of the file
+     */
+    String[] getHeader();
+
+    /**
+     * Reads the next row and converts its values.
+     *
+     * @param processors the cell processors, one for each column of the header
+     * @return the converted values, or null when all rows have been read
+     */
+    List<Object> read(CellProcessor... processors) throws IOException;
+
+    /**
+     * Reads the next rows into a batch, until the batch is full or all rows have been read.
+     *
+     * @param batch the batch receiving the converted values
+     * @param processors the cell processors, one for each column of the header
+     * @return the number of rows added to the batch, 0 when all rows have been read
+     */
+    default int read(ColumnBatch batch, CellProcessor... processors) throws IOException {
+        int rows = 0;
+        List<Object> values;
+        while (!batch.isFull() && (values = read(processors)) != null) {
+            batch.addRow(values);
+            rows++;
+        }
+        return rows;
+    }
+
+    /**
+     * Sets the file receiving the rows whose values cannot be converted, which are then skipped. It must be set
+     * before the first row is read.
+     *
+     * @param rejects the reject file
+     */
+    void setRejectFile(RejectFile rejects);
+
+    /**
+     * @return true if the reader tells the offset of the records in the file, from time to time
+     */
+    default boolean isSeekable() {
+        return false;
+    }
+
+    /**
+     * @return the offset in bytes of the next record in the file, or {@link #UNKNOWN_OFFSET} if the reader does not
+     * know it at this point
+     */
+    default long getNextRecordOffset() {
+        return UNKNOWN_OFFSET;
+    }
+
+    /**
+     * @return the number of records of the file read since the reader was opened or positioned, including the rows
+     * rejected by the reader, or -1 if the reader does not count them. It is only exact when the offset of the next
+     * record is known or the reader is not seekable
+     */
+    default long getRecordsRead() {
+        return -1;
+    }
+
+    @Override
+    void close() throws IOException;
+
+}
@@ -0,0 +1,38 @@
+package eu.humanbrainproject.mip.migrations.values;
+
+import java.io.IOException;
+import java.sql.SQLException;
+import java.util.List;
+
+/**
+ * Sends the rows read from a dataset file to the database.
+ */
+interface DatasetWriter extends AutoCloseable {
+
+    /**
+     * @param values values of the row, converted by the cell processors and ordered as the columns of the CSV header
+     */
+    void write(List<Object> values) throws SQLException, IOException;
+
+    /**
+     * Writes the rows of a batch. The batch is reused by the caller once this method returns.
+     *
+     * @param batch rows converted by the cell processors, with the columns of the CSV header
+     */
+    default void write(ColumnBatch batch) throws SQLException, IOException {
+        for (int row = 0; row < batch.size(); row++) {
+            write(batch.getRow(row));
+        }
+    }
+
+    /**
+     * Sends the remaining rows to the database.
+     *
+     * @return the total number of records written
+     */
+    long finish() throws SQLException, IOException;
+
+    @Override
+    void close() throws SQLException;
+
+}
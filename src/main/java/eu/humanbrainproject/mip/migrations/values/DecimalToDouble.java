@@ -0,0 +1,134 @@
+package eu.humanbrainproject.mip.migrations.values;
+
+import java.math.BigInteger;
+
+/**
+ * Converts decimal numbers, given as a mantissa and a power of ten, to the nearest double, without creating a string
+ * for {@link Double#parseDouble(String)}.
+ *
+ * Small numbers are computed exactly from exact doubles, the others with the algorithm of Eisel and Lemire, which
+ * multiplies the mantissa by a 128 bits approximation of the power of ten. When the approximation cannot decide the
+ * rounding, or the result is subnormal or infinite, no result is returned and the caller must use the JDK.
+ */
+final class DecimalToDouble {
+
+    /** Largest number of significant digits of the mantissa, which keeps it below 2^63 */
+    static final int MAX_DIGITS = 18;
+
+    private static final long MAX_EXACT_MANTISSA = 1L << 53;
+    private static final double[] POWERS_OF_TEN = {
+            1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11,
+            1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22
+    };
+
+    private static final int SMALLEST_POWER = -342;
+    private static final int LARGEST_POWER = 308;
+
+    /** High and low 64 bits of the powers of five, normalized so that the most significant bit is set */
+    private static final long[] POWERS_OF_FIVE_HIGH = new long[LARGEST_POWER - SMALLEST_POWER + 1];
+    private static final long[] POWERS_OF_FIVE_LOW = new long[LARGEST_POWER - SMALLEST_POWER + 1];
+
+    static {
+        final BigInteger mask = BigInteger.ONE.shiftLeft(64).subtract(BigInteger.ONE);
+        for (int q = SMALLEST_POWER; q <= LARGEST_POWER; q++) {
+            BigInteger value;
+            if (q < 0) {
+                // Ceiling of the reciprocal of 5^-q
+                final BigInteger power = BigInteger.valueOf(5).pow(-q);
+                final int z = power.bitLength();
+                final int b = q >= -27 ? z + 127 : 2 * z + 128;
+                value = BigInteger.ONE.shiftLeft(b).divide(power).add(BigInteger.ONE);
+            } else {
+                value = BigInteger.valueOf(5).pow(q);
+            }
+            final int shift = value.bitLength() - 128;
+            value = shift > 0 ? value.shiftRight(shift) : value.shiftLeft(-shift);
+            POWERS_OF_FIVE_HIGH[q - SMALLEST_POWER] = value.shiftRight(64).longValue();
+            POWERS_OF_FIVE_LOW[q - SMALLEST_POWER] = value.and(mask).longValue();
+        }
+    }
+
+    private DecimalToDouble() {
+    }
+
+    /**
+     * @param mantissa the significant digits, at most {@link #MAX_DIGITS} digits
+     * @param exponent the power of ten applied to the mantissa
+     * @param negative true for a negative number
+     * @return the nearest double, or NaN if it cannot be computed and the number must be parsed by the JDK
+     */
+    static double toDouble(long mantissa, int exponent, boolean negative) {
+        if (mantissa == 0) {
+            return negative ? -0.0 : 0.0;
+        }
+        if (mantissa < MAX_EXACT_MANTISSA && exponent >= -22 && exponent <= 22) {
+            final double value = exponent >= 0 ? mantissa * POWERS_OF_TEN[exponent] : mantissa / POWERS_OF_TEN[-exponent];
+            return negative ? -value : value;
+        }
+        if (exponent < SMALLEST_POWER || exponent > LARGEST_POWER) {
+            return Double.NaN;
+        }
+
+        final long factorHigh = POWERS_OF_FIVE_HIGH[exponent - SMALLEST_POWER];
+        final long binaryExponent = (((152170L + 65536L) * exponent) >> 16) + 1024 + 63;
+        int leadingZeros = Long.numberOfLeadingZeros(mantissa);
+        final long i = mantissa << leadingZeros;
+
+        long lower = i * factorHigh;
+        long upper = multiplyHigh(i, factorHigh);
+        if ((upper & 0x1FF) == 0x1FF && Long.compareUnsigned(lower + i, lower) < 0) {
+            final long factorLow = POWERS_OF_FIVE_LOW[exponent - SMALLEST_POWER];
+            final long productLow = i * factorLow;
+            final long productMiddle = lower + multiplyHigh(i, factorLow);
+            long productHigh = upper;
+            if (Long.compareUnsigned(productMiddle, lower) < 0) {
+                productHigh++;
+            }
+            if (productMiddle + 1 == 0 && (productHigh & 0x1FF) == 0x1FF && Long.compareUnsigned(productLow + i, productLow) < 0) {
+                return Double.NaN;
+            }
+            upper = productHigh;
+            lower = productMiddle;
+        }
+
+        final long upperBit = upper >>> 63;
+        long bits = upper >>> (upperBit + 9);
+        leadingZeros += (int) (1 ^ upperBit);
+        if (lower == 0 && (upper & 0x1FF) == 0 && (bits & 3) == 1) {
+            // Exactly halfway between two doubles
+            return Double.NaN;
+        }
+        bits += bits & 1;
+        bits >>>= 1;
+        if (bits >= (1L << 53)) {
+            bits = 1L << 52;
+            leadingZeros--;
+        }
+        bits &= ~(1L << 52);
+        final long realExponent = binaryExponent - leadingZeros;
+        if (realExponent < 1 || realExponent > 2046) {
+            return Double.NaN;
+        }
+        bits |= realExponent << 52;
+        if (negative) {
+            bits |= 1L << 63;
+        }
+        return Double.longBitsToDouble(bits);
+    }
+
+    /**
+     * @return the high 64 bits of the unsigned 128 bits product of two unsigned longs
+     */
+    private static long multiplyHigh(long x, long y) {
+        final long x0 = x & 0xFFFFFFFFL;
+        final long x1 = x >>> 32;
+        final long y0 = y & 0xFFFFFFFFL;
+        final long y1 = y >>> 32;
+        final long p11 = x1 * y1;
+        final long p01 = x0 * y1;
+        final long p10 = x1 * y0;
+        final long p00 = x0 * y0;
+        final long middle = (p00 >>> 32) + (p10 & 0xFFFFFFFFL) + (p01 & 0xFFFFFFFFL);
+        return p11 + (p10 >>> 32) + (p01 >>> 32) + (middle >>> 32);
+    }
+}
@@ -0,0 +1,181 @@
+package eu.humanbrainproject.mip.migrations.values;
+
+import eu.humanbrainproject.mip.migrations.LoadMetrics;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Drops the secondary indexes and the unique, exclusion and foreign key constraints of tables before they are
+ * loaded, and rebuilds them once the tables are loaded, as building an index over all rows is much cheaper than
+ * maintaining it row by row.
+ *
+ * The definitions of the indexes and constraints are read from the catalog with pg_get_indexdef and
+ * pg_get_constraintdef, and the same functions are used after the rebuild to check that the definitions are
+ * identical. Primary keys, check constraints and unique constraints referenced by a foreign key are kept. Everything
+ * happens in the transaction of the migration, so a failed load leaves the indexes untouched.
+ */
+final class DeferredIndexes {
+
+    private static final Logger LOG = LoggerFactory.getLogger("Setup data-package");
+
+    private static final String INDEXES_SQL = "SELECT c.relname, pg_get_indexdef(i.indexrelid) " +
+            "FROM pg_index i JOIN pg_class c ON c.oid = i.indexrelid " +
+            "WHERE i.indrelid = CAST(? AS regclass) " +
+            "AND NOT EXISTS (SELECT 1 FROM pg_constraint k WHERE k.conindid = i.indexrelid) " +
+            "ORDER BY c.relname";
+    private static final String CONSTRAINTS_SQL = "SELECT k.conname, pg_get_constraintdef(k.oid) " +
+            "FROM pg_constraint k WHERE k.conrelid = CAST(? AS regclass) AND k.contype IN ('u', 'x', 'f') " +
+            "AND NOT (k.contype IN ('u', 'x') AND EXISTS (SELECT 1 FROM pg_constraint f " +
+            "WHERE f.contype = 'f' AND f.conindid = k.conindid)) " +
+            "ORDER BY k.contype = 'f', k.conname";
+
+    private final String maintenanceWorkMem;
+    private final Map<String, Definitions> deferred = new LinkedHashMap<>();
+
+    /**
+     * @param maintenanceWorkMem value of maintenance_work_mem used to rebuild the indexes, or null to keep the
+     *                           setting of the server
+     */
+    DeferredIndexes(String maintenanceWorkMem) {
+        this.maintenanceWorkMem = maintenanceWorkMem;
+    }
+
+    /**
+     * Records the definitions of the indexes and constraints of a table and drops them. Does nothing if the
+     * indexes of the table are already deferred.
+     */
+    void defer(Connection connection, String table) throws SQLException {
+        if (deferred.containsKey(table)) {
+            return;
+        }
+        final Definitions definitions = new Definitions(query(connection, INDEXES_SQL, table),
+                query(connection, CONSTRAINTS_SQL, table));
+        deferred.put(table, definitions);
+        if (definitions.isEmpty()) {
+            return;
+        }
+
+        final long start = System.nanoTime();
+        try (Statement statement = connection.createStatement()) {
+            // Foreign keys first, they may depend on the unique constraints
+            final List<String> constraints = new ArrayList<>(definitions.constraints.keySet());
+            for (int i = constraints.size() - 1; i >= 0; i--) {
+                statement.execute("ALTER TABLE \"" + table + "\" DROP CONSTRAINT \"" + constraints.get(i) + "\"");
+            }
+            for (String index : definitions.indexes.keySet()) {
+                statement.execute("DROP INDEX \"" + index + "\"");
+            }
+        }
+        LoadMetrics.getInstance().table(table).addTime(LoadMetrics.Phase.INDEX, System.nanoTime() - start);
+        LOG.info("Deferred " + definitions.indexes.size() + " indexes and " + definitions.constraints.size() +
+                " constraints of table " + table + " until the end of the load");
+    }
+
+    /**
+     * Rebuilds the indexes and constraints of a table, then checks that their definitions are identical to the
+     * definitions recorded before they were dropped.
+     */
+    void rebuild(Connection connection, String table) throws SQLException {
+        final Definitions definitions = deferred.remove(table);
+        if (definitions == null || definitions.isEmpty()) {
+            return;
+        }
+
+        final long start = System.nanoTime();
+        final String previousMaintenanceWorkMem = maintenanceWorkMem == null ? null : setMaintenanceWorkMem(connection, maintenanceWorkMem);
+        try (Statement statement = connection.createStatement()) {
+            for (String indexDefinition : definitions.indexes.values()) {
+                statement.execute(indexDefinition);
+            }
+            for (Map.Entry<String, String> constraint : definitions.constraints.entrySet()) {
+                statement.execute("ALTER TABLE \"" + table + "\" ADD CONSTRAINT \"" + constraint.getKey() + "\" " +
+                        constraint.getValue());
+            }
+        } finally {
+            if (previousMaintenanceWorkMem != null) {
+                setMaintenanceWorkMem(connection, previousMaintenanceWorkMem);
+            }
+        }
+
+        final Definitions rebuilt = new Definitions(query(connection, INDEXES_SQL, table),
+                query(connection, CONSTRAINTS_SQL, table));
+        if (!rebuilt.indexes.equals(definitions.indexes) || !rebuilt.constraints.equals(definitions.constraints)) {
+            throw new IllegalStateException("Indexes and constraints of table " + table +
+                    " differ after their rebuild. Expected " + definitions + " but found " + rebuilt);
+        }
+        final long elapsed = System.nanoTime() - start;
+        LoadMetrics.getInstance().table(table).addTime(LoadMetrics.Phase.INDEX, elapsed);
+        LOG.info("Rebuilt " + definitions.indexes.size() + " indexes and " + definitions.constraints.size() +
+                " constraints of table " + table + " in " + elapsed / 1000000 + " ms");
+    }
+
+    /**
+     * Rebuilds the indexes and constraints of all tables still deferred.
+     */
+    void rebuildAll(Connection connection) throws SQLException {
+        for (String table : new ArrayList<>(deferred.keySet())) {
+            rebuild(connection, table);
+        }
+    }
+
+    /**
+     * Sets maintenance_work_mem until the end of the transaction.
+     *
+     * @return the previous value of the setting
+     */
+    private static String setMaintenanceWorkMem(Connection connection, String value) throws SQLException {
+        final String previous;
+        try (Statement statement = connection.createStatement();
+             ResultSet rs = statement.executeQuery("SELECT current_setting('maintenance_work_mem')")) {
+            rs.next();
+            previous = rs.getString(1);
+        }
+        try (PreparedStatement statement = connection.prepareStatement("SELECT set_config('maintenance_work_mem', ?, true)")) {
+            statement.setString(1, value);
+            statement.execute();
+        }
+        return previous;
+    }
+
+    private static Map<String, String> query(Connection connection, String sql, String table) throws SQLException {
+        final Map<String, String> result = new LinkedHashMap<>();
+        try (PreparedStatement statement = connection.prepareStatement(sql)) {
+            statement.setString(1, "\"" + table + "\"");
+            try (ResultSet rs = statement.executeQuery()) {
+                while (rs.next()) {
+                    result.put(rs.getString(1), rs.getString(2));
+                }
+            }
+        }
+        return result;
+    }
+
+    private static final class Definitions {
+        private final Map<String, String> indexes;
+        private final Map<String, String> constraints;
+
+        Definitions(Map<String, String> indexes, Map<String, String> constraints) {
+            this.indexes = indexes;
+            this.constraints = constraints;
+        }
+
+        boolean isEmpty() {
+            return indexes.isEmpty() && constraints.isEmpty();
+        }
+
+        @Override
+        public String toString() {
+            return "indexes " + indexes + ", constraints " + constraints;
+        }
+    }
+}
@@ -0,0 +1,196 @@
+package eu.humanbrainproject.mip.migrations.values;
+
+import eu.humanbrainproject.mip.migrations.datapackage.Constraints;
+import eu.humanbrainproject.mip.migrations.datapackage.Field;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.supercsv.cellprocessor.ift.CellProcessor;
+import org.supercsv.exception.SuperCsvConstraintViolationException;
+import org.supercsv.util.CsvContext;
+
+import java.sql.Types;
+import java.util.Arrays;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
+
+/**
+ * Checks the constraints pattern, enum, minLength and maxLength of a field on its non null values, compiled once
+ * when the cell processors are created.
+ *
+ * The pattern must match the whole value, and the lengths are counted in characters, as for the varchar types of
+ * PostgreSQL. They apply to string fields. The values of enum are converted to the type of the field, integers and
+ * numbers are looked up in sorted arrays and strings in a small hash table, without converting the value.
+ */
+final class FieldValidator {
+
+    private static final Logger LOG = LoggerFactory.getLogger("Setup data-package");
+
+    private final String column;
+    private final Pattern pattern;
+    private final int minLength;
+    private final int maxLength;
+    private final int[] intValues;
+    private final double[] doubleValues;
+    private final String[] stringValues;
+
+    private FieldValidator(String column, Pattern pattern, int minLength, int maxLength, int[] intValues,
+                           double[] doubleValues, String[] stringValues) {
+        this.column = column;
+        this.pattern = pattern;
+        this.minLength = minLength;
+        this.maxLength = maxLength;
+        this.intValues = intValues;
+        this.doubleValues = doubleValues;
+        this.stringValues = stringValues;
+    }
+
+    /**
+     * @return the validator of the constraints of a field, or null if the field has no such constraints
+     */
+    static FieldValidator forField(Field field) {
+        final Constraints constraints = field.getConstraints();
+        final String[] enumeration = constraints.getEnumeration();
+        final int sqlTypeCode = field.getSqlTypeCode();
+        final boolean string = sqlTypeCode == Types.CHAR || sqlTypeCode == Types.VARCHAR || sqlTypeCode == Types.CLOB;
+        if (enumeration == null && (!string || (constraints.getPattern() == null
+                && constraints.getMinLength() == null && constraints.getMaxLength() == null))) {
+            return null;
+        }
+
+        Pattern pattern = null;
+        if (string && constraints.getPattern() != null) {
+            try {
+                pattern = Pattern.compile(constraints.getPattern());
+            } catch (PatternSyntaxException e) {
+                throw new IllegalArgumentException("Invalid pattern " + constraints.getPattern() + " on field " + field.getName(), e);
+            }
+        }
+        final int minLength = string && constraints.getMinLength() != null ? constraints.getMinLength() : -1;
+        final int maxLength = string && constraints.getMaxLength() != null ? constraints.getMaxLength() : -1;
+
+        int[] intValues = null;
+        double[] doubleValues = null;
+        String[] stringValues = null;
+        if (enumeration != null) {
+            try {
+                switch (sqlTypeCode) {
+                    case Types.INTEGER:
+                        intValues = Arrays.stream(enumeration).mapToInt(Integer::parseInt).sorted().toArray();
+                        break;
+                    case Types.NUMERIC:
+                        doubleValues = Arrays.stream(enumeration).mapToDouble(Double::parseDouble).sorted().toArray();
+                        break;
+                    case Types.CHAR:
+                    case Types.VARCHAR:
+                    case Types.CLOB:
+                        stringValues = hashTable(enumeration);
+                        break;
+                    default:
+                        LOG.warn("Constraint enum is not checked on field " + field.getName() + " of type " + field.getType());
+                        if (pattern == null && minLength < 0 && maxLength < 0) {
+                            return null;
+                        }
+                }
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException("Invalid value in the constraint enum of field " + field.getName(), e);
+            }
+        }
+        return new FieldValidator(field.getName(), pattern, minLength, maxLength, intValues, doubleValues, stringValues);
+    }
+
+    void validate(int value, CellProcessor processor, CsvContext context) {
+        if (intValues != null && Arrays.binarySearch(intValues, value) < 0) {
+            throw notInEnum(value, processor, context);
+        }
+    }
+
+    void validate(double value, CellProcessor processor, CsvContext context) {
+        if (doubleValues != null && Arrays.binarySearch(doubleValues, value) < 0) {
+            throw notInEnum(value, processor, context);
+        }
+    }
+
+    void validate(CharSequence value, CellProcessor processor, CsvContext context) {
+        if (minLength >= 0 || maxLength >= 0) {
+            final int length = Character.codePointCount(value, 0, value.length());
+            if (minLength >= 0 && length < minLength) {
+                throw new SuperCsvConstraintViolationException(String.format("the length of value '%s' of column %s is %d," +
+                        " less than the minimum length %d", value, column, length, minLength), context, processor);
+            }
+            if (maxLength >= 0 && length > maxLength) {
+                throw new SuperCsvConstraintViolationException(String.format("the length of value '%s' of column %s is %d," +
+                        " more than the maximum length %d", value, column, length, maxLength), context, processor);
+            }
+        }
+        if (pattern != null && !pattern.matcher(value).matches()) {
+            throw new SuperCsvConstraintViolationException(String.format("value '%s' of column %s does not match the" +
+                    " pattern %s", value, column, pattern.pattern()), context, processor);
+        }
+        if (stringValues != null && !contains(stringValues, value)) {
+            throw notInEnum(value, processor, context);
+        }
+    }
+
+    /**
+     * Validates a value converted by a cell processor.
+     */
+    void validate(Object value, CellProcessor processor, CsvContext context) {
+        if (value instanceof Integer) {
+            validate((int) (Integer) value, processor, context);
+        } else if (value instanceof Double) {
+            validate((double) (Double) value, processor, context);
+        } else if (value instanceof CharSequence) {
+            validate((CharSequence) value, processor, context);
+        }
+    }
+
+    private SuperCsvConstraintViolationException notInEnum(Object value, CellProcessor processor, CsvContext context) {
+        return new SuperCsvConstraintViolationException(String.format("value '%s' of column %s is not one of the values" +
+                " of its enum", value, column), context, processor);
+    }
+
+    /**
+     * @return an open addressing hash table of the values, with at least half of its slots empty
+     */
+    private static String[] hashTable(String[] values) {
+        int size = 4;
+        while (size < 2 * values.length) {
+            size *= 2;
+        }
+        final String[] table = new String[size];
+        for (String value : values) {
+            if (contains(table, value)) {
+                continue;
+            }
+            int slot = hash(value) & (size - 1);
+            while (table[slot] != null) {
+                slot = (slot + 1) & (size - 1);
+            }
+            table[slot] = value;
+        }
+        return table;
+    }
+
+    private static boolean contains(String[] table, CharSequence value) {
+        int slot = hash(value) & (table.length - 1);
+        String candidate;
+        while ((candidate = table[slot]) != null) {
+            if (candidate.contentEquals(value)) {
+                return true;
+            }
+            slot = (slot + 1) & (table.length - 1);
+        }
+        return false;
+    }
+
+    /**
+     * @return the same hash as {@link String#hashCode()}, spread over the low bits
+     */
+    private static int hash(CharSequence value) {
+        int hash = 0;
+        for (int i = 0; i < value.length(); i++) {
+            hash = 31 * hash + value.charAt(i);
+        }
+        return hash ^ (hash >>> 16);
+    }
+}
@@ -0,0 +1,248 @@
+package eu.humanbrainproject.mip.migrations.values;
+
+import eu.humanbrainproject.mip.migrations.datapackage.Field;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.supercsv.cellprocessor.ift.CellProcessor;
+import org.supercsv.exception.SuperCsvException;
+import org.supercsv.util.CsvContext;
+
+import java.io.IOException;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Loads only the rows of a dataset that changed since the previous load.
+ *
+ * A hash of the content of each row is stored with its primary key after each load. On the next load, rows whose
+ * hash is unchanged are skipped, new or modified rows are upserted and rows that disappeared from the dataset are
+ * deleted. The first incremental load of a dataset reloads all rows and records their hashes.
+ *
+ * Rows rejected while reading the file or by the database keep their previous values and hashes, so that the next
+ * load sends them again. They are not deleted: when the key of a row rejected while reading cannot be parsed, no row
+ * is deleted by the load.
+ */
+final class IncrementalLoad {
+
+    private static final Logger LOG = LoggerFactory.getLogger("Setup data-package");
+
+    private static final long FNV_OFFSET_BASIS = 0xcbf29ce484222325L;
+    private static final long FNV_PRIME = 0x100000001b3L;
+
+    private final Connection connection;
+    private final String tableName;
+    private final String primaryKey;
+    private final String primaryKeySqlType;
+    private final RowHashStore store;
+    private final Map<String, Long> previousHashes;
+
+    IncrementalLoad(Connection connection, String tableName, String datasetName, String primaryKey, List<Field> fields)
+            throws SQLException {
+        if (primaryKey == null || "".equals(primaryKey) || primaryKey.contains(",")) {
+            throw new IllegalArgumentException("Incremental load of dataset " + datasetName +
+                    " requires a primary key defined on one column");
+        }
+        this.connection = connection;
+        this.tableName = tableName;
+        this.primaryKey = primaryKey;
+        this.primaryKeySqlType = fields.stream()
+                .filter(f -> f.getName().equals(primaryKey))
+                .findFirst()
+                .orElseThrow(() -> new IllegalArgumentException("Primary key " + primaryKey + " is not a field of dataset " + datasetName))
+                .getSqlType();
+        this.store = new RowHashStore(connection, tableName, datasetName);
+        this.previousHashes = store.load();
+    }
+
+    /**
+     * @return true if the hashes of a previous load are available, otherwise all rows should be reloaded
+     */
+    boolean hasPreviousLoad() {
+        return !previousHashes.isEmpty();
+    }
+
+    /**
+     * @param rejects the file receiving the rows rejected by the database, or null to fail on the first error
+     * @return the writer inserting the new rows and updating the modified rows
+     */
+    DatasetWriter createUpsertWriter(LoadPlan plan, BatchPolicy batchPolicy, RejectFile rejects) throws SQLException {
+        return new BatchInsertWriter(connection, plan, batchPolicy, plan.getUpsertSql(primaryKey), rejects);
+    }
+
+    /**
+     * @param plan the load plan
+     * @param writer the writer sending the rows to the database, an upsert writer if there is a previous load
+     * @param rejects the file receiving the rows rejected while reading the file or by the writer, or null if the
+     *                load fails on the first error
+     * @param processors the cell processors of the columns of the file, parsing the keys of the rejected rows
+     * @return the writer sending only the changed rows to the writer
+     */
+    DatasetWriter createWriter(LoadPlan plan, DatasetWriter writer, RejectFile rejects, CellProcessor[] processors)
+            throws SQLException {
+        final int keyIndex = Arrays.asList(plan.getHeader()).indexOf(primaryKey);
+        if (keyIndex < 0) {
+            writer.close();
+            throw new IllegalArgumentException("Primary key " + primaryKey + " is not defined in the CSV file");
+        }
+        final IncrementalWriter incrementalWriter = new IncrementalWriter(keyIndex, plan.getColumnCount(),
+                processors[keyIndex], writer);
+        if (rejects != null) {
+            rejects.setInsertRejectListener(incrementalWriter::rejected);
+            rejects.setReadRejectListener(incrementalWriter::rejectedRead);
+        }
+        return incrementalWriter;
+    }
+
+    static long hash(List<Object> values) {
+        long hash = FNV_OFFSET_BASIS;
+        for (Object v : values) {
+            if (v == null) {
+                hash = (hash ^ 0xff) * FNV_PRIME;
+            } else {
+                final String s = v.toString();
+                for (int i = 0; i < s.length(); i++) {
+                    hash = (hash ^ s.charAt(i)) * FNV_PRIME;
+                }
+            }
+            // Separator between values
+            hash = (hash ^ 0xfe) * FNV_PRIME;
+        }
+        return hash;
+    }
+
+    private final class IncrementalWriter implements DatasetWriter {
+
+        private final int keyIndex;
+        private final int columnCount;
+        private final CellProcessor keyProcessor;
+        private final DatasetWriter writer;
+        private final List<String> changedKeys = new ArrayList<>();
+        private long[] changedHashes = new long[1024];
+        private final Set<String> rejectedKeys = new HashSet<>();
+        private final Set<String> readRejectedKeys = new HashSet<>();
+        private long unparsedRejectedKeys = 0;
+        private long unchanged = 0;
+
+        IncrementalWriter(int keyIndex, int columnCount, CellProcessor keyProcessor, DatasetWriter writer) {
+            this.keyIndex = keyIndex;
+            this.columnCount = columnCount;
+            this.keyProcessor = keyProcessor;
+            this.writer = writer;
+        }
+
+        @Override
+        public void write(List<Object> values) throws SQLException, IOException {
+            final Object key = values.get(keyIndex);
+            if (key == null) {
+                throw new IllegalArgumentException("On column " + primaryKey + ", a value is required");
+            }
+            final String rowKey = key.toString();
+            final long hash = hash(values);
+            final Long previousHash = previousHashes.remove(rowKey);
+            if (previousHash != null && previousHash == hash) {
+                unchanged++;
+                return;
+            }
+            if (changedKeys.size() == changedHashes.length) {
+                changedHashes = Arrays.copyOf(changedHashes, changedHashes.length * 2);
+            }
+            changedHashes[changedKeys.size()] = hash;
+            changedKeys.add(rowKey);
+            writer.write(values);
+        }
+
+        /**
+         * Called when the database rejects a changed row. Its previous hash, if any, is kept so that the next load
+         * sends the row again.
+         */
+        synchronized void rejected(List<Object> values) {
+            rejectedKeys.add(values.get(keyIndex).toString());
+        }
+
+        /**
+         * Called when a row is rejected while reading the file, possibly by the threads parsing the file. The row is
+         * still in the dataset, its key is kept from the rows removed from the dataset.
+         */
+        synchronized void rejectedRead(List<?> cells) {
+            final String key = parseKey(cells);
+            if (key == null) {
+                unparsedRejectedKeys++;
+            } else {
+                readRejectedKeys.add(key);
+            }
+        }
+
+        /**
+         * @return the key of a row as written by this writer, or null if the key of the row cannot be parsed
+         */
+        private String parseKey(List<?> cells) {
+            if (cells.size() != columnCount || cells.get(keyIndex) == null) {
+                return null;
+            }
+            final String cell = cells.get(keyIndex).toString();
+            try {
+                final Object key = keyProcessor instanceof TypedCellProcessor
+                        ? ((TypedCellProcessor) keyProcessor).convert(cell, new CsvContext(0, 0, keyIndex + 1))
+                        : cell;
+                return key == null ? null : key.toString();
+            } catch (SuperCsvException | IllegalArgumentException e) {
+                return null;
+            }
+        }
+
+        @Override
+        public long finish() throws SQLException, IOException {
+            final long written = writer.finish();
+            final long deleted;
+            synchronized (this) {
+                if (!rejectedKeys.isEmpty()) {
+                    removeRejectedKeys();
+                }
+                previousHashes.keySet().removeAll(readRejectedKeys);
+
+                // Keys left from the previous load are the rows removed from the dataset
+                if (unparsedRejectedKeys > 0 && !previousHashes.isEmpty()) {
+                    LOG.warn("The keys of " + unparsedRejectedKeys + " rows of table " + tableName + " rejected while" +
+                            " reading cannot be parsed, the " + previousHashes.size() + " records removed from the" +
+                            " dataset are not deleted by this load");
+                    deleted = 0;
+                } else if (!previousHashes.isEmpty()) {
+                    RowHashStore.deleteRows(connection, tableName, primaryKey, primaryKeySqlType, previousHashes.keySet());
+                    store.delete(previousHashes.keySet());
+                    deleted = previousHashes.size();
+                } else {
+                    deleted = 0;
+                }
+            }
+            store.save(changedKeys, changedHashes);
+
+            LOG.info("Incremental load of table " + tableName + ": " + written + " records inserted or updated, " +
+                    deleted + " records deleted, " + unchanged + " records unchanged, " +
+                    (rejectedKeys.size() + readRejectedKeys.size() + unparsedRejectedKeys) + " records rejected");
+            return written + unchanged;
+        }
+
+        private void removeRejectedKeys() {
+            int kept = 0;
+            for (int i = 0; i < changedKeys.size(); i++) {
+                final String key = changedKeys.get(i);
+                if (!rejectedKeys.contains(key)) {
+                    changedKeys.set(kept, key);
+                    changedHashes[kept++] = changedHashes[i];
+                }
+            }
+            changedKeys.subList(kept, changedKeys.size()).clear();
+        }
+
+        @Override
+        public void close() throws SQLException {
+            writer.close();
+        }
+    }
+}
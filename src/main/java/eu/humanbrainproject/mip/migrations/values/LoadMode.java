@@ -0,0 +1,37 @@
+package eu.humanbrainproject.mip.migrations.values;
+
+/**
+ * Strategy used to push the rows of a dataset into its table.
+ */
+public enum LoadMode {
+
+    /** INSERT statements sent in JDBC batches, works with any database */
+    BATCH,
+
+    /** INSERT statements inserting many rows at once with VALUES (...),(...), sent one per batch */
+    MULTIROW,
+
+    /** PostgreSQL COPY FROM STDIN, streamed through the driver's CopyManager */
+    COPY,
+
+    /** PostgreSQL COPY FROM STDIN in binary format, values are encoded according to the types of the columns */
+    BINARY;
+
+    /**
+     * Resolves the load mode from its name, as found in datapackage.json or in the LOAD_MODE environment variable.
+     *
+     * @param mode name of the mode, case insensitive
+     * @param defaultMode mode to use when the name is empty
+     * @return the load mode
+     */
+    public static LoadMode fromString(String mode, LoadMode defaultMode) {
+        if (mode == null || "".equals(mode.trim())) {
+            return defaultMode;
+        }
+        try {
+            return LoadMode.valueOf(mode.trim().toUpperCase());
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException("Unknown load mode " + mode + ", expected one of batch, multirow, copy, binary");
+        }
+    }
+}
@@ -0,0 +1,145 @@
+package eu.humanbrainproject.mip.migrations.values;
+
+import eu.humanbrainproject.mip.migrations.LoadMetrics;
+import eu.humanbrainproject.mip.migrations.datapackage.Field;
+import org.apache.commons.lang3.StringUtils;
+
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Describes how the rows of a CSV file are loaded into a table, compiled once per dataset from the CSV header
+ * and the definition of the fields.
+ *
+ * Binders are indexed by the position of their column in the CSV file, so that loading a row only requires array
+ * lookups.
+ */
+final class LoadPlan {
+
+    private final String tableName;
+    private final String[] header;
+    private final ColumnBinder[] binders;
+    private final LoadMetrics.Scope metrics;
+
+    private LoadPlan(String tableName, String[] header, ColumnBinder[] binders, LoadMetrics.Scope metrics) {
+        this.tableName = tableName;
+        this.header = header;
+        this.binders = binders;
+        this.metrics = metrics;
+    }
+
+    /**
+     * @param tableName the table receiving the rows
+     * @param header the columns of the CSV file
+     * @param fields the fields of the dataset
+     * @param metrics the metrics of the dataset, receiving the times measured by the writers
+     */
+    static LoadPlan compile(String tableName, String[] header, List<Field> fields, LoadMetrics.Scope metrics) {
+        final Map<String, Field> fieldsByName = new HashMap<>();
+        for (Field field : fields) {
+            fieldsByName.put(field.getName(), field);
+        }
+
+        final ColumnBinder[] binders = new ColumnBinder[header.length];
+        for (int i = 0; i < header.length; i++) {
+            final Field field = fieldsByName.get(header[i]);
+            if (field == null) {
+                throw new IllegalStateException("Expected to find column " + header[i]);
+            }
+            binders[i] = ColumnBinder.forField(field);
+        }
+        return new LoadPlan(tableName, header, binders, metrics);
+    }
+
+    String getTableName() {
+        return tableName;
+    }
+
+    String[] getHeader() {
+        return header;
+    }
+
+    int getColumnCount() {
+        return binders.length;
+    }
+
+    ColumnBinder getBinder(int column) {
+        return binders[column];
+    }
+
+    LoadMetrics.Scope getMetrics() {
+        return metrics;
+    }
+
+    /**
+     * @param rows number of rows inserted by the statement
+     * @return the SQL for an INSERT statement with one group of parameters per row
+     */
+    String getInsertSql(int rows) {
+        final StringBuilder sql = new StringBuilder("INSERT INTO \"").append(tableName).append("\"(\"")
+                .append(StringUtils.join(header, "\",\"")).append("\") VALUES ");
+        final String parameters = "(" + StringUtils.repeat("?", ",", binders.length) + ")";
+        for (int row = 0; row < rows; row++) {
+            if (row > 0) {
+                sql.append(',');
+            }
+            sql.append(parameters);
+        }
+        return sql.toString();
+    }
+
+    /**
+     * @param primaryKey the primary key of the table
+     * @return the SQL for an INSERT statement inserting one row, or updating it if a row with the same primary key
+     * already exists
+     */
+    String getUpsertSql(String primaryKey) {
+        final StringBuilder sql = new StringBuilder(getInsertSql(1))
+                .append(" ON CONFLICT (\"").append(primaryKey).append("\") ");
+        final StringBuilder updates = new StringBuilder();
+        for (String column : header) {
+            if (!column.equals(primaryKey)) {
+                if (updates.length() > 0) {
+                    updates.append(',');
+                }
+                updates.append('"').append(column).append("\" = EXCLUDED.\"").append(column).append('"');
+            }
+        }
+        if (updates.length() == 0) {
+            return sql.append("DO NOTHING").toString();
+        }
+        return sql.append("DO UPDATE SET ").append(updates).toString();
+    }
+
+    /**
+     * Binds the values of a row to the parameters of a statement.
+     *
+     * @param statement the statement
+     * @param firstIndex index of the statement parameter receiving the value of the first column
+     * @param values values of the row, ordered as the columns of the CSV header
+     */
+    void bind(PreparedStatement statement, int firstIndex, List<Object> values) throws SQLException {
+        final ColumnBinder[] binders = this.binders;
+        for (int i = 0; i < binders.length; i++) {
+            binders[i].bind(statement, firstIndex + i, values.get(i));
+        }
+    }
+
+    /**
+     * Binds the values of a row of a batch to the parameters of a statement.
+     *
+     * @param statement the statement
+     * @param firstIndex index of the statement parameter receiving the value of the first column
+     * @param batch the batch, with the columns of the CSV header
+     * @param row index of the row in the batch
+     */
+    void bind(PreparedStatement statement, int firstIndex, ColumnBatch batch, int row) throws SQLException {
+        final ColumnBinder[] binders = this.binders;
+        for (int i = 0; i < binders.length; i++) {
+            binders[i].bind(statement, firstIndex + i, batch, row, i);
+        }
+    }
+}
@@ -0,0 +1,44 @@
+package eu.humanbrainproject.mip.migrations.values;
+
+import eu.humanbrainproject.mip.migrations.MigrationConfiguration;
+
+import java.io.IOException;
+
+/**
+ * Strategy used to replace the previous rows of a dataset.
+ */
+public enum LoadStrategy {
+
+    /** Delete the previous rows of the dataset, then insert the new rows in the same table */
+    DELETE,
+
+    /** Load the rows into a new table, then swap it with the existing table in one short step */
+    SWAP,
+
+    /** Only upsert the rows that changed since the previous load and delete the rows that were removed */
+    INCREMENTAL;
+
+    /**
+     * Resolves the load strategy of a dataset, from its configuration or from the LOAD_STRATEGY environment variable.
+     */
+    static LoadStrategy forDataset(MigrationConfiguration.DatasetConfiguration datasetConfiguration) throws IOException {
+        final LoadStrategy defaultStrategy = fromString(System.getenv("LOAD_STRATEGY"), DELETE);
+        return fromString(datasetConfiguration.getLoadStrategy(), defaultStrategy);
+    }
+
+    /**
+     * @param strategy name of the strategy, case insensitive
+     * @param defaultStrategy strategy to use when the name is empty
+     * @return the load strategy
+     */
+    public static LoadStrategy fromString(String strategy, LoadStrategy defaultStrategy) {
+        if (strategy == null || "".equals(strategy.trim())) {
+            return defaultStrategy;
+        }
+        try {
+            return LoadStrategy.valueOf(strategy.trim().toUpperCase());
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException("Unknown load strategy " + strategy + ", expected one of delete, swap, incremental");
+        }
+    }
+}
@@ -0,0 +1,162 @@
+package eu.humanbrainproject.mip.migrations.values;
+
+import eu.humanbrainproject.mip.migrations.LoadMetrics;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Inserts each batch of rows with one INSERT ... VALUES (...),(...) statement.
+ *
+ * The number of rows per statement is bounded so that the statement stays under the limit of 32767 bind
+ * parameters of the PostgreSQL protocol, which matters for wide tables. Pending rows are kept in a
+ * {@link ColumnBatch} reused from one statement to the next. With a reject file, a failed statement is bisected to
+ * reject the failing rows and insert the others.
+ */
+class MultiRowInsertWriter implements DatasetWriter {
+
+    private static final Logger LOG = LoggerFactory.getLogger("Setup data-package");
+
+    static final int MAX_PARAMETERS = 32767;
+
+    private final Connection connection;
+    private final LoadPlan plan;
+    private final BatchPolicy batchPolicy;
+    private final Map<Integer, PreparedStatement> statements = new HashMap<>();
+    private final ColumnBatch rows;
+    private final RejectFile rejects;
+    private long records = 0;
+    private long rejected = 0;
+    private long batchBytes = 0;
+    private long bindNanos = 0;
+    private long executeNanos = 0;
+
+    MultiRowInsertWriter(Connection connection, LoadPlan plan, BatchPolicy batchPolicy) {
+        this(connection, plan, batchPolicy, null);
+    }
+
+    /**
+     * @param rejects the file receiving the rows rejected by the database, or null to fail on the first error
+     */
+    MultiRowInsertWriter(Connection connection, LoadPlan plan, BatchPolicy batchPolicy, RejectFile rejects) {
+        if (plan.getColumnCount() > MAX_PARAMETERS) {
+            throw new IllegalArgumentException("Table " + plan.getTableName() + " has too many columns for multi-row inserts");
+        }
+        this.connection = connection;
+        this.plan = plan;
+        this.batchPolicy = batchPolicy;
+        batchPolicy.limitBatchSize(MAX_PARAMETERS / plan.getColumnCount());
+        this.rows = new ColumnBatch(plan, batchPolicy.getBatchSize());
+        this.rejects = rejects;
+    }
+
+    @Override
+    public void write(List<Object> values) throws SQLException, IOException {
+        rows.addRow(values);
+        if (batchPolicy.isByteBudgetDefined()) {
+            batchBytes += BatchPolicy.estimateSize(values);
+        }
+        added();
+    }
+
+    @Override
+    public void write(ColumnBatch batch) throws SQLException, IOException {
+        for (int row = 0; row < batch.size(); row++) {
+            rows.addRow(batch, row);
+            if (batchPolicy.isByteBudgetDefined()) {
+                batchBytes += batch.estimateSize(row);
+            }
+            added();
+        }
+    }
+
+    private void added() throws SQLException, IOException {
+        records++;
+        if (batchPolicy.isFull(rows.size(), batchBytes)) {
+            insertRows();
+            LOG.info("Saving batch records #" + records);
+        }
+    }
+
+    private void insertRows() throws SQLException, IOException {
+        final int count = rows.size();
+        final long start = System.nanoTime();
+        if (rejects != null) {
+            rejected += Bisection.insert(connection, rows, this::insertRows, rejects);
+        } else {
+            insertRows(0, count);
+        }
+        batchPolicy.executed(count, System.nanoTime() - start);
+        rows.clear();
+        batchBytes = 0;
+    }
+
+    /**
+     * Inserts a range of the pending rows with one statement.
+     */
+    private void insertRows(int from, int to) throws SQLException {
+        final int count = to - from;
+        final long start = System.nanoTime();
+        // Statements for full batches are reused, smaller batches are only sent once
+        final boolean reused = count == batchPolicy.getBatchSize();
+        final PreparedStatement statement = reused ? getStatement(count) : connection.prepareStatement(plan.getInsertSql(count));
+        try {
+            final int columns = plan.getColumnCount();
+            for (int row = from; row < to; row++) {
+                plan.bind(statement, (row - from) * columns + 1, rows, row);
+            }
+            final long bound = System.nanoTime();
+            statement.executeUpdate();
+            bindNanos += bound - start;
+            executeNanos += System.nanoTime() - bound;
+        } finally {
+            if (!reused) {
+                statement.close();
+            }
+        }
+    }
+
+    private PreparedStatement getStatement(int rowCount) throws SQLException {
+        PreparedStatement statement = statements.get(rowCount);
+        if (statement == null) {
+            statement = connection.prepareStatement(plan.getInsertSql(rowCount));
+            statements.put(rowCount, statement);
+        }
+        return statement;
+    }
+
+    @Override
+    public long finish() throws SQLException, IOException {
+        if (rows.size() > 0) {
+            insertRows(); // insert remaining records
+        }
+        plan.getMetrics().addTime(LoadMetrics.Phase.BIND, bindNanos);
+        plan.getMetrics().addTime(LoadMetrics.Phase.EXECUTE, executeNanos);
+        bindNanos = 0;
+        executeNanos = 0;
+        return records - rejected;
+    }
+
+    @Override
+    public void close() throws SQLException {
+        SQLException error = null;
+        for (PreparedStatement statement : statements.values()) {
+            try {
+                statement.close();
+            } catch (SQLException e) {
+                error = e;
+            }
+        }
+        statements.clear();
+        if (error != null) {
+            throw error;
+        }
+    }
+}
@@ -0,0 +1,245 @@
+package eu.humanbrainproject.mip.migrations.values;
+
+import eu.humanbrainproject.mip.migrations.LoadMetrics;
+import eu.humanbrainproject.mip.migrations.datapackage.Dialect;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.supercsv.cellprocessor.ift.CellProcessor;
+import org.supercsv.exception.SuperCsvException;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
+/**
+ * Reads the rows of a CSV file by parsing several chunks of the file in parallel.
+ *
+ * The file is memory-mapped and split into chunks of whole records. Chunks are parsed and converted by the cell
+ * processors on a fork-join pool, and their rows are returned in the order of the file. The number of chunks
+ * parsed in advance is bounded to keep memory usage under control.
+ *
+ * The offset of the next record is known after the last row of each chunk, which allows to resume reading the file
+ * from this offset.
+ */
+class ParallelCsvDatasetReader implements DatasetReader {
+
+    private static final Logger LOG = LoggerFactory.getLogger("Setup data-package");
+
+    static final int CHUNK_SIZE = 8 * 1024 * 1024;
+
+    private final FileChannel channel;
+    private final ForkJoinPool pool;
+    private final int maxPendingChunks;
+    private final CsvChunker chunker;
+    private final Dialect dialect;
+    private final LoadMetrics.Scope metrics;
+    private final String[] header;
+    private final Deque<Future<ParsedChunk>> pendingChunks = new ArrayDeque<>();
+    private final Deque<Long> pendingChunkEnds = new ArrayDeque<>();
+    private Iterator<List<Object>> rows = Collections.emptyIterator();
+    private long chunkEnd;
+    private long records = 0;
+    private RejectFile rejects;
+
+    ParallelCsvDatasetReader(String fileName, int threads, Dialect dialect, LoadMetrics.Scope metrics) throws IOException {
+        this(fileName, threads, 0, dialect, metrics);
+    }
+
+    /**
+     * @param fileName the CSV file
+     * @param threads the number of threads parsing the file
+     * @param start offset of the first record to read, as returned by {@link #getNextRecordOffset()}, or 0 to read
+     *              all records
+     * @param dialect the CSV dialect of the file, or null for the default dialect
+     * @param metrics the metrics of the dataset
+     */
+    ParallelCsvDatasetReader(String fileName, int threads, long start, Dialect dialect, LoadMetrics.Scope metrics)
+            throws IOException {
+        this.metrics = metrics;
+        this.dialect = dialect;
+        this.channel = FileChannel.open(Paths.get(fileName), StandardOpenOption.READ);
+        try {
+            // The header is the first record of the file
+            final CsvChunker.Chunk headerChunk = new CsvChunker(channel, 0, 1, dialect).next();
+            if (headerChunk == null) {
+                throw new IOException("CSV file is empty, a header is expected");
+            }
+            try (CsvRowReader headerReader = newCsvReader(headerChunk.getBytes())) {
+                this.header = headerReader.readHeader();
+            }
+
+            final long headerSize = headerChunk.getBytes().limit();
+            this.chunker = new CsvChunker(channel, Math.max(headerSize, start), CHUNK_SIZE, dialect);
+            this.chunkEnd = chunker.getPosition();
+            this.pool = new ForkJoinPool(threads);
+            this.maxPendingChunks = threads * 2;
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+        LOG.info("Parsing CSV file " + fileName + " using " + threads + " threads");
+    }
+
+    @Override
+    public String[] getHeader() {
+        return header;
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * The lines of the rows are not known when a chunk is parsed, the rejected rows are written without their line.
+     */
+    @Override
+    public void setRejectFile(RejectFile rejects) {
+        this.rejects = rejects;
+    }
+
+    @Override
+    public List<Object> read(CellProcessor... processors) throws IOException {
+        while (!rows.hasNext()) {
+            final ParsedChunk chunk = nextChunk(processors);
+            if (chunk == null) {
+                return null;
+            }
+            rows = chunk.rows.iterator();
+            records += chunk.records;
+        }
+        return rows.next();
+    }
+
+    @Override
+    public boolean isSeekable() {
+        return true;
+    }
+
+    @Override
+    public long getNextRecordOffset() {
+        return rows.hasNext() ? UNKNOWN_OFFSET : chunkEnd;
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * The records of a chunk are counted when its first row is returned.
+     */
+    @Override
+    public long getRecordsRead() {
+        return records;
+    }
+
+    private ParsedChunk nextChunk(CellProcessor[] processors) throws IOException {
+        CsvChunker.Chunk chunk;
+        while (pendingChunks.size() < maxPendingChunks && (chunk = chunker.next()) != null) {
+            final CsvChunker.Chunk parsedChunk = chunk;
+            pendingChunks.addLast(pool.submit(() -> parse(parsedChunk, processors)));
+            pendingChunkEnds.addLast(chunker.getPosition());
+        }
+
+        final Future<ParsedChunk> next = pendingChunks.pollFirst();
+        if (next == null) {
+            return null;
+        }
+        chunkEnd = pendingChunkEnds.pollFirst();
+        try {
+            return next.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while parsing CSV file", e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw new IOException(e.getCause());
+        }
+    }
+
+    private ParsedChunk parse(CsvChunker.Chunk chunk, CellProcessor[] processors) throws IOException {
+        final List<List<Object>> chunkRows = new ArrayList<>();
+        try (CsvRowReader csvReader = newCsvReader(chunk.getBytes())) {
+            csvReader.setRejectFile(rejects, false);
+            List<Object> values;
+            while ((values = csvReader.read(processors)) != null) {
+                chunkRows.add(values);
+            }
+            return new ParsedChunk(chunkRows, csvReader.getRecords());
+        } catch (SuperCsvException e) {
+            throw new SuperCsvException("In chunk starting at byte " + chunk.getOffset() + ": " + e.getMessage(),
+                    e.getCsvContext(), e);
+        }
+    }
+
+    private CsvRowReader newCsvReader(ByteBuffer bytes) {
+        final InputStreamReader reader = new InputStreamReader(new ByteBufferInputStream(bytes.duplicate()), Charset.defaultCharset());
+        return new CsvRowReader(reader, dialect, metrics);
+    }
+
+    @Override
+    public void close() throws IOException {
+        for (Future<ParsedChunk> pending : pendingChunks) {
+            pending.cancel(true);
+        }
+        pendingChunks.clear();
+        pendingChunkEnds.clear();
+        pool.shutdownNow();
+        channel.close();
+    }
+
+    /**
+     * The rows of a chunk, and the number of its records including the rejected rows.
+     */
+    private static final class ParsedChunk {
+        private final List<List<Object>> rows;
+        private final long records;
+
+        ParsedChunk(List<List<Object>> rows, long records) {
+            this.rows = rows;
+            this.records = records;
+        }
+    }
+
+    private static final class ByteBufferInputStream extends InputStream {
+        private final ByteBuffer buffer;
+
+        ByteBufferInputStream(ByteBuffer buffer) {
+            this.buffer = buffer;
+        }
+
+        @Override
+        public int read() {
+            return buffer.hasRemaining() ? buffer.get() & 0xff : -1;
+        }
+
+        @Override
+        public int read(byte[] bytes, int offset, int length) {
+            if (length == 0) {
+                return 0;
+            }
+            if (!buffer.hasRemaining()) {
+                return -1;
+            }
+            final int count = Math.min(length, buffer.remaining());
+            buffer.get(bytes, offset, count);
+            return count;
+        }
+
+        @Override
+        public int available() {
+            return buffer.remaining();
+        }
+    }
+}
@@ -0,0 +1,203 @@
+package eu.humanbrainproject.mip.migrations.values;
+
+import eu.humanbrainproject.mip.migrations.LoadMetrics;
+import eu.humanbrainproject.mip.migrations.MigrationConfiguration;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.sql.DataSource;
+import java.io.IOException;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Loads several datasets in parallel, each on its own connection, into the replacement tables of their tables, which
+ * are swapped with the tables at the end of the migration.
+ *
+ * The replacement tables are created and committed before the load, with the rows of the other datasets of the tables,
+ * then the datasets are loaded into them in parallel and committed. Publishing them is only the swap done as the last
+ * step of the migration, whatever the number of rows, so the whole load scales with the number of connections. Until
+ * the swap the tables are untouched, which keeps the migration all-or-nothing. A failed load drops the replacement
+ * tables, a failed migration may leave them, they are dropped by the next load.
+ *
+ * All datasets loaded here must have their table replaced by a swap: the datasets using the swap strategy, and the
+ * datasets using the delete strategy whose table can be swapped.
+ */
+class ParallelDatasetLoader {
+
+    private static final Logger LOG = LoggerFactory.getLogger("Setup data-package");
+
+    /**
+     * Loads the rows of a dataset into a table.
+     */
+    interface RowsLoader {
+
+        /**
+         * @return the load plan used, or null if the dataset has no data to load
+         */
+        LoadPlan load(Connection connection, String datasetName, String tableName) throws IOException, SQLException;
+    }
+
+    private final MigrationConfiguration config;
+    private final DataSource dataSource;
+    private final int threads;
+    private final RowsLoader rowsLoader;
+    private final DeferredIndexes deferredIndexes;
+    private final TableSwaps tableSwaps;
+    private final SessionProfile sessionProfile;
+
+    /**
+     * @param deferredIndexes the indexes and constraints dropped until the end of the migration, or null to keep
+     *                        the indexes of the replacement tables during the load
+     * @param tableSwaps the tables replaced by the datasets, swapped by the migration
+     * @param sessionProfile the settings applied to the sessions loading the replacement tables
+     */
+    ParallelDatasetLoader(MigrationConfiguration config, DataSource dataSource, int threads, RowsLoader rowsLoader,
+                          DeferredIndexes deferredIndexes, TableSwaps tableSwaps, SessionProfile sessionProfile) {
+        this.config = config;
+        this.dataSource = dataSource;
+        this.threads = threads;
+        this.rowsLoader = rowsLoader;
+        this.deferredIndexes = deferredIndexes;
+        this.tableSwaps = tableSwaps;
+        this.sessionProfile = sessionProfile;
+    }
+
+    void load(String[] datasets) throws Exception {
+        if (datasets.length == 0) {
+            return;
+        }
+        final List<TableSwap> preparedSwaps = new ArrayList<>();
+        final ExecutorService executor = Executors.newFixedThreadPool(Math.min(threads, datasets.length), new LoaderThreadFactory());
+
+        LOG.info("Loading " + datasets.length + " datasets in parallel using " + Math.min(threads, datasets.length) + " connections");
+        boolean loaded = false;
+        try {
+            prepareSwaps(datasets, preparedSwaps);
+            final List<Future<?>> futures = new ArrayList<>();
+            for (String dataset : datasets) {
+                futures.add(executor.submit(() -> {
+                    loadDataset(dataset);
+                    return null;
+                }));
+            }
+            for (Future<?> future : futures) {
+                getResult(future);
+            }
+            executor.shutdown();
+            loaded = true;
+
+        } finally {
+            executor.shutdownNow();
+            executor.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+            if (!loaded) {
+                dropReplacementTables(preparedSwaps);
+            }
+        }
+    }
+
+    /**
+     * Creates the replacement tables of the datasets and commits them, so that the loading connections can fill them.
+     */
+    private void prepareSwaps(String[] datasets, List<TableSwap> preparedSwaps) throws IOException, SQLException {
+        try (Connection prepareConnection = dataSource.getConnection()) {
+            prepareConnection.setAutoCommit(false);
+            try {
+                for (String dataset : datasets) {
+                    final TableSwap tableSwap = tableSwaps.get(config.getDatasetConfiguration(dataset).getDatasetTableName());
+                    if (tableSwap.isPrepared()) {
+                        continue;
+                    }
+                    final long start = System.nanoTime();
+                    tableSwap.prepare(prepareConnection);
+                    preparedSwaps.add(tableSwap);
+                    if (deferredIndexes != null) {
+                        // Rebuilt by the migration once all the datasets are loaded
+                        deferredIndexes.defer(prepareConnection, tableSwap.getReplacementTable());
+                    }
+                    prepareConnection.commit();
+                    LoadMetrics.getInstance().dataset(dataset).addTime(LoadMetrics.Phase.PUBLISH, System.nanoTime() - start);
+                }
+            } catch (IOException | SQLException | RuntimeException e) {
+                prepareConnection.rollback();
+                throw e;
+            } finally {
+                prepareConnection.setAutoCommit(true);
+            }
+        }
+    }
+
+    private void loadDataset(String dataset) throws IOException, SQLException {
+        final MigrationConfiguration.DatasetConfiguration datasetConfiguration = config.getDatasetConfiguration(dataset);
+        final String replacementTable = tableSwaps.get(datasetConfiguration.getDatasetTableName()).getReplacementTable();
+
+        try (Connection loadingConnection = dataSource.getConnection()) {
+            loadingConnection.setAutoCommit(true);
+            final Map<String, String> previousSettings = sessionProfile.apply(loadingConnection);
+
+            LOG.info("Loading dataset " + dataset + " into table " + replacementTable + "...");
+            loadingConnection.setAutoCommit(false);
+            try {
+                rowsLoader.load(loadingConnection, dataset, replacementTable);
+                loadingConnection.commit();
+            } catch (IOException | SQLException | RuntimeException e) {
+                loadingConnection.rollback();
+                throw e;
+            } finally {
+                try {
+                    loadingConnection.setAutoCommit(true);
+                    sessionProfile.reset(loadingConnection, previousSettings);
+                } catch (SQLException e) {
+                    LOG.warn("Cannot reset the settings of the session loading dataset " + dataset, e);
+                }
+            }
+        }
+    }
+
+    private void dropReplacementTables(List<TableSwap> preparedSwaps) throws SQLException {
+        if (preparedSwaps.isEmpty()) {
+            return;
+        }
+        try (Connection cleanupConnection = dataSource.getConnection()) {
+            cleanupConnection.setAutoCommit(true);
+            for (TableSwap tableSwap : preparedSwaps) {
+                try {
+                    tableSwap.drop(cleanupConnection);
+                } catch (SQLException e) {
+                    LOG.warn("Cannot drop replacement table " + tableSwap.getReplacementTable(), e);
+                }
+            }
+        }
+    }
+
+    private static void getResult(Future<?> future) throws Exception {
+        try {
+            future.get();
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof Exception) {
+                throw (Exception) e.getCause();
+            }
+            throw e;
+        }
+    }
+
+    private static final class LoaderThreadFactory implements java.util.concurrent.ThreadFactory {
+        private final AtomicInteger count = new AtomicInteger();
+
+        @Override
+        public Thread newThread(Runnable runnable) {
+            final Thread thread = new Thread(runnable, "dataset-loader-" + count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }
+    }
+}
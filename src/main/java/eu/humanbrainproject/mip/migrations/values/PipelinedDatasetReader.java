@@ -0,0 +1,141 @@
+package eu.humanbrainproject.mip.migrations.values;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.supercsv.cellprocessor.ift.CellProcessor;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * Reads and converts the rows of a dataset in a background thread, while the caller sends the previous rows to
+ * the database.
+ *
+ * Rows are handed over in batches through a bounded queue: when the database is slower than the parsing, the
+ * reader thread waits for free space in the queue, which keeps memory usage bounded. An error on either side stops
+ * the pipeline: errors from the reader thread are thrown by {@link #read(CellProcessor...)}, and closing the
+ * pipeline interrupts the reader thread.
+ */
+class PipelinedDatasetReader implements DatasetReader {
+
+    private static final Logger LOG = LoggerFactory.getLogger("Setup data-package");
+
+    static final int ROWS_PER_BATCH = 1000;
+    static final int QUEUE_CAPACITY = 4;
+
+    private static final List<List<Object>> END_OF_ROWS = Collections.emptyList();
+
+    private final DatasetReader source;
+    private final BlockingQueue<List<List<Object>>> batches = new ArrayBlockingQueue<>(QUEUE_CAPACITY);
+    private Thread readerThread;
+    private volatile Throwable error;
+    private volatile boolean closed = false;
+    private Iterator<List<Object>> rows = Collections.emptyIterator();
+    private boolean ended = false;
+
+    PipelinedDatasetReader(DatasetReader source) {
+        this.source = source;
+    }
+
+    @Override
+    public String[] getHeader() {
+        return source.getHeader();
+    }
+
+    @Override
+    public void setRejectFile(RejectFile rejects) {
+        source.setRejectFile(rejects);
+    }
+
+    @Override
+    public List<Object> read(CellProcessor... processors) throws IOException {
+        if (readerThread == null) {
+            start(processors);
+        }
+        while (!rows.hasNext()) {
+            if (ended) {
+                return null;
+            }
+            final List<List<Object>> batch;
+            try {
+                batch = batches.take();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("Interrupted while waiting for rows", e);
+            }
+            if (batch == END_OF_ROWS) {
+                ended = true;
+                rethrowError();
+                return null;
+            }
+            rows = batch.iterator();
+        }
+        return rows.next();
+    }
+
+    private void start(CellProcessor[] processors) {
+        readerThread = new Thread(() -> produce(processors), "dataset-reader");
+        readerThread.setDaemon(true);
+        readerThread.start();
+    }
+
+    private void produce(CellProcessor[] processors) {
+        try {
+            List<List<Object>> batch = new ArrayList<>(ROWS_PER_BATCH);
+            List<Object> values;
+            while (!closed && (values = source.read(processors)) != null) {
+                batch.add(values);
+                if (batch.size() == ROWS_PER_BATCH) {
+                    batches.put(batch);
+                    batch = new ArrayList<>(ROWS_PER_BATCH);
+                }
+            }
+            if (!batch.isEmpty()) {
+                batches.put(batch);
+            }
+        } catch (InterruptedException e) {
+            LOG.debug("Reader thread interrupted");
+            return;
+        } catch (Throwable e) {
+            error = e;
+        }
+        try {
+            batches.put(END_OF_ROWS);
+        } catch (InterruptedException e) {
+            LOG.debug("Reader thread interrupted");
+        }
+    }
+
+    private void rethrowError() throws IOException {
+        final Throwable e = error;
+        if (e instanceof IOException) {
+            throw (IOException) e;
+        } else if (e instanceof RuntimeException) {
+            throw (RuntimeException) e;
+        } else if (e instanceof Error) {
+            throw (Error) e;
+        } else if (e != null) {
+            throw new IOException(e);
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        closed = true;
+        if (readerThread != null) {
+            readerThread.interrupt();
+            batches.clear();
+            try {
+                readerThread.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        source.close();
+    }
+}
@@ -1,29 +1,28 @@
 package eu.humanbrainproject.mip.migrations.values;
 
+import eu.humanbrainproject.mip.migrations.ChecksumCache;
+import eu.humanbrainproject.mip.migrations.LoadMetrics;
+import eu.humanbrainproject.mip.migrations.LoadedTables;
 import eu.humanbrainproject.mip.migrations.MigrationConfiguration;
+import eu.humanbrainproject.mip.migrations.datapackage.Dialect;
 import eu.humanbrainproject.mip.migrations.datapackage.Field;
+import eu.humanbrainproject.mip.migrations.keys.KeyIndex;
 import org.apache.commons.lang3.StringUtils;
 import org.flywaydb.core.api.MigrationVersion;
 import org.flywaydb.core.api.migration.Context;
 import org.flywaydb.core.api.migration.JavaMigration;
 import org.slf4j.LoggerFactory;
 import org.supercsv.cellprocessor.*;
-import org.supercsv.cellprocessor.Optional;
-import org.supercsv.cellprocessor.constraint.NotNull;
-import org.supercsv.cellprocessor.constraint.UniqueHashCode;
 import org.supercsv.cellprocessor.ift.CellProcessor;
-import org.supercsv.io.CsvListReader;
-import org.supercsv.io.ICsvListReader;
-import org.supercsv.prefs.CsvPreference;
 
-import java.io.FileReader;
+import javax.sql.DataSource;
+import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.InputStreamReader;
 import java.sql.Connection;
-import java.sql.PreparedStatement;
 import java.sql.SQLException;
-import java.sql.Types;
-import java.time.format.DateTimeFormatter;
+import java.sql.Statement;
 import java.util.*;
 import java.util.stream.Collectors;
 import java.util.zip.CRC32;
@@ -35,13 +34,11 @@ public class R__SetupValues implements JavaMigration {
 
     private static final Logger LOG = LoggerFactory.getLogger("Setup data-package");
 
-    private static final String TABLE_REGEX = "\\$\\{table}";
-    private static final String KEYS_REGEX = "\\$\\{keys}";
-    private static final String VALUES_REGEX = "\\$\\{values}";
-    private static final String SQL_INSERT = "INSERT INTO \"${table}\"(${keys}) VALUES(${values})";
-    private static final int BATCH_SIZE = 100;
+    private static final String DEFAULT_MAINTENANCE_WORK_MEM = "512MB";
 
-    protected final MigrationConfiguration config = new MigrationConfiguration();
+    private static final String DEFAULT_SWAP_LOCK_TIMEOUT = "10s";
+
+    protected final MigrationConfiguration config = MigrationConfiguration.getInstance();
 
     @Override
     public boolean isUndo() {
@@ -69,132 +66,429 @@ public class R__SetupValues implements JavaMigration {
 
             connection.setAutoCommit(false);
 
-            for (String dataset : datasets) {
+            final SessionProfile sessionProfile = SessionProfile.create(config, connection);
+            if (!sessionProfile.isEmpty()) {
+                LOG.info("Loading with bulk-load session profile: " + sessionProfile);
+            }
+            final Map<String, String> previousSettings = sessionProfile.apply(connection);
+
+            final int checkpointRecords = getCheckpointRecords();
+            final CheckpointStore checkpoints = checkpointRecords > 0 ? new CheckpointStore(connection, checkpointRecords) : null;
+            // Checkpoints commit the transaction, indexes are only deferred when they are rebuilt in the same transaction
+            final DeferredIndexes deferredIndexes = checkpoints == null ? getDeferredIndexes(sessionProfile) : null;
+            final int loadThreads = getLoadThreads();
+            final boolean parallel = loadThreads > 1 && datasets.length > 1;
+            // Checkpointed loads commit their progress in the tables, their datasets are never swapped
+            final TableSwaps tableSwaps = TableSwaps.create(config, datasets, sessionProfile.isUnloggedTables(),
+                    getSwapLockTimeout(), parallel && checkpoints == null);
+
+            final List<String> sequentialDatasets = new ArrayList<>(Arrays.asList(datasets));
+            if (parallel) {
+                // Only the datasets loaded into the replacement table of a swap can be loaded in parallel, incremental
+                // loads update the tables in place and deleting rows in the tables would serialize the loads
+                tableSwaps.excludeBlockedDeleteTables(connection);
+                final List<String> swappedDatasets = new ArrayList<>();
+                for (String dataset : datasets) {
+                    if (tableSwaps.isSwapped(config.getDatasetConfiguration(dataset).getDatasetTableName())) {
+                        swappedDatasets.add(dataset);
+                    }
+                }
+                sequentialDatasets.removeAll(swappedDatasets);
+
+                final DataSource dataSource = context.getConfiguration().getDataSource();
+                new ParallelDatasetLoader(config, dataSource, loadThreads, (c, dataset, table) -> loadRows(c, dataset, table, null),
+                        deferredIndexes, tableSwaps, sessionProfile)
+                        .load(swappedDatasets.toArray(new String[0]));
+            }
+            for (String dataset : sequentialDatasets) {
                 LOG.info("Migrating dataset " + dataset + "...");
-                loadDataset(connection, dataset);
+                loadDataset(connection, dataset, checkpoints, deferredIndexes, tableSwaps);
             }
 
+            if (deferredIndexes != null) {
+                deferredIndexes.rebuildAll(connection);
+            }
+            if (checkpoints != null) {
+                checkpoints.delete(datasets);
+            }
+            // The swapped tables are locked until the commit, the swaps come last
+            tableSwaps.swapAll(connection);
             connection.commit();
+            // Settings applied in the transaction are rolled back on failure, they only need a reset after the commit
+            sessionProfile.reset(connection, previousSettings);
 
-        } catch (java.sql.BatchUpdateException e) {
-            LOG.error("Cannot migrate data", e);
-            if (e.getNextException() != null) {
-                LOG.error("Caused by", e.getNextException());
+            final Set<String> loadedTables = new HashSet<>();
+            for (String dataset : datasets) {
+                loadedTables.add(config.getDatasetConfiguration(dataset).getDatasetTableName());
             }
+            LoadedTables.getInstance().addAll(loadedTables);
+
         } catch (Exception e) {
             LOG.error("Cannot migrate data", e);
-            if (e.getCause() != null) {
+            if (e instanceof SQLException && ((SQLException) e).getNextException() != null) {
+                // The first error of a failed JDBC batch tells which row failed and why
+                LOG.error("Caused by", ((SQLException) e).getNextException());
+            } else if (e.getCause() != null) {
                 LOG.error("Caused by", e.getCause());
             }
             throw e;
+        } finally {
+            LoadMetrics.getInstance().writeReports();
         }
     }
 
-    private void loadDataset(Connection connection, String datasetName) throws IOException, SQLException {
+    private int getLoadThreads() {
+        final String loadThreads = System.getenv("LOAD_THREADS");
+        if (loadThreads == null || "".equals(loadThreads.trim())) {
+            return 1;
+        }
+        if ("auto".equalsIgnoreCase(loadThreads.trim())) {
+            return Runtime.getRuntime().availableProcessors();
+        }
+        return Integer.parseInt(loadThreads.trim());
+    }
+
+    private int getCheckpointRecords() {
+        final String checkpointRecords = System.getenv("CHECKPOINT_RECORDS");
+        if (checkpointRecords == null || "".equals(checkpointRecords.trim())) {
+            return 0;
+        }
+        return Integer.parseInt(checkpointRecords.trim());
+    }
+
+    private String getSwapLockTimeout() {
+        final String lockTimeout = System.getenv("SWAP_LOCK_TIMEOUT");
+        if (lockTimeout == null || "".equals(lockTimeout.trim())) {
+            return DEFAULT_SWAP_LOCK_TIMEOUT;
+        }
+        return lockTimeout.trim();
+    }
+
+    private DeferredIndexes getDeferredIndexes(SessionProfile sessionProfile) {
+        if (!"true".equals(System.getenv("DEFER_INDEXES")) && !"yes".equals(System.getenv("DEFER_INDEXES"))) {
+            return null;
+        }
+        // A maintenance_work_mem defined by the session profile is already applied to the session
+        return new DeferredIndexes(sessionProfile.getMaintenanceWorkMem() == null ? DEFAULT_MAINTENANCE_WORK_MEM : null);
+    }
+
+    private void loadDataset(Connection connection, String datasetName, CheckpointStore checkpoints,
+                             DeferredIndexes deferredIndexes, TableSwaps tableSwaps) throws IOException, SQLException {
         final MigrationConfiguration.DatasetConfiguration datasetConfiguration = config.getDatasetConfiguration(datasetName);
         final String csvFileName = config.getDataResourcePath(datasetConfiguration.getDatasetCsvFilePath());
-        final String tableName = datasetConfiguration.getDatasetTableName();
 
         if (csvFileName.equals("/dev/null") || csvFileName.equals("/data/")) {
             LOG.warn("No data will be loaded in dataset " + datasetName);
             return;
         }
 
-        final String deleteSql = datasetConfiguration.getDatasetDeleteQuery();
+        final String tableName = datasetConfiguration.getDatasetTableName();
+        switch (LoadStrategy.forDataset(datasetConfiguration)) {
+            case SWAP:
+                // The indexes of the replacement table are rebuilt and the tables are swapped at the end of the migration
+                final TableSwap tableSwap = tableSwaps.get(tableName);
+                final long start = System.nanoTime();
+                tableSwap.prepare(connection);
+                LoadMetrics.getInstance().dataset(datasetName).addTime(LoadMetrics.Phase.PUBLISH, System.nanoTime() - start);
+                if (deferredIndexes != null) {
+                    deferredIndexes.defer(connection, tableSwap.getReplacementTable());
+                }
+                loadRows(connection, datasetName, tableSwap.getReplacementTable(), null);
+                break;
+            case INCREMENTAL:
+                final IncrementalLoad incrementalLoad = new IncrementalLoad(connection, tableName, datasetName,
+                        datasetConfiguration.getDatasetPrimaryKey(), datasetConfiguration.getFields());
+                if (!incrementalLoad.hasPreviousLoad()) {
+                    final String fullDeleteSql = datasetConfiguration.getDatasetDeleteQuery();
+                    LOG.info("No previous incremental load, deleting previous records using query: " + fullDeleteSql);
+                    deletePreviousRows(connection, datasetName, fullDeleteSql);
+                }
+                loadRows(connection, datasetName, tableName, incrementalLoad);
+                break;
+            case DELETE:
+            default:
+                final CheckpointedLoad checkpointedLoad = checkpoints == null ? null :
+                        checkpoints.start(datasetName, computeChecksum(datasetName));
+                if (checkpointedLoad != null && checkpointedLoad.isCompleted()) {
+                    LOG.info("Dataset " + datasetName + " has been loaded by a previous attempt, skipping it");
+                    break;
+                }
+                if (deferredIndexes != null) {
+                    deferredIndexes.defer(connection, tableName);
+                }
+                if (checkpointedLoad == null || !checkpointedLoad.isResumed()) {
+                    // Delete data from table before loading csv
+                    final String deleteSql = datasetConfiguration.getDatasetDeleteQuery();
+                    LOG.info("Deleting previous records using query: " + deleteSql);
+                    deletePreviousRows(connection, datasetName, deleteSql);
+                }
+
+                loadRows(connection, datasetName, tableName, null, checkpointedLoad);
+        }
+    }
+
+    private void deletePreviousRows(Connection connection, String datasetName, String deleteSql) throws SQLException {
+        final long start = System.nanoTime();
+        try (Statement statement = connection.createStatement()) {
+            statement.execute(deleteSql);
+        }
+        LoadMetrics.getInstance().dataset(datasetName).addTime(LoadMetrics.Phase.DELETE, System.nanoTime() - start);
+    }
+
+    /**
+     * Loads the rows of a dataset into a table, without deleting the existing rows.
+     *
+     * @param connection the connection
+     * @param datasetName name of the dataset
+     * @param tableName the table receiving the rows, either the table of the dataset or the replacement table of a swap
+     * @param incrementalLoad the state of the incremental load, or null to insert all rows
+     * @return the load plan used, or null if the dataset has no data to load
+     */
+    private LoadPlan loadRows(Connection connection, String datasetName, String tableName, IncrementalLoad incrementalLoad)
+            throws IOException, SQLException {
+        return loadRows(connection, datasetName, tableName, incrementalLoad, null);
+    }
+
+    /**
+     * Loads the rows of a dataset into a table, without deleting the existing rows.
+     *
+     * @param connection the connection
+     * @param datasetName name of the dataset
+     * @param tableName the table receiving the rows, either the table of the dataset or the replacement table of a swap
+     * @param incrementalLoad the state of the incremental load, or null to insert all rows
+     * @param checkpointedLoad the state of the checkpointed load, or null to load the rows without intermediate commits
+     * @return the load plan used, or null if the dataset has no data to load
+     */
+    private LoadPlan loadRows(Connection connection, String datasetName, String tableName, IncrementalLoad incrementalLoad,
+                              CheckpointedLoad checkpointedLoad) throws IOException, SQLException {
+        final MigrationConfiguration.DatasetConfiguration datasetConfiguration = config.getDatasetConfiguration(datasetName);
+        final String csvFileName = config.getDataResourcePath(datasetConfiguration.getDatasetCsvFilePath());
+
+        if (csvFileName.equals("/dev/null") || csvFileName.equals("/data/")) {
+            LOG.warn("No data will be loaded in dataset " + datasetName);
+            return null;
+        }
+
         final String primaryKey = datasetConfiguration.getDatasetPrimaryKey();
         final List<Field> fields = datasetConfiguration.getFields();
+        final LoadMode loadMode = getLoadMode(connection, datasetConfiguration);
+        final LoadMetrics.Scope metrics = LoadMetrics.getInstance().dataset(datasetName);
+        final long start = System.nanoTime();
 
-        try (ICsvListReader csvReader = new CsvListReader(new FileReader(csvFileName), CsvPreference.STANDARD_PREFERENCE)) {
+        final LoadPlan plan;
+        try (DatasetReader csvReader = openReader(csvFileName, datasetConfiguration.getDialect(), checkpointedLoad, metrics);
+             RejectFile rejects = createRejectFile(datasetName, datasetConfiguration, csvReader.getHeader())) {
 
-            // skip the header
-            final String[] header = csvReader.getHeader(true);
+            final String[] header = csvReader.getHeader();
             final CellProcessor[] processors = getProcessors(fields, primaryKey, header);
 
-            String questionMarks = StringUtils.repeat("?,", header.length);
-            questionMarks = (String) questionMarks.subSequence(0, questionMarks
-                    .length() - 1);
-
-            String query = SQL_INSERT.replaceFirst(TABLE_REGEX, tableName);
-            query = query.replaceFirst(KEYS_REGEX, "\"" + StringUtils.join(header, "\",\"") + "\"");
-            query = query.replaceFirst(VALUES_REGEX, questionMarks);
-
-            try (PreparedStatement statement = connection.prepareStatement(query)) {
-
-                // Delete data from table before loading csv
-                LOG.info("Deleting previous records using query: " + deleteSql);
-                connection.createStatement().execute(deleteSql);
-
-                List<Object> values;
-                while ((values = csvReader.read(processors)) != null) {
-
-                    int index = 1;
-                    for (Object v : values) {
-                        String column = header[index - 1];
-                        Field field = fields.stream()
-                                .filter(f -> f.getName().equals(column))
-                                .findFirst()
-                                .orElseThrow(() -> new IllegalStateException("Expected to find column " + column));
-                        final int sqlTypeCode = field.getSqlTypeCode();
-
-                        if (v == null) {
-                            statement.setNull(index, sqlTypeCode);
-                        } else {
-                            switch (sqlTypeCode) {
-                                case Types.CHAR:
-                                case Types.VARCHAR:
-                                case Types.CLOB:
-                                    if (v instanceof String) {
-                                        statement.setString(index, (String) v);
-                                    } else {
-                                        LOG.error("On column " + column + ", String value expected, found " + v.getClass());
-                                        throw new IllegalArgumentException("On column " + column + ", String value expected, found " + v.getClass());
-                                    }
-                                    break;
-                                case Types.INTEGER:
-                                    if (v instanceof Integer) {
-                                        statement.setInt(index, (Integer) v);
-                                    } else {
-                                        LOG.error("On column " + column + ", Integer value expected, found " + v.getClass());
-                                        throw new IllegalArgumentException("On column " + column + ", Integer value expected, found " + v.getClass());
-                                    }
-                                    break;
-                                case Types.NUMERIC:
-                                    if (v instanceof Double) {
-                                        statement.setDouble(index, (Double) v);
-                                    } else {
-                                        LOG.error("On column " + column + ", Double value expected, found " + v.getClass());
-                                        throw new IllegalArgumentException("On column " + column + ", Double value expected, found " + v.getClass());
-                                    }
-                                    break;
-                                default:
-                                    throw new IllegalArgumentException("Unknown SQL type code " + sqlTypeCode + " on column " + column);
-                            }
-                        }
-                        index++;
+            LOG.info("Loading dataset " + datasetName + " using " + loadMode + " mode");
+            plan = LoadPlan.compile(tableName, header, fields, metrics);
+            final BatchPolicy batchPolicy = getBatchPolicy(datasetConfiguration);
+            if (rejects != null) {
+                LOG.info("Rows of dataset " + datasetName + " in error are rejected into " + rejects.getFile());
+                csvReader.setRejectFile(rejects);
+            }
+            try (DatasetWriter writer = checkpointedLoad != null
+                    ? checkpointedLoad.createWriter(csvReader, () -> createWriter(connection, loadMode, plan, batchPolicy, rejects))
+                    : createWriter(connection, loadMode, plan, batchPolicy, incrementalLoad, rejects, processors)) {
+
+                if (checkpointedLoad == null) {
+                    // Rows are read and written by batches, held in column buffers reused for the whole dataset
+                    final ColumnBatch batch = ColumnBatch.forPlan(plan);
+                    while (csvReader.read(batch, processors) > 0) {
+                        writer.write(batch);
+                        batch.clear();
                     }
-                    statement.addBatch();
-                    if (csvReader.getLineNumber() % BATCH_SIZE == 0) {
-                        statement.executeBatch();
-                        LOG.info("Saving batch records #" + csvReader.getLineNumber());
+                } else {
+                    // Checkpoints record the offset of the last row written, rows are read one at a time
+                    List<Object> values;
+                    while ((values = csvReader.read(processors)) != null) {
+                        writer.write(values);
                     }
                 }
-                statement.executeBatch(); // insert remaining records
-                LOG.info("Saved " + (csvReader.getLineNumber() - 1) + " records for dataset " + datasetName + " into the database");
+                final long records = writer.finish();
+                LOG.info("Saved " + records + " records for dataset " + datasetName + " into the database");
+                logKeyIndexes(processors);
+                metrics.addRows(records);
+            }
+        }
+        metrics.addBytes(new File(csvFileName).length());
+        metrics.addTime(LoadMetrics.Phase.TOTAL, System.nanoTime() - start);
+        LOG.info("Loaded dataset " + datasetName + ": " + metrics.summary());
+        return plan;
+    }
+
+    private void logKeyIndexes(CellProcessor[] processors) {
+        for (CellProcessor processor : processors) {
+            final KeyIndex keys = processor instanceof TypedCellProcessor ? ((TypedCellProcessor) processor).getKeys() : null;
+            if (keys != null) {
+                LOG.info("Checked " + keys.size() + " distinct values of column " + keys.getColumn() + " using " +
+                        (keys.memoryBytes() / 1024) + " KB");
             }
+        }
+    }
+
+    private DatasetReader openReader(String csvFileName, Dialect dialect, CheckpointedLoad checkpointedLoad,
+                                     LoadMetrics.Scope metrics) throws IOException {
+        final int parseThreads = getParseThreads();
+        final File csvFile = new File(csvFileName);
+        final Compression compression = Compression.forFile(csvFileName);
+        if (checkpointedLoad != null) {
+            return openCheckpointedReader(csvFileName, dialect, compression, parseThreads, checkpointedLoad, metrics);
+        }
+        final DatasetReader reader;
+        if (compression == Compression.NONE && parseThreads > 1 && !CsvChunker.supports(dialect)) {
+            LOG.info("The CSV dialect of " + csvFileName + " uses characters of several bytes, the file is parsed by a single thread");
+        }
+        if (compression == Compression.NONE && parseThreads > 1 && CsvChunker.supports(dialect)
+                && csvFile.isFile() && csvFile.length() > 2L * ParallelCsvDatasetReader.CHUNK_SIZE) {
+            reader = new ParallelCsvDatasetReader(csvFileName, parseThreads, dialect, metrics);
+        } else {
+            reader = new CsvDatasetReader(new InputStreamReader(compression.open(csvFileName)), dialect, metrics);
+        }
+        if ("true".equals(System.getenv("LOAD_PIPELINE")) || "yes".equals(System.getenv("LOAD_PIPELINE"))) {
+            return new PipelinedDatasetReader(reader);
+        }
+        return reader;
+    }
+
+    /**
+     * Opens a reader positioned on the first record to load. The records are read in chunks when possible, so that
+     * the offsets of the checkpoints in the file are known. The reader is never pipelined, as the position of the
+     * rows returned by a pipelined reader is unknown.
+     */
+    private DatasetReader openCheckpointedReader(String csvFileName, Dialect dialect, Compression compression, int parseThreads,
+                                                 CheckpointedLoad checkpointedLoad, LoadMetrics.Scope metrics)
+            throws IOException {
+        if (compression == Compression.NONE && CsvChunker.supports(dialect)
+                && (!checkpointedLoad.isResumed() || checkpointedLoad.getResumeOffset() != DatasetReader.UNKNOWN_OFFSET)) {
+            final long start = Math.max(0, checkpointedLoad.getResumeOffset());
+            return new ParallelCsvDatasetReader(csvFileName, Math.max(1, parseThreads), start, dialect, metrics);
+        }
+        final CsvDatasetReader reader = new CsvDatasetReader(new InputStreamReader(compression.open(csvFileName)), dialect, metrics);
+        try {
+            reader.skip(checkpointedLoad.getResumeRecords());
+        } catch (IOException | RuntimeException e) {
+            reader.close();
+            throw e;
+        }
+        return reader;
+    }
+
+    private int getParseThreads() {
+        final String parseThreads = System.getenv("PARSE_THREADS");
+        if (parseThreads == null || "".equals(parseThreads.trim())) {
+            return 1;
+        }
+        if ("auto".equalsIgnoreCase(parseThreads.trim())) {
+            return Runtime.getRuntime().availableProcessors();
+        }
+        return Integer.parseInt(parseThreads.trim());
+    }
+
+    private LoadMode getLoadMode(Connection connection, MigrationConfiguration.DatasetConfiguration datasetConfiguration)
+            throws IOException, SQLException {
+        final LoadMode defaultMode = LoadMode.fromString(System.getenv("LOAD_MODE"), LoadMode.BATCH);
+        final LoadMode loadMode = LoadMode.fromString(datasetConfiguration.getLoadMode(), defaultMode);
+
+        if ((loadMode == LoadMode.COPY || loadMode == LoadMode.BINARY) && !CopyWriter.isSupported(connection)) {
+            LOG.warn(loadMode + " load mode requires a PostgreSQL connection, falling back to batch mode");
+            return LoadMode.BATCH;
+        }
+        return loadMode;
+    }
+
+    private BatchPolicy getBatchPolicy(MigrationConfiguration.DatasetConfiguration datasetConfiguration) throws IOException {
+        String batchSize = datasetConfiguration.getBatchSize();
+        if (batchSize == null) {
+            batchSize = System.getenv("BATCH_SIZE");
+        }
+        Long batchBytes = datasetConfiguration.getBatchBytes();
+        if (batchBytes == null && System.getenv("BATCH_BYTES") != null && !"".equals(System.getenv("BATCH_BYTES").trim())) {
+            batchBytes = Long.parseLong(System.getenv("BATCH_BYTES").trim());
+        }
+        return BatchPolicy.create(batchSize, batchBytes);
+    }
+
+    /**
+     * @return the file receiving the rejected rows when the load of the dataset tolerates errors, or null
+     */
+    private RejectFile createRejectFile(String datasetName, MigrationConfiguration.DatasetConfiguration datasetConfiguration,
+                                        String[] header) throws IOException {
+        Long maxRejects = datasetConfiguration.getMaxRejects();
+        if (maxRejects == null && System.getenv("MAX_REJECTS") != null && !"".equals(System.getenv("MAX_REJECTS").trim())) {
+            maxRejects = Long.parseLong(System.getenv("MAX_REJECTS").trim());
+        }
+        if (maxRejects == null || maxRejects < 0) {
+            return null;
+        }
+        String rejectDir = System.getenv("REJECT_DIR");
+        if (rejectDir == null || "".equals(rejectDir.trim())) {
+            rejectDir = System.getProperty("java.io.tmpdir");
+        }
+        return new RejectFile(datasetName, new File(rejectDir.trim(), datasetName + ".rejects.csv"), header, maxRejects);
+    }
 
+    private DatasetWriter createWriter(Connection connection, LoadMode loadMode, LoadPlan plan, BatchPolicy batchPolicy,
+                                       IncrementalLoad incrementalLoad, RejectFile rejects, CellProcessor[] processors)
+            throws SQLException {
+        if (incrementalLoad == null) {
+            return createWriter(connection, loadMode, plan, batchPolicy, rejects);
+        }
+        if (incrementalLoad.hasPreviousLoad()) {
+            LOG.info("Incremental load, changed records are upserted using JDBC batches");
+            return incrementalLoad.createWriter(plan, incrementalLoad.createUpsertWriter(plan, batchPolicy, rejects), rejects,
+                    processors);
+        }
+        return incrementalLoad.createWriter(plan, createWriter(connection, loadMode, plan, batchPolicy, rejects), rejects,
+                processors);
+    }
+
+    /**
+     * @param rejects the file receiving the rows rejected by the database, or null to fail on the first error. Rows
+     *                are only rejected by the INSERT statements, an error aborts a COPY
+     */
+    private DatasetWriter createWriter(Connection connection, LoadMode loadMode, LoadPlan plan, BatchPolicy batchPolicy,
+                                       RejectFile rejects) throws SQLException {
+        if (rejects != null && (loadMode == LoadMode.COPY || loadMode == LoadMode.BINARY)) {
+            LOG.warn("Rows in error are only rejected while reading the CSV file with the " + loadMode +
+                    " load mode, a row rejected by the database aborts the load");
+        }
+        switch (loadMode) {
+            case COPY:
+                return new CopyWriter(connection, plan);
+            case BINARY:
+                return new BinaryCopyWriter(connection, plan);
+            case MULTIROW:
+                return new MultiRowInsertWriter(connection, plan, batchPolicy, rejects);
+            case BATCH:
+                return new BatchInsertWriter(connection, plan, batchPolicy, rejects);
+            default:
+                throw new IllegalArgumentException("Unsupported load mode " + loadMode);
         }
     }
 
     @Override
     public Integer getChecksum() {
-        int checksum = 0;
-        for (String dataset : config.getDatasets()) {
-            checksum += computeChecksum(dataset);
-        }
+        final int checksum = Arrays.stream(config.getDatasets())
+                .parallel()
+                .mapToInt(this::computeChecksum)
+                .sum();
+        ChecksumCache.getInstance().save();
         return checksum;
     }
 
     private int computeChecksum(String dataset) {
+        final File datasetFile = config.getDatasetResourceFile(dataset);
+        if (datasetFile != null) {
+            try {
+                return ChecksumCache.getInstance().checksum(dataset, datasetFile);
+            } catch (IOException e) {
+                LOG.warn("Cannot read data from dataset " + dataset, e);
+            }
+        }
+
         final CRC32 crc32 = new CRC32();
 
         // Use the name of the dataset
@@ -202,13 +496,8 @@ public class R__SetupValues implements JavaMigration {
         crc32.update(bytes, 0, bytes.length);
 
         // Use the values in the dataset
-        InputStream datasetResource = config.getDatasetResource(dataset);
-        byte[] data = new byte[1024];
-        int read;
-        try {
-            while ((read = datasetResource.read(data)) > 0) {
-                crc32.update(data, 0, read);
-            }
+        try (InputStream datasetResource = config.getDatasetResource(dataset)) {
+            ChecksumCache.update(crc32, datasetResource);
         } catch (IOException e) {
             LOG.warn("Cannot read data from dataset " + dataset, e);
         }
@@ -233,7 +522,7 @@ public class R__SetupValues implements JavaMigration {
      * @param columnsDef Properties defining the columns
      * @return the cell processors
      */
-    private CellProcessor[] getProcessors(List<Field> columnsDef, String primaryKey, String[] csvHeader) {
+    CellProcessor[] getProcessors(List<Field> columnsDef, String primaryKey, String[] csvHeader) {
 
         List<String> csvColumns = Arrays.asList(csvHeader);
         List<String> definedColumns = columnsDef.stream().map(Field::getName).collect(Collectors.toList());
@@ -268,64 +557,35 @@ public class R__SetupValues implements JavaMigration {
 
     private CellProcessorAdaptor getCellProcessorAdaptor(String primaryKey, Field column) {
         String colType = column.getSqlTypeShort();
-        if (column.getName().equals(primaryKey)) {
-            if ("int".equals(colType) || "integer".equals(colType)) {
-                return new ParseInt();
-            } else {
-                return new UniqueHashCode();
-            }
-        } else {
-            switch (colType) {
-                case "char":
-                case "varchar":
-                case "text":
-                case "string":
-                    if (column.getConstraints().isRequired()) {
-                        LOG.debug("Read column " + column + " from CSV as required string");
-                        return new NotNull();
-                    } else {
-                        LOG.debug("Read column " + column + " from CSV as optional string");
-                        return new Optional();
-                    }
-                case "numeric":
-                case "number":
-                    if (column.getConstraints().isRequired()) {
-                        LOG.debug("Read column " + column + " from CSV as required double");
-                        return new ParseDouble();
-                    } else {
-                        LOG.debug("Read column " + column + " from CSV as optional double");
-                        return new Optional(new ParseDouble());
-                    }
-                case "int":
-                case "integer":
-                    if (column.getConstraints().isRequired()) {
-                        LOG.debug("Read column " + column + " from CSV as required integer");
-                        return new ParseInt();
-                    } else {
-                        LOG.debug("Read column " + column + " from CSV as optional integer");
-                        return new Optional(new ParseInt());
-                    }
-                case "date":
-                    final ParseDate parseDate = new ParseDate(DateTimeFormatter.ISO_DATE.toString());
-                    if (column.getConstraints().isRequired()) {
-                        LOG.debug("Read column " + column + " from CSV as required date");
-                        return parseDate;
-                    } else {
-                        LOG.debug("Read column " + column + " from CSV as optional date");
-                        return new Optional(parseDate);
-                    }
-                case "timestamp":
-                    final ParseDate parseTimestamp = new ParseDate(DateTimeFormatter.ISO_DATE_TIME.toString());
-                    if (column.getConstraints().isRequired()) {
-                        LOG.debug("Read column " + column + " from CSV as required timestamp");
-                        return parseTimestamp;
-                    } else {
-                        LOG.debug("Read column " + column + " from CSV as optional timestamp");
-                        return new Optional(parseTimestamp);
-                    }
-                default:
-                    throw new IllegalArgumentException("Unknown type " + colType + " on column " + column);
-            }
+        final boolean primary = column.getName().equals(primaryKey);
+        final boolean required = primary || column.getConstraints().isRequired();
+        // Values of the primary key and of unique columns are checked while reading, with an index of the keys
+        final KeyIndex keys = primary || column.getConstraints().isUnique() ? new KeyIndex(column.getName()) : null;
+        final FieldValidator validator = FieldValidator.forField(column);
+        final String description = (required ? "required " : "optional ") + (keys != null ? "unique " : "") +
+                (validator != null ? "constrained " : "");
+        switch (colType) {
+            case "char":
+            case "varchar":
+            case "text":
+            case "string":
+                LOG.debug("Read column " + column + " from CSV as " + description + "string");
+                return TypedCellProcessor.string(required, keys, validator);
+            case "numeric":
+            case "number":
+                LOG.debug("Read column " + column + " from CSV as " + description + "double");
+                return TypedCellProcessor.number(required, keys, validator);
+            case "int":
+            case "integer":
+                LOG.debug("Read column " + column + " from CSV as " + description + "integer");
+                return TypedCellProcessor.integer(required, keys, validator);
+            case "date":
+            case "timestamp":
+            case "time":
+                LOG.debug("Read column " + column + " from CSV as " + description + colType);
+                return TypedCellProcessor.temporal(required, keys, TemporalFormat.forField(column));
+            default:
+                throw new IllegalArgumentException("Unknown type " + colType + " on column " + column);
         }
     }
 
@@ -0,0 +1,139 @@
+package eu.humanbrainproject.mip.migrations.values;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * Reads an input stream in a background thread, ahead of the consumer.
+ *
+ * Used to decompress a dataset file on its own core while the CSV parser consumes the decompressed bytes. Blocks
+ * are handed over through a bounded queue, so at most {@link #QUEUE_CAPACITY} blocks are kept in memory.
+ * Errors from the background thread are thrown by the next read.
+ */
+class ReadAheadInputStream extends InputStream {
+
+    private static final Logger LOG = LoggerFactory.getLogger("Setup data-package");
+
+    static final int BLOCK_SIZE = 1024 * 1024;
+    static final int QUEUE_CAPACITY = 4;
+
+    private static final byte[] END_OF_STREAM = new byte[0];
+
+    private final InputStream source;
+    private final BlockingQueue<byte[]> blocks = new ArrayBlockingQueue<>(QUEUE_CAPACITY);
+    private final Thread readerThread;
+    private volatile IOException error;
+    private volatile boolean closed = false;
+    private byte[] block = new byte[0];
+    private int position = 0;
+    private boolean ended = false;
+
+    ReadAheadInputStream(InputStream source, String name) {
+        this.source = source;
+        this.readerThread = new Thread(this::produce, name);
+        this.readerThread.setDaemon(true);
+        this.readerThread.start();
+    }
+
+    private void produce() {
+        try {
+            byte[] buffer = new byte[BLOCK_SIZE];
+            int length = 0;
+            int count;
+            while (!closed && (count = source.read(buffer, length, buffer.length - length)) != -1) {
+                length += count;
+                if (length == buffer.length) {
+                    blocks.put(buffer);
+                    buffer = new byte[BLOCK_SIZE];
+                    length = 0;
+                }
+            }
+            if (length > 0) {
+                blocks.put(Arrays.copyOf(buffer, length));
+            }
+        } catch (InterruptedException e) {
+            LOG.debug("Read-ahead thread interrupted");
+            return;
+        } catch (IOException e) {
+            error = e;
+        } catch (RuntimeException e) {
+            error = new IOException(e);
+        }
+        try {
+            blocks.put(END_OF_STREAM);
+        } catch (InterruptedException e) {
+            LOG.debug("Read-ahead thread interrupted");
+        }
+    }
+
+    private boolean fill() throws IOException {
+        while (position == block.length) {
+            if (ended) {
+                return false;
+            }
+            final byte[] next;
+            try {
+                next = blocks.take();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("Interrupted while waiting for data", e);
+            }
+            if (next == END_OF_STREAM) {
+                ended = true;
+                if (error != null) {
+                    throw error;
+                }
+                return false;
+            }
+            block = next;
+            position = 0;
+        }
+        return true;
+    }
+
+    @Override
+    public int read() throws IOException {
+        if (!fill()) {
+            return -1;
+        }
+        return block[position++] & 0xff;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        if (len == 0) {
+            return 0;
+        }
+        if (!fill()) {
+            return -1;
+        }
+        final int count = Math.min(len, block.length - position);
+        System.arraycopy(block, position, b, off, count);
+        position += count;
+        return count;
+    }
+
+    @Override
+    public int available() {
+        return block.length - position;
+    }
+
+    @Override
+    public void close() throws IOException {
+        closed = true;
+        readerThread.interrupt();
+        blocks.clear();
+        try {
+            readerThread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        source.close();
+    }
+}
@@ -0,0 +1,153 @@
+package eu.humanbrainproject.mip.migrations.values;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.supercsv.io.CsvListWriter;
+import org.supercsv.io.ICsvListWriter;
+import org.supercsv.prefs.CsvPreference;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.nio.charset.StandardCharsets;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.Consumer;
+
+/**
+ * Rows rejected by an error tolerant load, written to a CSV file with the line of each row in the dataset file and
+ * the error that rejected it, followed by the values of the row.
+ *
+ * The file is only created when the first row is rejected. Once more rows than the maximum have been rejected, the
+ * load is aborted. Rows can be rejected concurrently by the threads parsing the chunks of a file.
+ */
+final class RejectFile implements Closeable {
+
+    private static final Logger LOG = LoggerFactory.getLogger("Setup data-package");
+
+    private final String datasetName;
+    private final File file;
+    private final String[] header;
+    private final long maxRejects;
+    private ICsvListWriter writer;
+    private long rejects = 0;
+    private Consumer<List<Object>> insertRejectListener;
+    private Consumer<List<?>> readRejectListener;
+
+    /**
+     * @param datasetName the name of the dataset, used in the messages
+     * @param file the CSV file receiving the rejected rows
+     * @param header the columns of the dataset file
+     * @param maxRejects the maximum number of rows rejected before the load is aborted
+     */
+    RejectFile(String datasetName, File file, String[] header, long maxRejects) {
+        this.datasetName = datasetName;
+        this.file = file;
+        this.header = header;
+        this.maxRejects = maxRejects;
+    }
+
+    File getFile() {
+        return file;
+    }
+
+    synchronized long getRejects() {
+        return rejects;
+    }
+
+    /**
+     * @param insertRejectListener notified of the rows rejected by the database, which the writers sending them had
+     *                             already counted as loaded
+     */
+    synchronized void setInsertRejectListener(Consumer<List<Object>> insertRejectListener) {
+        this.insertRejectListener = insertRejectListener;
+    }
+
+    /**
+     * @param readRejectListener notified of the rows rejected while reading the file, with the strings of their cells,
+     *                           rows that never reach the writers
+     */
+    synchronized void setReadRejectListener(Consumer<List<?>> readRejectListener) {
+        this.readRejectListener = readRejectListener;
+    }
+
+    /**
+     * Writes a row rejected while reading the file.
+     *
+     * @param line the line of the row in the dataset file, or 0 if it is not known
+     * @param values the strings of the cells of the row, as read from the file
+     * @param error the error rejecting the row
+     * @throws IllegalStateException when more rows than the maximum have been rejected
+     */
+    synchronized void reject(long line, List<?> values, Exception error) throws IOException {
+        if (readRejectListener != null) {
+            readRejectListener.accept(values);
+        }
+        write(line, values, error);
+    }
+
+    /**
+     * Writes a row rejected by the database to the file.
+     *
+     * @param line the line of the row in the dataset file, or 0 if it is not known
+     * @param values the values of the row, as converted by the cell processors
+     * @param error the error rejecting the row
+     * @throws IllegalStateException when more rows than the maximum have been rejected
+     */
+    synchronized void rejectInsert(long line, List<Object> values, SQLException error) throws IOException {
+        if (insertRejectListener != null) {
+            insertRejectListener.accept(values);
+        }
+        write(line, values, error);
+    }
+
+    private void write(long line, List<?> values, Exception error) throws IOException {
+        final String message = message(error);
+        if (writer == null) {
+            writer = new CsvListWriter(new OutputStreamWriter(new FileOutputStream(file), StandardCharsets.UTF_8),
+                    CsvPreference.STANDARD_PREFERENCE);
+            final List<String> columns = new ArrayList<>(header.length + 2);
+            columns.add("line");
+            columns.add("error");
+            columns.addAll(Arrays.asList(header));
+            writer.write(columns);
+        }
+        final List<Object> row = new ArrayList<>(values.size() + 2);
+        row.add(line > 0 ? line : null);
+        row.add(message);
+        row.addAll(values);
+        writer.write(row);
+        rejects++;
+        LOG.warn("Rejected " + (line > 0 ? "line " + line : "a row") + " of dataset " + datasetName + ": " + message);
+
+        if (rejects > maxRejects) {
+            writer.flush();
+            throw new IllegalStateException("More than " + maxRejects + " rows of dataset " + datasetName +
+                    " have been rejected, the rejected rows are in " + file, error);
+        }
+    }
+
+    /**
+     * @return the message of an error, taken from the first error of the batch for a failed JDBC batch, as the
+     * message of the batch itself does not tell why it failed
+     */
+    static String message(Exception error) {
+        if (error instanceof SQLException && ((SQLException) error).getNextException() != null) {
+            return ((SQLException) error).getNextException().getMessage();
+        }
+        return error.getMessage();
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        if (writer != null) {
+            writer.close();
+            writer = null;
+            LOG.warn(rejects + " rows of dataset " + datasetName + " have been rejected, they are written in " + file);
+        }
+    }
+}
@@ -0,0 +1,110 @@
+package eu.humanbrainproject.mip.migrations.values;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Stores the hash of the content of each row loaded by an incremental load, indexed by the primary key of the row.
+ */
+final class RowHashStore {
+
+    static final String TABLE = "__load_row_hashes";
+
+    private static final int BATCH_SIZE = 1000;
+    private static final int FETCH_SIZE = 10000;
+
+    private final Connection connection;
+    private final String tableName;
+    private final String dataset;
+
+    RowHashStore(Connection connection, String tableName, String dataset) throws SQLException {
+        this.connection = connection;
+        this.tableName = tableName;
+        this.dataset = dataset;
+        try (Statement statement = connection.createStatement()) {
+            statement.execute("CREATE TABLE IF NOT EXISTS \"" + TABLE + "\" (" +
+                    "table_name text NOT NULL, dataset text NOT NULL, row_key text NOT NULL, row_hash bigint NOT NULL, " +
+                    "PRIMARY KEY (table_name, dataset, row_key))");
+        }
+    }
+
+    /**
+     * @return the hashes stored by the previous load, indexed by primary key
+     */
+    Map<String, Long> load() throws SQLException {
+        final Map<String, Long> hashes = new HashMap<>();
+        try (PreparedStatement statement = connection.prepareStatement("SELECT row_key, row_hash FROM \"" + TABLE +
+                "\" WHERE table_name = ? AND dataset = ?")) {
+            statement.setFetchSize(FETCH_SIZE);
+            statement.setString(1, tableName);
+            statement.setString(2, dataset);
+            try (ResultSet rs = statement.executeQuery()) {
+                while (rs.next()) {
+                    hashes.put(rs.getString(1), rs.getLong(2));
+                }
+            }
+        }
+        return hashes;
+    }
+
+    void save(List<String> keys, long[] hashes) throws SQLException {
+        try (PreparedStatement statement = connection.prepareStatement("INSERT INTO \"" + TABLE +
+                "\" (table_name, dataset, row_key, row_hash) VALUES (?, ?, ?, ?) " +
+                "ON CONFLICT (table_name, dataset, row_key) DO UPDATE SET row_hash = EXCLUDED.row_hash")) {
+            for (int i = 0; i < keys.size(); i++) {
+                statement.setString(1, tableName);
+                statement.setString(2, dataset);
+                statement.setString(3, keys.get(i));
+                statement.setLong(4, hashes[i]);
+                statement.addBatch();
+                if ((i + 1) % BATCH_SIZE == 0) {
+                    statement.executeBatch();
+                }
+            }
+            statement.executeBatch();
+        }
+    }
+
+    void delete(Collection<String> keys) throws SQLException {
+        try (PreparedStatement statement = connection.prepareStatement("DELETE FROM \"" + TABLE +
+                "\" WHERE table_name = ? AND dataset = ? AND row_key = ?")) {
+            int count = 0;
+            for (String key : keys) {
+                statement.setString(1, tableName);
+                statement.setString(2, dataset);
+                statement.setString(3, key);
+                statement.addBatch();
+                if (++count % BATCH_SIZE == 0) {
+                    statement.executeBatch();
+                }
+            }
+            statement.executeBatch();
+        }
+    }
+
+    /**
+     * Deletes the rows of a table matching some primary keys.
+     */
+    static void deleteRows(Connection connection, String table, String primaryKey, String primaryKeySqlType,
+                           Collection<String> keys) throws SQLException {
+        try (PreparedStatement statement = connection.prepareStatement("DELETE FROM \"" + table + "\" WHERE \"" +
+                primaryKey + "\" = CAST(? AS " + primaryKeySqlType + ")")) {
+            int count = 0;
+            for (String key : keys) {
+                statement.setString(1, key);
+                statement.addBatch();
+                if (++count % BATCH_SIZE == 0) {
+                    statement.executeBatch();
+                }
+            }
+            statement.executeBatch();
+        }
+    }
+}
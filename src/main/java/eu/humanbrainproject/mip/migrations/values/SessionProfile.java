@@ -0,0 +1,140 @@
+package eu.humanbrainproject.mip.migrations.values;
+
+import eu.humanbrainproject.mip.migrations.MigrationConfiguration;
+import eu.humanbrainproject.mip.migrations.datapackage.LoadSettings;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.sql.Connection;
+import java.sql.DatabaseMetaData;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Bulk-load profile of the sessions loading the datasets: synchronous_commit, work_mem and maintenance_work_mem,
+ * and whether the replacement tables of swapped tables are UNLOGGED.
+ *
+ * Each setting is defined by an environment variable and can be overridden by the loadSettings of the data package.
+ * Settings are applied to the session and reset once the load is committed. If the load fails, the rollback of the
+ * transaction restores the previous settings.
+ */
+final class SessionProfile {
+
+    private static final Logger LOG = LoggerFactory.getLogger("Setup data-package");
+
+    private final Map<String, String> settings;
+    private final boolean unloggedTables;
+
+    private SessionProfile(Map<String, String> settings, boolean unloggedTables) {
+        this.settings = settings;
+        this.unloggedTables = unloggedTables;
+    }
+
+    /**
+     * @param config the configuration of the migration
+     * @param connection the connection of the migration, used to check the features supported by the database
+     */
+    static SessionProfile create(MigrationConfiguration config, Connection connection) throws SQLException {
+        final LoadSettings loadSettings = config.getLoadSettings() == null ? new LoadSettings() : config.getLoadSettings();
+
+        final Map<String, String> settings = new LinkedHashMap<>();
+        putSetting(settings, "synchronous_commit", loadSettings.getSynchronousCommit(), "SYNCHRONOUS_COMMIT");
+        putSetting(settings, "work_mem", loadSettings.getWorkMem(), "WORK_MEM");
+        putSetting(settings, "maintenance_work_mem", loadSettings.getMaintenanceWorkMem(), "MAINTENANCE_WORK_MEM");
+
+        boolean unloggedTables = loadSettings.getUnloggedTables() != null ? loadSettings.getUnloggedTables()
+                : "true".equals(System.getenv("UNLOGGED_TABLES")) || "yes".equals(System.getenv("UNLOGGED_TABLES"));
+        if (unloggedTables && !supportsSetLogged(connection)) {
+            LOG.warn("Unlogged intermediate tables require PostgreSQL 9.5 or later, using logged tables");
+            unloggedTables = false;
+        }
+        return new SessionProfile(settings, unloggedTables);
+    }
+
+    private static void putSetting(Map<String, String> settings, String name, String value, String environmentVariable) {
+        if (value == null || "".equals(value.trim())) {
+            value = System.getenv(environmentVariable);
+        }
+        if (value != null && !"".equals(value.trim())) {
+            settings.put(name, value.trim());
+        }
+    }
+
+    private static boolean supportsSetLogged(Connection connection) throws SQLException {
+        final DatabaseMetaData metaData = connection.getMetaData();
+        if (!"PostgreSQL".equals(metaData.getDatabaseProductName())) {
+            return false;
+        }
+        final int major = metaData.getDatabaseMajorVersion();
+        return major > 9 || (major == 9 && metaData.getDatabaseMinorVersion() >= 5);
+    }
+
+    boolean isEmpty() {
+        return settings.isEmpty() && !unloggedTables;
+    }
+
+    /**
+     * @return true if the intermediate tables should be created UNLOGGED
+     */
+    boolean isUnloggedTables() {
+        return unloggedTables;
+    }
+
+    /**
+     * @return the maintenance_work_mem defined by the profile, or null
+     */
+    String getMaintenanceWorkMem() {
+        return settings.get("maintenance_work_mem");
+    }
+
+    /**
+     * Applies the settings to the session of a connection.
+     *
+     * @return the previous values of the settings, to reset them after the load
+     */
+    Map<String, String> apply(Connection connection) throws SQLException {
+        final Map<String, String> previous = new LinkedHashMap<>();
+        for (Map.Entry<String, String> setting : settings.entrySet()) {
+            previous.put(setting.getKey(), setConfig(connection, setting.getKey(), setting.getValue()));
+        }
+        return previous;
+    }
+
+    /**
+     * Resets the settings of the session of a connection to their values before {@link #apply(Connection)}.
+     */
+    void reset(Connection connection, Map<String, String> previous) throws SQLException {
+        for (Map.Entry<String, String> setting : previous.entrySet()) {
+            setConfig(connection, setting.getKey(), setting.getValue());
+        }
+    }
+
+    private static String setConfig(Connection connection, String name, String value) throws SQLException {
+        final String previous;
+        try (PreparedStatement statement = connection.prepareStatement("SELECT current_setting(?)")) {
+            statement.setString(1, name);
+            try (ResultSet rs = statement.executeQuery()) {
+                rs.next();
+                previous = rs.getString(1);
+            }
+        }
+        try (PreparedStatement statement = connection.prepareStatement("SELECT set_config(?, ?, false)")) {
+            statement.setString(1, name);
+            statement.setString(2, value);
+            statement.execute();
+        }
+        return previous;
+    }
+
+    @Override
+    public String toString() {
+        final StringBuilder sb = new StringBuilder();
+        for (Map.Entry<String, String> setting : settings.entrySet()) {
+            sb.append(setting.getKey()).append('=').append(setting.getValue()).append(", ");
+        }
+        return sb.append("unlogged intermediate tables ").append(unloggedTables ? "on" : "off").toString();
+    }
+}
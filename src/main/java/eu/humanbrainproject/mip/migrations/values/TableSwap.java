@@ -0,0 +1,379 @@
+package eu.humanbrainproject.mip.migrations.values;
+
+import org.apache.commons.lang3.StringUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.sql.Connection;
+import java.sql.DatabaseMetaData;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Savepoint;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Replaces the content of a table by a new table, filled beforehand, which is swapped with the existing table.
+ *
+ * The replacement table is created with the same columns, defaults, constraints, foreign keys, indexes and triggers
+ * as the table, and can be UNLOGGED during the load, in which case it is set LOGGED once it is loaded. Until the swap,
+ * the table is only read, so other sessions keep querying the previous data. The swap itself locks the table, renames
+ * the tables, recreates the views depending on the table, gives the owner, the ownership of sequences and the
+ * privileges of the table to the new table, drops the old table and restores the names of the constraints and
+ * indexes. It should be the last step of the transaction, as the lock blocks the readers of the table until the
+ * commit. Tables referenced by the foreign keys of other tables, used by materialized views or protected by row
+ * security policies cannot be swapped, as these objects would follow the old table.
+ *
+ * The lock waits at most for the lock_timeout of the transaction, so that the swap does not queue behind long
+ * queries, blocking all readers arriving after it. It is attempted again a few times before the load fails.
+ */
+final class TableSwap {
+
+    private static final Logger LOG = LoggerFactory.getLogger("Setup data-package");
+
+    private static final int MAX_IDENTIFIER_LENGTH = 63;
+    private static final int LOCK_ATTEMPTS = 5;
+    private static final long LOCK_RETRY_PAUSE_MILLIS = 1000;
+    private static final String LOCK_NOT_AVAILABLE = "55P03";
+
+    private static final Map<String, String> TRIGGER_ENABLE_CLAUSES = new HashMap<>();
+
+    static {
+        TRIGGER_ENABLE_CLAUSES.put("D", "DISABLE");
+        TRIGGER_ENABLE_CLAUSES.put("R", "ENABLE REPLICA");
+        TRIGGER_ENABLE_CLAUSES.put("A", "ENABLE ALWAYS");
+    }
+
+    private static final String DEPENDENT_VIEWS_SQL = "SELECT DISTINCT v.relname, pg_get_viewdef(v.oid) " +
+            "FROM pg_depend d JOIN pg_rewrite r ON r.oid = d.objid JOIN pg_class v ON v.oid = r.ev_class " +
+            "WHERE d.classid = 'pg_rewrite'::regclass AND d.refobjid = CAST(? AS regclass) " +
+            "AND v.oid <> d.refobjid AND v.relkind = 'v'";
+    private static final String OWNED_SEQUENCES_SQL = "SELECT s.relname, a.attname " +
+            "FROM pg_depend d JOIN pg_class s ON s.oid = d.objid AND s.relkind = 'S' " +
+            "JOIN pg_attribute a ON a.attrelid = d.refobjid AND a.attnum = d.refobjsubid " +
+            "WHERE d.refobjid = CAST(? AS regclass) AND d.deptype = 'a'";
+    private static final String CONSTRAINTS_SQL = "SELECT conname, pg_get_constraintdef(oid) " +
+            "FROM pg_constraint WHERE conrelid = CAST(? AS regclass)";
+    private static final String INDEXES_SQL = "SELECT c.relname, pg_get_indexdef(i.indexrelid) " +
+            "FROM pg_index i JOIN pg_class c ON c.oid = i.indexrelid " +
+            "WHERE i.indrelid = CAST(? AS regclass) " +
+            "AND NOT EXISTS (SELECT 1 FROM pg_constraint k WHERE k.conindid = i.indexrelid)";
+    private static final String BLOCKING_OBJECTS_SQL = "SELECT 'foreign key ' || quote_ident(conname) || ' of table ' || " +
+            "CAST(CAST(conrelid AS regclass) AS text) FROM pg_constraint " +
+            "WHERE contype = 'f' AND confrelid = CAST(? AS regclass) AND conrelid <> confrelid " +
+            "UNION ALL SELECT DISTINCT 'materialized view ' || CAST(CAST(v.oid AS regclass) AS text) " +
+            "FROM pg_depend d JOIN pg_rewrite r ON r.oid = d.objid JOIN pg_class v ON v.oid = r.ev_class " +
+            "WHERE d.classid = 'pg_rewrite'::regclass AND d.refobjid = CAST(? AS regclass) AND v.relkind = 'm'";
+    private static final String POLICIES_SQL = "SELECT 'policy ' || quote_ident(polname) FROM pg_policy " +
+            "WHERE polrelid = CAST(? AS regclass)";
+    // Definitions referring to the table, as qualified or unqualified name, are made to refer to the replacement table
+    private static final String FOREIGN_KEYS_SQL = "SELECT k.conname, replace(replace(pg_get_constraintdef(k.oid), " +
+            "'REFERENCES ' || quote_ident(n.nspname) || '.' || quote_ident(c.relname) || '(', 'REFERENCES ' || quote_ident(?) || '('), " +
+            "'REFERENCES ' || quote_ident(c.relname) || '(', 'REFERENCES ' || quote_ident(?) || '(') " +
+            "FROM pg_constraint k JOIN pg_class c ON c.oid = k.conrelid JOIN pg_namespace n ON n.oid = c.relnamespace " +
+            "WHERE k.conrelid = CAST(? AS regclass) AND k.contype = 'f'";
+    private static final String TRIGGERS_SQL = "SELECT t.tgname, replace(replace(pg_get_triggerdef(t.oid), " +
+            "' ON ' || quote_ident(n.nspname) || '.' || quote_ident(c.relname) || ' ', ' ON ' || quote_ident(?) || ' '), " +
+            "' ON ' || quote_ident(c.relname) || ' ', ' ON ' || quote_ident(?) || ' '), t.tgenabled " +
+            "FROM pg_trigger t JOIN pg_class c ON c.oid = t.tgrelid JOIN pg_namespace n ON n.oid = c.relnamespace " +
+            "WHERE t.tgrelid = CAST(? AS regclass) AND NOT t.tgisinternal";
+    private static final String OWNER_SQL = "SELECT quote_ident(pg_get_userbyid(t.relowner)) FROM pg_class t, pg_class r " +
+            "WHERE t.oid = CAST(? AS regclass) AND r.oid = CAST(? AS regclass) AND t.relowner <> r.relowner";
+    private static final String TABLE_GRANTS_SQL = "SELECT DISTINCT CASE WHEN a.grantee = 0 THEN 'PUBLIC' " +
+            "ELSE quote_ident(pg_get_userbyid(a.grantee)) END, a.privilege_type, " +
+            "CASE WHEN a.is_grantable THEN ' WITH GRANT OPTION' ELSE '' END " +
+            "FROM pg_class c, aclexplode(c.relacl) a WHERE c.oid = CAST(? AS regclass) AND a.grantee <> c.relowner";
+    private static final String COLUMN_GRANTS_SQL = "SELECT DISTINCT CASE WHEN a.grantee = 0 THEN 'PUBLIC' " +
+            "ELSE quote_ident(pg_get_userbyid(a.grantee)) END, a.privilege_type || ' (' || quote_ident(t.attname) || ')', " +
+            "CASE WHEN a.is_grantable THEN ' WITH GRANT OPTION' ELSE '' END FROM pg_class c JOIN pg_attribute t ON t.attrelid = c.oid, aclexplode(t.attacl) a " +
+            "WHERE c.oid = CAST(? AS regclass) AND NOT t.attisdropped AND a.grantee <> c.relowner";
+
+    private final String table;
+    private final String replacementTable;
+    private final String oldTable;
+    private final String retainedRowsCondition;
+    private final boolean unlogged;
+    private boolean prepared = false;
+
+    /**
+     * @param table the table to replace
+     * @param retainedRowsCondition SQL condition selecting the rows of the table that should be kept, as they
+     *                              belong to other datasets, or null to replace all rows
+     * @param unlogged true to load the replacement table without writing WAL, until the swap
+     */
+    TableSwap(String table, String retainedRowsCondition, boolean unlogged) {
+        this.table = table;
+        this.replacementTable = identifier("__swap_" + table);
+        this.oldTable = identifier("__old_" + table);
+        this.retainedRowsCondition = retainedRowsCondition;
+        this.unlogged = unlogged;
+    }
+
+    private static String identifier(String name) {
+        return name.length() > MAX_IDENTIFIER_LENGTH ? name.substring(0, MAX_IDENTIFIER_LENGTH) : name;
+    }
+
+    String getTable() {
+        return table;
+    }
+
+    String getReplacementTable() {
+        return replacementTable;
+    }
+
+    /**
+     * @return true if the replacement table has been created, and should be swapped with the table
+     */
+    boolean isPrepared() {
+        return prepared;
+    }
+
+    /**
+     * Creates the replacement table, with the rows of the other datasets if the table is shared, then its foreign keys
+     * and triggers, which are not copied from the table by CREATE TABLE LIKE. Does nothing if the replacement table is
+     * already created, when several datasets are loaded into the table.
+     *
+     * @throws IllegalStateException if the table is used by objects that cannot be moved to the replacement table:
+     * foreign keys of other tables, materialized views or row security policies
+     */
+    void prepare(Connection connection) throws SQLException {
+        if (prepared) {
+            return;
+        }
+        final String qualifiedTable = "\"" + table + "\"";
+        final List<String> blockingObjects = findBlockingObjects(connection);
+        if (!blockingObjects.isEmpty()) {
+            throw new IllegalStateException("Table " + table + " cannot be replaced with the swap load strategy, it is" +
+                    " used by " + StringUtils.join(blockingObjects, ", ") + ". Use the delete load strategy instead");
+        }
+
+        try (Statement statement = connection.createStatement()) {
+            statement.execute("DROP TABLE IF EXISTS \"" + replacementTable + "\"");
+            statement.execute("CREATE " + (unlogged ? "UNLOGGED " : "") + "TABLE \"" + replacementTable + "\" (LIKE \"" +
+                    table + "\" INCLUDING ALL)");
+            if (retainedRowsCondition != null) {
+                final int retained = statement.executeUpdate("INSERT INTO \"" + replacementTable + "\" SELECT * FROM \"" +
+                        table + "\" WHERE " + retainedRowsCondition);
+                LOG.info("Kept " + retained + " records from other datasets in table " + table);
+            }
+
+            // Created after copying the retained rows, which are already valid and must not fire the triggers again
+            for (String[] foreignKey : queryRows(connection, FOREIGN_KEYS_SQL, replacementTable, replacementTable, qualifiedTable)) {
+                statement.execute("ALTER TABLE \"" + replacementTable + "\" ADD CONSTRAINT \"" + foreignKey[0] + "\" " +
+                        foreignKey[1]);
+            }
+            for (String[] trigger : queryRows(connection, TRIGGERS_SQL, replacementTable, replacementTable, qualifiedTable)) {
+                statement.execute(trigger[1]);
+                final String enable = TRIGGER_ENABLE_CLAUSES.get(trigger[2]);
+                if (enable != null) {
+                    statement.execute("ALTER TABLE \"" + replacementTable + "\" " + enable + " TRIGGER \"" + trigger[0] + "\"");
+                }
+            }
+        }
+        prepared = true;
+    }
+
+    /**
+     * @return the objects using the table that cannot be moved to the replacement table: foreign keys of other tables,
+     * materialized views or row security policies. The table cannot be swapped if there are any
+     */
+    List<String> findBlockingObjects(Connection connection) throws SQLException {
+        final String qualifiedTable = "\"" + table + "\"";
+        final List<String> blockingObjects = new ArrayList<>();
+        for (String[] row : queryRows(connection, BLOCKING_OBJECTS_SQL, qualifiedTable, qualifiedTable)) {
+            blockingObjects.add(row[0]);
+        }
+        final DatabaseMetaData metaData = connection.getMetaData();
+        if (metaData.getDatabaseMajorVersion() > 9 ||
+                (metaData.getDatabaseMajorVersion() == 9 && metaData.getDatabaseMinorVersion() >= 5)) {
+            for (String[] row : queryRows(connection, POLICIES_SQL, qualifiedTable)) {
+                blockingObjects.add(row[0]);
+            }
+        }
+        return blockingObjects;
+    }
+
+    /**
+     * Drops the replacement table, when the load fails before the migration can swap it.
+     */
+    void drop(Connection connection) throws SQLException {
+        try (Statement statement = connection.createStatement()) {
+            statement.execute("DROP TABLE IF EXISTS \"" + replacementTable + "\"");
+        }
+        prepared = false;
+    }
+
+    /**
+     * Finishes the replacement table once all its rows are loaded, before the swap.
+     */
+    void complete(Connection connection) throws SQLException {
+        if (unlogged) {
+            final long start = System.currentTimeMillis();
+            try (Statement statement = connection.createStatement()) {
+                statement.execute("ALTER TABLE \"" + replacementTable + "\" SET LOGGED");
+            }
+            LOG.info("Set table " + replacementTable + " LOGGED in " + (System.currentTimeMillis() - start) + " ms");
+        }
+    }
+
+    /**
+     * Swaps the replacement table with the table, and drops the previous content of the table. The table stays
+     * locked until the end of the transaction.
+     */
+    void swap(Connection connection) throws SQLException {
+        final String qualifiedTable = "\"" + table + "\"";
+        final long start = System.currentTimeMillis();
+        try (Statement statement = connection.createStatement()) {
+            lock(connection, statement, lockedRelations(connection, qualifiedTable));
+
+            // The definitions are read once the table is locked, so that they cannot change before the swap
+            final Map<String, String> views = query(connection, DEPENDENT_VIEWS_SQL, qualifiedTable);
+            final Map<String, String> sequences = query(connection, OWNED_SEQUENCES_SQL, qualifiedTable);
+            final Map<String, String> constraints = query(connection, CONSTRAINTS_SQL, qualifiedTable);
+            final Map<String, String> indexes = query(connection, INDEXES_SQL, qualifiedTable);
+            final List<String[]> owners = queryRows(connection, OWNER_SQL, qualifiedTable, "\"" + replacementTable + "\"");
+            final List<String[]> grants = queryRows(connection, TABLE_GRANTS_SQL, qualifiedTable);
+            grants.addAll(queryRows(connection, COLUMN_GRANTS_SQL, qualifiedTable));
+            final List<String[]> defaultGrants = queryRows(connection, TABLE_GRANTS_SQL, "\"" + replacementTable + "\"");
+
+            statement.execute("DROP TABLE IF EXISTS \"" + oldTable + "\"");
+            statement.execute("ALTER TABLE " + qualifiedTable + " RENAME TO \"" + oldTable + "\"");
+            statement.execute("ALTER TABLE \"" + replacementTable + "\" RENAME TO " + qualifiedTable);
+
+            // The new table must belong to the owner of the sequences
+            for (String[] owner : owners) {
+                statement.execute("ALTER TABLE " + qualifiedTable + " OWNER TO " + owner[0]);
+            }
+            for (Map.Entry<String, String> view : views.entrySet()) {
+                statement.execute("CREATE OR REPLACE VIEW \"" + view.getKey() + "\" AS " + view.getValue());
+            }
+            for (Map.Entry<String, String> sequence : sequences.entrySet()) {
+                statement.execute("ALTER SEQUENCE \"" + sequence.getKey() + "\" OWNED BY " + qualifiedTable + ".\"" +
+                        sequence.getValue() + "\"");
+            }
+            // Privileges given to the new table by default privileges are replaced by the privileges of the table
+            for (String[] grant : defaultGrants) {
+                statement.execute("REVOKE ALL ON " + qualifiedTable + " FROM " + grant[0]);
+            }
+            for (String[] grant : grants) {
+                statement.execute("GRANT " + grant[1] + " ON " + qualifiedTable + " TO " + grant[0] + grant[2]);
+            }
+
+            statement.execute("DROP TABLE \"" + oldTable + "\"");
+
+            restoreNames(connection, statement, CONSTRAINTS_SQL, constraints,
+                    "ALTER TABLE " + qualifiedTable + " RENAME CONSTRAINT \"%s\" TO \"%s\"");
+            restoreNames(connection, statement, INDEXES_SQL, indexes, "ALTER INDEX \"%s\" RENAME TO \"%s\"");
+        }
+        LOG.info("Swapped table " + table + " with its new content in " + (System.currentTimeMillis() - start) + " ms");
+    }
+
+    /**
+     * @return the relations to lock before swapping the table: the views recreated by the swap, then the table, in
+     * the order used by the queries reading the views, which would otherwise deadlock with the swap. Views can only be
+     * locked since PostgreSQL 11
+     */
+    private String lockedRelations(Connection connection, String qualifiedTable) throws SQLException {
+        final StringBuilder relations = new StringBuilder();
+        if (connection.getMetaData().getDatabaseMajorVersion() >= 11) {
+            for (String view : query(connection, DEPENDENT_VIEWS_SQL, qualifiedTable).keySet()) {
+                relations.append('"').append(view).append("\", ");
+            }
+        }
+        return relations.append(qualifiedTable).toString();
+    }
+
+    /**
+     * Locks the relations, attempting again when the locks are not acquired within the lock_timeout of the
+     * transaction.
+     */
+    private void lock(Connection connection, Statement statement, String relations) throws SQLException {
+        for (int attempt = 1; ; attempt++) {
+            final Savepoint savepoint = connection.setSavepoint();
+            try {
+                statement.execute("LOCK TABLE " + relations + " IN ACCESS EXCLUSIVE MODE");
+                connection.releaseSavepoint(savepoint);
+                return;
+            } catch (SQLException e) {
+                connection.rollback(savepoint);
+                connection.releaseSavepoint(savepoint);
+                if (!LOCK_NOT_AVAILABLE.equals(e.getSQLState()) || attempt == LOCK_ATTEMPTS) {
+                    throw e;
+                }
+                LOG.warn("Cannot lock table " + table + " to swap it, it is used by other sessions. Attempt " + attempt +
+                        " of " + LOCK_ATTEMPTS);
+            }
+            try {
+                Thread.sleep(LOCK_RETRY_PAUSE_MILLIS * attempt);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new SQLException("Interrupted while waiting to lock table " + table, e);
+            }
+        }
+    }
+
+    /**
+     * Gives back their original names to the constraints or indexes of the new table, matched by definition.
+     *
+     * @param renameSql the statement renaming a constraint or an index, with the current and original names
+     */
+    private void restoreNames(Connection connection, Statement statement, String sql, Map<String, String> originals,
+                              String renameSql) throws SQLException {
+        final Map<String, String> current = query(connection, sql, "\"" + table + "\"");
+        for (Map.Entry<String, String> original : originals.entrySet()) {
+            final String definition = normalize(original.getValue());
+            for (Map.Entry<String, String> candidate : current.entrySet()) {
+                if (normalize(candidate.getValue()).equals(definition)) {
+                    if (!candidate.getKey().equals(original.getKey())) {
+                        statement.execute(String.format(renameSql, candidate.getKey(), original.getKey()));
+                    }
+                    current.remove(candidate.getKey());
+                    break;
+                }
+            }
+        }
+    }
+
+    /**
+     * Index definitions contain the names of the index and of the table, only their method, columns and predicate
+     * are compared.
+     */
+    private static String normalize(String definition) {
+        final int using = definition.indexOf(" USING ");
+        final String unique = definition.startsWith("CREATE UNIQUE") ? "UNIQUE" : "";
+        return using < 0 ? definition : unique + definition.substring(using);
+    }
+
+    private static Map<String, String> query(Connection connection, String sql, String parameter) throws SQLException {
+        final Map<String, String> result = new LinkedHashMap<>();
+        for (String[] row : queryRows(connection, sql, parameter)) {
+            result.put(row[0], row[1]);
+        }
+        return result;
+    }
+
+    private static List<String[]> queryRows(Connection connection, String sql, String... parameters) throws SQLException {
+        final List<String[]> result = new ArrayList<>();
+        try (PreparedStatement statement = connection.prepareStatement(sql)) {
+            for (int i = 0; i < parameters.length; i++) {
+                statement.setString(i + 1, parameters[i]);
+            }
+            try (ResultSet rs = statement.executeQuery()) {
+                final int columns = rs.getMetaData().getColumnCount();
+                while (rs.next()) {
+                    final String[] row = new String[columns];
+                    for (int i = 0; i < columns; i++) {
+                        row[i] = rs.getString(i + 1);
+                    }
+                    result.add(row);
+                }
+            }
+        }
+        return result;
+    }
+}
@@ -0,0 +1,206 @@
+package eu.humanbrainproject.mip.migrations.values;
+
+import eu.humanbrainproject.mip.migrations.LoadMetrics;
+import eu.humanbrainproject.mip.migrations.MigrationConfiguration;
+import org.apache.commons.lang3.StringUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * The tables replaced by the datasets loaded with the swap strategy, one swap per table whatever the number of
+ * datasets loaded into it.
+ *
+ * The datasets fill the replacement tables during the migration, and all tables are swapped together as the last
+ * step of the transaction, so that the readers of the tables are only blocked from the swap to the commit. A table
+ * shared by several datasets keeps the rows matching the retained rows conditions of all its datasets.
+ *
+ * When datasets are loaded in parallel, the tables of the datasets using the delete strategy are swapped too, so that
+ * publishing them does not copy their rows in the transaction of the migration. Replacing the rows of the datasets
+ * with a swap keeps the same rows as deleting them, unless a dataset uses a custom delete query or the table cannot
+ * be swapped, in which case its datasets are loaded sequentially.
+ */
+final class TableSwaps {
+
+    private static final Logger LOG = LoggerFactory.getLogger("Setup data-package");
+
+    private final Map<String, TableSwap> swaps;
+    private final Set<String> deleteTables;
+    private final String lockTimeout;
+
+    private TableSwaps(Map<String, TableSwap> swaps, Set<String> deleteTables, String lockTimeout) {
+        this.swaps = swaps;
+        this.deleteTables = deleteTables;
+        this.lockTimeout = lockTimeout;
+    }
+
+    /**
+     * @param datasets the datasets loaded by the migration
+     * @param unlogged true to load the replacement tables without writing WAL
+     * @param lockTimeout the maximum time waiting for the lock of a table to swap, as a value of lock_timeout
+     * @param swapDeleteTables true to swap the tables of the datasets using the delete strategy, when they are
+     *                         loaded in parallel
+     * @throws IllegalArgumentException if a table is loaded by datasets using the swap and other strategies
+     */
+    static TableSwaps create(MigrationConfiguration config, String[] datasets, boolean unlogged, String lockTimeout,
+                             boolean swapDeleteTables) throws IOException {
+        final Map<String, List<String>> datasetsByTable = new LinkedHashMap<>();
+        final Map<String, List<String>> swappedDatasetsByTable = new LinkedHashMap<>();
+        final Map<String, List<String>> deleteDatasetsByTable = new LinkedHashMap<>();
+        for (String dataset : datasets) {
+            final MigrationConfiguration.DatasetConfiguration datasetConfiguration = config.getDatasetConfiguration(dataset);
+            final String table = datasetConfiguration.getDatasetTableName();
+            datasetsByTable.computeIfAbsent(table, t -> new ArrayList<>()).add(dataset);
+            final LoadStrategy loadStrategy = LoadStrategy.forDataset(datasetConfiguration);
+            if (loadStrategy == LoadStrategy.SWAP) {
+                swappedDatasetsByTable.computeIfAbsent(table, t -> new ArrayList<>()).add(dataset);
+            } else if (loadStrategy == LoadStrategy.DELETE && swapDeleteTables) {
+                deleteDatasetsByTable.computeIfAbsent(table, t -> new ArrayList<>()).add(dataset);
+            }
+        }
+
+        final Map<String, TableSwap> swaps = new LinkedHashMap<>();
+        for (Map.Entry<String, List<String>> swapped : swappedDatasetsByTable.entrySet()) {
+            final String table = swapped.getKey();
+            if (datasetsByTable.get(table).size() != swapped.getValue().size()) {
+                throw new IllegalArgumentException("Table " + table + " is loaded by datasets " + datasetsByTable.get(table) +
+                        " but only " + swapped.getValue() + " use the swap load strategy. All the datasets of a table" +
+                        " replaced by the swap load strategy must use it");
+            }
+            swaps.put(table, new TableSwap(table, retainedRowsCondition(config, swapped.getValue()), unlogged));
+        }
+
+        final Set<String> deleteTables = new HashSet<>();
+        for (Map.Entry<String, List<String>> deleted : deleteDatasetsByTable.entrySet()) {
+            final String table = deleted.getKey();
+            if (datasetsByTable.get(table).size() != deleted.getValue().size()) {
+                LOG.info("Table " + table + " is also loaded incrementally, its datasets " + deleted.getValue() +
+                        " using the delete load strategy are loaded sequentially");
+                continue;
+            }
+            if (!hasData(config, deleted.getValue())) {
+                // Deleting the rows of a dataset without data would empty it, while a sequential load keeps them
+                LOG.info("Datasets " + deleted.getValue() + " of table " + table + " are loaded sequentially: some" +
+                        " of them have no data");
+                continue;
+            }
+            final String retainedRowsCondition;
+            try {
+                retainedRowsCondition = retainedRowsCondition(config, deleted.getValue());
+            } catch (IllegalArgumentException e) {
+                LOG.info("Datasets " + deleted.getValue() + " of table " + table + " are loaded sequentially: " +
+                        e.getMessage());
+                continue;
+            }
+            swaps.put(table, new TableSwap(table, retainedRowsCondition, unlogged));
+            deleteTables.add(table);
+        }
+        return new TableSwaps(swaps, deleteTables, lockTimeout);
+    }
+
+    private static boolean hasData(MigrationConfiguration config, List<String> datasets) throws IOException {
+        for (String dataset : datasets) {
+            final String csvFileName = config.getDataResourcePath(config.getDatasetConfiguration(dataset).getDatasetCsvFilePath());
+            if (csvFileName.equals("/dev/null") || csvFileName.equals("/data/")) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return the condition selecting the rows of a table that do not belong to any of the datasets, or null if the
+     * datasets replace all rows of the table
+     * @throws IllegalArgumentException if the rows of a dataset cannot be found, as it uses a custom delete query
+     */
+    private static String retainedRowsCondition(MigrationConfiguration config, List<String> datasets) throws IOException {
+        String retainedRowsCondition = "";
+        for (String dataset : datasets) {
+            final String condition = config.getDatasetConfiguration(dataset).getRetainedRowsCondition();
+            if (condition == null) {
+                // The dataset owns all rows of the table
+                return null;
+            }
+            retainedRowsCondition += (retainedRowsCondition.isEmpty() ? "" : " AND ") + "(" + condition + ")";
+        }
+        return retainedRowsCondition;
+    }
+
+    /**
+     * Gives up swapping the tables of the datasets using the delete strategy that are used by objects preventing the
+     * swap, their datasets are then loaded sequentially.
+     */
+    void excludeBlockedDeleteTables(Connection connection) throws SQLException {
+        for (Iterator<String> tables = deleteTables.iterator(); tables.hasNext(); ) {
+            final String table = tables.next();
+            final List<String> blockingObjects = swaps.get(table).findBlockingObjects(connection);
+            if (!blockingObjects.isEmpty()) {
+                LOG.info("Table " + table + " cannot be swapped as it is used by " + StringUtils.join(blockingObjects, ", ") +
+                        ", its datasets are loaded sequentially");
+                swaps.remove(table);
+                tables.remove();
+            }
+        }
+    }
+
+    /**
+     * @return true if the table is replaced by a swap, its datasets being loaded into the replacement table
+     */
+    boolean isSwapped(String table) {
+        return swaps.containsKey(table);
+    }
+
+    /**
+     * @return the swap of a table loaded with the swap strategy
+     */
+    TableSwap get(String table) {
+        final TableSwap swap = swaps.get(table);
+        if (swap == null) {
+            throw new IllegalArgumentException("Table " + table + " is not replaced by a swap");
+        }
+        return swap;
+    }
+
+    /**
+     * Completes and swaps all the replacement tables filled by the migration. This must be the last step of the
+     * transaction, the swapped tables stay locked until the commit.
+     */
+    void swapAll(Connection connection) throws SQLException {
+        final List<TableSwap> prepared = new ArrayList<>();
+        for (TableSwap swap : swaps.values()) {
+            if (swap.isPrepared()) {
+                prepared.add(swap);
+            }
+        }
+        if (prepared.isEmpty()) {
+            return;
+        }
+        for (TableSwap swap : prepared) {
+            final long start = System.nanoTime();
+            swap.complete(connection);
+            LoadMetrics.getInstance().table(swap.getTable()).addTime(LoadMetrics.Phase.PUBLISH, System.nanoTime() - start);
+        }
+
+        try (PreparedStatement statement = connection.prepareStatement("SELECT set_config('lock_timeout', ?, true)")) {
+            statement.setString(1, lockTimeout);
+            statement.execute();
+        }
+        LOG.info("Swapping " + prepared.size() + " tables with a lock timeout of " + lockTimeout);
+        for (TableSwap swap : prepared) {
+            final long start = System.nanoTime();
+            swap.swap(connection);
+            LoadMetrics.getInstance().table(swap.getTable()).addTime(LoadMetrics.Phase.PUBLISH, System.nanoTime() - start);
+        }
+    }
+}
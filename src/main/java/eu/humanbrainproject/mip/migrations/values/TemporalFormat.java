@@ -0,0 +1,460 @@
+package eu.humanbrainproject.mip.migrations.values;
+
+import eu.humanbrainproject.mip.migrations.datapackage.Field;
+
+import java.nio.charset.StandardCharsets;
+import java.sql.Types;
+import java.time.DateTimeException;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.LocalTime;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.time.format.ResolverStyle;
+import java.time.temporal.ChronoField;
+import java.time.temporal.TemporalAccessor;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Parses and formats the values of the date, datetime and time fields of a data package.
+ *
+ * Values are handled as primitive values: dates as days since 1970-01-01, date times as microseconds since
+ * 1970-01-01 00:00:00 and times as microseconds since midnight, microseconds being the precision of PostgreSQL.
+ *
+ * The formats 'default' and 'any' are read as ISO 8601 by a parser working directly on the characters of the cells,
+ * without creating objects. Date times may be separated by 'T' or a space, may omit the time or the seconds, and a
+ * time zone 'Z' or offset converts them to UTC. Other formats are patterns in the strptime syntax of the Table
+ * Schema specification, such as %d/%m/%Y, optionally prefixed by 'fmt:', or patterns of {@link DateTimeFormatter}.
+ * They are compiled once and shared by all fields using the same pattern.
+ */
+final class TemporalFormat {
+
+    private static final Map<String, DateTimeFormatter> FORMATTERS = new ConcurrentHashMap<>();
+
+    private static final long MICROS_PER_SECOND = 1000000L;
+    private static final long MICROS_PER_DAY = 86400L * MICROS_PER_SECOND;
+
+    private final int sqlTypeCode;
+    private final DateTimeFormatter formatter;
+
+    private TemporalFormat(int sqlTypeCode, DateTimeFormatter formatter) {
+        this.sqlTypeCode = sqlTypeCode;
+        this.formatter = formatter;
+    }
+
+    /**
+     * @param field a field of SQL type date, timestamp or time
+     * @return the format of the values of the field
+     */
+    static TemporalFormat forField(Field field) {
+        final int sqlTypeCode = field.getSqlTypeCode();
+        if (!isTemporal(sqlTypeCode)) {
+            throw new IllegalArgumentException("Field " + field.getName() + " of type " + field.getType() + " is not a date, datetime or time");
+        }
+        final String format = field.getFormat();
+        if (format == null || "".equals(format.trim()) || "default".equals(format) || "any".equals(format)) {
+            return new TemporalFormat(sqlTypeCode, null);
+        }
+        final String pattern = format.startsWith("fmt:") ? format.substring(4) : format;
+        try {
+            return new TemporalFormat(sqlTypeCode, FORMATTERS.computeIfAbsent(pattern, TemporalFormat::compile));
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException("Invalid format " + format + " on field " + field.getName(), e);
+        }
+    }
+
+    static boolean isTemporal(int sqlTypeCode) {
+        return sqlTypeCode == Types.DATE || sqlTypeCode == Types.TIMESTAMP || sqlTypeCode == Types.TIME;
+    }
+
+    int getSqlTypeCode() {
+        return sqlTypeCode;
+    }
+
+    /**
+     * @return the name of the type of the values, used in the messages
+     */
+    String getTypeName() {
+        return typeName(sqlTypeCode);
+    }
+
+    /**
+     * @return the value as days since 1970-01-01 for a date, microseconds since 1970-01-01 00:00:00 for a date time,
+     * or microseconds since midnight for a time
+     * @throws DateTimeException if the text is not a valid value in this format
+     */
+    long parse(CharSequence text) {
+        if (formatter == null) {
+            switch (sqlTypeCode) {
+                case Types.DATE:
+                    return parseIsoDate(text);
+                case Types.TIMESTAMP:
+                    return parseIsoDateTime(text);
+                default:
+                    return parseIsoTime(text);
+            }
+        }
+        final TemporalAccessor parsed = formatter.parse(text);
+        switch (sqlTypeCode) {
+            case Types.DATE:
+                return LocalDate.from(parsed).toEpochDay();
+            case Types.TIMESTAMP:
+                LocalDateTime dateTime = parsed.isSupported(ChronoField.HOUR_OF_DAY)
+                        ? LocalDateTime.from(parsed) : LocalDate.from(parsed).atStartOfDay();
+                if (parsed.isSupported(ChronoField.OFFSET_SECONDS)) {
+                    dateTime = dateTime.minusSeconds(parsed.getLong(ChronoField.OFFSET_SECONDS));
+                }
+                return toLong(Types.TIMESTAMP, dateTime);
+            default:
+                return LocalTime.from(parsed).toNanoOfDay() / 1000;
+        }
+    }
+
+    /**
+     * @return the value as a {@link LocalDate}, {@link LocalDateTime} or {@link LocalTime}
+     */
+    static Object toObject(int sqlTypeCode, long value) {
+        switch (sqlTypeCode) {
+            case Types.DATE:
+                return LocalDate.ofEpochDay(value);
+            case Types.TIMESTAMP:
+                return LocalDateTime.ofEpochSecond(Math.floorDiv(value, MICROS_PER_SECOND),
+                        (int) Math.floorMod(value, MICROS_PER_SECOND) * 1000, ZoneOffset.UTC);
+            default:
+                return LocalTime.ofNanoOfDay(value * 1000);
+        }
+    }
+
+    /**
+     * @param value a {@link LocalDate}, {@link LocalDateTime} or {@link LocalTime} matching the SQL type
+     * @return the primitive value of the object
+     */
+    static long toLong(int sqlTypeCode, Object value) {
+        if (sqlTypeCode == Types.DATE && value instanceof LocalDate) {
+            return ((LocalDate) value).toEpochDay();
+        } else if (sqlTypeCode == Types.TIMESTAMP && value instanceof LocalDateTime) {
+            final LocalDateTime dateTime = (LocalDateTime) value;
+            return dateTime.toEpochSecond(ZoneOffset.UTC) * MICROS_PER_SECOND + dateTime.getNano() / 1000;
+        } else if (sqlTypeCode == Types.TIME && value instanceof LocalTime) {
+            return ((LocalTime) value).toNanoOfDay() / 1000;
+        }
+        throw new IllegalArgumentException(typeName(sqlTypeCode) + " value expected, found " + value.getClass());
+    }
+
+    /**
+     * Formats a value in ISO 8601, as accepted by PostgreSQL.
+     *
+     * @param buffer receives the characters of the value, at least 32 bytes
+     * @return the number of bytes written
+     */
+    static int format(int sqlTypeCode, long value, byte[] buffer) {
+        int position = 0;
+        long micros = value;
+        if (sqlTypeCode != Types.TIME) {
+            final long epochDay = sqlTypeCode == Types.DATE ? value : Math.floorDiv(value, MICROS_PER_DAY);
+            micros = sqlTypeCode == Types.DATE ? 0 : Math.floorMod(value, MICROS_PER_DAY);
+            // Civil date from the days since 1970-01-01, as described by Howard Hinnant
+            final long z = epochDay + 719468;
+            final long era = Math.floorDiv(z, 146097);
+            final long dayOfEra = z - era * 146097;
+            final long yearOfEra = (dayOfEra - dayOfEra / 1460 + dayOfEra / 36524 - dayOfEra / 146096) / 365;
+            final long dayOfYear = dayOfEra - (365 * yearOfEra + yearOfEra / 4 - yearOfEra / 100);
+            final long shiftedMonth = (5 * dayOfYear + 2) / 153;
+            final int day = (int) (dayOfYear - (153 * shiftedMonth + 2) / 5 + 1);
+            final int month = (int) (shiftedMonth < 10 ? shiftedMonth + 3 : shiftedMonth - 9);
+            final long year = yearOfEra + era * 400 + (month <= 2 ? 1 : 0);
+            if (year < 0 || year > 9999) {
+                final byte[] text = toObject(sqlTypeCode, value).toString().replace('T', ' ').getBytes(StandardCharsets.US_ASCII);
+                System.arraycopy(text, 0, buffer, 0, text.length);
+                return text.length;
+            }
+            position = writeDigits(buffer, position, (int) year, 4);
+            buffer[position++] = '-';
+            position = writeDigits(buffer, position, month, 2);
+            buffer[position++] = '-';
+            position = writeDigits(buffer, position, day, 2);
+            if (sqlTypeCode == Types.DATE) {
+                return position;
+            }
+            buffer[position++] = ' ';
+        }
+        final long seconds = micros / MICROS_PER_SECOND;
+        position = writeDigits(buffer, position, (int) (seconds / 3600), 2);
+        buffer[position++] = ':';
+        position = writeDigits(buffer, position, (int) (seconds / 60 % 60), 2);
+        buffer[position++] = ':';
+        position = writeDigits(buffer, position, (int) (seconds % 60), 2);
+        final int fraction = (int) (micros % MICROS_PER_SECOND);
+        if (fraction != 0) {
+            buffer[position++] = '.';
+            position = writeDigits(buffer, position, fraction, 6);
+        }
+        return position;
+    }
+
+    private static int writeDigits(byte[] buffer, int position, int value, int digits) {
+        for (int i = position + digits - 1; i >= position; i--) {
+            buffer[i] = (byte) ('0' + value % 10);
+            value /= 10;
+        }
+        return position + digits;
+    }
+
+    private static long parseIsoDate(CharSequence text) {
+        if (text.length() != 10) {
+            throw invalid(text, Types.DATE);
+        }
+        return parseDate(text, Types.DATE);
+    }
+
+    private static long parseIsoDateTime(CharSequence text) {
+        final int length = text.length();
+        if (length < 10) {
+            throw invalid(text, Types.TIMESTAMP);
+        }
+        final long epochDay = parseDate(text, Types.TIMESTAMP);
+        if (length == 10) {
+            return epochDay * MICROS_PER_DAY;
+        }
+        final char separator = text.charAt(10);
+        if (separator != 'T' && separator != ' ') {
+            throw invalid(text, Types.TIMESTAMP);
+        }
+        int timeEnd = 11;
+        while (timeEnd < length && text.charAt(timeEnd) != 'Z' && text.charAt(timeEnd) != '+' && text.charAt(timeEnd) != '-') {
+            timeEnd++;
+        }
+        final long micros = epochDay * MICROS_PER_DAY + parseTime(text, 11, timeEnd, Types.TIMESTAMP);
+        if (timeEnd == length) {
+            return micros;
+        }
+        return micros - parseOffset(text, timeEnd) * MICROS_PER_SECOND;
+    }
+
+    private static long parseIsoTime(CharSequence text) {
+        return parseTime(text, 0, text.length(), Types.TIME);
+    }
+
+    /**
+     * @return the days since 1970-01-01 of the date YYYY-MM-DD at the start of the text
+     */
+    private static long parseDate(CharSequence text, int sqlTypeCode) {
+        final int year = digits(text, 0, 4);
+        final int month = digits(text, 5, 2);
+        final int day = digits(text, 8, 2);
+        if (year < 0 || month < 1 || month > 12 || day < 1 || text.charAt(4) != '-' || text.charAt(7) != '-'
+                || day > monthLength(year, month)) {
+            throw invalid(text, sqlTypeCode);
+        }
+        // Days since 1970-01-01 of the civil date, as described by Howard Hinnant
+        final int y = month <= 2 ? year - 1 : year;
+        final int era = Math.floorDiv(y, 400);
+        final int yearOfEra = y - era * 400;
+        final int dayOfYear = (153 * (month > 2 ? month - 3 : month + 9) + 2) / 5 + day - 1;
+        final int dayOfEra = yearOfEra * 365 + yearOfEra / 4 - yearOfEra / 100 + dayOfYear;
+        return era * 146097L + dayOfEra - 719468;
+    }
+
+    /**
+     * @return the microseconds since midnight of the time HH:MM[:SS[.fraction]] between two positions of the text
+     */
+    private static long parseTime(CharSequence text, int start, int end, int sqlTypeCode) {
+        final int length = end - start;
+        if (length < 5 || length == 6 || text.charAt(start + 2) != ':') {
+            throw invalid(text, sqlTypeCode);
+        }
+        final int hours = digits(text, start, 2);
+        final int minutes = digits(text, start + 3, 2);
+        int seconds = 0;
+        long fraction = 0;
+        if (length > 5) {
+            if (text.charAt(start + 5) != ':' || length < 8) {
+                throw invalid(text, sqlTypeCode);
+            }
+            seconds = digits(text, start + 6, 2);
+            if (length > 8) {
+                final char point = text.charAt(start + 8);
+                if ((point != '.' && point != ',') || length == 9 || length > 18) {
+                    throw invalid(text, sqlTypeCode);
+                }
+                // Digits after the microseconds are truncated
+                long scale = 100000;
+                for (int i = start + 9; i < end; i++) {
+                    final char c = text.charAt(i);
+                    if (c < '0' || c > '9') {
+                        throw invalid(text, sqlTypeCode);
+                    }
+                    fraction += (c - '0') * scale;
+                    scale /= 10;
+                }
+            }
+        }
+        if (hours < 0 || hours > 23 || minutes < 0 || minutes > 59 || seconds < 0 || seconds > 59) {
+            throw invalid(text, sqlTypeCode);
+        }
+        return (hours * 3600L + minutes * 60L + seconds) * MICROS_PER_SECOND + fraction;
+    }
+
+    /**
+     * @return the offset in seconds of the time zone Z, +HH, +HH:MM or +HHMM at a position of the text
+     */
+    private static int parseOffset(CharSequence text, int start) {
+        final int length = text.length() - start;
+        final char sign = text.charAt(start);
+        if (sign == 'Z' && length == 1) {
+            return 0;
+        }
+        int hours = -1;
+        int minutes = 0;
+        if (length == 3) {
+            hours = digits(text, start + 1, 2);
+        } else if (length == 5) {
+            hours = digits(text, start + 1, 2);
+            minutes = digits(text, start + 3, 2);
+        } else if (length == 6 && text.charAt(start + 3) == ':') {
+            hours = digits(text, start + 1, 2);
+            minutes = digits(text, start + 4, 2);
+        }
+        if (sign == 'Z' || hours < 0 || hours > 18 || minutes < 0 || minutes > 59) {
+            throw invalid(text, Types.TIMESTAMP);
+        }
+        final int offset = hours * 3600 + minutes * 60;
+        return sign == '-' ? -offset : offset;
+    }
+
+    /**
+     * @return the value of the decimal digits at a position of the text, or -1 if a character is not a digit
+     */
+    private static int digits(CharSequence text, int start, int count) {
+        int value = 0;
+        for (int i = start; i < start + count; i++) {
+            final char c = text.charAt(i);
+            if (c < '0' || c > '9') {
+                return -1;
+            }
+            value = value * 10 + (c - '0');
+        }
+        return value;
+    }
+
+    private static int monthLength(int year, int month) {
+        switch (month) {
+            case 2:
+                return (year % 4 == 0 && (year % 100 != 0 || year % 400 == 0)) ? 29 : 28;
+            case 4:
+            case 6:
+            case 9:
+            case 11:
+                return 30;
+            default:
+                return 31;
+        }
+    }
+
+    private static DateTimeParseException invalid(CharSequence text, int sqlTypeCode) {
+        return new DateTimeParseException("Text '" + text + "' is not an ISO 8601 " + typeName(sqlTypeCode), text, 0);
+    }
+
+    private static String typeName(int sqlTypeCode) {
+        switch (sqlTypeCode) {
+            case Types.DATE:
+                return "date";
+            case Types.TIMESTAMP:
+                return "datetime";
+            default:
+                return "time";
+        }
+    }
+
+    /**
+     * @return the formatter of a pattern in the strptime syntax, or of a {@link DateTimeFormatter} pattern
+     */
+    private static DateTimeFormatter compile(String pattern) {
+        if (pattern.indexOf('%') < 0) {
+            return DateTimeFormatter.ofPattern(pattern, Locale.ENGLISH);
+        }
+        final StringBuilder converted = new StringBuilder();
+        final StringBuilder literal = new StringBuilder();
+        for (int i = 0; i < pattern.length(); i++) {
+            final char c = pattern.charAt(i);
+            if (c != '%') {
+                literal.append(c);
+                continue;
+            }
+            if (++i == pattern.length()) {
+                throw new IllegalArgumentException("Incomplete directive at the end of pattern " + pattern);
+            }
+            final char directive = pattern.charAt(i);
+            if (directive == '%') {
+                literal.append('%');
+                continue;
+            }
+            appendLiteral(converted, literal);
+            converted.append(convertDirective(directive, pattern));
+        }
+        appendLiteral(converted, literal);
+        // the years are converted to proleptic years, which lets invalid dates such as 31/02 be rejected
+        return DateTimeFormatter.ofPattern(converted.toString(), Locale.ENGLISH).withResolverStyle(ResolverStyle.STRICT);
+    }
+
+    private static String convertDirective(char directive, String pattern) {
+        switch (directive) {
+            case 'Y':
+                return "uuuu";
+            case 'y':
+                return "uu";
+            case 'm':
+                return "MM";
+            case 'd':
+                return "dd";
+            case 'b':
+                return "MMM";
+            case 'B':
+                return "MMMM";
+            case 'a':
+                return "EEE";
+            case 'A':
+                return "EEEE";
+            case 'j':
+                return "DDD";
+            case 'H':
+                return "HH";
+            case 'I':
+                return "hh";
+            case 'p':
+                return "a";
+            case 'M':
+                return "mm";
+            case 'S':
+                return "ss";
+            case 'f':
+                return "SSSSSS";
+            case 'z':
+                return "xx";
+            default:
+                throw new IllegalArgumentException("Unsupported directive %" + directive + " in pattern " + pattern);
+        }
+    }
+
+    /**
+     * Appends literal text to a {@link DateTimeFormatter} pattern, quoting the letters.
+     */
+    private static void appendLiteral(StringBuilder pattern, StringBuilder literal) {
+        if (literal.length() == 0) {
+            return;
+        }
+        pattern.append('\'');
+        for (int i = 0; i < literal.length(); i++) {
+            final char c = literal.charAt(i);
+            pattern.append(c);
+            if (c == '\'') {
+                pattern.append('\'');
+            }
+        }
+        pattern.append('\'');
+        literal.setLength(0);
+    }
+}
@@ -0,0 +1,276 @@
+package eu.humanbrainproject.mip.migrations.values;
+
+import eu.humanbrainproject.mip.migrations.keys.KeyIndex;
+import org.supercsv.cellprocessor.CellProcessorAdaptor;
+import org.supercsv.cellprocessor.ift.StringCellProcessor;
+import org.supercsv.exception.SuperCsvCellProcessorException;
+import org.supercsv.exception.SuperCsvConstraintViolationException;
+import org.supercsv.util.CsvContext;
+
+import java.time.DateTimeException;
+
+/**
+ * Cell processor converting the values of a column of type integer, number, string, date, datetime or time, which
+ * replaces the chains of SuperCSV processors (ParseInt, ParseDouble, ParseDate, Optional, NotNull) for these types.
+ *
+ * Besides converting strings, it converts the cells of a {@link CsvTokenizer} directly, parsing numbers and dates
+ * from the characters of the cell without creating a string, and can store the converted values in a
+ * {@link ColumnBatch} without boxing them. Dates, date times and times are converted to {@link java.time.LocalDate},
+ * {@link java.time.LocalDateTime} and {@link java.time.LocalTime}, as primitive values in a batch.
+ *
+ * Columns of a primary key or with a unique constraint are given a {@link KeyIndex}, which rejects the values
+ * already seen in the file, and columns with other constraints a {@link FieldValidator}.
+ */
+abstract class TypedCellProcessor extends CellProcessorAdaptor implements StringCellProcessor {
+
+    private final boolean required;
+    private final KeyIndex keys;
+    private final FieldValidator validator;
+
+    private TypedCellProcessor(boolean required, KeyIndex keys, FieldValidator validator) {
+        this.required = required;
+        this.keys = keys;
+        this.validator = validator;
+    }
+
+    static TypedCellProcessor integer(boolean required) {
+        return integer(required, null, null);
+    }
+
+    static TypedCellProcessor number(boolean required) {
+        return number(required, null, null);
+    }
+
+    static TypedCellProcessor string(boolean required) {
+        return string(required, null, null);
+    }
+
+    /**
+     * @param keys the index checking that the values are unique, or null
+     * @param validator the validator of the other constraints of the field, or null
+     */
+    static TypedCellProcessor integer(boolean required, KeyIndex keys, FieldValidator validator) {
+        return new TypedCellProcessor(required, keys, validator) {
+            @Override
+            Object convert(String value, CsvContext context) {
+                try {
+                    return Integer.valueOf(value);
+                } catch (NumberFormatException e) {
+                    throw new SuperCsvCellProcessorException(String.format("'%s' could not be parsed as an Integer", value),
+                            context, this, e);
+                }
+            }
+
+            @Override
+            Object convert(CsvTokenizer tokenizer, int cell, CsvContext context) {
+                try {
+                    return tokenizer.getInt(cell);
+                } catch (NumberFormatException e) {
+                    throw new SuperCsvCellProcessorException(String.format("'%s' could not be parsed as an Integer",
+                            tokenizer.getString(cell)), context, this, e);
+                }
+            }
+
+            @Override
+            void convert(CsvTokenizer tokenizer, int cell, ColumnBatch batch, int column, CsvContext context) {
+                try {
+                    final int value = tokenizer.getInt(cell);
+                    if (validator != null) {
+                        validator.validate(value, this, context);
+                    }
+                    if (keys != null && !keys.add(value)) {
+                        throw duplicate(value, context);
+                    }
+                    batch.setInt(column, value);
+                } catch (NumberFormatException e) {
+                    throw new SuperCsvCellProcessorException(String.format("'%s' could not be parsed as an Integer",
+                            tokenizer.getString(cell)), context, this, e);
+                }
+            }
+        };
+    }
+
+    /**
+     * @param keys the index checking that the values are unique, or null
+     * @param validator the validator of the other constraints of the field, or null
+     */
+    static TypedCellProcessor number(boolean required, KeyIndex keys, FieldValidator validator) {
+        return new TypedCellProcessor(required, keys, validator) {
+            @Override
+            Object convert(String value, CsvContext context) {
+                try {
+                    return Double.valueOf(value);
+                } catch (NumberFormatException e) {
+                    throw new SuperCsvCellProcessorException(String.format("'%s' could not be parsed as a Double", value),
+                            context, this, e);
+                }
+            }
+
+            @Override
+            Object convert(CsvTokenizer tokenizer, int cell, CsvContext context) {
+                try {
+                    return tokenizer.getDouble(cell);
+                } catch (NumberFormatException e) {
+                    throw new SuperCsvCellProcessorException(String.format("'%s' could not be parsed as a Double",
+                            tokenizer.getString(cell)), context, this, e);
+                }
+            }
+
+            @Override
+            void convert(CsvTokenizer tokenizer, int cell, ColumnBatch batch, int column, CsvContext context) {
+                try {
+                    final double value = tokenizer.getDouble(cell);
+                    if (validator != null) {
+                        validator.validate(value, this, context);
+                    }
+                    if (keys != null && !keys.add(value)) {
+                        throw duplicate(value, context);
+                    }
+                    batch.setDouble(column, value);
+                } catch (NumberFormatException e) {
+                    throw new SuperCsvCellProcessorException(String.format("'%s' could not be parsed as a Double",
+                            tokenizer.getString(cell)), context, this, e);
+                }
+            }
+        };
+    }
+
+    /**
+     * @param keys the index checking that the values are unique, or null
+     * @param validator the validator of the other constraints of the field, or null
+     */
+    static TypedCellProcessor string(boolean required, KeyIndex keys, FieldValidator validator) {
+        return new TypedCellProcessor(required, keys, validator) {
+            @Override
+            Object convert(String value, CsvContext context) {
+                return value;
+            }
+
+            @Override
+            Object convert(CsvTokenizer tokenizer, int cell, CsvContext context) {
+                return tokenizer.getString(cell);
+            }
+
+            @Override
+            void convert(CsvTokenizer tokenizer, int cell, ColumnBatch batch, int column, CsvContext context) {
+                if (validator != null) {
+                    validator.validate(tokenizer.getChars(cell), this, context);
+                }
+                if (keys != null && !tokenizer.addTo(cell, keys)) {
+                    throw duplicate(tokenizer.getString(cell), context);
+                }
+                tokenizer.copyTo(cell, batch, column);
+            }
+        };
+    }
+
+    /**
+     * @param format the format of the values of a date, datetime or time field
+     * @param keys the index checking that the values are unique, or null
+     */
+    static TypedCellProcessor temporal(boolean required, KeyIndex keys, TemporalFormat format) {
+        return new TypedCellProcessor(required, keys, null) {
+            @Override
+            Object convert(String value, CsvContext context) {
+                return TemporalFormat.toObject(format.getSqlTypeCode(), parse(value, context));
+            }
+
+            @Override
+            Object convert(CsvTokenizer tokenizer, int cell, CsvContext context) {
+                return TemporalFormat.toObject(format.getSqlTypeCode(), parse(tokenizer.getChars(cell), context));
+            }
+
+            @Override
+            void convert(CsvTokenizer tokenizer, int cell, ColumnBatch batch, int column, CsvContext context) {
+                final long value = parse(tokenizer.getChars(cell), context);
+                if (keys != null && !keys.add(value)) {
+                    throw duplicate(tokenizer.getString(cell), context);
+                }
+                batch.setTemporal(column, value);
+            }
+
+            @Override
+            Object check(Object value, CsvContext context) {
+                // Keys are the primitive values, as in a batch
+                if (keys != null && !keys.add(TemporalFormat.toLong(format.getSqlTypeCode(), value))) {
+                    throw duplicate(value, context);
+                }
+                return value;
+            }
+
+            private long parse(CharSequence value, CsvContext context) {
+                try {
+                    return format.parse(value);
+                } catch (DateTimeException e) {
+                    throw new SuperCsvCellProcessorException(String.format("'%s' could not be parsed as a %s", value,
+                            format.getTypeName()), context, this, e);
+                }
+            }
+        };
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public <T> T execute(Object value, CsvContext context) {
+        final Object converted = value == null ? checkNull(context) : check(convert(value.toString(), context), context);
+        // The type of the value is given by the field, as with the processors of SuperCSV
+        return (T) converted;
+    }
+
+    /**
+     * Converts a cell of the current record of a tokenizer.
+     */
+    Object execute(CsvTokenizer tokenizer, int cell, CsvContext context) {
+        if (tokenizer.isNull(cell)) {
+            return checkNull(context);
+        }
+        return check(convert(tokenizer, cell, context), context);
+    }
+
+    /**
+     * Converts a cell of the current record of a tokenizer and stores it in the current row of a batch.
+     */
+    void execute(CsvTokenizer tokenizer, int cell, ColumnBatch batch, int column, CsvContext context) {
+        if (tokenizer.isNull(cell)) {
+            checkNull(context);
+            batch.setNull(column);
+        } else {
+            convert(tokenizer, cell, batch, column, context);
+        }
+    }
+
+    private Object checkNull(CsvContext context) {
+        if (required) {
+            throw new SuperCsvConstraintViolationException("null value encountered", context, this);
+        }
+        return null;
+    }
+
+    Object check(Object value, CsvContext context) {
+        if (validator != null) {
+            validator.validate(value, this, context);
+        }
+        if (keys != null && !keys.add(value)) {
+            throw duplicate(value, context);
+        }
+        return value;
+    }
+
+    /**
+     * @return the index checking that the values are unique, or null
+     */
+    KeyIndex getKeys() {
+        return keys;
+    }
+
+    SuperCsvConstraintViolationException duplicate(Object value, CsvContext context) {
+        return new SuperCsvConstraintViolationException(String.format("duplicate value '%s' encountered in column %s",
+                value, keys.getColumn()), context, this);
+    }
+
+    abstract Object convert(String value, CsvContext context);
+
+    abstract Object convert(CsvTokenizer tokenizer, int cell, CsvContext context);
+
+    abstract void convert(CsvTokenizer tokenizer, int cell, ColumnBatch batch, int column, CsvContext context);
+}
@@ -1,7 +1,10 @@
 package eu.humanbrainproject.mip.migrations.views;
 
+import eu.humanbrainproject.mip.migrations.ChecksumCache;
+import eu.humanbrainproject.mip.migrations.LoadMetrics;
 import eu.humanbrainproject.mip.migrations.MigrationConfiguration;
 import eu.humanbrainproject.mip.migrations.datapackage.Field;
+import eu.humanbrainproject.mip.migrations.keys.KeyIndex;
 import org.apache.commons.lang3.StringUtils;
 import org.flywaydb.core.api.MigrationVersion;
 import org.flywaydb.core.api.migration.Context;
@@ -12,8 +15,12 @@ import com.github.mustachejava.MustacheFactory;
 
 import java.io.*;
 import java.sql.Connection;
+import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.sql.Statement;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Consumer;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import java.util.stream.Collectors;
@@ -24,8 +31,10 @@ public class R__CreateViews implements JavaMigration {
 
     private static final Logger LOG = Logger.getLogger("Create views");
 
-    private MigrationConfiguration config = new MigrationConfiguration(this.getClass());
-    private final Map<String, Properties> viewProperties = new HashMap<>();
+    private static final int KEYS_FETCH_SIZE = 10000;
+
+    private final MigrationConfiguration config = MigrationConfiguration.getInstance(this.getClass());
+    private final Map<String, Properties> viewProperties = new ConcurrentHashMap<>();
 
     @Override
     public boolean isUndo() {
@@ -50,6 +59,8 @@ public class R__CreateViews implements JavaMigration {
         } catch (Exception e) {
             LOG.log(Level.SEVERE, "Cannot create views for data", e);
             throw e;
+        } finally {
+            LoadMetrics.getInstance().writeReports();
         }
     }
 
@@ -82,13 +93,77 @@ public class R__CreateViews implements JavaMigration {
 
         String createViewSql = writer.toString();
 
+        if (isJoinCoverageEnabled() && isJoinView(view)) {
+            reportJoinCoverage(connection, viewName, getTables(view));
+        }
+
+        final long start = System.nanoTime();
         try {
             connection.createStatement().execute(createViewSql);
         } catch (SQLException e) {
             LOG.severe("Cannot execute the following SQL statement: \n" + createViewSql);
             throw e;
         }
+        LoadMetrics.getInstance().view(viewName).addTime(LoadMetrics.Phase.DDL, System.nanoTime() - start);
+
+    }
+
+    private boolean isJoinCoverageEnabled() {
+        return "true".equals(System.getenv("JOIN_COVERAGE")) || "yes".equals(System.getenv("JOIN_COVERAGE"));
+    }
+
+    private boolean isJoinView(String view) throws IOException {
+        final String sqlTemplateFile = getViewProperties(view).getProperty("__SQL_TEMPLATE", view + "_view.mustache.sql");
+        return sqlTemplateFile.contains("join_view");
+    }
+
+    /**
+     * Logs how many keys of the first table of a join view are found in each of the other tables. The rows of the
+     * first table without a match have null values in the columns of the other table.
+     */
+    private void reportJoinCoverage(Connection connection, String viewName, String[] tables) throws IOException, SQLException {
+        final String leftTable = tables[0];
+        final String leftKey = config.getTableConfiguration(leftTable).getDatasetPrimaryKey();
+        if (leftKey == null) {
+            return;
+        }
+        for (int i = 1; i < tables.length; i++) {
+            final String rightTable = tables[i];
+            final String rightKey = config.getTableConfiguration(rightTable).getDatasetPrimaryKey();
+            if (rightKey == null) {
+                continue;
+            }
+            final KeyIndex rightKeys = new KeyIndex(rightKey);
+            forEachKey(connection, rightTable, rightKey, rightKeys::add);
+            final long[] counts = new long[2];
+            forEachKey(connection, leftTable, leftKey, key -> {
+                counts[0]++;
+                if (rightKeys.contains(key)) {
+                    counts[1]++;
+                }
+            });
+
+            final String coverage = String.format("View %s: %d of %d keys of table %s (%.1f%%) are found in table %s",
+                    viewName, counts[1], counts[0], leftTable, counts[0] == 0 ? 100.0 : 100.0 * counts[1] / counts[0], rightTable);
+            if (counts[1] == 0 && counts[0] > 0) {
+                LOG.warning(coverage + ", check the keys of the tables");
+            } else {
+                LOG.info(coverage);
+            }
+        }
+    }
 
+    private void forEachKey(Connection connection, String table, String column, Consumer<Object> consumer) throws SQLException {
+        try (Statement statement = connection.createStatement()) {
+            // Keys are streamed with a cursor, as the transaction of the migration is not in auto-commit mode
+            statement.setFetchSize(KEYS_FETCH_SIZE);
+            try (ResultSet rs = statement.executeQuery("SELECT \"" + column + "\" FROM \"" + table + "\" WHERE \"" +
+                    column + "\" IS NOT NULL")) {
+                while (rs.next()) {
+                    consumer.accept(rs.getObject(1));
+                }
+            }
+        }
     }
 
     private String[] getViews() {
@@ -150,16 +225,17 @@ public class R__CreateViews implements JavaMigration {
 
     @Override
     public Integer getChecksum() {
-        String[] views = getViews();
-        int checksum = 0;
-        for (String view: views) {
-            try {
-                checksum += computeChecksum(view);
-            } catch (RuntimeException e) {
-                LOG.log(Level.SEVERE, "Cannot compute checksum", e);
-            }
-        }
-        return checksum;
+        return Arrays.stream(getViews())
+                .parallel()
+                .mapToInt(view -> {
+                    try {
+                        return computeChecksum(view);
+                    } catch (RuntimeException e) {
+                        LOG.log(Level.SEVERE, "Cannot compute checksum", e);
+                        return 0;
+                    }
+                })
+                .sum();
     }
 
     private int computeChecksum(String view) {
@@ -199,10 +275,8 @@ public class R__CreateViews implements JavaMigration {
     }
 
     private void crcForResource(CRC32 crc32, InputStream resource) throws IOException {
-        byte[] data = new byte[1024];
-        int read;
-        while ((read = resource.read(data)) > 0) {
-            crc32.update(data, 0, read);
+        try (InputStream in = resource) {
+            ChecksumCache.update(crc32, in);
         }
     }
 
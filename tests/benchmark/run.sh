@@ -0,0 +1,86 @@
+#!/usr/bin/env bash
+
+# End-to-end load benchmark: generates a synthetic data package and loads it with the real migrations into a local
+# PostgreSQL database, then reports the load time, the peak heap usage and the size of the database.
+#
+# Size of the data package: ROWS, COLUMNS, TYPES, NULL_RATIO, KEYS, SEED, RESOURCES (see DataPackageGenerator)
+# Database: DB_URL, DB_USER, DB_PASSWORD. Set CLEAN_DB to clean the database before the load, use a dedicated database.
+# Set START_DB to start a PostgreSQL container listening on port 5432, which is always cleaned.
+# JVM options of the load, for example the maximum heap: JAVA_OPTS
+# All other environment variables configuring the loads (LOAD_MODE, LOAD_THREADS, PARSE_THREADS...) are passed
+# to the migrations.
+
+set -e
+
+get_script_dir () {
+     SOURCE="${BASH_SOURCE[0]}"
+
+     while [ -h "$SOURCE" ]; do
+          DIR="$( cd -P "$( dirname "$SOURCE" )" && pwd )"
+          SOURCE="$( readlink "$SOURCE" )"
+          [[ $SOURCE != /* ]] && SOURCE="$DIR/$SOURCE"
+     done
+     cd -P "$( dirname "$SOURCE" )"
+     pwd
+}
+
+cd "$(get_script_dir)/../.."
+
+ROWS=${ROWS:-1000000}
+COLUMNS=${COLUMNS:-100}
+TYPES=${TYPES:-integer:20,number:50,string:30}
+NULL_RATIO=${NULL_RATIO:-0.1}
+KEYS=${KEYS:-sequential}
+SEED=${SEED:-42}
+RESOURCES=${RESOURCES:-1}
+OUTPUT=${OUTPUT:-target/benchmark/${ROWS}x${COLUMNS}x${RESOURCES}}
+DB_URL=${DB_URL:-jdbc:postgresql://localhost:5432/data}
+DB_USER=${DB_USER:-data}
+DB_PASSWORD=${DB_PASSWORD:-data}
+JAVA_OPTS=${JAVA_OPTS:--Xmx2g}
+
+if [ ! -f target/benchmarks.jar ]; then
+  mvn -B -q -Pbenchmarks package -DskipTests
+fi
+
+if [ ! -f "$OUTPUT/datapackage.json" ]; then
+  java -cp target/benchmarks.jar eu.humanbrainproject.mip.migrations.DataPackageGenerator \
+    --output "$OUTPUT" --rows "$ROWS" --columns "$COLUMNS" --types "$TYPES" \
+    --null-ratio "$NULL_RATIO" --keys "$KEYS" --seed "$SEED" --resources "$RESOURCES"
+fi
+
+if [[ $START_DB ]]; then
+  if [[ $NO_SUDO || -n "$CIRCLECI" ]]; then
+    DOCKER="docker"
+  elif groups $USER | grep &>/dev/null '\bdocker\b'; then
+    DOCKER="docker"
+  else
+    DOCKER="sudo docker"
+  fi
+
+  function _cleanup() {
+    local error_code="$?"
+    echo "Stopping the database..."
+    $DOCKER rm -f data-db-benchmark > /dev/null 2> /dev/null | true
+    exit $error_code
+  }
+  trap _cleanup EXIT INT TERM
+
+  $DOCKER run -d --name data-db-benchmark -p 5432:5432 -e POSTGRES_USER="$DB_USER" \
+    -e POSTGRES_PASSWORD="$DB_PASSWORD" -e POSTGRES_DB=data postgres:11.3-alpine
+  until $DOCKER exec data-db-benchmark pg_isready -U "$DB_USER" -d data > /dev/null 2> /dev/null; do
+    sleep 1
+  done
+  sleep 2
+fi
+
+CLEAN_OPTS=""
+if [[ -n "$START_DB" || -n "$CLEAN_DB" ]]; then
+  CLEAN_OPTS="--clean"
+else
+  echo "The existing tables of $DB_URL are kept, set CLEAN_DB to measure a load from scratch"
+fi
+
+DATAPACKAGE="$(cd "$OUTPUT" && pwd)/datapackage.json" AUTO_GENERATE_TABLES=true \
+  java $JAVA_OPTS -cp target/benchmarks.jar eu.humanbrainproject.mip.migrations.LoadBenchmarkRunner \
+    --url "$DB_URL" --user "$DB_USER" --password "$DB_PASSWORD" --report "$OUTPUT/results.json" $CLEAN_OPTS
@@ -0,0 +1,47 @@
+SET datestyle to 'European';
+
+-- No primary key, so that rows loaded twice by a resumed load remain visible
+CREATE TABLE "sample_data"
+(
+  "id" int,
+  "stress_before_test1" numeric,
+  "score_test1" numeric,
+  "iq" numeric,
+  "cognitive_task2" numeric,
+  "practice_task2" numeric,
+  "response_time_task2" numeric,
+  "college_math" numeric,
+  "score_math_course1" numeric,
+  "score_math_course2" numeric,
+  "dataset" varchar(20)
+)
+WITH (
+  OIDS=FALSE
+);
+
+-- Samples failing the load until they are removed by the next migration
+CREATE TABLE "failing_samples"
+(
+  "id" int
+);
+
+INSERT INTO "failing_samples" VALUES (120);
+
+-- Every insertion of a sample, to count the samples loaded by each attempt
+CREATE TABLE "inserted_samples"
+(
+  "id" int
+);
+
+CREATE FUNCTION "check_sample"() RETURNS trigger AS $$
+BEGIN
+  IF EXISTS (SELECT 1 FROM "failing_samples" WHERE "id" = NEW."id") THEN
+    RAISE EXCEPTION 'Sample #% fails the load', NEW."id";
+  END IF;
+  INSERT INTO "inserted_samples" VALUES (NEW."id");
+  RETURN NEW;
+END;
+$$ LANGUAGE plpgsql;
+
+CREATE TRIGGER "check_sample" BEFORE INSERT ON "sample_data"
+  FOR EACH ROW EXECUTE PROCEDURE "check_sample"();
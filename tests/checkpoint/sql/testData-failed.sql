@@ -0,0 +1,20 @@
+BEGIN;
+
+-- Plan the tests
+SELECT plan( 4 );
+
+SELECT is(count(*)::INT, 100, 'Samples committed by the checkpoints should be present')
+  FROM "sample_data";
+
+SELECT is(max(id), 100, 'Samples after the last checkpoint should be rolled back')
+  FROM "sample_data";
+
+SELECT is(records, 100::BIGINT, 'Last checkpoint should be saved')
+  FROM "__load_checkpoints" where dataset='test1' and not completed;
+
+SELECT is(count(*)::INT, 0, 'Migration of test1 dataset should not be present')
+  FROM schema_version where description='Setup dataset test1' and success;
+
+-- Clean up
+SELECT * FROM finish();
+ROLLBACK;
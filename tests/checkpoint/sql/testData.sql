@@ -0,0 +1,26 @@
+BEGIN;
+
+-- Plan the tests
+SELECT plan( 6 );
+
+SELECT is(count(*)::INT, 1, 'Sample #150 should be present')
+  FROM "sample_data" where id=150;
+
+SELECT is(count(*)::INT, 150, 'Missing rows?')
+  FROM "sample_data";
+
+SELECT is(count(DISTINCT id)::INT, 150, 'Samples should be loaded once')
+  FROM "sample_data";
+
+SELECT is(count(*)::INT, 150, 'Resumed load should only insert the samples after the last checkpoint')
+  FROM "inserted_samples";
+
+SELECT is(count(*)::INT, 0, 'Checkpoint should be cleared once the load is completed')
+  FROM "__load_checkpoints" where dataset='test1';
+
+SELECT is(count(*)::INT, 1, 'Migration of test1 dataset should be present')
+  FROM schema_version where description='Setup dataset test1' and success;
+
+-- Clean up
+SELECT * FROM finish();
+ROLLBACK;
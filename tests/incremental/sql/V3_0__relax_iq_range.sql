@@ -0,0 +1,3 @@
+ALTER TABLE "sample_data"
+  DROP CONSTRAINT iq_range,
+  ADD CONSTRAINT iq_range CHECK ("iq" < 300);
@@ -0,0 +1,35 @@
+BEGIN;
+
+-- Plan the tests
+SELECT plan( 9 );
+
+SELECT is(stress_before_test1, 62.0, 'Sample #1 should be updated')
+  FROM "sample_data" where id=1;
+
+SELECT is(iq, 73.6181456345, 'Sample #2 rejected by the database should keep its previous values')
+  FROM "sample_data" where id=2;
+
+SELECT is(iq, 73.8623274925, 'Sample #4 rejected while reading should keep its previous values')
+  FROM "sample_data" where id=4;
+
+SELECT is(count(*)::INT, 0, 'Sample #150 should be removed')
+  FROM "sample_data" where id=150;
+
+SELECT is(count(*)::INT, 1, 'Sample #151 should be added')
+  FROM "sample_data" where id=151;
+
+SELECT is(count(*)::INT, 150, 'Missing rows?')
+  FROM "sample_data";
+
+SELECT is(count(*)::INT, 150, 'Hashes of the loaded rows should be recorded')
+  FROM "__load_row_hashes" where table_name='sample_data' and dataset='test1';
+
+SELECT is(count(*)::INT, 0, 'Hash of sample #150 should be removed')
+  FROM "__load_row_hashes" where table_name='sample_data' and dataset='test1' and row_key='150';
+
+SELECT is(count(*)::INT, 2, 'Migration and update of test1 dataset should be present')
+  FROM schema_version where description='Setup dataset test1';
+
+-- Clean up
+SELECT * FROM finish();
+ROLLBACK;
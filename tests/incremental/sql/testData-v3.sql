@@ -0,0 +1,26 @@
+BEGIN;
+
+-- Plan the tests
+SELECT plan( 6 );
+
+SELECT is(iq, 250.0, 'Sample #2 rejected by the previous load should be loaded again')
+  FROM "sample_data" where id=2;
+
+SELECT is(iq, 74.5, 'Sample #4 rejected while reading by the previous load should be updated')
+  FROM "sample_data" where id=4;
+
+SELECT is(stress_before_test1, 44.0, 'Sample #3 should be updated')
+  FROM "sample_data" where id=3;
+
+SELECT is(stress_before_test1, 62.0, 'Sample #1 should be unchanged')
+  FROM "sample_data" where id=1;
+
+SELECT is(count(*)::INT, 150, 'Missing rows?')
+  FROM "sample_data";
+
+SELECT is(count(*)::INT, 3, 'Migration and updates of test1 dataset should be present')
+  FROM schema_version where description='Setup dataset test1';
+
+-- Clean up
+SELECT * FROM finish();
+ROLLBACK;
@@ -0,0 +1,12 @@
+CREATE TABLE "scores"
+(
+  "id" int,
+  "score" numeric,
+  "label" varchar(20),
+
+  CONSTRAINT pk_scores PRIMARY KEY (id),
+  CONSTRAINT positive_score CHECK (score >= 0)
+)
+WITH (
+  OIDS=FALSE
+);
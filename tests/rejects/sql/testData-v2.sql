@@ -0,0 +1,17 @@
+BEGIN;
+
+-- Plan the tests
+SELECT plan( 3 );
+
+SELECT is(count(*)::INT, 16, 'Rows of the previous load should be kept by the aborted load')
+  FROM "scores";
+
+SELECT is(score, 13.0, 'Row of the previous load should be unchanged')
+  FROM "scores" where id=2;
+
+SELECT is(count(*)::INT, 1, 'Aborted migration of rejected dataset should not be recorded')
+  FROM schema_version where description='Setup dataset rejected' and success;
+
+-- Clean up
+SELECT * FROM finish();
+ROLLBACK;
@@ -0,0 +1,29 @@
+BEGIN;
+
+-- Plan the tests
+SELECT plan( 7 );
+
+SELECT is(count(*)::INT, 16, 'Rows not rejected should be loaded')
+  FROM "scores";
+
+SELECT is(count(*)::INT, 0, 'Row with a value that is not a number should be rejected while reading')
+  FROM "scores" where id=4;
+
+SELECT is(label, 'sample 7', 'First row with a duplicated id should be kept')
+  FROM "scores" where id=7;
+
+SELECT is(count(*)::INT, 0, 'Rows violating the check constraint should be rejected by the database')
+  FROM "scores" where id in (12, 17);
+
+SELECT is(count(*)::INT, 3, 'Rows inserted with the rejected rows should be loaded')
+  FROM "scores" where id in (11, 13, 18);
+
+SELECT is(count(*)::INT, 0, 'Row missing from the file should not be loaded')
+  FROM "scores" where id=8;
+
+SELECT is(count(*)::INT, 1, 'Migration of rejected dataset should be present')
+  FROM schema_version where description='Setup dataset rejected';
+
+-- Clean up
+SELECT * FROM finish();
+ROLLBACK;
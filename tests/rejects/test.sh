@@ -0,0 +1,88 @@
+#!/usr/bin/env bash
+
+set -e
+
+get_script_dir () {
+     SOURCE="${BASH_SOURCE[0]}"
+
+     while [ -h "$SOURCE" ]; do
+          DIR="$( cd -P "$( dirname "$SOURCE" )" && pwd )"
+          SOURCE="$( readlink "$SOURCE" )"
+          [[ $SOURCE != /* ]] && SOURCE="$DIR/$SOURCE"
+     done
+     cd -P "$( dirname "$SOURCE" )"
+     pwd
+}
+
+cd "$(get_script_dir)"
+
+if [[ $NO_SUDO || -n "$CIRCLECI" ]]; then
+  DOCKER_COMPOSE="docker-compose"
+  DOCKER="docker"
+elif groups $USER | grep &>/dev/null '\bdocker\b'; then
+  DOCKER_COMPOSE="docker-compose"
+  DOCKER="docker"
+else
+  DOCKER_COMPOSE="sudo docker-compose"
+  DOCKER="sudo docker"
+fi
+
+function _cleanup() {
+  local error_code="$?"
+  echo "Stopping the containers..."
+  $DOCKER_COMPOSE stop | true
+  $DOCKER_COMPOSE down | true
+  $DOCKER_COMPOSE rm -f > /dev/null 2> /dev/null | true
+  $DOCKER rm -f rejects-setup > /dev/null 2> /dev/null | true
+  rm -rf "$REJECTS"
+  exit $error_code
+}
+trap _cleanup EXIT INT TERM
+
+REJECTS="$(mktemp -d)"
+
+function _check() {
+  local expected="$1"
+  local actual="$2"
+  local message="$3"
+  if [ "$actual" != "$expected" ]; then
+    echo "$message: expected '$expected', got '$actual'"
+    exit 1
+  fi
+  echo "ok - $message"
+}
+
+$DOCKER_COMPOSE up -d data_db
+$DOCKER_COMPOSE build data_db_setup
+$DOCKER_COMPOSE build data_db_check
+$DOCKER_COMPOSE build data_db_setup_v2
+$DOCKER_COMPOSE build data_db_check_v2
+$DOCKER_COMPOSE run wait_dbs
+
+echo
+echo "Test loading a dataset with rows rejected while reading and by the database"
+$DOCKER_COMPOSE run --name rejects-setup data_db_setup
+$DOCKER cp rejects-setup:/tmp/rejected.rejects.csv "$REJECTS/"
+$DOCKER rm rejects-setup > /dev/null
+$DOCKER_COMPOSE run data_db_check
+
+# Records start with their line in the dataset file, the quoted messages of the database errors span several lines
+_check "5 9 13 18" "$(grep -E '^[0-9]+,' "$REJECTS/rejected.rejects.csv" | cut -d, -f1 | sort -n | xargs)" \
+  "Lines of the rejected rows"
+_check 1 "$(grep -c "'abc' could not be parsed as a Double" "$REJECTS/rejected.rejects.csv")" \
+  "Row rejected as its score is not a number"
+_check 1 "$(grep -c "duplicate value '7' encountered in column id" "$REJECTS/rejected.rejects.csv")" \
+  "Row rejected as its id is duplicated"
+_check 2 "$(grep -c 'violates check constraint ""positive_score""' "$REJECTS/rejected.rejects.csv")" \
+  "Rows rejected by the check constraint of the table"
+
+echo
+echo "Test aborting the load when more rows than MAX_REJECTS are rejected"
+if $DOCKER_COMPOSE run data_db_setup_v2; then
+  echo "The database migration should have failed"
+  exit 1
+fi
+$DOCKER_COMPOSE run data_db_check_v2
+
+# Cleanup
+_cleanup
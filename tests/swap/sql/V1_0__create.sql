@@ -0,0 +1,29 @@
+SET datestyle to 'European';
+
+CREATE TABLE "sample_data"
+(
+  "id" int,
+  "stress_before_test1" numeric,
+  "score_test1" numeric,
+  "iq" numeric,
+  "cognitive_task2" numeric,
+  "practice_task2" numeric,
+  "response_time_task2" numeric,
+  "college_math" numeric,
+  "score_math_course1" numeric,
+  "score_math_course2" numeric,
+  "dataset" varchar(20),
+
+  CONSTRAINT pk_sample_data PRIMARY KEY (id)
+)
+WITH (
+  OIDS=FALSE
+);
+
+CREATE VIEW "sample_stress" AS
+  SELECT "id", "stress_before_test1" FROM "sample_data";
+
+CREATE ROLE "reader";
+
+GRANT SELECT ON "sample_data" TO "reader";
+GRANT SELECT ON "sample_stress" TO "reader";
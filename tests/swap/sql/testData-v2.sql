@@ -0,0 +1,23 @@
+BEGIN;
+
+-- Plan the tests
+SELECT plan( 5 );
+
+SELECT is(count(*)::INT, 0, 'Sample #150 should be removed')
+  FROM "sample_data" where id=150;
+
+SELECT is(count(*)::INT, 149, 'Old records remaining?')
+  FROM "sample_data";
+
+SELECT is(count(*)::INT, 149, 'View should read the swapped table')
+  FROM "sample_stress";
+
+SELECT is(stress_before_test1, 62.0, 'View should read the updated sample #1')
+  FROM "sample_stress" where id=1;
+
+SELECT is(count(*)::INT, 2, 'Migration and upgrade of test1 dataset should be present')
+  FROM schema_version where description='Setup dataset test1';
+
+-- Clean up
+SELECT * FROM finish();
+ROLLBACK;
@@ -0,0 +1,29 @@
+BEGIN;
+
+-- Plan the tests
+SELECT plan( 16 );
+
+SELECT has_table( 'sample_data' );
+
+SELECT has_column( 'sample_data', 'id' );
+SELECT has_column( 'sample_data', 'stress_before_test1' );
+SELECT has_column( 'sample_data', 'cognitive_task2' );
+SELECT has_column( 'sample_data', 'practice_task2' );
+SELECT has_column( 'sample_data', 'response_time_task2' );
+SELECT has_column( 'sample_data', 'college_math' );
+SELECT has_column( 'sample_data', 'score_math_course1' );
+SELECT has_column( 'sample_data', 'score_math_course2' );
+SELECT has_column( 'sample_data', 'dataset' );
+SELECT col_is_pk(  'sample_data', 'id' );
+
+SELECT has_view( 'sample_stress' );
+
+SELECT table_privs_are( 'sample_data', 'reader', ARRAY['SELECT'] );
+SELECT table_privs_are( 'sample_stress', 'reader', ARRAY['SELECT'] );
+
+SELECT hasnt_table( '__swap_sample_data' );
+SELECT hasnt_table( '__old_sample_data' );
+
+-- Clean up
+SELECT * FROM finish();
+ROLLBACK;
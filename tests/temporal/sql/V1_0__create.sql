@@ -0,0 +1,13 @@
+CREATE TABLE "temporal_data"
+(
+  "id" int,
+  "birth_date" date,
+  "measured_at" timestamp,
+  "recorded_at" timestamptz,
+  "visit_time" time,
+
+  CONSTRAINT pk_temporal_data PRIMARY KEY (id)
+)
+WITH (
+  OIDS=FALSE
+);
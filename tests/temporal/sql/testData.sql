@@ -0,0 +1,68 @@
+BEGIN;
+
+-- Plan the tests
+SELECT plan( 17 );
+
+-- Loaded in batch mode, the default load mode
+
+SELECT is(count(*)::INT, 5, 'Missing rows?')
+  FROM public.temporal_data;
+
+SELECT is(birth_date, DATE '1980-05-17', 'Date should be parsed with the format %d/%m/%Y')
+  FROM public.temporal_data WHERE id=1;
+
+SELECT is(birth_date, DATE '2000-02-29', 'Leap day should be parsed')
+  FROM public.temporal_data WHERE id=3;
+
+SELECT is(measured_at, TIMESTAMP '2019-05-17 08:30:00', 'Datetime with a positive offset should be converted to UTC')
+  FROM public.temporal_data WHERE id=1;
+
+SELECT is(measured_at, TIMESTAMP '2019-05-17 08:15:00', 'Datetime in UTC should be kept')
+  FROM public.temporal_data WHERE id=2;
+
+SELECT is(measured_at, TIMESTAMP '2019-05-17 23:45:10', 'Datetime separated by a space without offset should be kept')
+  FROM public.temporal_data WHERE id=3;
+
+SELECT is(measured_at, TIMESTAMP '2020-01-01 03:00:00', 'Datetime with a negative offset should be converted to UTC')
+  FROM public.temporal_data WHERE id=5;
+
+SELECT is(recorded_at, TIMESTAMPTZ '2019-05-17 08:30:00+00', 'Timestamptz with a positive offset should keep its instant')
+  FROM public.temporal_data WHERE id=1;
+
+SELECT is(recorded_at, TIMESTAMPTZ '2020-01-01 03:00:00+00', 'Timestamptz with a negative offset should keep its instant')
+  FROM public.temporal_data WHERE id=5;
+
+SELECT is(visit_time, TIME '14:05:30', 'Time should be parsed')
+  FROM public.temporal_data WHERE id=1;
+
+SELECT is(visit_time, TIME '00:00:00', 'Midnight should be parsed')
+  FROM public.temporal_data WHERE id=5;
+
+SELECT is(count(*)::INT, 1, 'Empty values should be stored as null')
+  FROM public.temporal_data
+  WHERE id=4 AND birth_date IS NULL AND measured_at IS NULL AND recorded_at IS NULL AND visit_time IS NULL;
+
+-- Loaded with LOAD_MODE=copy and LOAD_MODE=binary, the values must be the same as in batch mode
+
+SELECT is(count(*)::INT, 5, 'Copy mode should store the same values as batch mode')
+  FROM public.temporal_data b JOIN copy_load.temporal_data c ON c.id = b.id
+  WHERE c.birth_date IS NOT DISTINCT FROM b.birth_date AND c.measured_at IS NOT DISTINCT FROM b.measured_at
+    AND c.recorded_at IS NOT DISTINCT FROM b.recorded_at AND c.visit_time IS NOT DISTINCT FROM b.visit_time;
+
+SELECT is(count(*)::INT, 5, 'Binary mode should store the same values as batch mode')
+  FROM public.temporal_data b JOIN binary_load.temporal_data c ON c.id = b.id
+  WHERE c.birth_date IS NOT DISTINCT FROM b.birth_date AND c.measured_at IS NOT DISTINCT FROM b.measured_at
+    AND c.recorded_at IS NOT DISTINCT FROM b.recorded_at AND c.visit_time IS NOT DISTINCT FROM b.visit_time;
+
+SELECT is(count(*)::INT, 1, 'Migration of temporal dataset in batch mode should be present')
+  FROM public.schema_version where description='Setup dataset temporal';
+
+SELECT is(count(*)::INT, 1, 'Migration of temporal dataset in copy mode should be present')
+  FROM copy_load.schema_version where description='Setup dataset temporal';
+
+SELECT is(count(*)::INT, 1, 'Migration of temporal dataset in binary mode should be present')
+  FROM binary_load.schema_version where description='Setup dataset temporal';
+
+-- Clean up
+SELECT * FROM finish();
+ROLLBACK;
@@ -0,0 +1,20 @@
+BEGIN;
+
+-- Plan the tests
+SELECT plan( 9 );
+
+SELECT has_table( 'public', 'temporal_data', 'Table loaded in batch mode should exist' );
+SELECT has_table( 'copy_load', 'temporal_data', 'Table loaded in copy mode should exist' );
+SELECT has_table( 'binary_load', 'temporal_data', 'Table loaded in binary mode should exist' );
+
+SELECT col_type_is( 'public', 'temporal_data', 'birth_date', 'date', 'birth_date should be a date' );
+SELECT col_type_is( 'public', 'temporal_data', 'measured_at', 'timestamp without time zone', 'measured_at should be a timestamp' );
+SELECT col_type_is( 'public', 'temporal_data', 'recorded_at', 'timestamp with time zone', 'recorded_at should be a timestamptz' );
+SELECT col_type_is( 'public', 'temporal_data', 'visit_time', 'time without time zone', 'visit_time should be a time' );
+
+SELECT col_is_pk( 'copy_load', 'temporal_data', 'id', 'id should be the primary key in copy mode' );
+SELECT col_is_pk( 'binary_load', 'temporal_data', 'id', 'id should be the primary key in binary mode' );
+
+-- Clean up
+SELECT * FROM finish();
+ROLLBACK;
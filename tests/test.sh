@@ -22,3 +22,8 @@ cd "$(get_script_dir)"
 ./several-datasets-dp/test.sh
 ./joined-tables/test.sh
 ./union-of-tables/test.sh
+./swap/test.sh
+./incremental/test.sh
+./checkpoint/test.sh
+./temporal/test.sh
+./rejects/test.sh